@@ -1,5 +1,7 @@
 package edu.jhu.thrax;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
@@ -9,6 +11,7 @@ import java.util.Set;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
@@ -16,10 +19,14 @@ import org.apache.hadoop.util.ToolRunner;
 import edu.jhu.thrax.hadoop.features.annotation.AnnotationFeature;
 import edu.jhu.thrax.hadoop.features.annotation.AnnotationFeatureFactory;
 import edu.jhu.thrax.hadoop.features.annotation.AnnotationFeatureJob;
-import edu.jhu.thrax.hadoop.features.mapred.MapReduceFeature;
-import edu.jhu.thrax.hadoop.features.mapred.MapReduceFeatureFactory;
+import edu.jhu.thrax.hadoop.features.annotation.LexicalWeightJob;
+import edu.jhu.thrax.hadoop.features.annotation.LexprobLookupJob;
+import edu.jhu.thrax.hadoop.features.mapred.ConditionalFeature;
+import edu.jhu.thrax.hadoop.features.mapred.ConditionalFeatureFactory;
+import edu.jhu.thrax.hadoop.features.mapred.ConditionalFeatureJob;
 import edu.jhu.thrax.hadoop.features.pivot.PivotedFeature;
 import edu.jhu.thrax.hadoop.features.pivot.PivotedFeatureFactory;
+import edu.jhu.thrax.hadoop.jobs.CorpusJob;
 import edu.jhu.thrax.hadoop.jobs.DistributionalContextExtractionJob;
 import edu.jhu.thrax.hadoop.jobs.DistributionalContextSortingJob;
 import edu.jhu.thrax.hadoop.jobs.ExtractionJob;
@@ -32,12 +39,15 @@ import edu.jhu.thrax.hadoop.jobs.Scheduler;
 import edu.jhu.thrax.hadoop.jobs.SchedulerException;
 import edu.jhu.thrax.hadoop.jobs.ThraxJob;
 import edu.jhu.thrax.hadoop.jobs.VocabularyJob;
+import edu.jhu.thrax.hadoop.jobs.WordLexprobJob;
+import edu.jhu.thrax.hadoop.local.LocalEngine;
 import edu.jhu.thrax.util.BackwardsCompatibility;
 import edu.jhu.thrax.util.ConfFileParser;
 
 public class Thrax extends Configured implements Tool {
   private Scheduler scheduler;
   private Configuration conf;
+  private LocalEngine engine = null;
   
   private final int RETURN_CODE_FAILED = 1;
   private final int RETURN_CODE_SUCCESS = 0;
@@ -69,17 +79,24 @@ public class Thrax extends Configured implements Tool {
       conf.setInt("mapred.task.timeout", Integer.parseInt(options.get("timeout")));
     }
 
+    // Run all jobs in this JVM rather than submitting them to the cluster.
+    if ("local".equals(conf.get("thrax.engine", "hadoop"))) engine = new LocalEngine(conf);
+
     scheduleJobs();
 
-    do {
-      for (Class<? extends ThraxJob> c : scheduler.getClassesByState(JobState.READY)) {
+    // Nothing may be left to run if all outputs are up to date.
+    while (scheduler.notFinished()) {
+      for (Class<? extends ThraxJob> c : scheduler.launchable()) {
         scheduler.setState(c, JobState.RUNNING);
         (new Thread(new ThraxJobWorker(this, c, conf))).start();
       }
       wait();
-    } while (scheduler.notFinished());
+    }
     System.err.print(scheduler);
-    if (scheduler.getClassesByState(JobState.SUCCESS).size() == scheduler.numJobs()) {
+    scheduler.report();
+    // Jobs still PLANNED were not needed, as the jobs depending on them were faked or resumed.
+    if (scheduler.getClassesByState(JobState.SUCCESS).size()
+        + scheduler.getClassesByState(JobState.PLANNED).size() == scheduler.numJobs()) {
       System.err.println("Work directory was " + workDir);
       System.err.println("To retrieve grammar:");
       System.err.println("hadoop fs -getmerge " + conf.get("thrax.outputPath", "")
@@ -93,7 +110,7 @@ public class Thrax extends Configured implements Tool {
   // Schedule all the jobs required for grammar extraction. We
   // currently distinguish three modes: translation grammar extraction,
   // paraphrase grammar extraction, and collection of distributional signatures.
-  private synchronized void scheduleJobs() throws SchedulerException {
+  private synchronized void scheduleJobs() throws SchedulerException, IOException {
     scheduler = new Scheduler(conf);
 
     String type = conf.get("thrax.type", "translation");
@@ -102,24 +119,48 @@ public class Thrax extends Configured implements Tool {
     System.err.println("Running in mode: " + type);
 
     scheduler.schedule(VocabularyJob.class);
+    // With hashed symbol ids, the corpus can be compiled while the vocabulary is written. The jobs
+    // that read the compiled corpus still wait for the vocabulary job, which fails if two symbols
+    // share an id, so that a collision stops the run before anything is extracted.
+    if (conf.getBoolean("thrax.hashed-vocabulary", false)) {
+      ExtractionJob.addPrerequisite(VocabularyJob.class);
+      WordLexprobJob.addPrerequisite(VocabularyJob.class);
+    } else {
+      CorpusJob.addPrerequisite(VocabularyJob.class);
+    }
 
     // Translation grammar mode.
     if ("translation".equals(type)) {
       // Schedule rule extraction job.
       scheduler.schedule(ExtractionJob.class);
-      // Create feature map-reduces.
-      for (MapReduceFeature f : MapReduceFeatureFactory.getAll(features)) {
-        scheduler.schedule(f.getClass());
-        OutputJob.addPrerequisite(f.getClass());
+      // Conditional features are all computed in one map-reduce.
+      for (ConditionalFeature f : ConditionalFeatureFactory.getAll(features, conf))
+        ConditionalFeatureJob.addFeature(f);
+      if (ConditionalFeatureJob.hasFeatures()) {
+        scheduler.schedule(ConditionalFeatureJob.class);
+        OutputJob.addPrerequisite(ConditionalFeatureJob.class);
+      }
+      // Set up annotation-level feature & prerequisites. Lexical weights may be computed by the
+      // partitioned plan instead.
+      List<AnnotationFeature> annotation_features = new ArrayList<AnnotationFeature>();
+      boolean lexical_weights = false;
+      for (AnnotationFeature f : AnnotationFeatureFactory.getAll(features)) {
+        if (LexicalWeightJob.scores(conf, f)) {
+          lexical_weights = true;
+        } else {
+          annotation_features.add(f);
+          AnnotationFeatureJob.addPrerequisites(f.getPrerequisites());
+        }
       }
-      // Set up annotation-level feature & prerequisites.
-      List<AnnotationFeature> annotation_features = AnnotationFeatureFactory.getAll(features);
-      for (AnnotationFeature f : annotation_features)
-        AnnotationFeatureJob.addPrerequisites(f.getPrerequisites());
       if (!annotation_features.isEmpty()) {
         scheduler.schedule(AnnotationFeatureJob.class);
         OutputJob.addPrerequisite(AnnotationFeatureJob.class);
       }
+      if (lexical_weights) {
+        scheduler.schedule(LexprobLookupJob.class);
+        scheduler.schedule(LexicalWeightJob.class);
+        OutputJob.addPrerequisite(LexicalWeightJob.class);
+      }
       scheduler.schedule(OutputJob.class);
 
       scheduler.percolate(OutputJob.class);
@@ -139,10 +180,9 @@ public class Thrax extends Configured implements Tool {
       // collection job.
       boolean annotation_features = false;
       for (String f_name : prereq_features) {
-        MapReduceFeature mf = MapReduceFeatureFactory.get(f_name);
-        if (mf != null) {
-          scheduler.schedule(mf.getClass());
-          FeatureCollectionJob.addPrerequisite(mf.getClass());
+        ConditionalFeature cf = ConditionalFeatureFactory.get(f_name, conf);
+        if (cf != null) {
+          ConditionalFeatureJob.addFeature(cf);
         } else {
           AnnotationFeature af = AnnotationFeatureFactory.get(f_name);
           if (af != null) {
@@ -151,6 +191,10 @@ public class Thrax extends Configured implements Tool {
           }
         }
       }
+      if (ConditionalFeatureJob.hasFeatures()) {
+        scheduler.schedule(ConditionalFeatureJob.class);
+        FeatureCollectionJob.addPrerequisite(ConditionalFeatureJob.class);
+      }
       if (annotation_features) {
         scheduler.schedule(AnnotationFeatureJob.class);
         FeatureCollectionJob.addPrerequisite(AnnotationFeatureJob.class);
@@ -198,8 +242,20 @@ public class Thrax extends Configured implements Tool {
       try {
         ThraxJob thraxJob = theClass.newInstance();
         Job job = thraxJob.getJob(conf);
-        job.waitForCompletion(false);
-        thrax.workerDone(theClass, job.isSuccessful());
+        if (theClass != VocabularyJob.class) VocabularyJob.addToCache(job, conf);
+        scheduler.starting(thraxJob, job);
+        boolean success;
+        Counters counters = null;
+        if (engine != null) {
+          counters = engine.run(job);
+          success = true;
+        } else {
+          job.waitForCompletion(false);
+          success = job.isSuccessful();
+          if (success) counters = job.getCounters();
+        }
+        if (success) scheduler.completed(thraxJob, job, counters);
+        thrax.workerDone(theClass, success);
       } catch (Exception e) {
         e.printStackTrace();
         thrax.workerDone(theClass, false);
@@ -19,5 +19,36 @@ public interface Alignment {
 
   public Iterator<Integer> sourceIndicesAlignedTo(int i);
 
+  /**
+   * The number of alignment points. Points are numbered in order of their source index, then
+   * their target index.
+   */
+  public int numPoints();
+
+  public int sourceIndexOfPoint(int k);
+
+  public int targetIndexOfPoint(int k);
+
+  /**
+   * The points of source word i are those from sourcePointsStart(i) up to sourcePointsEnd(i). A
+   * word that is not aligned, or not in the sentence, has an empty range.
+   */
+  public int sourcePointsStart(int i);
+
+  public int sourcePointsEnd(int i);
+
+  /**
+   * Numbering the points in order of their target index instead, then their source index, the
+   * points of target word j are those from targetPointsStart(j) up to targetPointsEnd(j).
+   */
+  public int targetPointsStart(int j);
+
+  public int targetPointsEnd(int j);
+
+  /**
+   * The source index of a point numbered in target order.
+   */
+  public int sourceIndexOfTargetPoint(int k);
+
   public boolean consistentWith(int sourceLength, int targetLength);
 }
@@ -15,31 +15,68 @@ public class ArrayAlignment implements Alignment {
   private final int[] targetIndicesInOrder;
   private final int[] sourceIndicesTargetOrder;
 
-  private ArrayAlignment(List<IntPair> pairs, boolean reverse) {
-    int[] sortedCars = cars(pairs);
-    int[] cdrs = cdrs(pairs);
-    List<IntPair> reversedPairs = reverseAll(pairs);
-    Collections.sort(reversedPairs);
-    int[] sortedCdrs = cars(reversedPairs);
-    int[] cars = cdrs(reversedPairs);
+  // Sorts the points by source and then target index, and again by target and then source index,
+  // without boxing them.
+  private ArrayAlignment(int[] cars, int[] cdrs, boolean reverse) {
+    int[] identity = new int[cars.length];
+    for (int k = 0; k < identity.length; k++)
+      identity[k] = k;
+    int[] carOrder = sort(cars, sort(cdrs, identity));
+    int[] cdrOrder = sort(cdrs, carOrder);
     if (!reverse) {
-      sourceIndicesInOrder = sortedCars;
-      targetIndicesSourceOrder = cdrs;
-      targetIndicesInOrder = sortedCdrs;
-      sourceIndicesTargetOrder = cars;
+      sourceIndicesInOrder = permute(cars, carOrder);
+      targetIndicesSourceOrder = permute(cdrs, carOrder);
+      targetIndicesInOrder = permute(cdrs, cdrOrder);
+      sourceIndicesTargetOrder = permute(cars, cdrOrder);
     } else {
-      sourceIndicesInOrder = sortedCdrs;
-      targetIndicesSourceOrder = cars;
-      targetIndicesInOrder = sortedCars;
-      sourceIndicesTargetOrder = cdrs;
+      sourceIndicesInOrder = permute(cdrs, cdrOrder);
+      targetIndicesSourceOrder = permute(cars, cdrOrder);
+      targetIndicesInOrder = permute(cars, carOrder);
+      sourceIndicesTargetOrder = permute(cdrs, carOrder);
     }
   }
 
   public static ArrayAlignment fromString(String s, boolean reverse) {
     String[] tokens = FormatUtils.P_SPACE.split(s);
     List<IntPair> pairs = getIntPairsFromTokens(tokens);
-    Collections.sort(pairs);
-    return new ArrayAlignment(pairs, reverse);
+    int[] points = new int[2 * pairs.size()];
+    for (int i = 0; i < pairs.size(); i++) {
+      points[2 * i] = pairs.get(i).fst;
+      points[2 * i + 1] = pairs.get(i).snd;
+    }
+    return fromPoints(points, reverse);
+  }
+
+  /**
+   * An alignment from points given as source and target index in turn, in any order.
+   */
+  public static ArrayAlignment fromPoints(int[] points, boolean reverse) {
+    return fromPoints(points, points.length / 2, reverse);
+  }
+
+  /**
+   * An alignment from the first n points of an array.
+   */
+  public static ArrayAlignment fromPoints(int[] points, int n, boolean reverse) {
+    int[] cars = new int[n];
+    int[] cdrs = new int[n];
+    for (int i = 0; i < n; i++) {
+      cars[i] = points[2 * i];
+      cdrs[i] = points[2 * i + 1];
+    }
+    return new ArrayAlignment(cars, cdrs, reverse);
+  }
+
+  /**
+   * The alignment points in source order, as source and target index in turn.
+   */
+  public int[] points() {
+    int[] result = new int[sourceIndicesInOrder.length * 2];
+    for (int i = 0; i < sourceIndicesInOrder.length; ++i) {
+      result[i * 2] = sourceIndicesInOrder[i];
+      result[i * 2 + 1] = targetIndicesSourceOrder[i];
+    }
+    return result;
   }
 
   public boolean consistentWith(int sourceLength, int targetLength) {
@@ -78,6 +115,38 @@ public class ArrayAlignment implements Alignment {
     return new AlignmentIterator(targetIndicesInOrder, sourceIndicesTargetOrder, i, start);
   }
   
+  public int numPoints() {
+    return sourceIndicesInOrder.length;
+  }
+
+  public int sourceIndexOfPoint(int k) {
+    return sourceIndicesInOrder[k];
+  }
+
+  public int targetIndexOfPoint(int k) {
+    return targetIndicesSourceOrder[k];
+  }
+
+  public int sourcePointsStart(int i) {
+    return lowerBound(sourceIndicesInOrder, i);
+  }
+
+  public int sourcePointsEnd(int i) {
+    return lowerBound(sourceIndicesInOrder, i + 1);
+  }
+
+  public int targetPointsStart(int j) {
+    return lowerBound(targetIndicesInOrder, j);
+  }
+
+  public int targetPointsEnd(int j) {
+    return lowerBound(targetIndicesInOrder, j + 1);
+  }
+
+  public int sourceIndexOfTargetPoint(int k) {
+    return sourceIndicesTargetOrder[k];
+  }
+
   public byte[] toCompactSourceArray() {
     byte[] result = new byte[sourceIndicesInOrder.length * 2];
     for (int i = 0; i < sourceIndicesInOrder.length; ++i) {
@@ -96,24 +165,42 @@ public class ArrayAlignment implements Alignment {
     return result;
   }
 
-  private static int[] cars(List<IntPair> list) {
-    int[] result = new int[list.size()];
-    for (int i = 0; i < result.length; i++)
-      result[i] = list.get(i).fst;
-    return result;
-  }
-
-  private static int[] cdrs(List<IntPair> list) {
-    int[] result = new int[list.size()];
-    for (int i = 0; i < result.length; i++)
-      result[i] = list.get(i).snd;
+  /**
+   * Stably sorts a permutation of the points by their keys. Indices are bounded by the sentence
+   * length, so this is a counting sort unless the keys are too sparse for one.
+   */
+  private static int[] sort(int[] keys, int[] order) {
+    int n = order.length;
+    if (n == 0) return order;
+    int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+    for (int k : order) {
+      min = Math.min(min, keys[k]);
+      max = Math.max(max, keys[k]);
+    }
+    int[] result = new int[n];
+    if ((long) max - min >= 4L * n + 256) {
+      long[] packed = new long[n];
+      for (int i = 0; i < n; i++)
+        packed[i] = ((long) keys[order[i]] << 32) | i;
+      Arrays.sort(packed);
+      for (int i = 0; i < n; i++)
+        result[i] = order[(int) packed[i]];
+      return result;
+    }
+    int[] starts = new int[max - min + 2];
+    for (int k : order)
+      starts[keys[k] - min + 1]++;
+    for (int i = 1; i < starts.length; i++)
+      starts[i] += starts[i - 1];
+    for (int k : order)
+      result[starts[keys[k] - min]++] = k;
     return result;
   }
 
-  private static List<IntPair> reverseAll(List<IntPair> list) {
-    List<IntPair> result = new ArrayList<IntPair>(list.size());
-    for (int i = 0; i < list.size(); i++)
-      result.add(i, list.get(i).reverse());
+  private static int[] permute(int[] values, int[] order) {
+    int[] result = new int[order.length];
+    for (int i = 0; i < order.length; i++)
+      result[i] = values[order[i]];
     return result;
   }
 
@@ -126,6 +213,19 @@ public class ArrayAlignment implements Alignment {
     return result;
   }
 
+  // The first position in a sorted array holding a value no less than the key.
+  private static int lowerBound(int[] array, int key) {
+    int lo = 0, hi = array.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (array[mid] < key)
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+    return lo;
+  }
+
   private static int firstIndexOf(int[] array, int key) {
     int index = Arrays.binarySearch(array, key);
     if (index < 0) return index;
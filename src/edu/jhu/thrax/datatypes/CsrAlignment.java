@@ -0,0 +1,263 @@
+package edu.jhu.thrax.datatypes;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import edu.jhu.thrax.util.FormatUtils;
+
+/**
+ * An alignment stored as compressed sparse rows in both directions. The points are kept sorted by
+ * source and then target index, with the offset of each source word's first point, and again by
+ * target and then source index, with the offset of each target word's first point. Bit sets record
+ * which words are aligned at all. Every query is then an array lookup rather than a search, and
+ * the points of a word are walked as a range of ints.
+ *
+ * Rows exist for the words of the sentences the alignment was built for; points beyond them are
+ * not stored, but make the alignment inconsistent with those sentences.
+ */
+public class CsrAlignment implements Alignment {
+  private final int sourceLength;
+  private final int targetLength;
+
+  // Indexed by source word: where its points start in source order.
+  private final int[] sourceOffsets;
+  private final int[] sourceIndicesSourceOrder;
+  private final int[] targetIndicesSourceOrder;
+
+  // Indexed by target word: where its points start in target order.
+  private final int[] targetOffsets;
+  private final int[] sourceIndicesTargetOrder;
+
+  private final long[] sourceAligned;
+  private final long[] targetAligned;
+
+  private final int maxSource;
+  private final int maxTarget;
+
+  private CsrAlignment(int[] cars, int[] cdrs, int n, int carLength, int cdrLength,
+      boolean reverse) {
+    if (reverse) {
+      int[] t = cars;
+      cars = cdrs;
+      cdrs = t;
+      int l = carLength;
+      carLength = cdrLength;
+      cdrLength = l;
+    }
+    sourceLength = carLength;
+    targetLength = cdrLength;
+
+    // Points outside the sentences are left out, but remembered for consistentWith.
+    int kept = 0;
+    int max_source = -1, max_target = -1;
+    for (int k = 0; k < n; k++) {
+      if (cars[k] < 0 || cdrs[k] < 0) {
+        max_source = Integer.MAX_VALUE;
+        continue;
+      }
+      max_source = Math.max(max_source, cars[k]);
+      max_target = Math.max(max_target, cdrs[k]);
+      if (cars[k] < sourceLength && cdrs[k] < targetLength) {
+        cars[kept] = cars[k];
+        cdrs[kept] = cdrs[k];
+        kept++;
+      }
+    }
+    maxSource = max_source;
+    maxTarget = max_target;
+
+    // Bucketing by target, then by source, then by target again leaves both orders sorted on
+    // their second key too.
+    sourceOffsets = new int[sourceLength + 1];
+    targetOffsets = new int[targetLength + 1];
+    for (int k = 0; k < kept; k++) {
+      sourceOffsets[cars[k] + 1]++;
+      targetOffsets[cdrs[k] + 1]++;
+    }
+    for (int i = 0; i < sourceLength; i++)
+      sourceOffsets[i + 1] += sourceOffsets[i];
+    for (int j = 0; j < targetLength; j++)
+      targetOffsets[j + 1] += targetOffsets[j];
+
+    int[] byTarget = bucket(cdrs, identity(kept), targetOffsets);
+    int[] bySource = bucket(cars, byTarget, sourceOffsets);
+    int[] targetOrder = bucket(cdrs, bySource, targetOffsets);
+
+    sourceIndicesSourceOrder = permute(cars, bySource);
+    targetIndicesSourceOrder = permute(cdrs, bySource);
+    sourceIndicesTargetOrder = permute(cars, targetOrder);
+
+    sourceAligned = new long[(sourceLength + 63) >>> 6];
+    targetAligned = new long[(targetLength + 63) >>> 6];
+    for (int k = 0; k < kept; k++) {
+      sourceAligned[cars[k] >>> 6] |= 1L << cars[k];
+      targetAligned[cdrs[k] >>> 6] |= 1L << cdrs[k];
+    }
+  }
+
+  /**
+   * An alignment from the first n points of an array, given as source and target index in turn
+   * and in any order, between sentences of the given lengths. The lengths are those of the sides
+   * as the points give them, before reversing.
+   */
+  public static CsrAlignment fromPoints(int[] points, int n, int sourceLength, int targetLength,
+      boolean reverse) {
+    int[] cars = new int[n];
+    int[] cdrs = new int[n];
+    for (int k = 0; k < n; k++) {
+      cars[k] = points[2 * k];
+      cdrs[k] = points[2 * k + 1];
+    }
+    return new CsrAlignment(cars, cdrs, n, sourceLength, targetLength, reverse);
+  }
+
+  public static CsrAlignment fromPoints(int[] points, int sourceLength, int targetLength,
+      boolean reverse) {
+    return fromPoints(points, points.length / 2, sourceLength, targetLength, reverse);
+  }
+
+  /**
+   * An alignment from a string of "i-j" points. Tokens that are not a pair are ignored, as
+   * ArrayAlignment.fromString does.
+   */
+  public static CsrAlignment fromString(String s, int sourceLength, int targetLength,
+      boolean reverse) {
+    String[] tokens = FormatUtils.P_SPACE.split(s);
+    int[] cars = new int[tokens.length];
+    int[] cdrs = new int[tokens.length];
+    int n = 0;
+    for (String t : tokens) {
+      IntPair ip = IntPair.fromHyphenatedString(t);
+      if (ip == null) continue;
+      cars[n] = ip.fst;
+      cdrs[n] = ip.snd;
+      n++;
+    }
+    return new CsrAlignment(cars, cdrs, n, sourceLength, targetLength, reverse);
+  }
+
+  /**
+   * The alignment points in source order, as source and target index in turn.
+   */
+  public int[] points() {
+    int[] result = new int[2 * sourceIndicesSourceOrder.length];
+    for (int k = 0; k < sourceIndicesSourceOrder.length; k++) {
+      result[2 * k] = sourceIndicesSourceOrder[k];
+      result[2 * k + 1] = targetIndicesSourceOrder[k];
+    }
+    return result;
+  }
+
+  public boolean consistentWith(int sourceLength, int targetLength) {
+    return maxSource < sourceLength && maxTarget < targetLength;
+  }
+
+  public boolean sourceIndexIsAligned(int i) {
+    return i >= 0 && i < sourceLength && (sourceAligned[i >>> 6] & (1L << i)) != 0;
+  }
+
+  public boolean targetIndexIsAligned(int j) {
+    return j >= 0 && j < targetLength && (targetAligned[j >>> 6] & (1L << j)) != 0;
+  }
+
+  public int numTargetWordsAlignedTo(int i) {
+    return sourcePointsEnd(i) - sourcePointsStart(i);
+  }
+
+  public int numSourceWordsAlignedTo(int j) {
+    return targetPointsEnd(j) - targetPointsStart(j);
+  }
+
+  public Iterator<Integer> targetIndicesAlignedTo(int i) {
+    return new RangeIterator(targetIndicesSourceOrder, sourcePointsStart(i), sourcePointsEnd(i));
+  }
+
+  public Iterator<Integer> sourceIndicesAlignedTo(int j) {
+    return new RangeIterator(sourceIndicesTargetOrder, targetPointsStart(j), targetPointsEnd(j));
+  }
+
+  public int numPoints() {
+    return sourceIndicesSourceOrder.length;
+  }
+
+  public int sourceIndexOfPoint(int k) {
+    return sourceIndicesSourceOrder[k];
+  }
+
+  public int targetIndexOfPoint(int k) {
+    return targetIndicesSourceOrder[k];
+  }
+
+  public int sourcePointsStart(int i) {
+    return sourceOffsets[clamp(i, sourceLength)];
+  }
+
+  public int sourcePointsEnd(int i) {
+    return (i < 0 || i >= sourceLength ? sourcePointsStart(i) : sourceOffsets[i + 1]);
+  }
+
+  public int targetPointsStart(int j) {
+    return targetOffsets[clamp(j, targetLength)];
+  }
+
+  public int targetPointsEnd(int j) {
+    return (j < 0 || j >= targetLength ? targetPointsStart(j) : targetOffsets[j + 1]);
+  }
+
+  public int sourceIndexOfTargetPoint(int k) {
+    return sourceIndicesTargetOrder[k];
+  }
+
+  private static int clamp(int i, int length) {
+    return (i < 0 ? 0 : (i > length ? length : i));
+  }
+
+  private static int[] identity(int n) {
+    int[] result = new int[n];
+    for (int k = 0; k < n; k++)
+      result[k] = k;
+    return result;
+  }
+
+  // Stably orders the points by a key, given the offsets at which each key's points start.
+  private static int[] bucket(int[] keys, int[] order, int[] offsets) {
+    int[] next = new int[offsets.length - 1];
+    System.arraycopy(offsets, 0, next, 0, next.length);
+    int[] result = new int[order.length];
+    for (int k : order)
+      result[next[keys[k]]++] = k;
+    return result;
+  }
+
+  private static int[] permute(int[] values, int[] order) {
+    int[] result = new int[order.length];
+    for (int k = 0; k < order.length; k++)
+      result[k] = values[order[k]];
+    return result;
+  }
+
+  private static class RangeIterator implements Iterator<Integer> {
+    private final int[] values;
+    private final int end;
+    private int current;
+
+    RangeIterator(int[] values, int start, int end) {
+      this.values = values;
+      this.current = start;
+      this.end = end;
+    }
+
+    public boolean hasNext() {
+      return current < end;
+    }
+
+    public Integer next() {
+      if (current >= end) throw new NoSuchElementException();
+      return values[current++];
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
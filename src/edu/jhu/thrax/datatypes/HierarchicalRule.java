@@ -1,8 +1,6 @@
 package edu.jhu.thrax.datatypes;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
 
 import edu.jhu.thrax.extraction.SpanLabeler;
 import edu.jhu.thrax.util.Vocabulary;
@@ -178,30 +176,29 @@ public class HierarchicalRule {
     int[] src_to_rule = sourceToRule();
     int[] tgt_to_rule = targetToRule();
 
-    ArrayList<Byte> points = new ArrayList<Byte>();
+    byte[] points =
+        new byte[2 * (a.sourcePointsEnd(lhs.sourceEnd - 1) - a.sourcePointsStart(lhs.sourceStart))];
+    int size = 0;
     int n = 0;
     for (int i = lhs.sourceStart; i < lhs.sourceEnd; ++i) {
       if (n < nts.length && i == nts[n].sourceStart) {
         i = nts[n++].sourceEnd - 1;
       } else {
-        Iterator<Integer> aligned = a.targetIndicesAlignedTo(i);
-        while (aligned.hasNext()) {
-          points.add((byte) src_to_rule[i - lhs.sourceStart]);
-          points.add((byte) tgt_to_rule[aligned.next() - lhs.targetStart]);
+        for (int k = a.sourcePointsStart(i); k < a.sourcePointsEnd(i); ++k) {
+          points[size++] = (byte) src_to_rule[i - lhs.sourceStart];
+          points[size++] = (byte) tgt_to_rule[a.targetIndexOfPoint(k) - lhs.targetStart];
         }
       }
     }
-    byte[] result = new byte[points.size()];
-    int i = 0;
-    for (byte b : points)
-      result[i++] = b;
-    return result;
+    return Arrays.copyOf(points, size);
   }
 
   public byte[] compactTargetAlignment(Alignment a) {
     int[] tgt_to_rule = targetToRule();
     int[] src_to_rule = sourceToRule();
-    ArrayList<Byte> points = new ArrayList<Byte>();
+    byte[] points =
+        new byte[2 * (a.targetPointsEnd(lhs.targetEnd - 1) - a.targetPointsStart(lhs.targetStart))];
+    int size = 0;
     boolean nt;
     for (int i = lhs.targetStart; i < lhs.targetEnd; ++i) {
       nt = false;
@@ -213,18 +210,13 @@ public class HierarchicalRule {
         }
       }
       if (!nt) {
-        Iterator<Integer> aligned = a.sourceIndicesAlignedTo(i);
-        while (aligned.hasNext()) {
-          points.add((byte) tgt_to_rule[i - lhs.targetStart]);
-          points.add((byte) src_to_rule[aligned.next() - lhs.sourceStart]);
+        for (int k = a.targetPointsStart(i); k < a.targetPointsEnd(i); ++k) {
+          points[size++] = (byte) tgt_to_rule[i - lhs.targetStart];
+          points[size++] = (byte) src_to_rule[a.sourceIndexOfTargetPoint(k) - lhs.sourceStart];
         }
       }
     }
-    byte[] result = new byte[points.size()];
-    int i = 0;
-    for (byte b : points)
-      result[i++] = b;
-    return result;
+    return Arrays.copyOf(points, size);
   }
 
   public boolean monotonic() {
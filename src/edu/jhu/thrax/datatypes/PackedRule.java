@@ -0,0 +1,182 @@
+package edu.jhu.thrax.datatypes;
+
+import edu.jhu.thrax.extraction.SpanLabeler;
+
+/**
+ * A hierarchical rule held as spans packed into an int array: four ints (source start, source
+ * end, target start, target end) for the left-hand side, followed by four for each nonterminal in
+ * source order. Unlike HierarchicalRule it is mutable, so that an extractor can hand every rule it
+ * finds to a visitor through the same object.
+ */
+public class PackedRule {
+  private int[] spans;
+  private int arity;
+
+  // Reused when mapping target positions to rule symbols.
+  private int[] targetSymbols = new int[0];
+
+  public PackedRule(int max_arity) {
+    spans = new int[4 * (max_arity + 1)];
+  }
+
+  public void setLhs(int ss, int se, int ts, int te) {
+    set(0, ss, se, ts, te);
+    arity = 0;
+  }
+
+  /**
+   * Sets the span of the n-th nonterminal; the rule's arity becomes n + 1.
+   */
+  public void setNonterminal(int n, int ss, int se, int ts, int te) {
+    set(n + 1, ss, se, ts, te);
+    arity = n + 1;
+  }
+
+  public void set(HierarchicalRule r) {
+    if (spans.length < 4 * (r.arity() + 1)) spans = new int[4 * (r.arity() + 1)];
+    PhrasePair lhs = r.getLhs();
+    setLhs(lhs.sourceStart, lhs.sourceEnd, lhs.targetStart, lhs.targetEnd);
+    for (int n = 0; n < r.arity(); n++) {
+      PhrasePair nt = r.getNonterminal(n);
+      setNonterminal(n, nt.sourceStart, nt.sourceEnd, nt.targetStart, nt.targetEnd);
+    }
+  }
+
+  private void set(int p, int ss, int se, int ts, int te) {
+    spans[4 * p] = ss;
+    spans[4 * p + 1] = se;
+    spans[4 * p + 2] = ts;
+    spans[4 * p + 3] = te;
+  }
+
+  public int arity() {
+    return arity;
+  }
+
+  // Span accessors take 0 for the left-hand side and n + 1 for the n-th nonterminal.
+
+  public int sourceStart(int p) {
+    return spans[4 * p];
+  }
+
+  public int sourceEnd(int p) {
+    return spans[4 * p + 1];
+  }
+
+  public int targetStart(int p) {
+    return spans[4 * p + 2];
+  }
+
+  public int targetEnd(int p) {
+    return spans[4 * p + 3];
+  }
+
+  public int numSourceTerminals() {
+    int result = sourceEnd(0) - sourceStart(0);
+    for (int p = 1; p <= arity; p++)
+      result -= sourceEnd(p) - sourceStart(p);
+    return result;
+  }
+
+  public int numTargetTerminals() {
+    int result = targetEnd(0) - targetStart(0);
+    for (int p = 1; p <= arity; p++)
+      result -= targetEnd(p) - targetStart(p);
+    return result;
+  }
+
+  private int label(int p, SpanLabeler labeler, boolean use_source) {
+    if (use_source)
+      return labeler.getLabel(sourceStart(p), sourceEnd(p));
+    else
+      return labeler.getLabel(targetStart(p), targetEnd(p));
+  }
+
+  public int lhsLabel(SpanLabeler labeler, boolean use_source) {
+    return label(0, labeler, use_source);
+  }
+
+  /**
+   * Writes the rule's source side into a buffer, which must hold sourceEnd(0) - sourceStart(0)
+   * symbols, and returns its length.
+   */
+  public int sourceSide(int[] source, SpanLabeler labeler, boolean use_source, int[] result) {
+    int p = 1, j = 0;
+    for (int i = sourceStart(0); i < sourceEnd(0); ++i) {
+      if (p <= arity && i == sourceStart(p)) {
+        result[j] = label(p, labeler, use_source);
+        i = sourceEnd(p) - 1;
+        ++p;
+      } else {
+        result[j] = source[i];
+      }
+      ++j;
+    }
+    return j;
+  }
+
+  /**
+   * Writes the rule's target side into a buffer, which must hold targetEnd(0) - targetStart(0)
+   * symbols, and returns its length.
+   */
+  public int targetSide(int[] target, SpanLabeler labeler, boolean use_source, int[] result) {
+    int j = 0;
+    for (int i = targetStart(0); i < targetEnd(0); ++i) {
+      int p = nonterminalAtTarget(i);
+      if (p > 0) {
+        result[j] = label(p, labeler, use_source);
+        i = targetEnd(p) - 1;
+      } else {
+        result[j] = target[i];
+      }
+      ++j;
+    }
+    return j;
+  }
+
+  private int nonterminalAtTarget(int i) {
+    for (int p = 1; p <= arity; ++p)
+      if (i == targetStart(p)) return p;
+    return 0;
+  }
+
+  /**
+   * Writes the rule's alignment points within its terminals into a buffer, as pairs of source and
+   * target symbol positions in source order, and returns the number of bytes written. The buffer
+   * must hold two bytes for each alignment point of the sentence pair.
+   */
+  public int compactSourceAlignment(Alignment a, byte[] result) {
+    int ss = sourceStart(0), se = sourceEnd(0), ts = targetStart(0);
+    int target_length = targetEnd(0) - ts;
+    if (targetSymbols.length < target_length) targetSymbols = new int[target_length];
+    int current = 0;
+    for (int i = ts; i < ts + target_length; i++) {
+      int p = nonterminalAtTarget(i);
+      if (p > 0) i = targetEnd(p) - 1;
+      else targetSymbols[i - ts] = current;
+      current++;
+    }
+
+    int n = 0, p = 1;
+    current = 0;
+    for (int i = ss; i < se; i++) {
+      if (p <= arity && i == sourceStart(p)) {
+        i = sourceEnd(p) - 1;
+        ++p;
+      } else {
+        int end = a.sourcePointsEnd(i);
+        for (int k = a.sourcePointsStart(i); k < end; k++) {
+          result[n++] = (byte) current;
+          result[n++] = (byte) targetSymbols[a.targetIndexOfPoint(k) - ts];
+        }
+      }
+      current++;
+    }
+    return n;
+  }
+
+  public boolean monotonic() {
+    if (arity < 2) return true;
+    return targetEnd(1) <= targetStart(2);
+  }
+}
@@ -1,7 +1,5 @@
 package edu.jhu.thrax.datatypes;
 
-import java.util.Iterator;
-
 import edu.jhu.thrax.extraction.SpanLabeler;
 
 /**
@@ -82,24 +80,20 @@ public class PhrasePair
 	public boolean isInitialPhrasePair(Alignment a, boolean allowUnaligned, int minimumAligned)
 	{
 		int numLinks = 0;
-		for (int i = sourceStart; i < sourceEnd; i++) {
-			Iterator<Integer> js = a.targetIndicesAlignedTo(i);
-			while (js.hasNext()) {
-				numLinks++;
-				int j = js.next();
-				if (j < targetStart || j >= targetEnd)
-					return false;
-			}
+		int end = a.sourcePointsEnd(sourceEnd - 1);
+		for (int k = a.sourcePointsStart(sourceStart); k < end; k++) {
+			int j = a.targetIndexOfPoint(k);
+			if (j < targetStart || j >= targetEnd)
+				return false;
 		}
-		for (int j = targetStart; j < targetEnd; j++) {
-			Iterator<Integer> is = a.sourceIndicesAlignedTo(j);
-			while (is.hasNext()) {
-				numLinks++;
-				int i = is.next();
-				if (i < sourceStart || i >= sourceEnd)
-					return false;
-			}
+		numLinks += end - a.sourcePointsStart(sourceStart);
+		end = a.targetPointsEnd(targetEnd - 1);
+		for (int k = a.targetPointsStart(targetStart); k < end; k++) {
+			int i = a.sourceIndexOfTargetPoint(k);
+			if (i < sourceStart || i >= sourceEnd)
+				return false;
 		}
+		numLinks += end - a.targetPointsStart(targetStart);
 		return numLinks >= minimumAligned && (allowUnaligned || isMinimal(a));
 	}
 
@@ -124,25 +118,9 @@ public class PhrasePair
 	public int numAlignmentPoints(Alignment a)
 	{
 		if (sourceLength() < targetLength())
-			return countAlignmentPointsSource(a);
+			return a.sourcePointsEnd(sourceEnd - 1) - a.sourcePointsStart(sourceStart);
 		else
-			return countAlignmentPointsTarget(a);
-	}
-
-	private int countAlignmentPointsSource(Alignment a)
-	{
-		int result = 0;
-		for (int i = sourceStart; i < sourceEnd; i++)
-			result += a.numTargetWordsAlignedTo(i);
-		return result;
-	}
-
-	private int countAlignmentPointsTarget(Alignment a)
-	{
-		int result = 0;
-		for (int j = targetStart; j < targetEnd; j++)
-			result += a.numSourceWordsAlignedTo(j);
-		return result;
+			return a.targetPointsEnd(targetEnd - 1) - a.targetPointsStart(targetStart);
 	}
 
     public String toString()
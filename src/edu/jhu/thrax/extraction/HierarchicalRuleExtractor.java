@@ -2,16 +2,28 @@ package edu.jhu.thrax.extraction;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
 
 import edu.jhu.thrax.datatypes.Alignment;
-import edu.jhu.thrax.datatypes.ArrayAlignment;
+import edu.jhu.thrax.datatypes.CsrAlignment;
 import edu.jhu.thrax.datatypes.HierarchicalRule;
+import edu.jhu.thrax.datatypes.PackedRule;
 import edu.jhu.thrax.datatypes.PhrasePair;
 import edu.jhu.thrax.util.FormatUtils;
 import edu.jhu.thrax.util.Vocabulary;
 
+/**
+ * Extracts hierarchical rules from an aligned sentence pair. Rules are built from initial phrase
+ * pairs by replacing sub-phrase pairs with nonterminals, and kept if they satisfy the size,
+ * lexicality and shape limits.
+ *
+ * There are two implementations yielding the same rules in the same order. The one returning a
+ * list of HierarchicalRules is simple but allocates objects for every candidate span and rule. The
+ * one taking a RuleVisitor works on int arrays reused across sentences and hands each rule to the
+ * visitor through a single PackedRule; an extractor using it must not be shared between threads.
+ */
 public class HierarchicalRuleExtractor {
   private int arityLimit = 2;
   private int initialPhraseSourceLimit = 10;
@@ -29,6 +41,25 @@ public class HierarchicalRuleExtractor {
   private boolean allowFullSentenceRules = true;
   private PhrasePair fullSentencePhrasePair;
 
+  // Per word: number of alignment points, and the lowest and highest index aligned to it.
+  private int[] sourceLinks = new int[0];
+  private int[] sourceMin = new int[0];
+  private int[] sourceMax = new int[0];
+  private int[] targetLinks = new int[0];
+  private int[] targetMin = new int[0];
+  private int[] targetMax = new int[0];
+
+  // Initial phrase pairs, ordered by source start, and their numbers of alignment points.
+  private int numPhrases;
+  private int[] phrases = new int[0];
+  private int[] phraseLinks = new int[0];
+  // Index of the first initial phrase pair starting at or after each source index.
+  private int[] firstPhrase = new int[0];
+
+  // The rule being built: its initial phrase pair and those of its nonterminals.
+  private int[] tuple;
+  private PackedRule packed;
+
   public HierarchicalRuleExtractor() {
     // just use the defaults!
   }
@@ -53,6 +84,250 @@ public class HierarchicalRuleExtractor {
     allowFullSentenceRules = allowFullSentence;
   }
 
+  /**
+   * Extracts the same rules as extract(int, int, Alignment), handing each to the visitor.
+   */
+  public void extract(int sourceLength, int targetLength, Alignment alignment,
+      RuleVisitor visitor) {
+    if (packed == null) {
+      packed = new PackedRule(arityLimit);
+      tuple = new int[arityLimit + 1];
+    }
+    project(sourceLength, targetLength, alignment);
+    findInitialPhrasePairs(sourceLength, targetLength);
+    for (int arity = 0; arity <= arityLimit; arity++) {
+      for (int lhs = 0; lhs < numPhrases; lhs++) {
+        tuple[0] = lhs;
+        expand(1, arity, visitor);
+      }
+    }
+  }
+
+  /**
+   * Records, for every word, how many alignment points it has and the span of words it is
+   * aligned to.
+   */
+  private void project(int sourceLength, int targetLength, Alignment a) {
+    if (sourceLinks.length < sourceLength) {
+      sourceLinks = new int[sourceLength];
+      sourceMin = new int[sourceLength];
+      sourceMax = new int[sourceLength];
+      firstPhrase = new int[sourceLength + 1];
+    }
+    if (targetLinks.length < targetLength) {
+      targetLinks = new int[targetLength];
+      targetMin = new int[targetLength];
+      targetMax = new int[targetLength];
+    }
+    for (int i = 0; i < sourceLength; i++) {
+      sourceLinks[i] = 0;
+      sourceMin[i] = Integer.MAX_VALUE;
+      sourceMax[i] = -1;
+    }
+    for (int j = 0; j < targetLength; j++) {
+      targetLinks[j] = 0;
+      targetMin[j] = Integer.MAX_VALUE;
+      targetMax[j] = -1;
+    }
+    for (int k = 0; k < a.numPoints(); k++) {
+      int i = a.sourceIndexOfPoint(k);
+      int j = a.targetIndexOfPoint(k);
+      sourceLinks[i]++;
+      sourceMin[i] = Math.min(sourceMin[i], j);
+      sourceMax[i] = Math.max(sourceMax[i], j);
+      targetLinks[j]++;
+      targetMin[j] = Math.min(targetMin[j], i);
+      targetMax[j] = Math.max(targetMax[j], i);
+    }
+  }
+
+  /**
+   * Finds the same initial phrase pairs, in the same order, as initialPhrasePairs. Rather than
+   * testing every box, each source span is grown one word at a time while keeping the range of
+   * target words it is aligned to, and the range of source words those target words are aligned
+   * to. A span is consistent exactly when the latter stays within it, and then the only target
+   * spans to consider are the aligned range and, for loose phrases, its extensions over unaligned
+   * target words.
+   */
+  private void findInitialPhrasePairs(int sourceLength, int targetLength) {
+    numPhrases = 0;
+    for (int i = 0; i < sourceLength; i++) {
+      firstPhrase[i] = numPhrases;
+      int links = 0;
+      int tmin = Integer.MAX_VALUE, tmax = -1;
+      // The target words covered so far, and the source words they are aligned to.
+      int cmin = 0, cmax = -1;
+      int smin = Integer.MAX_VALUE, smax = -1;
+      for (int se = i + 1; se <= sourceLength && se - i <= initialPhraseSourceLimit; se++) {
+        links += sourceLinks[se - 1];
+        if (links == 0) {
+          // Only boxes of unaligned words, which are initial phrase pairs only if no alignment
+          // points are required.
+          if (minimumInitialAlignmentPoints <= 0 && !requireMinimalPhrases)
+            addUnalignedPhrasePairs(i, se, targetLength);
+          continue;
+        }
+        if (sourceLinks[se - 1] > 0) {
+          tmin = Math.min(tmin, sourceMin[se - 1]);
+          tmax = Math.max(tmax, sourceMax[se - 1]);
+        }
+        // Wider source spans only cover more target words, so once either limit is broken
+        // nothing more starts at i.
+        if (tmax - tmin >= initialPhraseTargetLimit) break;
+        if (cmax < cmin) {
+          cmin = tmin;
+          cmax = tmin - 1;
+        }
+        for (; cmin > tmin; cmin--) {
+          smin = Math.min(smin, targetMin[cmin - 1]);
+          smax = Math.max(smax, targetMax[cmin - 1]);
+        }
+        for (; cmax < tmax; cmax++) {
+          smin = Math.min(smin, targetMin[cmax + 1]);
+          smax = Math.max(smax, targetMax[cmax + 1]);
+        }
+        if (smin < i) break;
+        if (smax >= se) continue;
+        // Each alignment point is counted from both sides.
+        if (2 * links < minimumInitialAlignmentPoints) continue;
+        if (requireMinimalPhrases) {
+          if (sourceLinks[i] == 0 || sourceLinks[se - 1] == 0) continue;
+          addPhrase(i, se, tmin, tmax + 1);
+          continue;
+        }
+        int lowest = tmin;
+        while (lowest > 0 && targetLinks[lowest - 1] == 0
+            && tmax + 1 - (lowest - 1) <= initialPhraseTargetLimit)
+          lowest--;
+        for (int ts = lowest; ts <= tmin; ts++) {
+          for (int te = tmax + 1; te <= targetLength && te - ts <= initialPhraseTargetLimit; te++) {
+            if (te > tmax + 1 && targetLinks[te - 1] > 0) break;
+            addPhrase(i, se, ts, te);
+          }
+        }
+      }
+      if (i == 0 && allowFullSentenceRules && !haveFullSentence(sourceLength, targetLength))
+        addPhrase(0, sourceLength, 0, targetLength);
+    }
+    firstPhrase[sourceLength] = numPhrases;
+  }
+
+  private boolean haveFullSentence(int sourceLength, int targetLength) {
+    for (int n = 0; n < 4 * numPhrases; n += 4)
+      if (phrases[n + 1] == sourceLength && phrases[n + 2] == 0 && phrases[n + 3] == targetLength)
+        return true;
+    return false;
+  }
+
+  private void addUnalignedPhrasePairs(int ss, int se, int targetLength) {
+    for (int ts = 0; ts < targetLength; ts++)
+      for (int te = ts + 1; te <= targetLength && te - ts <= initialPhraseTargetLimit; te++)
+        if (isInitialPhrasePair(ss, se, ts, te)) addPhrase(ss, se, ts, te);
+  }
+
+  /**
+   * The same test as PhrasePair.isInitialPhrasePair, on the projected alignment.
+   */
+  private boolean isInitialPhrasePair(int ss, int se, int ts, int te) {
+    int links = 0;
+    for (int i = ss; i < se; i++) {
+      if (sourceLinks[i] == 0) continue;
+      if (sourceMin[i] < ts || sourceMax[i] >= te) return false;
+      links += sourceLinks[i];
+    }
+    for (int j = ts; j < te; j++) {
+      if (targetLinks[j] == 0) continue;
+      if (targetMin[j] < ss || targetMax[j] >= se) return false;
+      links += targetLinks[j];
+    }
+    if (links < minimumInitialAlignmentPoints) return false;
+    return !requireMinimalPhrases
+        || (sourceLinks[ss] > 0 && sourceLinks[se - 1] > 0 && targetLinks[ts] > 0 && targetLinks[te - 1] > 0);
+  }
+
+  private void addPhrase(int ss, int se, int ts, int te) {
+    if (phrases.length < 4 * (numPhrases + 1)) {
+      phrases = Arrays.copyOf(phrases, Math.max(64, 8 * (numPhrases + 1)));
+      phraseLinks = Arrays.copyOf(phraseLinks, phrases.length / 4);
+    }
+    int n = 4 * numPhrases;
+    phrases[n] = ss;
+    phrases[n + 1] = se;
+    phrases[n + 2] = ts;
+    phrases[n + 3] = te;
+    // As in PhrasePair.numAlignmentPoints, count on the shorter side.
+    int links = 0;
+    if (se - ss < te - ts) {
+      for (int i = ss; i < se; i++)
+        links += sourceLinks[i];
+    } else {
+      for (int j = ts; j < te; j++)
+        links += targetLinks[j];
+    }
+    phraseLinks[numPhrases] = links;
+    numPhrases++;
+  }
+
+  /**
+   * Adds nonterminals to the rule in tuple[0, depth) until it has the given arity, in the same
+   * order as addNonterminalsTo, and visits the valid rules of that arity.
+   */
+  private void expand(int depth, int arity, RuleVisitor visitor) {
+    if (depth > arity) {
+      if (isValid(arity)) visitor.visit(pack(arity));
+      return;
+    }
+    int lhs = 4 * tuple[0];
+    int start;
+    if (depth == 1)
+      start = phrases[lhs];
+    else
+      start = phrases[4 * tuple[depth - 1] + 1] + (allowAdjacent ? 0 : 1);
+    int end = phrases[lhs + 1];
+    if (start >= end) return;
+    for (int pp = firstPhrase[start]; pp < numPhrases; pp++) {
+      int p = 4 * pp;
+      if (phrases[p] >= end) break;
+      if (phrases[p + 1] > end || phrases[p + 2] < phrases[lhs + 2]
+          || phrases[p + 3] > phrases[lhs + 3]) continue;
+      boolean disjoint = true;
+      for (int n = 1; n < depth; n++) {
+        int q = 4 * tuple[n];
+        if (phrases[p + 2] < phrases[q + 3] && phrases[q + 2] < phrases[p + 3]) {
+          disjoint = false;
+          break;
+        }
+      }
+      if (!disjoint) continue;
+      tuple[depth] = pp;
+      expand(depth + 1, arity, visitor);
+    }
+  }
+
+  private boolean isValid(int arity) {
+    int lhs = 4 * tuple[0];
+    int numSourceTerminals = phrases[lhs + 1] - phrases[lhs];
+    int numTargetTerminals = phrases[lhs + 3] - phrases[lhs + 2];
+    int numAlignmentPoints = phraseLinks[tuple[0]];
+    for (int n = 1; n <= arity; n++) {
+      int p = 4 * tuple[n];
+      numSourceTerminals -= phrases[p + 1] - phrases[p];
+      numTargetTerminals -= phrases[p + 3] - phrases[p + 2];
+      numAlignmentPoints -= phraseLinks[tuple[n]];
+    }
+    return isValid(arity, numSourceTerminals, numTargetTerminals, numAlignmentPoints);
+  }
+
+  private PackedRule pack(int arity) {
+    int lhs = 4 * tuple[0];
+    packed.setLhs(phrases[lhs], phrases[lhs + 1], phrases[lhs + 2], phrases[lhs + 3]);
+    for (int n = 1; n <= arity; n++) {
+      int p = 4 * tuple[n];
+      packed.setNonterminal(n - 1, phrases[p], phrases[p + 1], phrases[p + 2], phrases[p + 3]);
+    }
+    return packed;
+  }
+
   public List<HierarchicalRule> extract(int sourceLength, int targetLength, Alignment alignment) {
     fullSentencePhrasePair = new PhrasePair(0, sourceLength, 0, targetLength);
     List<PhrasePair> initialPhrasePairs = initialPhrasePairs(sourceLength, targetLength, alignment);
@@ -137,9 +412,12 @@ public class HierarchicalRuleExtractor {
   }
 
   private boolean isValid(HierarchicalRule r, Alignment a) {
-    int arity = r.arity();
-    int numSourceTerminals = r.numSourceTerminals();
-    int numTargetTerminals = r.numTargetTerminals();
+    return isValid(r.arity(), r.numSourceTerminals(), r.numTargetTerminals(),
+        r.numAlignmentPoints(a));
+  }
+
+  private boolean isValid(int arity, int numSourceTerminals, int numTargetTerminals,
+      int numAlignmentPoints) {
     // Conditions:
     // 1) rule size limits
     if (arity > 0) {
@@ -156,7 +434,7 @@ public class HierarchicalRuleExtractor {
       if (numTargetTerminals > lexicalRuleTargetLimit) return false;
     }
     // 2) minimum number of alignment points
-    if (r.numAlignmentPoints(a) < minimumRuleAlignmentPoints) return false;
+    if (numAlignmentPoints < minimumRuleAlignmentPoints) return false;
     // 3) whether to allow abstract rules (with no terminals)
     if (!allowAbstract && numSourceTerminals == 0 && numTargetTerminals == 0) return false;
     // 4) whether to allow mixed rules (with NTs and terminals together)
@@ -179,7 +457,8 @@ public class HierarchicalRuleExtractor {
       if (parts.length >= 3) {
         int[] source = Vocabulary.addAll(parts[0]);
         int[] target = Vocabulary.addAll(parts[1]);
-        Alignment alignment = ArrayAlignment.fromString(parts[2], false);
+        Alignment alignment =
+            CsrAlignment.fromString(parts[2], source.length, target.length, false);
         for (HierarchicalRule r : extractor.extract(source.length, target.length, alignment)) {
           if (labeler != null)
             System.out.println(r.toString(source, target, labeler, true));
@@ -1,19 +1,20 @@
 package edu.jhu.thrax.extraction;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import edu.jhu.thrax.util.Vocabulary;
 
 public enum LabelCache {
   SLASH("/"), BACKSLASH("\\"), PLUS("+");
   
-  private HashMap<Long, Integer> cache = new HashMap<Long, Integer>();
+  private ConcurrentHashMap<Long, Integer> cache = new ConcurrentHashMap<Long, Integer>();
   private String glue;
   
   private LabelCache(String g) {
     glue = g;
   }
   
+  // Two threads may join the same labels at once; they get the same id from the vocabulary.
   public final int get(int left, int right) {
     long key = ((long) left << 32) | ((long) right & 0x00000000FFFFFFFFL);
     Integer val = cache.get(key);
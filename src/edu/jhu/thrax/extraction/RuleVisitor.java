@@ -0,0 +1,14 @@
+package edu.jhu.thrax.extraction;
+
+import edu.jhu.thrax.datatypes.PackedRule;
+
+/**
+ * Receives the rules found by HierarchicalRuleExtractor, one at a time.
+ */
+public interface RuleVisitor {
+  /**
+   * Called for each rule extracted. The rule is overwritten by the next one, so it must not be
+   * kept after the call returns.
+   */
+  public void visit(PackedRule rule);
+}
@@ -1,10 +1,17 @@
 package edu.jhu.thrax.extraction;
 
-import java.util.List;
-
 import edu.jhu.thrax.syntax.ParseTree;
 import edu.jhu.thrax.util.Vocabulary;
 
+/**
+ * Labels spans with SAMT categories read off a parse tree: a constituent label, a concatenation
+ * A+B, a CCG-style slash category A/B or A\B, or a double concatenation A+B+C.
+ *
+ * The labels of one sentence are worked out as a chart. Constituent labels are tabled for every
+ * span when the labeler is built, the first split of each span into two constituents is found by
+ * a pass over the spans up to the span limit, and each span's label is composed from those tables
+ * the first time it is asked for and kept.
+ */
 public class SAMTLabeler implements SpanLabeler {
 
   private boolean allowConstituent = true;
@@ -16,20 +23,90 @@ public class SAMTLabeler implements SpanLabeler {
   private ParseTree tree;
   private int defaultLabel;
 
+  private int numLeaves;
+  private int limit;
+  // Constituent labels of all spans, in a triangular table.
+  private int[] constituents;
+  // For spans up to the limit, the first split point between two constituents, or 0; and the
+  // label of the span once it is known, or 0.
+  private int[] splits;
+  private int[] chart;
+
   public SAMTLabeler(String parse, boolean constituent, boolean ccg, boolean concat,
       boolean doubleConcat, String unary, int def) {
+    this(ParseTree.fromPennFormat(parse), constituent, ccg, concat, doubleConcat, unary, def);
+    if (tree == null) System.err.printf("WARNING: SAMT labeler: %s is not a parse tree\n", parse);
+  }
+
+  /**
+   * A labeler for an already parsed tree. A null tree labels every span with the default label.
+   */
+  public SAMTLabeler(ParseTree parse, boolean constituent, boolean ccg, boolean concat,
+      boolean doubleConcat, String unary, int def) {
+    this(parse, constituent, ccg, concat, doubleConcat, unary, def, Integer.MAX_VALUE);
+  }
+
+  /**
+   * A labeler that will be asked for spans of at most spanLimit words, whose labels it charts.
+   * Longer spans are labeled too, but worked out afresh each time.
+   */
+  public SAMTLabeler(ParseTree parse, boolean constituent, boolean ccg, boolean concat,
+      boolean doubleConcat, String unary, int def, int spanLimit) {
     allowConstituent = constituent;
     allowCCG = ccg;
     allowConcat = concat;
     allowDoubleConcat = doubleConcat;
     defaultLabel = def;
     unaryCategoryHandler = UnaryCategoryHandler.fromString(unary);
-    tree = ParseTree.fromPennFormat(parse);
-    if (tree == null) System.err.printf("WARNING: SAMT labeler: %s is not a parse tree\n", parse);
+    tree = parse;
+    if (tree != null) buildChart(spanLimit);
+  }
+
+  private void buildChart(int spanLimit) {
+    numLeaves = tree.numLeaves();
+    limit = Math.max(0, Math.min(spanLimit, numLeaves));
+
+    constituents = new int[numLeaves * (numLeaves + 1) / 2];
+    for (int to = 1; to <= numLeaves; to++)
+      for (int from = 0; from < to; from++)
+        constituents[triangle(from, to)] = label(from, to);
+
+    splits = new int[numLeaves * limit];
+    chart = new int[numLeaves * limit];
+    for (int length = 2; length <= limit; length++) {
+      for (int from = 0; from + length <= numLeaves; from++) {
+        int to = from + length;
+        for (int mid = from + 1; mid < to; mid++) {
+          if (constituentLabel(from, mid) != 0 && constituentLabel(mid, to) != 0) {
+            splits[band(from, to)] = mid;
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  private static int triangle(int from, int to) {
+    return to * (to - 1) / 2 + from;
+  }
+
+  private int band(int from, int to) {
+    return from * limit + (to - from - 1);
+  }
+
+  private boolean charted(int from, int to) {
+    return from >= 0 && from < to && to <= numLeaves && to - from <= limit;
   }
 
   public int getLabel(int from, int to) {
     if (tree == null) return defaultLabel;
+    if (!charted(from, to)) return compose(from, to);
+    int i = band(from, to);
+    if (chart[i] == 0) chart[i] = compose(from, to);
+    return chart[i];
+  }
+
+  private int compose(int from, int to) {
     int label;
     if (allowConstituent) {
       label = constituentLabel(from, to);
@@ -52,35 +129,45 @@ public class SAMTLabeler implements SpanLabeler {
     return defaultLabel;
   }
 
-  private int constituentLabel(int from, int to) {
-    List<ParseTree.Node> nodes = tree.internalNodesWithSpan(from, to);
-    if (nodes.isEmpty()) return 0;
+  private int label(int from, int to) {
+    int n = tree.numInternalNodesWithSpan(from, to);
+    if (n == 0) return 0;
     switch (unaryCategoryHandler) {
       case TOP:
-        return nodes.get(0).label();
+        return tree.internalNodeLabel(from, to, 0);
       case BOTTOM:
-        return nodes.get(nodes.size() - 1).label();
+        return tree.internalNodeLabel(from, to, n - 1);
       case ALL:
         // TODO: currently broken.
-        String result = Vocabulary.word(nodes.get(0).label());
-        for (int i = 1; i < nodes.size(); i++)
-          result += ":" + Vocabulary.word(nodes.get(i).label());
+        String result = Vocabulary.word(tree.internalNodeLabel(from, to, 0));
+        for (int i = 1; i < n; i++)
+          result += ":" + Vocabulary.word(tree.internalNodeLabel(from, to, i));
         return Vocabulary.id(result);
     }
     return 0;
   }
 
-  private int concatenatedLabel(int from, int to) {
-    for (int mid = from + 1; mid < to; mid++) {
-      int a = constituentLabel(from, mid);
-      int b = constituentLabel(mid, to);
-      if (a != 0 && b != 0) return LabelCache.PLUS.get(a, b);
-    }
+  private int constituentLabel(int from, int to) {
+    if (from < 0 || from >= to || to > numLeaves) return 0;
+    return constituents[triangle(from, to)];
+  }
+
+  // The first point at which a span splits into two constituents, or 0 if there is none.
+  private int split(int from, int to) {
+    if (charted(from, to)) return splits[band(from, to)];
+    for (int mid = from + 1; mid < to; mid++)
+      if (constituentLabel(from, mid) != 0 && constituentLabel(mid, to) != 0) return mid;
     return 0;
   }
 
+  private int concatenatedLabel(int from, int to) {
+    int mid = split(from, to);
+    if (mid == 0) return 0;
+    return LabelCache.PLUS.get(constituentLabel(from, mid), constituentLabel(mid, to));
+  }
+
   private int forwardSlashLabel(int from, int to) {
-    for (int end = to + 1; end <= tree.numLeaves(); end++) {
+    for (int end = to + 1; end <= numLeaves; end++) {
       int a = constituentLabel(from, end);
       int b = constituentLabel(to, end);
       if (a != 0 && b != 0) return LabelCache.SLASH.get(a, b);
@@ -97,14 +184,17 @@ public class SAMTLabeler implements SpanLabeler {
     return 0;
   }
 
+  // The first split into three constituents is the first constituent at the start of the span
+  // whose remainder splits into two.
   private int doubleConcatenatedLabel(int from, int to) {
     for (int mid1 = from + 1; mid1 < to - 1; mid1++) {
-      for (int mid2 = mid1 + 1; mid2 < to; mid2++) {
-        int a = constituentLabel(from, mid1);
-        int b = constituentLabel(mid1, mid2);
-        int c = constituentLabel(mid2, to);
-        if (a != 0 && b != 0 && c != 0) return LabelCache.PLUS.get(LabelCache.PLUS.get(a, b), c);
-      }
+      int a = constituentLabel(from, mid1);
+      if (a == 0) continue;
+      int mid2 = split(mid1, to);
+      if (mid2 == 0) continue;
+      int b = constituentLabel(mid1, mid2);
+      int c = constituentLabel(mid2, to);
+      return LabelCache.PLUS.get(LabelCache.PLUS.get(a, b), c);
     }
     return 0;
   }
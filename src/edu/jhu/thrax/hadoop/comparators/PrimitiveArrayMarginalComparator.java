@@ -4,9 +4,11 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.io.WritableUtils;
 
+import edu.jhu.thrax.hadoop.datatypes.PrimitiveUtils;
+
 /**
- * Compares two primitive array objects lexicographically, except the zero-length array should be
- * sorted before any other.
+ * Compares two int arrays written by PrimitiveUtils.writeVarIntArray lexicographically, so that
+ * the zero-length array is sorted before any other.
  */
 public class PrimitiveArrayMarginalComparator extends WritableComparator {
   
@@ -18,14 +20,7 @@ public class PrimitiveArrayMarginalComparator extends WritableComparator {
 
   public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
     int h1 = WritableUtils.decodeVIntSize(b1[s1]);
-    int length1 = (h1 == 1 ? b1[s1] : -1);
-    
     int h2 = WritableUtils.decodeVIntSize(b2[s2]);
-    int length2 = (h2 == 1 ? b2[s2] : -1);
-
-    if (length1 == 0 && length2 == 0) return 0;
-    if (length1 == 0) return -1;
-    if (length2 == 0) return 1;
-    return WritableComparator.compareBytes(b1, s1 + h1, l1 - h1, b2, s2 + h2, l2 - h2);
+    return PrimitiveUtils.compareVarIntArrays(b1, s1 + h1, l1 - h1, b2, s2 + h2, l2 - h2);
   }
 }
@@ -49,6 +49,17 @@ public class AlignedRuleWritable implements WritableComparable<AlignedRuleWritab
     alignment.write(out);
   }
 
+  /**
+   * Writes a rule and its alignment as write() does, from the first source_length,
+   * target_length and points_length elements of buffers, so that no writables need to be built.
+   */
+  public static void write(DataOutput out, int lhs, int[] source, int source_length,
+      int[] target, int target_length, boolean monotone, byte[] points, int points_length)
+      throws IOException {
+    RuleWritable.write(out, lhs, source, source_length, target, target_length, monotone);
+    PrimitiveUtils.writeByteArray(out, points, points_length);
+  }
+
   public boolean equals(Object o) {
     if (o instanceof AlignedRuleWritable)
       return rule.equals(((AlignedRuleWritable) o).rule)
@@ -3,9 +3,7 @@ package edu.jhu.thrax.hadoop.datatypes;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
 
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
@@ -47,19 +45,19 @@ public class AlignmentWritable implements WritableComparable<AlignmentWritable>
 
   public AlignmentWritable flip() {
     if (flipped == null) {
-      Integer[] flipside_points = new Integer[points.length / 2];
-      for (int i = 0; i < flipside_points.length; ++i)
-        flipside_points[i] = i;
-      Arrays.sort(flipside_points, new Comparator<Integer>() {
-        public int compare(Integer a, Integer b) {
-          return PrimitiveUtils.compare(points[2 * a + 1], points[2 * b + 1]);
-        }
-      });
+      // A stable counting sort on the target index, which is a signed byte.
+      int n = points.length / 2;
+      int[] offsets = new int[257];
+      for (int i = 0; i < n; ++i)
+        offsets[points[2 * i + 1] + 129]++;
+      for (int b = 1; b < offsets.length; ++b)
+        offsets[b] += offsets[b - 1];
 
       byte[] flipside = new byte[points.length];
-      for (int i = 0; i < flipside_points.length; ++i) {
-        flipside[2 * i] = points[2 * flipside_points[i] + 1];
-        flipside[2 * i + 1] = points[2 * flipside_points[i]];
+      for (int i = 0; i < n; ++i) {
+        int k = offsets[points[2 * i + 1] + 128]++;
+        flipside[2 * k] = points[2 * i + 1];
+        flipside[2 * k + 1] = points[2 * i];
       }
       flipped = new AlignmentWritable(flipside);
     }
@@ -67,7 +65,8 @@ public class AlignmentWritable implements WritableComparable<AlignmentWritable>
   }
 
   public AlignmentWritable join(AlignmentWritable that) {
-    ArrayList<Byte> joined = new ArrayList<Byte>();
+    byte[] joined = new byte[Math.max(this.points.length, that.points.length)];
+    int size = 0;
     int j = 0;
     int j_max = that.points.length / 2;
     for (int i = 0; i < this.points.length / 2; ++i) {
@@ -77,21 +76,20 @@ public class AlignmentWritable implements WritableComparable<AlignmentWritable>
         j++;
       int start = j;
       while (j < j_max && that.points[2 * j] == through) {
-        joined.add(from);
-        joined.add(that.points[2 * j + 1]);
+        if (size == joined.length) joined = Arrays.copyOf(joined, 2 * size);
+        joined[size++] = from;
+        joined[size++] = that.points[2 * j + 1];
         j++;
       }
       // Jump to start of this through-point in "that", in case the next through point is the same.
       j = start;
     }
-    byte[] join_points = new byte[joined.size()];
-    for (int i = 0; i < join_points.length; ++i)
-      join_points[i] = joined.get(i);
-    return new AlignmentWritable(join_points);
+    return new AlignmentWritable(Arrays.copyOf(joined, size));
   }
 
   public AlignmentWritable intersect(AlignmentWritable that) {
-    ArrayList<Byte> common = new ArrayList<Byte>();
+    byte[] common = new byte[this.points.length];
+    int size = 0;
 
     int j = 0;
     int j_max = that.points.length / 2;
@@ -105,15 +103,12 @@ public class AlignmentWritable implements WritableComparable<AlignmentWritable>
       while (j < j_max && that.points[2 * j] == from && that.points[2 * j + 1] != to)
         ++j;
       if (j < j_max && that.points[2 * j] == from && that.points[2 * j + 1] == to) {
-        common.add(from);
-        common.add(to);
+        common[size++] = from;
+        common[size++] = to;
       }
       j = start;
     }
-    byte[] common_points = new byte[common.size()];
-    for (int i = 0; i < common_points.length; ++i)
-      common_points[i] = common.get(i);
-    return new AlignmentWritable(common_points);
+    return new AlignmentWritable(Arrays.copyOf(common, size));
   }
 
   public void write(DataOutput out) throws IOException {
@@ -139,6 +134,15 @@ public class AlignmentWritable implements WritableComparable<AlignmentWritable>
     return toString(" ");
   }
 
+  public boolean equals(Object o) {
+    if (o instanceof AlignmentWritable) return Arrays.equals(points, ((AlignmentWritable) o).points);
+    return false;
+  }
+
+  public int hashCode() {
+    return Arrays.hashCode(points);
+  }
+
   public int compareTo(AlignmentWritable that) {
     return PrimitiveUtils.compareByteArrays(this.points, that.points);
   }
@@ -0,0 +1,101 @@
+package edu.jhu.thrax.hadoop.datatypes;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The word lexprobs a rule's lexical weight needs from one partition of the lexprob table, keyed
+ * as the lexprob job writes them. The probabilities are filled in by the reducer of that
+ * partition. Only one of a rule's lookups carries the rule's annotation; the annotation is null in
+ * the others.
+ */
+public class LexprobLookups implements Writable {
+
+  // The partition of the lexprob table holding the pairs.
+  public int partition;
+  public boolean targetGivenSource;
+  public Annotation annotation;
+
+  private int size;
+  private long[] pairs = new long[8];
+  private float[] probs = new float[8];
+  private boolean resolved;
+
+  public LexprobLookups() {}
+
+  public void clear() {
+    size = 0;
+    resolved = false;
+    annotation = null;
+  }
+
+  /**
+   * Adds a pair to look up, unless it is already there.
+   */
+  public void add(long pair) {
+    for (int i = 0; i < size; i++)
+      if (pairs[i] == pair) return;
+    if (size == pairs.length) {
+      pairs = Arrays.copyOf(pairs, 2 * size);
+      probs = Arrays.copyOf(probs, 2 * size);
+    }
+    pairs[size++] = pair;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public long pair(int i) {
+    return pairs[i];
+  }
+
+  public float probability(int i) {
+    return probs[i];
+  }
+
+  public void resolve(int i, float p) {
+    probs[i] = p;
+    resolved = true;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, partition);
+    out.writeByte((targetGivenSource ? 1 : 0) | (resolved ? 2 : 0) | (annotation != null ? 4 : 0));
+    if (annotation != null) annotation.write(out);
+    WritableUtils.writeVInt(out, size);
+    for (int i = 0; i < size; i++) {
+      WritableUtils.writeVLong(out, pairs[i]);
+      if (resolved) out.writeFloat(probs[i]);
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    partition = WritableUtils.readVInt(in);
+    int flags = in.readByte();
+    targetGivenSource = (flags & 1) != 0;
+    resolved = (flags & 2) != 0;
+    // Annotations keep their alignment when read without one, so each gets a new one.
+    annotation = null;
+    if ((flags & 4) != 0) {
+      annotation = new Annotation();
+      annotation.readFields(in);
+    }
+    size = WritableUtils.readVInt(in);
+    if (size > pairs.length) {
+      pairs = new long[size];
+      probs = new float[size];
+    }
+    for (int i = 0; i < size; i++) {
+      pairs[i] = WritableUtils.readVLong(in);
+      probs[i] = (resolved ? in.readFloat() : 0);
+    }
+  }
+}
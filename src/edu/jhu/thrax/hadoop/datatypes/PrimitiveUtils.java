@@ -14,8 +14,6 @@ import org.apache.hadoop.io.WritableUtils;
  */
 public final class PrimitiveUtils {
 
-  // TODO: re-add variable-length stuff
-
   public static final int MARGINAL_ID = 0;
 
   public static final int compare(byte a, byte b) {
@@ -69,8 +67,16 @@ public final class PrimitiveUtils {
   }
 
   public static final void writeByteArray(DataOutput out, byte[] array) throws IOException {
-    WritableUtils.writeVInt(out, array.length);
-    out.write(array, 0, array.length);
+    writeByteArray(out, array, array.length);
+  }
+
+  /**
+   * Writes the first n elements of a byte array, as writeByteArray writes a whole one.
+   */
+  public static final void writeByteArray(DataOutput out, byte[] array, int n)
+      throws IOException {
+    WritableUtils.writeVInt(out, n);
+    out.write(array, 0, n);
   }
 
   public static final void writeShortArray(DataOutput out, short[] array) throws IOException {
@@ -85,6 +91,33 @@ public final class PrimitiveUtils {
       out.writeInt(b);
   }
 
+  /**
+   * Writes an int array as its length in bytes followed by each element as a zig-zag varint, so
+   * that small ids of either sign take one or two bytes.
+   */
+  public static final void writeVarIntArray(DataOutput out, int[] array) throws IOException {
+    writeVarIntArray(out, array, array.length);
+  }
+
+  /**
+   * Writes the first n elements of an int array, as writeVarIntArray writes a whole one.
+   */
+  public static final void writeVarIntArray(DataOutput out, int[] array, int n)
+      throws IOException {
+    int length = 0;
+    for (int i = 0; i < n; i++)
+      length += varIntSize(zigzag(array[i]));
+    WritableUtils.writeVInt(out, length);
+    for (int i = 0; i < n; i++) {
+      int z = zigzag(array[i]);
+      while ((z & ~0x7F) != 0) {
+        out.writeByte((z & 0x7F) | 0x80);
+        z >>>= 7;
+      }
+      out.writeByte(z);
+    }
+  }
+
   public static final void writeLongArray(DataOutput out, long[] array) throws IOException {
     WritableUtils.writeVInt(out, array.length * 8);
     for (long b : array)
@@ -137,6 +170,79 @@ public final class PrimitiveUtils {
     return array;
   }
 
+  public static final int[] readVarIntArray(DataInput in) throws IOException {
+    byte[] bytes = new byte[WritableUtils.readVInt(in)];
+    in.readFully(bytes, 0, bytes.length);
+    // Every element ends with the only byte of it that has the high bit clear.
+    int count = 0;
+    for (byte b : bytes)
+      if (b >= 0) ++count;
+    int[] array = new int[count];
+    int p = 0;
+    for (int i = 0; i < count; i++) {
+      int z = 0;
+      for (int shift = 0;; shift += 7) {
+        byte b = bytes[p++];
+        z |= (b & 0x7F) << shift;
+        if (b >= 0) break;
+      }
+      array[i] = unzigzag(z);
+    }
+    return array;
+  }
+
+  /**
+   * Compares the payloads of two arrays written by writeVarIntArray, given without their length
+   * headers, element by element. Elements are compared as unsigned ints, the order in which their
+   * fixed-width big-endian encodings sort bytewise, and a prefix sorts before a longer array.
+   */
+  public static final int compareVarIntArrays(byte[] b1, int s1, int l1, byte[] b2, int s2,
+      int l2) {
+    int e1 = s1 + l1, e2 = s2 + l2;
+    while (s1 < e1 && s2 < e2) {
+      int z1 = 0, z2 = 0;
+      for (int shift = 0;; shift += 7) {
+        byte b = b1[s1++];
+        z1 |= (b & 0x7F) << shift;
+        if (b >= 0) break;
+      }
+      for (int shift = 0;; shift += 7) {
+        byte b = b2[s2++];
+        z2 |= (b & 0x7F) << shift;
+        if (b >= 0) break;
+      }
+      if (z1 != z2) return Integer.compareUnsigned(unzigzag(z1), unzigzag(z2));
+    }
+    if (s1 < e1) return 1;
+    if (s2 < e2) return -1;
+    return 0;
+  }
+
+  /**
+   * Compares two int arrays in the order compareVarIntArrays puts them in once written.
+   */
+  public static final int compareVarIntArrays(int[] a, int[] b) {
+    for (int i = 0; i < Math.min(a.length, b.length); ++i) {
+      int cmp = Integer.compareUnsigned(a[i], b[i]);
+      if (cmp != 0) return cmp;
+    }
+    if (a.length < b.length) return -1;
+    if (a.length > b.length) return 1;
+    return 0;
+  }
+
+  private static int zigzag(int n) {
+    return (n << 1) ^ (n >> 31);
+  }
+
+  private static int unzigzag(int z) {
+    return (z >>> 1) ^ -(z & 1);
+  }
+
+  private static int varIntSize(int z) {
+    return (31 - Integer.numberOfLeadingZeros(z | 1)) / 7 + 1;
+  }
+
   public static final long[] readLongArray(DataInput in) throws IOException {
     long[] array = new long[WritableUtils.readVInt(in) / 8];
     for (int i = 0; i < array.length; i++)
@@ -58,17 +58,26 @@ public class RuleWritable implements WritableComparable<RuleWritable> {
 
   // TODO: either encode monotone in LHS sign or always write LHS as positive (for marginal sort)
   public void write(DataOutput out) throws IOException {
+    write(out, lhs, source, source.length, target, target.length, monotone);
+  }
+
+  /**
+   * Writes a rule as write() does, from the first source_length and target_length symbols of
+   * two buffers.
+   */
+  public static void write(DataOutput out, int lhs, int[] source, int source_length,
+      int[] target, int target_length, boolean monotone) throws IOException {
     out.writeBoolean(monotone);
     WritableUtils.writeVInt(out, lhs);
-    PrimitiveUtils.writeIntArray(out, source);
-    PrimitiveUtils.writeIntArray(out, target);
+    PrimitiveUtils.writeVarIntArray(out, source, source_length);
+    PrimitiveUtils.writeVarIntArray(out, target, target_length);
   }
 
   public void readFields(DataInput in) throws IOException {
     monotone = in.readBoolean();
     lhs = WritableUtils.readVInt(in);
-    source = PrimitiveUtils.readIntArray(in);
-    target = PrimitiveUtils.readIntArray(in);
+    source = PrimitiveUtils.readVarIntArray(in);
+    target = PrimitiveUtils.readVarIntArray(in);
   }
 
   public boolean sameYield(RuleWritable r) {
@@ -114,12 +123,13 @@ public class RuleWritable implements WritableComparable<RuleWritable> {
     return sb.toString();
   }
 
+  // The order YieldComparator sorts serialized rules in.
   public int compareTo(RuleWritable that) {
-    int cmp = PrimitiveUtils.compareIntArrays(this.source, that.source);
+    int cmp = PrimitiveUtils.compareVarIntArrays(this.source, that.source);
     if (cmp != 0) return cmp;
     cmp = PrimitiveUtils.compare(this.lhs, that.lhs);
     if (cmp != 0) return cmp;
-    cmp = PrimitiveUtils.compareIntArrays(this.target, that.target);
+    cmp = PrimitiveUtils.compareVarIntArrays(this.target, that.target);
     if (cmp != 0) return cmp;
     cmp = PrimitiveUtils.compare(this.monotone, that.monotone);
     return cmp;
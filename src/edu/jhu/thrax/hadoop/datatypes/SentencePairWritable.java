@@ -0,0 +1,104 @@
+package edu.jhu.thrax.hadoop.datatypes;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+
+import edu.jhu.thrax.datatypes.AlignedSentencePair;
+import edu.jhu.thrax.datatypes.CsrAlignment;
+import edu.jhu.thrax.syntax.ParseTree;
+
+/**
+ * An aligned sentence pair of the compiled corpus: the symbol ids of both sides, the alignment
+ * points in source order and, depending on the grammar, the parse tree or the manual labels that
+ * label its spans. Sides are stored as they appear in the input, so the same record serves jobs
+ * that read the corpus in either direction.
+ *
+ * A pair that uses symbols outside the shared vocabulary is stored as its input line instead,
+ * since the ids its symbols were given are only known to the task that compiled it.
+ */
+public class SentencePairWritable implements Writable {
+
+  private static final int TEXT = 1;
+  private static final int TREE = 2;
+  private static final int LABELS = 4;
+
+  public int[] source;
+  public int[] target;
+  public int[] alignment;
+  public ParseTree tree;
+  public int[] labels;
+  public String line;
+
+  public SentencePairWritable() {}
+
+  public SentencePairWritable(int[] source, int[] target, int[] alignment, ParseTree tree,
+      int[] labels) {
+    set(source, target, alignment, tree, labels);
+  }
+
+  public SentencePairWritable(String line) {
+    set(line);
+  }
+
+  public void set(int[] source, int[] target, int[] alignment, ParseTree tree, int[] labels) {
+    this.source = source;
+    this.target = target;
+    this.alignment = alignment;
+    this.tree = tree;
+    this.labels = labels;
+    this.line = null;
+  }
+
+  public void set(String line) {
+    set(null, null, null, null, null);
+    this.line = line;
+  }
+
+  /**
+   * Whether this pair is stored as its input line, and has to be parsed again.
+   */
+  public boolean isText() {
+    return line != null;
+  }
+
+  /**
+   * The sentence pair, with source and target swapped if reverse is set.
+   */
+  public AlignedSentencePair toSentencePair(boolean reverse) {
+    CsrAlignment a = CsrAlignment.fromPoints(alignment, source.length, target.length, reverse);
+    if (reverse) return new AlignedSentencePair(target, source, a);
+    return new AlignedSentencePair(source, target, a);
+  }
+
+  public void write(DataOutput out) throws IOException {
+    if (line != null) {
+      out.writeByte(TEXT);
+      Text.writeString(out, line);
+      return;
+    }
+    out.writeByte((tree != null ? TREE : 0) | (labels != null ? LABELS : 0));
+    PrimitiveUtils.writeVarIntArray(out, source);
+    PrimitiveUtils.writeVarIntArray(out, target);
+    PrimitiveUtils.writeVarIntArray(out, alignment);
+    if (tree != null) tree.write(out);
+    if (labels != null) PrimitiveUtils.writeVarIntArray(out, labels);
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    int flags = in.readByte();
+    if ((flags & TEXT) != 0) {
+      set(Text.readString(in));
+      return;
+    }
+    int[] s = PrimitiveUtils.readVarIntArray(in);
+    int[] t = PrimitiveUtils.readVarIntArray(in);
+    int[] a = PrimitiveUtils.readVarIntArray(in);
+    ParseTree p = ((flags & TREE) != 0 ? ParseTree.read(in) : null);
+    int[] l = ((flags & LABELS) != 0 ? PrimitiveUtils.readVarIntArray(in) : null);
+    set(s, t, a, p, l);
+  }
+}
@@ -1,23 +1,50 @@
 package edu.jhu.thrax.hadoop.extraction;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.mapreduce.Mapper;
 
 import edu.jhu.thrax.hadoop.datatypes.AlignedRuleWritable;
 import edu.jhu.thrax.hadoop.datatypes.Annotation;
+import edu.jhu.thrax.hadoop.datatypes.SentencePairWritable;
+import edu.jhu.thrax.util.MurmurHash;
 import edu.jhu.thrax.util.Vocabulary;
 
-public class ExtractionMapper extends Mapper<LongWritable, Text, AlignedRuleWritable, Annotation> {
+/**
+ * Extracts rules from each aligned sentence pair of the compiled corpus, or of a text input.
+ * Occurrences of the same rule with the same alignment are counted in a table in the mapper, which
+ * is written out whenever it would grow beyond thrax.extraction-table-size megabytes, and at the
+ * end of the split. A size of 0 writes every occurrence as it is extracted.
+ */
+public class ExtractionMapper
+    extends Mapper<LongWritable, Writable, AlignedRuleWritable, Annotation> {
+
+  public static enum ExtractionCounters {
+    SENTENCES, RULES, TABLE_FLUSHES
+  }
+
   private RuleWritableExtractor extractor;
 
+  private RuleCounts table;
+
+  // The rules of the current sentence pair, serialized, and the objects they are read back into.
+  private final RuleBuffer rules = new RuleBuffer();
+  private final DataInputBuffer in = new DataInputBuffer();
+  private final AlignedRuleWritable entry = new AlignedRuleWritable();
+
   protected void setup(Context context) throws IOException, InterruptedException {
     Configuration conf = context.getConfiguration();
     String vocabulary_path = conf.getRaw("thrax.work-dir") + "vocabulary/part-*";
     Vocabulary.initialize(conf, vocabulary_path);
+    long table_limit = conf.getLong("thrax.extraction-table-size", 64) * 1024 * 1024;
+    if (table_limit > 0) table = new RuleCounts(table_limit);
 
     // TODO: static initializer call for what Annotation actually carries would go here.
     extractor = RuleWritableExtractorFactory.create(context);
@@ -26,11 +53,165 @@ public class ExtractionMapper extends Mapper<LongWritable, Text, AlignedRuleWrit
     }
   }
 
-  protected void map(LongWritable key, Text value, Context context) throws IOException,
+  protected void map(LongWritable key, Writable value, Context context) throws IOException,
       InterruptedException {
     if (extractor == null) return;
-    for (AnnotatedRule ar : extractor.extract(value))
-      context.write(new AlignedRuleWritable(ar.rule, ar.f2e), ar.annotation);
+    rules.clear();
+    if (value instanceof SentencePairWritable)
+      extractor.extract((SentencePairWritable) value, rules);
+    else
+      extractor.extract((Text) value, rules);
+    for (int i = 0; i < rules.size(); i++) {
+      if (table == null) {
+        in.reset(rules.data(), rules.start(i), rules.length(i));
+        entry.readFields(in);
+        context.write(entry, new Annotation(1));
+      } else if (!table.add(rules.data(), rules.start(i), rules.length(i), 1)) {
+        flush(context);
+        table.add(rules.data(), rules.start(i), rules.length(i), 1);
+      }
+    }
+    context.getCounter(ExtractionCounters.SENTENCES).increment(1);
+    context.getCounter(ExtractionCounters.RULES).increment(rules.size());
     context.progress();
   }
+
+  protected void cleanup(Context context) throws IOException, InterruptedException {
+    if (table != null) flush(context);
+  }
+
+  private void flush(Context context) throws IOException, InterruptedException {
+    if (table.size() == 0) return;
+    for (int i = 0; i < table.size(); i++) {
+      in.reset(table.keys(), table.start(i), table.length(i));
+      entry.readFields(in);
+      context.write(entry, new Annotation(table.count(i)));
+    }
+    table.clear();
+    context.getCounter(ExtractionCounters.TABLE_FLUSHES).increment(1);
+  }
+
+  /**
+   * Counts of serialized (rule, alignment) keys in an open-addressed table of primitives. Keys are
+   * appended to one byte array, and a slot holds the index of its entry plus one, or 0 while it is
+   * empty. The arrays never grow beyond the limit the table was made with, except to hold a single
+   * key.
+   */
+  static class RuleCounts {
+    private final long limit;
+
+    private byte[] keys = new byte[1 << 16];
+    private int used;
+
+    // Start of each entry's key, the key's hash and its count.
+    private int[] starts = new int[1 << 10];
+    private int[] hashes = new int[1 << 10];
+    private int[] counts = new int[1 << 10];
+    private int size;
+
+    private int[] slots = new int[1 << 11];
+    private int mask = slots.length - 1;
+
+    RuleCounts(long limit) {
+      this.limit = limit;
+    }
+
+    /**
+     * Adds to the count of the key at key[start] to key[start + length - 1]. Returns false,
+     * leaving the table unchanged, if the key is new and the table has no room for it.
+     */
+    boolean add(byte[] key, int start, int length, int count) {
+      long h = MurmurHash.hash64(key, start, length, MurmurHash.SEED_64);
+      int hash = (int) (h ^ (h >>> 32));
+      int slot = hash & mask;
+      for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+        int e = slots[slot] - 1;
+        if (hashes[e] == hash
+            && WritableComparator.compareBytes(keys, starts[e], length(e), key, start, length) == 0) {
+          counts[e] += count;
+          return true;
+        }
+      }
+      if (!reserve(length)) return false;
+      System.arraycopy(key, start, keys, used, length);
+      starts[size] = used;
+      hashes[size] = hash;
+      counts[size] = count;
+      used += length;
+      slots[slot] = ++size;
+      // Kept at most three quarters full; reserve made room for the larger slot array.
+      if (size > mask - (mask >> 2)) rehash(2 * slots.length);
+      return true;
+    }
+
+    // Grows the arrays so that one more entry of the given length fits.
+    private boolean reserve(int length) {
+      boolean empty = (size == 0);
+      boolean more_slots = (size + 1 > mask - (mask >> 2));
+      long needed = bytes() + (more_slots ? 4L * slots.length : 0);
+      int key_bytes = keys.length;
+      if (used + length > key_bytes) {
+        key_bytes = (int) Math.min(2L * keys.length, keys.length + limit - needed);
+        key_bytes = Math.max(key_bytes, used + length);
+        needed += key_bytes - keys.length;
+      }
+      int entries = starts.length;
+      if (size == entries) {
+        entries = (int) Math.min(2L * entries, entries + (limit - needed) / 12);
+        entries = Math.max(entries, size + 1);
+        needed += 12L * (entries - starts.length);
+      }
+      if (needed > limit && !empty) return false;
+      if (key_bytes != keys.length) keys = Arrays.copyOf(keys, key_bytes);
+      if (entries != starts.length) {
+        starts = Arrays.copyOf(starts, entries);
+        hashes = Arrays.copyOf(hashes, entries);
+        counts = Arrays.copyOf(counts, entries);
+      }
+      return true;
+    }
+
+    private void rehash(int capacity) {
+      slots = new int[capacity];
+      mask = capacity - 1;
+      for (int e = 0; e < size; e++) {
+        int slot = hashes[e] & mask;
+        while (slots[slot] != 0)
+          slot = (slot + 1) & mask;
+        slots[slot] = e + 1;
+      }
+    }
+
+    int size() {
+      return size;
+    }
+
+    byte[] keys() {
+      return keys;
+    }
+
+    int start(int e) {
+      return starts[e];
+    }
+
+    int length(int e) {
+      return (e + 1 < size ? starts[e + 1] : used) - starts[e];
+    }
+
+    int count(int e) {
+      return counts[e];
+    }
+
+    // Heap taken by the arrays.
+    long bytes() {
+      return keys.length + 12L * starts.length + 4L * slots.length;
+    }
+
+    void clear() {
+      if (size == 0) return;
+      Arrays.fill(slots, 0);
+      size = 0;
+      used = 0;
+    }
+  }
 }
@@ -1,27 +1,25 @@
 package edu.jhu.thrax.hadoop.extraction;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Mapper;
 
 import edu.jhu.thrax.datatypes.AlignedSentencePair;
 import edu.jhu.thrax.datatypes.Alignment;
 import edu.jhu.thrax.datatypes.HierarchicalRule;
-import edu.jhu.thrax.datatypes.PhrasePair;
+import edu.jhu.thrax.datatypes.PackedRule;
 import edu.jhu.thrax.extraction.HierarchicalRuleExtractor;
 import edu.jhu.thrax.extraction.HieroLabeler;
 import edu.jhu.thrax.extraction.ManualSpanLabeler;
+import edu.jhu.thrax.extraction.RuleVisitor;
 import edu.jhu.thrax.extraction.SAMTLabeler;
 import edu.jhu.thrax.extraction.SpanLabeler;
 import edu.jhu.thrax.hadoop.datatypes.AlignedRuleWritable;
-import edu.jhu.thrax.hadoop.datatypes.AlignmentWritable;
 import edu.jhu.thrax.hadoop.datatypes.Annotation;
-import edu.jhu.thrax.hadoop.datatypes.RuleWritable;
+import edu.jhu.thrax.hadoop.datatypes.SentencePairWritable;
+import edu.jhu.thrax.syntax.ParseTree;
 import edu.jhu.thrax.util.FormatUtils;
 import edu.jhu.thrax.util.Vocabulary;
 import edu.jhu.thrax.util.BackwardsCompatibility;
@@ -29,7 +27,7 @@ import edu.jhu.thrax.util.exceptions.MalformedInputException;
 import edu.jhu.thrax.util.io.InputUtilities;
 
 public class HierarchicalRuleWritableExtractor implements RuleWritableExtractor {
-  private Mapper<LongWritable, Text, AlignedRuleWritable, Annotation>.Context context;
+  private Mapper<LongWritable, Writable, AlignedRuleWritable, Annotation>.Context context;
 
   private boolean sourceParsed;
   private boolean targetParsed;
@@ -41,9 +39,16 @@ public class HierarchicalRuleWritableExtractor implements RuleWritableExtractor
   private AllowDefaultLabelPolicy allowDefaultLabel;
 
   private HierarchicalRuleExtractor extractor;
+  // Whether to extract with the original, object-per-rule implementation.
+  private boolean legacy;
+
+  // The symbols and alignment of the rule being serialized, grown to fit each sentence pair.
+  private int[] sourceSymbols = new int[0];
+  private int[] targetSymbols = new int[0];
+  private byte[] points = new byte[0];
 
   public HierarchicalRuleWritableExtractor(
-      Mapper<LongWritable, Text, AlignedRuleWritable, Annotation>.Context c) {
+      Mapper<LongWritable, Writable, AlignedRuleWritable, Annotation>.Context c) {
     context = c;
     Configuration conf = c.getConfiguration();
     sourceParsed = conf.getBoolean("thrax.source-is-parsed", false);
@@ -56,6 +61,7 @@ public class HierarchicalRuleWritableExtractor implements RuleWritableExtractor
     spanLimit = conf.getInt("thrax.initial-phrase-length", 10);
 		setDefaultLabelPolicy(conf);
     extractor = getExtractor(conf);
+    legacy = conf.getBoolean("thrax.legacy-extractor", false);
   }
 
 	private void setDefaultLabelPolicy(Configuration conf) {
@@ -89,59 +95,72 @@ public class HierarchicalRuleWritableExtractor implements RuleWritableExtractor
         mixed, fullSentence, lexSourceLimit, lexTargetLimit);
   }
 
-  public Iterable<AnnotatedRule> extract(Text line) {
+  public void extract(Text line, RuleBuffer rules) {
     AlignedSentencePair sentencePair;
     try {
       sentencePair =
           InputUtilities.alignedSentencePair(line.toString(), sourceParsed, targetParsed, reverse);
     } catch (MalformedInputException e) {
       context.getCounter("input errors", e.getMessage()).increment(1);
-      return Collections.<AnnotatedRule>emptyList();
+      return;
+    }
+    extract(sentencePair, getSpanLabeler(line, context.getConfiguration()), rules);
+  }
+
+  public void extract(SentencePairWritable pair, RuleBuffer rules) {
+    if (pair.isText()) {
+      extract(new Text(pair.line), rules);
+      return;
     }
-    int[] source = sentencePair.source;
-    int[] target = sentencePair.target;
-    Alignment alignment = sentencePair.alignment;
-    List<HierarchicalRule> rules = extractor.extract(source.length, target.length, alignment);
-    List<AnnotatedRule> result = new ArrayList<AnnotatedRule>(rules.size());
-    SpanLabeler labeler = getSpanLabeler(line, context.getConfiguration());
+    extract(pair.toSentencePair(reverse), getSpanLabeler(pair, context.getConfiguration()), rules);
+  }
+
+  private void extract(AlignedSentencePair sentencePair, final SpanLabeler labeler,
+      final RuleBuffer rules) {
+    final int[] source = sentencePair.source;
+    final int[] target = sentencePair.target;
+    final Alignment alignment = sentencePair.alignment;
     if (labeler instanceof HieroLabeler) {
       // If this is false, we won't extract any rules, because the LHS label
       // is the default for Hiero.
       allowDefaultLabel = AllowDefaultLabelPolicy.ALWAYS;
     }
-    for (HierarchicalRule r : rules) {
-      RuleWritable rule = toRuleWritable(r, labeler, source, target);
-      if (rule != null) {
-        result.add(new AnnotatedRule(rule, new AlignmentWritable(r
-            .compactSourceAlignment(alignment)), getRuleAnnotation(r, labeler, source, target,
-            alignment)));
+    if (sourceSymbols.length < source.length) sourceSymbols = new int[source.length];
+    if (targetSymbols.length < target.length) targetSymbols = new int[target.length];
+    if (points.length < 2 * alignment.numPoints()) points = new byte[2 * alignment.numPoints()];
+    RuleVisitor visitor = new RuleVisitor() {
+      public void visit(PackedRule r) {
+        add(r, labeler, source, target, alignment, rules);
+      }
+    };
+    if (legacy) {
+      PackedRule packed = new PackedRule(0);
+      for (HierarchicalRule r : extractor.extract(source.length, target.length, alignment)) {
+        packed.set(r);
+        visitor.visit(packed);
       }
+    } else {
+      extractor.extract(source.length, target.length, alignment, visitor);
     }
-    return result;
   }
 
-  private RuleWritable toRuleWritable(HierarchicalRule r, SpanLabeler spanLabeler, int[] source,
-      int[] target) {
+  // Serializes a rule straight from its spans, through buffers reused for every rule.
+  // TODO: this should be handling extraction-time annotation features.
+  private void add(PackedRule r, SpanLabeler spanLabeler, int[] source, int[] target,
+      Alignment alignment, RuleBuffer rules) {
     int lhs;
-    PhrasePair lhsPP = r.getLhs();
-    int lhsSourceSpan = lhsPP.sourceEnd - lhsPP.sourceStart;
-    int lhsTargetSpan = lhsPP.targetEnd - lhsPP.targetStart;
+    int lhsSourceSpan = r.sourceEnd(0) - r.sourceStart(0);
+    int lhsTargetSpan = r.targetEnd(0) - r.targetStart(0);
     if (lhsSourceSpan > spanLimit || lhsTargetSpan > spanLimit) {
       lhs = fullSentenceLabel;
     } else {
       lhs = r.lhsLabel(spanLabeler, sourceLabels);
     }
-    int[] src = r.sourceSide(source, spanLabeler, sourceLabels);
-    int[] tgt = r.targetSide(target, spanLabeler, sourceLabels);
-    if (!isValidUseOfDefaultLabel(lhs, src, tgt)) return null;
-    RuleWritable rw = new RuleWritable(lhs, src, tgt, r.monotonic());
-    return rw;
-  }
-
-  private static Annotation getRuleAnnotation(HierarchicalRule r, SpanLabeler spanLabeler,
-      int[] source, int[] target, Alignment alignment) {
-    // TODO: this should be handling extraction-time annotation features.
-    return new Annotation(1);
+    int src = r.sourceSide(source, spanLabeler, sourceLabels, sourceSymbols);
+    int tgt = r.targetSide(target, spanLabeler, sourceLabels, targetSymbols);
+    if (!isValidUseOfDefaultLabel(lhs, src, tgt)) return;
+    int n = r.compactSourceAlignment(alignment, points);
+    rules.add(lhs, sourceSymbols, src, targetSymbols, tgt, r.monotonic(), points, n);
   }
 
   private SpanLabeler getSpanLabeler(Text line, Configuration conf) {
@@ -152,12 +171,9 @@ public class HierarchicalRuleWritableExtractor implements RuleWritableExtractor
       String[] fields = FormatUtils.P_DELIM.split(line.toString());
       if (fields.length < 2) return new HieroLabeler(defaultLabel);
       String parse = fields[sourceLabels ? 0 : 1].trim();
-      boolean constituent = conf.getBoolean("thrax.allow-constituent-label", true);
-      boolean ccg = conf.getBoolean("thrax.allow-ccg-label", true);
-      boolean concat = conf.getBoolean("thrax.allow-concat-label", true);
-      boolean double_concat = conf.getBoolean("thrax.allow-double-plus", true);
-      String unary = conf.get("thrax.unary-category-handler", "all");
-      return new SAMTLabeler(parse, constituent, ccg, concat, double_concat, unary, defaultLabel);
+      ParseTree tree = ParseTree.fromPennFormat(parse);
+      if (tree == null) System.err.printf("WARNING: SAMT labeler: %s is not a parse tree\n", parse);
+      return samtLabeler(tree, conf);
     } else if (labelType.equalsIgnoreCase("manual")) {
       String[] fields = FormatUtils.P_DELIM.split(line.toString());
       if (fields.length < 4) return new HieroLabeler(defaultLabel);
@@ -168,31 +184,58 @@ public class HierarchicalRuleWritableExtractor implements RuleWritableExtractor
     }
   }
 
-  private boolean isValidUseOfDefaultLabel(int lhs, int[] source, int[] target) {
+  // The labeler for a sentence pair of the compiled corpus, which holds its tree or labels.
+  private SpanLabeler getSpanLabeler(SentencePairWritable pair, Configuration conf) {
+    String labelType = conf.get("thrax.grammar", "hiero");
+    if (labelType.equalsIgnoreCase("samt")) {
+      return samtLabeler(pair.tree, conf);
+    } else if (labelType.equalsIgnoreCase("manual") && pair.labels != null) {
+      return new ManualSpanLabeler(pair.labels, defaultLabel);
+    } else {
+      return new HieroLabeler(defaultLabel);
+    }
+  }
+
+  private SpanLabeler samtLabeler(ParseTree tree, Configuration conf) {
+    boolean constituent = conf.getBoolean("thrax.allow-constituent-label", true);
+    boolean ccg = conf.getBoolean("thrax.allow-ccg-label", true);
+    boolean concat = conf.getBoolean("thrax.allow-concat-label", true);
+    boolean double_concat = conf.getBoolean("thrax.allow-double-plus", true);
+    String unary = conf.get("thrax.unary-category-handler", "all");
+    // Rules with a longer left-hand side get the full-sentence label, so no longer span is labeled.
+    return new SAMTLabeler(tree, constituent, ccg, concat, double_concat, unary, defaultLabel,
+        spanLimit);
+  }
+
+  // Checks the first source_length and target_length symbols of the rule buffers.
+  private boolean isValidUseOfDefaultLabel(int lhs, int source_length, int target_length) {
+    int[] source = sourceSymbols, target = targetSymbols;
 		if (allowDefaultLabel == AllowDefaultLabelPolicy.ALWAYS) {
 			return true;
 		} else if (allowDefaultLabel == AllowDefaultLabelPolicy.PHRASES) {
-      if (defaultLabel == lhs && hasNonterminal(source) && hasNonterminal(target))
+      if (defaultLabel == lhs && hasNonterminal(source, source_length)
+          && hasNonterminal(target, target_length))
         return false;
       else
-        return !(hasNonterminal(source, defaultLabel) || hasNonterminal(target, defaultLabel));
+        return !(hasNonterminal(source, source_length, defaultLabel)
+            || hasNonterminal(target, target_length, defaultLabel));
     } else if (allowDefaultLabel == AllowDefaultLabelPolicy.NEVER) {
 			return lhs != defaultLabel
-				&& !hasNonterminal(source, defaultLabel)
-				&& !hasNonterminal(target, defaultLabel);
+				&& !hasNonterminal(source, source_length, defaultLabel)
+				&& !hasNonterminal(target, target_length, defaultLabel);
 		}
     return true;
   }
 
-  private static boolean hasNonterminal(int[] s) {
-    for (int w : s)
-      if (w < 0) return true;
+  private static boolean hasNonterminal(int[] s, int n) {
+    for (int i = 0; i < n; i++)
+      if (s[i] < 0) return true;
     return false;
   }
 
-  private static boolean hasNonterminal(int[] s, int nt) {
-    for (int w : s)
-      if (w == nt) return true;
+  private static boolean hasNonterminal(int[] s, int n, int nt) {
+    for (int i = 0; i < n; i++)
+      if (s[i] == nt) return true;
     return false;
   }
 
@@ -0,0 +1,52 @@
+package edu.jhu.thrax.hadoop.extraction;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+
+import edu.jhu.thrax.hadoop.datatypes.AlignedRuleWritable;
+
+/**
+ * The rule occurrences extracted from a sentence pair, each serialized as an AlignedRuleWritable
+ * into one byte buffer. The buffer is cleared and reused for the next sentence pair.
+ */
+public class RuleBuffer {
+  private final DataOutputBuffer buffer = new DataOutputBuffer();
+  private int[] ends = new int[1 << 10];
+  private int size;
+
+  public void add(int lhs, int[] source, int source_length, int[] target, int target_length,
+      boolean monotone, byte[] points, int points_length) {
+    try {
+      AlignedRuleWritable.write(buffer, lhs, source, source_length, target, target_length,
+          monotone, points, points_length);
+    } catch (IOException e) {
+      // Writing to memory does not fail.
+      throw new IllegalStateException(e);
+    }
+    if (size == ends.length) ends = Arrays.copyOf(ends, 2 * size);
+    ends[size++] = buffer.getLength();
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public byte[] data() {
+    return buffer.getData();
+  }
+
+  public int start(int i) {
+    return i == 0 ? 0 : ends[i - 1];
+  }
+
+  public int length(int i) {
+    return ends[i] - start(i);
+  }
+
+  public void clear() {
+    buffer.reset();
+    size = 0;
+  }
+}
@@ -1,7 +1,7 @@
 package edu.jhu.thrax.hadoop.extraction;
 
 import org.apache.hadoop.io.LongWritable;
-import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Mapper;
 
 import edu.jhu.thrax.hadoop.datatypes.AlignedRuleWritable;
@@ -9,7 +9,7 @@ import edu.jhu.thrax.hadoop.datatypes.Annotation;
 
 public class RuleWritableExtractorFactory {
   public static RuleWritableExtractor create(
-      Mapper<LongWritable, Text, AlignedRuleWritable, Annotation>.Context context) {
+      Mapper<LongWritable, Writable, AlignedRuleWritable, Annotation>.Context context) {
     return new HierarchicalRuleWritableExtractor(context);
   }
 }
@@ -1,22 +1,29 @@
 package edu.jhu.thrax.hadoop.features;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
-import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Partitioner;
 import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 
 import edu.jhu.thrax.datatypes.AlignedSentencePair;
 import edu.jhu.thrax.datatypes.Alignment;
+import edu.jhu.thrax.hadoop.datatypes.SentencePairWritable;
 import edu.jhu.thrax.hadoop.jobs.WordLexprobJob;
+import edu.jhu.thrax.lexprob.MappedLexprobTable;
 import edu.jhu.thrax.util.Vocabulary;
 import edu.jhu.thrax.util.exceptions.MalformedInputException;
 import edu.jhu.thrax.util.io.InputUtilities;
@@ -25,75 +32,261 @@ public class WordLexicalProbabilityCalculator extends Configured {
   public static final long UNALIGNED = 0x0000000000000000L;
   public static final long MARGINAL = 0x0000000000000000L;
 
-  public static class Map extends Mapper<LongWritable, Text, LongWritable, IntWritable> {
-    private HashMap<Long, Integer> counts = new HashMap<Long, Integer>();
+  private static final int UNALIGNED_WORD = (int) (UNALIGNED >> 32);
+
+  /**
+   * Counts the word pairs of both directions in one pass over the corpus. Counts for the target
+   * given source direction are negated, which is how the partitioner tells them apart.
+   *
+   * Counts are summed over the whole split in a table per direction. Each table may take up half
+   * of thrax.lexprob-table-size megabytes; both are written out when either is full, and at the end
+   * of the split.
+   */
+  public static class Map extends Mapper<LongWritable, Writable, LongWritable, IntWritable> {
+    private PairCounts sourceGivenTarget;
+    private PairCounts targetGivenSource;
+
+    private final LongWritable pair = new LongWritable();
+    private final IntWritable count = new IntWritable();
+
     private boolean sourceParsed;
     private boolean targetParsed;
     private boolean reverse;
-    private boolean sourceGivenTarget;
 
     protected void setup(Context context) throws IOException, InterruptedException {
       Configuration conf = context.getConfiguration();
       String vocabulary_path = conf.getRaw("thrax.work-dir") + "vocabulary/part-*";
       Vocabulary.initialize(conf, vocabulary_path);
+      long limit = conf.getLong("thrax.lexprob-table-size", 64) * 1024 * 1024;
+      // Both directions count about as many pairs.
+      sourceGivenTarget = new PairCounts(limit / 2);
+      targetGivenSource = new PairCounts(limit / 2);
 
       sourceParsed = conf.getBoolean("thrax.source-is-parsed", false);
       targetParsed = conf.getBoolean("thrax.target-is-parsed", false);
       reverse = conf.getBoolean("thrax.reverse", false);
-      sourceGivenTarget = conf.getBoolean(WordLexprobJob.SOURCE_GIVEN_TARGET, false);
     }
 
-    public void map(LongWritable key, Text value, Context context) throws IOException,
+    public void map(LongWritable key, Writable value, Context context) throws IOException,
         InterruptedException {
-      counts.clear();
-      String line = value.toString();
+      SentencePairWritable input = (value instanceof SentencePairWritable)
+          ? (SentencePairWritable) value
+          : new SentencePairWritable(value.toString());
       AlignedSentencePair sentencePair;
-      try {
-        sentencePair =
-            InputUtilities.alignedSentencePair(line, sourceParsed, targetParsed,
-                !(reverse ^ sourceGivenTarget));
-      } catch (MalformedInputException e) {
-        context.getCounter("input errors", e.getMessage()).increment(1);
-        return;
+      if (input.isText()) {
+        try {
+          sentencePair =
+              InputUtilities.alignedSentencePair(input.line, sourceParsed, targetParsed, reverse);
+        } catch (MalformedInputException e) {
+          context.getCounter("input errors", e.getMessage()).increment(1);
+          return;
+        }
+      } else {
+        sentencePair = input.toSentencePair(reverse);
       }
       int[] source = sentencePair.source;
       int[] target = sentencePair.target;
       Alignment alignment = sentencePair.alignment;
 
+      // Source words given the target words they are aligned to.
       for (int i = 0; i < source.length; i++) {
-        int src = source[i];
-        if (alignment.sourceIndexIsAligned(i)) {
-          Iterator<Integer> target_indices = alignment.targetIndicesAlignedTo(i);
-          while (target_indices.hasNext()) {
-            int tgt = target[target_indices.next()];
-            long pair = ((long) tgt << 32) + src;
-            long marginal = ((long) tgt << 32) + MARGINAL;
-            counts.put(pair, counts.containsKey(pair) ? counts.get(pair) + 1 : 1);
-            counts.put(marginal, counts.containsKey(marginal) ? counts.get(marginal) + 1 : 1);
-          }
-        } else {
-          long pair = UNALIGNED | ((long) src);
-          long marginal = UNALIGNED;
-          counts.put(pair, counts.containsKey(pair) ? counts.get(pair) + 1 : 1);
-          counts.put(marginal, counts.containsKey(marginal) ? counts.get(marginal) + 1 : 1);
+        int end = alignment.sourcePointsEnd(i);
+        for (int k = alignment.sourcePointsStart(i); k < end; k++)
+          count(context, sourceGivenTarget, target[alignment.targetIndexOfPoint(k)], source[i]);
+        if (!alignment.sourceIndexIsAligned(i))
+          count(context, sourceGivenTarget, UNALIGNED_WORD, source[i]);
+      }
+
+      // Target words given the source words they are aligned to.
+      for (int j = 0; j < target.length; j++) {
+        int end = alignment.targetPointsEnd(j);
+        for (int k = alignment.targetPointsStart(j); k < end; k++)
+          count(context, targetGivenSource, source[alignment.sourceIndexOfTargetPoint(k)],
+              target[j]);
+        if (!alignment.targetIndexIsAligned(j))
+          count(context, targetGivenSource, UNALIGNED_WORD, target[j]);
+      }
+    }
+
+    private void count(Context context, PairCounts counts, int given, int word)
+        throws IOException, InterruptedException {
+      if (counts.count(given, word)) return;
+      flush(context);
+      counts.count(given, word);
+    }
+
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+      flush(context);
+    }
+
+    private void flush(Context context) throws IOException, InterruptedException {
+      emit(context, sourceGivenTarget, 1);
+      emit(context, targetGivenSource, -1);
+    }
+
+    private void emit(Context context, PairCounts counts, int sign) throws IOException,
+        InterruptedException {
+      for (int slot = 0; slot < counts.capacity(); slot++) {
+        if (counts.count(slot) == 0) continue;
+        pair.set(counts.pair(slot));
+        count.set(sign * counts.count(slot));
+        context.write(pair, count);
+      }
+      counts.clear();
+    }
+  }
+
+  /**
+   * Counts of word pairs and of their marginals, keyed as the mapper writes them, in an
+   * open-addressed table of primitives. A slot is empty while its count is 0.
+   */
+  static class PairCounts {
+    private final long limit;
+
+    private long[] pairs;
+    private int[] counts;
+    private int mask;
+    private int size;
+
+    PairCounts(long limit) {
+      this.limit = limit;
+      allocate(1 << 10);
+    }
+
+    /**
+     * Counts a pair and the marginal of its given word. Returns false, leaving the table unchanged,
+     * if there may not be room for them without growing the table beyond its limit. A table never
+     * grows beyond its limit, except to its initial size.
+     */
+    boolean count(int given, int word) {
+      // Kept at most three quarters full, with room for both keys should they be new.
+      if (size + 2 > mask - (mask >> 2)) {
+        if (2 * bytes() > limit) return false;
+        grow();
+      }
+      increment(((long) given << 32) + word);
+      increment(((long) given << 32) + MARGINAL);
+      return true;
+    }
+
+    private void increment(long key) {
+      int slot = slot(key);
+      for (; counts[slot] != 0; slot = (slot + 1) & mask) {
+        if (pairs[slot] == key) {
+          counts[slot]++;
+          return;
         }
       }
-      for (long pair : counts.keySet())
-        context.write(new LongWritable(pair), new IntWritable(counts.get(pair)));
+      pairs[slot] = key;
+      counts[slot] = 1;
+      size++;
+    }
+
+    private int slot(long key) {
+      key ^= key >>> 33;
+      key *= 0xff51afd7ed558ccdL;
+      key ^= key >>> 33;
+      return (int) key & mask;
+    }
+
+    private void grow() {
+      long[] old_pairs = pairs;
+      int[] old_counts = counts;
+      allocate(2 * old_pairs.length);
+      for (int i = 0; i < old_pairs.length; i++) {
+        if (old_counts[i] == 0) continue;
+        int slot = slot(old_pairs[i]);
+        while (counts[slot] != 0)
+          slot = (slot + 1) & mask;
+        pairs[slot] = old_pairs[i];
+        counts[slot] = old_counts[i];
+      }
+    }
+
+    private void allocate(int capacity) {
+      pairs = new long[capacity];
+      counts = new int[capacity];
+      mask = capacity - 1;
+    }
+
+    int capacity() {
+      return pairs.length;
+    }
+
+    long pair(int slot) {
+      return pairs[slot];
+    }
+
+    int count(int slot) {
+      return counts[slot];
+    }
+
+    // Heap taken by the arrays.
+    long bytes() {
+      return 12L * pairs.length;
+    }
+
+    int size() {
+      return size;
+    }
+
+    void clear() {
+      if (size == 0) return;
+      Arrays.fill(counts, 0);
+      size = 0;
     }
   }
 
+  /**
+   * Turns the counts into probabilities. The first half of the reducers receive the source given
+   * target direction and write it to lexprobs_sgt, the second half lexprobs_tgs.
+   */
   public static class Reduce
       extends Reducer<LongWritable, IntWritable, LongWritable, FloatWritable> {
     private int current = -1;
     private int marginalCount;
 
+    private MultipleOutputs<LongWritable, FloatWritable> outputs;
+    private String direction;
+
+    private MappedLexprobTable.Writer table;
+    private File tableFile;
+    private Path tablePath;
+
     protected void setup(Context context) throws IOException, InterruptedException {
       Configuration conf = context.getConfiguration();
       
       // TODO: remove unnecessary vocabulary loads?
       String vocabulary_path = conf.getRaw("thrax.work-dir") + "vocabulary/part-*";
       Vocabulary.initialize(conf, vocabulary_path);
+
+      int partition = context.getTaskAttemptID().getTaskID().getId();
+      direction = (partition < context.getNumReduceTasks() / 2)
+          ? WordLexprobJob.SOURCE_GIVEN_TARGET
+          : WordLexprobJob.TARGET_GIVEN_SOURCE;
+      outputs = new MultipleOutputs<LongWritable, FloatWritable>(context);
+
+      // Each reducer also writes its range of the probabilities as a shard of a mapped table. On
+      // a local file system the shard is built in place, otherwise it is built locally and copied.
+      Path dir = new Path(FileOutputFormat.getWorkOutputPath(context), direction);
+      String name = MappedLexprobTable.shardName(dir, partition);
+      tablePath = new Path(dir, name);
+      FileSystem fs = tablePath.getFileSystem(conf);
+      if (fs instanceof LocalFileSystem) {
+        tableFile = ((LocalFileSystem) fs).pathToFile(tablePath);
+        tableFile.getParentFile().mkdirs();
+      } else {
+        tableFile = File.createTempFile(name, null);
+      }
+      table = new MappedLexprobTable.Writer(tableFile);
+    }
+
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+      outputs.close();
+      table.close();
+      FileSystem fs = tablePath.getFileSystem(context.getConfiguration());
+      if (!(fs instanceof LocalFileSystem))
+        fs.copyFromLocalFile(true, true, new Path(tableFile.getPath()), tablePath);
     }
 
     protected void reduce(LongWritable key, Iterable<IntWritable> values, Context context)
@@ -114,21 +307,52 @@ public class WordLexicalProbabilityCalculator extends Configured {
       int my_count = 0;
       for (IntWritable x : values)
         my_count += x.get();
-      context.write(key, new FloatWritable(my_count / (float) marginalCount));
+      // The counts of a target given source pair and its marginal are both negated.
+      float prob = my_count / (float) marginalCount;
+      outputs.write(key, new FloatWritable(prob), direction + "/part");
+      // As TableEntry reads the pair back.
+      table.add(tgt < 0 ? Vocabulary.getUnknownId() : tgt, src, prob);
     }
   }
 
   public static class Partition extends Partitioner<LongWritable, IntWritable> {
+    // The range computation, kept until the number of partitions changes or an id falls beyond
+    // the vocabulary it was made for.
+    private int partitions = 0;
+    private int max_trg_plus_one;
+    private int num_elements_per_partition;
+
     public int getPartition(LongWritable key, IntWritable value, int numPartitions) {
+      return getPartition(key.get(), value.get() < 0, numPartitions);
+    }
+
+    /**
+     * The partition of a word pair of either direction. Lookups of a pair partitioned the same way
+     * go to the reducer that wrote its probability.
+     */
+    public int getPartition(long pair, boolean targetGivenSource, int numPartitions) {
+      // Each direction gets half of the partitions, split among its conditioning words.
+      int half = numPartitions / 2;
+      if (half == 0) throw new RuntimeException("Word lexprobs need at least two reducers.");
+      int offset = (targetGivenSource ? half : 0);
+      return offset + range(pair, half);
+    }
+
+    private int range(long pair, int numPartitions) {
       // ids range from 0 to size-1
       // we partition like this:
       // partition 1: 0 to num_elements_per_partition-1
       // partition 2: num_elements_per_partition to 2*num_elements_per_partition-1
       // ...
       // partition numPartitions: num_elements_per_partition*(numPartitions-1) to num_elements_per_partition*numPartitions-1 = size-1
-      final int max_trg_plus_one = Vocabulary.size();
-      final int num_elements_per_partition = (int) Math.ceil(max_trg_plus_one / (1.0 * numPartitions));
-      int trg = ((int) (key.get() >> 32) & Integer.MAX_VALUE);
+      int trg = ((int) (pair >> 32) & Integer.MAX_VALUE);
+      // Hashed ids are spread over all positive ints, so they are partitioned by range directly.
+      if (Vocabulary.hashed()) return (int) ((trg * (long) numPartitions) >>> 31);
+      if (numPartitions != partitions || trg >= max_trg_plus_one) {
+        partitions = numPartitions;
+        max_trg_plus_one = Vocabulary.size();
+        num_elements_per_partition = (int) Math.ceil(max_trg_plus_one / (1.0 * numPartitions));
+      }
       if (trg < 0 || trg >= max_trg_plus_one) {
         throw new RuntimeException(String.format("Word id %d out of range %d %d", trg, 0, max_trg_plus_one-1));
       }
@@ -6,7 +6,7 @@ import java.util.Set;
 
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Writable;
-import org.apache.hadoop.mapreduce.Reducer.Context;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 
 import edu.jhu.thrax.hadoop.datatypes.AlignmentWritable;
 import edu.jhu.thrax.hadoop.datatypes.Annotation;
@@ -43,7 +43,7 @@ public class AlignmentFeature implements AnnotationFeature {
   }
 
   @Override
-  public void init(Context context) throws IOException, InterruptedException {}
+  public void init(TaskInputOutputContext context) throws IOException, InterruptedException {}
 
   @Override
   public Set<Class<? extends ThraxJob>> getPrerequisites() {
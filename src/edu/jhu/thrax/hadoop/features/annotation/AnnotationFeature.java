@@ -4,7 +4,7 @@ import java.io.IOException;
 import java.util.Set;
 
 import org.apache.hadoop.io.Writable;
-import org.apache.hadoop.mapreduce.Reducer.Context;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 
 import edu.jhu.thrax.hadoop.datatypes.Annotation;
 import edu.jhu.thrax.hadoop.datatypes.RuleWritable;
@@ -14,7 +14,7 @@ import edu.jhu.thrax.hadoop.jobs.ThraxJob;
 public interface AnnotationFeature extends Feature {
 
   @SuppressWarnings("rawtypes")
-  public void init(Context context) throws IOException, InterruptedException;
+  public void init(TaskInputOutputContext context) throws IOException, InterruptedException;
 
   public Writable score(RuleWritable r, Annotation annotation);
 
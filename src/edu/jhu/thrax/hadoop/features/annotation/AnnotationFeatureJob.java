@@ -7,18 +7,17 @@ import java.util.Set;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapreduce.Job;
-import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 
-import edu.jhu.thrax.hadoop.datatypes.Annotation;
 import edu.jhu.thrax.hadoop.datatypes.FeaturePair;
 import edu.jhu.thrax.hadoop.datatypes.RuleWritable;
-import edu.jhu.thrax.hadoop.jobs.DefaultValues;
 import edu.jhu.thrax.hadoop.jobs.ExtractionJob;
 import edu.jhu.thrax.hadoop.jobs.ThraxJob;
+import edu.jhu.thrax.hadoop.jobs.WordLexprobJob;
+import edu.jhu.thrax.lexprob.MappedLexprobTable;
 
 public class AnnotationFeatureJob implements ThraxJob {
 
@@ -51,19 +50,22 @@ public class AnnotationFeatureJob implements ThraxJob {
     Job job = new Job(conf, name);
     job.setJarByClass(this.getClass());
 
-    job.setMapperClass(Mapper.class);
-    job.setPartitionerClass(RuleWritable.YieldPartitioner.class);
-    job.setReducerClass(AnnotationReducer.class);
+    job.setMapperClass(AnnotationMapper.class);
 
     job.setInputFormatClass(SequenceFileInputFormat.class);
-    job.setMapOutputKeyClass(RuleWritable.class);
-    job.setMapOutputValueClass(Annotation.class);
     job.setOutputKeyClass(RuleWritable.class);
     job.setOutputValueClass(FeaturePair.class);
     job.setOutputFormatClass(SequenceFileOutputFormat.class);
 
-    int num_reducers = conf.getInt("thrax.reducers", conf.getInt("mapreduce.job.reduces", DefaultValues.DEFAULT_NUM_REDUCERS));
-    job.setNumReduceTasks(num_reducers);
+    // Extraction writes each rule once, so features are scored without a shuffle. The output
+    // stage partitions the feature outputs itself.
+    job.setNumReduceTasks(0);
+
+    // Lexical probability features map the tables the lexprob job wrote.
+    MappedLexprobTable.addToCache(job, conf,
+        WordLexprobJob.getOutputPath(conf, WordLexprobJob.SOURCE_GIVEN_TARGET));
+    MappedLexprobTable.addToCache(job, conf,
+        WordLexprobJob.getOutputPath(conf, WordLexprobJob.TARGET_GIVEN_SOURCE));
 
     FileInputFormat.setInputPaths(job, new Path(conf.get("thrax.work-dir") + "rules"));
     FileOutputFormat.setOutputPath(job, new Path(conf.get("thrax.work-dir") + "annotation"));
@@ -5,7 +5,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.Mapper;
 
 import edu.jhu.thrax.hadoop.datatypes.Annotation;
 import edu.jhu.thrax.hadoop.datatypes.FeaturePair;
@@ -13,11 +13,16 @@ import edu.jhu.thrax.hadoop.datatypes.RuleWritable;
 import edu.jhu.thrax.util.BackwardsCompatibility;
 import edu.jhu.thrax.util.Vocabulary;
 
-public class AnnotationReducer extends Reducer<RuleWritable, Annotation, RuleWritable, FeaturePair> {
+/**
+ * Scores the annotation features of each rule as it is read. The extraction job writes every rule
+ * once, with its annotation aggregated over the corpus, so the rules need not be grouped again.
+ */
+public class AnnotationMapper extends Mapper<RuleWritable, Annotation, RuleWritable, FeaturePair> {
 
   private List<AnnotationFeature> annotationFeatures;
+  private int[] labels;
 
-  public AnnotationReducer() {}
+  public AnnotationMapper() {}
 
   protected void setup(Context context) throws IOException, InterruptedException {
     Configuration conf = context.getConfiguration();
@@ -32,19 +37,24 @@ public class AnnotationReducer extends Reducer<RuleWritable, Annotation, RuleWri
       annotationFeatures = new ArrayList<AnnotationFeature>();
       annotationFeatures.add(new AnnotationPassthroughFeature());
     } else {
-      annotationFeatures = AnnotationFeatureFactory.getAll(features);
+      annotationFeatures = new ArrayList<AnnotationFeature>();
+      for (AnnotationFeature af : AnnotationFeatureFactory.getAll(features))
+        if (!LexicalWeightJob.scores(conf, af)) annotationFeatures.add(af);
     }
 
-    for (AnnotationFeature af : annotationFeatures)
+    labels = new int[annotationFeatures.size()];
+    for (int i = 0; i < labels.length; i++) {
+      AnnotationFeature af = annotationFeatures.get(i);
       af.init(context);
+      labels[i] = Vocabulary.id(af.getLabel());
+    }
   }
 
-  protected void reduce(RuleWritable key, Iterable<Annotation> values, Context context)
-      throws IOException, InterruptedException {
-    for (Annotation annotation : values) {
-      for (AnnotationFeature f : annotationFeatures) {
-        context.write(key, new FeaturePair(Vocabulary.id(f.getLabel()), f.score(key, annotation)));
-      }
+  protected void map(RuleWritable key, Annotation value, Context context) throws IOException,
+      InterruptedException {
+    for (int i = 0; i < labels.length; i++) {
+      AnnotationFeature f = annotationFeatures.get(i);
+      context.write(key, new FeaturePair(labels[i], f.score(key, value)));
     }
   }
 }
@@ -5,7 +5,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.apache.hadoop.io.Writable;
-import org.apache.hadoop.mapreduce.Reducer.Context;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 
 import edu.jhu.thrax.hadoop.datatypes.Annotation;
 import edu.jhu.thrax.hadoop.datatypes.RuleWritable;
@@ -36,7 +36,7 @@ public class AnnotationPassthroughFeature implements AnnotationFeature {
   }
 
   @Override
-  public void init(Context context) throws IOException, InterruptedException {}
+  public void init(TaskInputOutputContext context) throws IOException, InterruptedException {}
 
   @Override
   public Set<Class<? extends ThraxJob>> getPrerequisites() {
@@ -5,7 +5,7 @@ import java.util.Set;
 
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Writable;
-import org.apache.hadoop.mapreduce.Reducer.Context;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 
 import edu.jhu.thrax.hadoop.datatypes.Annotation;
 import edu.jhu.thrax.hadoop.datatypes.RuleWritable;
@@ -42,7 +42,7 @@ public class CountFeature implements AnnotationFeature {
   }
 
   @Override
-  public void init(Context context) {}
+  public void init(TaskInputOutputContext context) {}
 
   @Override
   public Set<Class<? extends ThraxJob>> getPrerequisites() {
@@ -0,0 +1,185 @@
+package edu.jhu.thrax.hadoop.features.annotation;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+
+import edu.jhu.thrax.hadoop.datatypes.AlignmentWritable;
+import edu.jhu.thrax.hadoop.datatypes.FeaturePair;
+import edu.jhu.thrax.hadoop.datatypes.LexprobLookups;
+import edu.jhu.thrax.hadoop.datatypes.RuleWritable;
+import edu.jhu.thrax.hadoop.jobs.DefaultValues;
+import edu.jhu.thrax.hadoop.jobs.ThraxJob;
+import edu.jhu.thrax.hadoop.jobs.VocabularyJob;
+import edu.jhu.thrax.lexprob.LexprobTable;
+import edu.jhu.thrax.util.BackwardsCompatibility;
+import edu.jhu.thrax.util.Vocabulary;
+
+/**
+ * Scores the lexical weights of every rule from the lexprobs LexprobLookupJob looked up for it,
+ * as the second step of the partitioned plan for them.
+ *
+ * With thrax.partitioned-lexprob set, lexical weights are computed this way instead of in the
+ * annotation job, where every task looks up the whole lexprob table. Here no task needs more of
+ * the table than one shard, which bounds the memory each task takes for very large grammars, at
+ * the cost of shuffling the rules twice more.
+ */
+public class LexicalWeightJob implements ThraxJob {
+
+  public static final String NAME = "lexical-weight";
+
+  public static boolean isPartitioned(Configuration conf) {
+    return conf.getBoolean("thrax.partitioned-lexprob", false);
+  }
+
+  /**
+   * Whether a feature is scored by this job rather than by the annotation job.
+   */
+  public static boolean scores(Configuration conf, AnnotationFeature feature) {
+    return isPartitioned(conf)
+        && (feature instanceof SourceGivenTargetLexicalProbabilityFeature
+            || feature instanceof TargetGivenSourceLexicalProbabilityFeature);
+  }
+
+  public Set<Class<? extends ThraxJob>> getPrerequisites() {
+    Set<Class<? extends ThraxJob>> pqs = new HashSet<Class<? extends ThraxJob>>();
+    pqs.add(LexprobLookupJob.class);
+    pqs.add(VocabularyJob.class);
+    return pqs;
+  }
+
+  public Job getJob(Configuration conf) throws IOException {
+    Job job = new Job(conf, NAME);
+    job.setJarByClass(LexicalWeightJob.class);
+
+    job.setMapperClass(Mapper.class);
+    job.setPartitionerClass(RuleWritable.YieldPartitioner.class);
+    job.setReducerClass(Reduce.class);
+
+    job.setInputFormatClass(SequenceFileInputFormat.class);
+    job.setMapOutputKeyClass(RuleWritable.class);
+    job.setMapOutputValueClass(LexprobLookups.class);
+    job.setOutputKeyClass(RuleWritable.class);
+    job.setOutputValueClass(FeaturePair.class);
+    job.setOutputFormatClass(SequenceFileOutputFormat.class);
+
+    int num_reducers = conf.getInt("thrax.reducers", conf.getInt("mapreduce.job.reduces", DefaultValues.DEFAULT_NUM_REDUCERS));
+    job.setNumReduceTasks(num_reducers);
+
+    String work_dir = conf.get("thrax.work-dir");
+    String lookups = new LexprobLookupJob().getOutputSuffix();
+    FileInputFormat.setInputPaths(job, new Path(work_dir + lookups));
+    FileOutputFormat.setOutputPath(job, new Path(work_dir + getOutputSuffix()));
+    return job;
+  }
+
+  public String getName() {
+    return NAME;
+  }
+
+  public String getOutputSuffix() {
+    return NAME;
+  }
+
+  private static class Reduce
+      extends Reducer<RuleWritable, LexprobLookups, RuleWritable, FeaturePair> {
+
+    private boolean sourceGivenTargetFeature;
+    private boolean targetGivenSourceFeature;
+    private int sourceGivenTargetLabel;
+    private int targetGivenSourceLabel;
+
+    private final RuleLexprobs sourceGivenTarget = new RuleLexprobs();
+    private final RuleLexprobs targetGivenSource = new RuleLexprobs();
+
+    protected void setup(Context context) throws IOException, InterruptedException {
+      Configuration conf = context.getConfiguration();
+      String vocabulary_path = conf.getRaw("thrax.work-dir") + "vocabulary/part-*";
+      Vocabulary.initialize(conf, vocabulary_path);
+
+      String features = BackwardsCompatibility.equivalent(conf.get("thrax.features", ""));
+      for (AnnotationFeature af : AnnotationFeatureFactory.getAll(features)) {
+        if (af instanceof SourceGivenTargetLexicalProbabilityFeature)
+          sourceGivenTargetFeature = true;
+        else if (af instanceof TargetGivenSourceLexicalProbabilityFeature)
+          targetGivenSourceFeature = true;
+      }
+      sourceGivenTargetLabel = Vocabulary.id(SourceGivenTargetLexicalProbabilityFeature.LABEL);
+      targetGivenSourceLabel = Vocabulary.id(TargetGivenSourceLexicalProbabilityFeature.LABEL);
+    }
+
+    protected void reduce(RuleWritable key, Iterable<LexprobLookups> values, Context context)
+        throws IOException, InterruptedException {
+      sourceGivenTarget.clear();
+      targetGivenSource.clear();
+      AlignmentWritable f2e = null;
+      for (LexprobLookups l : values) {
+        if (l.annotation != null) f2e = l.annotation.f2e();
+        (l.targetGivenSource ? targetGivenSource : sourceGivenTarget).addAll(l);
+      }
+      if (sourceGivenTargetFeature) {
+        float score =
+            SourceGivenTargetLexicalProbabilityFeature.sourceGivenTarget(key, f2e,
+                sourceGivenTarget);
+        context.write(key, new FeaturePair(sourceGivenTargetLabel, new FloatWritable(score)));
+      }
+      if (targetGivenSourceFeature) {
+        float score =
+            TargetGivenSourceLexicalProbabilityFeature.targetGivenSource(key, f2e.flip(),
+                targetGivenSource);
+        context.write(key, new FeaturePair(targetGivenSourceLabel, new FloatWritable(score)));
+      }
+    }
+  }
+
+  /**
+   * The lexprobs looked up for one rule, which are few enough to search through.
+   */
+  private static class RuleLexprobs implements LexprobTable {
+    private long[] pairs = new long[16];
+    private float[] probs = new float[16];
+    private int size;
+
+    void clear() {
+      size = 0;
+    }
+
+    void addAll(LexprobLookups l) {
+      if (size + l.size() > pairs.length) {
+        pairs = Arrays.copyOf(pairs, 2 * (size + l.size()));
+        probs = Arrays.copyOf(probs, pairs.length);
+      }
+      for (int i = 0; i < l.size(); i++) {
+        pairs[size] = l.pair(i);
+        probs[size] = l.probability(i);
+        size++;
+      }
+    }
+
+    public float get(int car, int cdr) {
+      long pair = ((long) car << 32) | (cdr & 0xFFFFFFFFL);
+      for (int i = 0; i < size; i++)
+        if (pairs[i] == pair) return probs[i];
+      return 0;
+    }
+
+    public boolean contains(int car, int cdr) {
+      long pair = ((long) car << 32) | (cdr & 0xFFFFFFFFL);
+      for (int i = 0; i < size; i++)
+        if (pairs[i] == pair) return true;
+      return false;
+    }
+  }
+}
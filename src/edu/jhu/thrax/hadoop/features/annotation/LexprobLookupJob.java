@@ -0,0 +1,188 @@
+package edu.jhu.thrax.hadoop.features.annotation;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+
+import edu.jhu.thrax.hadoop.datatypes.Annotation;
+import edu.jhu.thrax.hadoop.datatypes.LexprobLookups;
+import edu.jhu.thrax.hadoop.datatypes.RuleWritable;
+import edu.jhu.thrax.hadoop.features.WordLexicalProbabilityCalculator;
+import edu.jhu.thrax.hadoop.jobs.DefaultValues;
+import edu.jhu.thrax.hadoop.jobs.ExtractionJob;
+import edu.jhu.thrax.hadoop.jobs.ThraxJob;
+import edu.jhu.thrax.hadoop.jobs.WordLexprobJob;
+import edu.jhu.thrax.lexprob.LexprobTable;
+import edu.jhu.thrax.lexprob.MappedLexprobTable;
+import edu.jhu.thrax.util.Vocabulary;
+
+/**
+ * Looks up the word lexprobs of every rule's lexical weights, as the first step of the partitioned
+ * plan for them (see LexicalWeightJob). Each rule is sent to the reducers of the ranges of
+ * conditioning words it needs probabilities for, partitioned as the lexprob job partitioned its
+ * output, so every reducer only maps the shard of the lexprob table it wrote.
+ */
+public class LexprobLookupJob implements ThraxJob {
+
+  public static final String NAME = "lexprob-lookup";
+
+  public Set<Class<? extends ThraxJob>> getPrerequisites() {
+    Set<Class<? extends ThraxJob>> pqs = new HashSet<Class<? extends ThraxJob>>();
+    pqs.add(ExtractionJob.class);
+    pqs.add(WordLexprobJob.class);
+    return pqs;
+  }
+
+  public Job getJob(Configuration conf) throws IOException {
+    Job job = new Job(conf, NAME);
+    job.setJarByClass(LexprobLookupJob.class);
+
+    job.setMapperClass(Map.class);
+    job.setPartitionerClass(Partition.class);
+    job.setReducerClass(Reduce.class);
+
+    job.setInputFormatClass(SequenceFileInputFormat.class);
+    job.setMapOutputKeyClass(RuleWritable.class);
+    job.setMapOutputValueClass(LexprobLookups.class);
+    job.setOutputKeyClass(RuleWritable.class);
+    job.setOutputValueClass(LexprobLookups.class);
+    job.setOutputFormatClass(SequenceFileOutputFormat.class);
+
+    // As many reducers as the lexprob job, so that each one's range is that of one shard.
+    int num_reducers = conf.getInt("thrax.reducers", conf.getInt("mapreduce.job.reduces", DefaultValues.DEFAULT_NUM_REDUCERS));
+    job.setNumReduceTasks(2 * num_reducers);
+
+    MappedLexprobTable.addToCache(job, conf,
+        WordLexprobJob.getOutputPath(conf, WordLexprobJob.SOURCE_GIVEN_TARGET));
+    MappedLexprobTable.addToCache(job, conf,
+        WordLexprobJob.getOutputPath(conf, WordLexprobJob.TARGET_GIVEN_SOURCE));
+
+    FileInputFormat.setInputPaths(job, new Path(conf.get("thrax.work-dir") + "rules"));
+    FileOutputFormat.setOutputPath(job, new Path(conf.get("thrax.work-dir") + getOutputSuffix()));
+    return job;
+  }
+
+  public String getName() {
+    return NAME;
+  }
+
+  public String getOutputSuffix() {
+    return "lexprob-lookups";
+  }
+
+  /**
+   * Finds the pairs each lexical weight looks up by scoring the rule against a table that records
+   * them, and groups them by partition.
+   */
+  private static class Map extends Mapper<RuleWritable, Annotation, RuleWritable, LexprobLookups> {
+
+    private final WordLexicalProbabilityCalculator.Partition partitioner =
+        new WordLexicalProbabilityCalculator.Partition();
+    private LexprobLookups[] lookups;
+    private int[] touched;
+    private int num_touched;
+    private int partitions;
+
+    private boolean targetGivenSource;
+
+    private final LexprobTable recorder = new LexprobTable() {
+      public float get(int car, int cdr) {
+        long pair = ((long) car << 32) | (cdr & 0xFFFFFFFFL);
+        int p = partitioner.getPartition(pair, targetGivenSource, partitions);
+        LexprobLookups l = lookups[p];
+        if (l.size() == 0) {
+          touched[num_touched++] = p;
+          l.targetGivenSource = targetGivenSource;
+        }
+        l.add(pair);
+        return 1;
+      }
+
+      public boolean contains(int car, int cdr) {
+        return true;
+      }
+    };
+
+    protected void setup(Context context) throws IOException, InterruptedException {
+      Configuration conf = context.getConfiguration();
+      String vocabulary_path = conf.getRaw("thrax.work-dir") + "vocabulary/part-*";
+      Vocabulary.initialize(conf, vocabulary_path);
+
+      partitions = context.getNumReduceTasks();
+      lookups = new LexprobLookups[partitions];
+      for (int p = 0; p < partitions; p++) {
+        lookups[p] = new LexprobLookups();
+        lookups[p].partition = p;
+      }
+      touched = new int[partitions];
+    }
+
+    protected void map(RuleWritable key, Annotation value, Context context) throws IOException,
+        InterruptedException {
+      num_touched = 0;
+      targetGivenSource = false;
+      SourceGivenTargetLexicalProbabilityFeature.sourceGivenTarget(key, value.f2e(), recorder);
+      targetGivenSource = true;
+      TargetGivenSourceLexicalProbabilityFeature.targetGivenSource(key, value.e2f(), recorder);
+
+      // A rule that needs no lexprobs still has to get its weights, so it sends empty lookups.
+      if (num_touched == 0)
+        touched[num_touched++] = (key.hashCode() & Integer.MAX_VALUE) % partitions;
+      // The annotation is only needed once per rule, so it goes with the first lookups alone.
+      lookups[touched[0]].annotation = value;
+      for (int i = 0; i < num_touched; i++) {
+        LexprobLookups l = lookups[touched[i]];
+        context.write(key, l);
+        l.clear();
+      }
+    }
+  }
+
+  public static class Partition extends Partitioner<RuleWritable, LexprobLookups> {
+    public int getPartition(RuleWritable key, LexprobLookups value, int numPartitions) {
+      return value.partition;
+    }
+  }
+
+  /**
+   * Fills in the probabilities of the pairs in the reducer's partition. Shards are mapped as they
+   * are first needed, so only those of the reducer's range are.
+   */
+  private static class Reduce
+      extends Reducer<RuleWritable, LexprobLookups, RuleWritable, LexprobLookups> {
+
+    private MappedLexprobTable sourceGivenTarget;
+    private MappedLexprobTable targetGivenSource;
+
+    protected void setup(Context context) throws IOException, InterruptedException {
+      Configuration conf = context.getConfiguration();
+      sourceGivenTarget = MappedLexprobTable.open(conf,
+          WordLexprobJob.getOutputPath(conf, WordLexprobJob.SOURCE_GIVEN_TARGET));
+      targetGivenSource = MappedLexprobTable.open(conf,
+          WordLexprobJob.getOutputPath(conf, WordLexprobJob.TARGET_GIVEN_SOURCE));
+    }
+
+    protected void reduce(RuleWritable key, Iterable<LexprobLookups> values, Context context)
+        throws IOException, InterruptedException {
+      for (LexprobLookups l : values) {
+        MappedLexprobTable table = (l.targetGivenSource ? targetGivenSource : sourceGivenTarget);
+        for (int i = 0; i < l.size(); i++) {
+          long pair = l.pair(i);
+          l.resolve(i, table.get((int) (pair >> 32), (int) pair));
+        }
+        context.write(key, l);
+      }
+    }
+  }
+}
@@ -8,14 +8,15 @@ import java.util.Set;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.Writable;
-import org.apache.hadoop.mapreduce.Reducer.Context;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 
 import edu.jhu.thrax.hadoop.datatypes.AlignmentWritable;
 import edu.jhu.thrax.hadoop.datatypes.Annotation;
 import edu.jhu.thrax.hadoop.datatypes.RuleWritable;
-import edu.jhu.thrax.hadoop.jobs.SourceWordGivenTargetWordProbabilityJob;
 import edu.jhu.thrax.hadoop.jobs.ThraxJob;
-import edu.jhu.thrax.lexprob.TrieLexprobTable;
+import edu.jhu.thrax.hadoop.jobs.WordLexprobJob;
+import edu.jhu.thrax.lexprob.LexprobTable;
+import edu.jhu.thrax.lexprob.MappedLexprobTable;
 import edu.jhu.thrax.util.Vocabulary;
 
 @SuppressWarnings("rawtypes")
@@ -26,7 +27,7 @@ public class SourceGivenTargetLexicalProbabilityFeature implements AnnotationFea
   
   private static final float DEFAULT_PROB = 10e-7f;
   
-  private TrieLexprobTable table;
+  private MappedLexprobTable table;
   
   public String getName() {
     return NAME;
@@ -36,19 +37,21 @@ public class SourceGivenTargetLexicalProbabilityFeature implements AnnotationFea
     return LABEL;
   }
 
-  public void init(Context context) throws IOException, InterruptedException {
+  public void init(TaskInputOutputContext context) throws IOException, InterruptedException {
     Configuration conf = context.getConfiguration();
-    String work_dir = conf.getRaw("thrax.work-dir");
-    String sgt_path = work_dir + "lexprobs_sgt/part-*";
-    table = new TrieLexprobTable(conf, sgt_path);
+    table = MappedLexprobTable.open(conf,
+        WordLexprobJob.getOutputPath(conf, WordLexprobJob.SOURCE_GIVEN_TARGET));
     context.progress();
   }
 
   public Writable score(RuleWritable key, Annotation annotation) {
-    return new FloatWritable(sourceGivenTarget(key, annotation.f2e()));
+    return new FloatWritable(sourceGivenTarget(key, annotation.f2e(), table));
   }
 
-  private float sourceGivenTarget(RuleWritable rule, AlignmentWritable f2e) {
+  /**
+   * The lexical weight of a rule, with the word lexprobs looked up in the given table.
+   */
+  static float sourceGivenTarget(RuleWritable rule, AlignmentWritable f2e, LexprobTable table) {
     byte[] points = f2e.points;
     int[] source = rule.source;
     int[] target = rule.target;
@@ -101,7 +104,7 @@ public class SourceGivenTargetLexicalProbabilityFeature implements AnnotationFea
 
   public Set<Class<? extends ThraxJob>> getPrerequisites() {
     Set<Class<? extends ThraxJob>> pqs = new HashSet<Class<? extends ThraxJob>>();
-    pqs.add(SourceWordGivenTargetWordProbabilityJob.class);
+    pqs.add(WordLexprobJob.class);
     return pqs;
   }
 
@@ -8,14 +8,15 @@ import java.util.Set;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.Writable;
-import org.apache.hadoop.mapreduce.Reducer.Context;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 
 import edu.jhu.thrax.hadoop.datatypes.AlignmentWritable;
 import edu.jhu.thrax.hadoop.datatypes.Annotation;
 import edu.jhu.thrax.hadoop.datatypes.RuleWritable;
-import edu.jhu.thrax.hadoop.jobs.TargetWordGivenSourceWordProbabilityJob;
 import edu.jhu.thrax.hadoop.jobs.ThraxJob;
-import edu.jhu.thrax.lexprob.TrieLexprobTable;
+import edu.jhu.thrax.hadoop.jobs.WordLexprobJob;
+import edu.jhu.thrax.lexprob.LexprobTable;
+import edu.jhu.thrax.lexprob.MappedLexprobTable;
 import edu.jhu.thrax.util.Vocabulary;
 
 @SuppressWarnings("rawtypes")
@@ -26,7 +27,7 @@ public class TargetGivenSourceLexicalProbabilityFeature implements AnnotationFea
   
   private static final float DEFAULT_PROB = 10e-7f;
   
-  private TrieLexprobTable table;
+  private MappedLexprobTable table;
   
   public String getName() {
     return NAME;
@@ -36,21 +37,22 @@ public class TargetGivenSourceLexicalProbabilityFeature implements AnnotationFea
     return LABEL;
   }
 
-  public void init(Context context) throws IOException, InterruptedException {
+  public void init(TaskInputOutputContext context) throws IOException, InterruptedException {
     Configuration conf = context.getConfiguration();
 
-    String work_dir = conf.getRaw("thrax.work-dir");
-    String tgs_path = work_dir + "lexprobs_tgs/part-*";
-
-    table = new TrieLexprobTable(conf, tgs_path);
+    table = MappedLexprobTable.open(conf,
+        WordLexprobJob.getOutputPath(conf, WordLexprobJob.TARGET_GIVEN_SOURCE));
     context.progress();
   }
 
   public Writable score(RuleWritable key, Annotation annotation) {
-    return new FloatWritable(targetGivenSource(key, annotation.e2f()));
+    return new FloatWritable(targetGivenSource(key, annotation.e2f(), table));
   }
 
-  private float targetGivenSource(RuleWritable rule, AlignmentWritable e2f) {
+  /**
+   * The lexical weight of a rule, with the word lexprobs looked up in the given table.
+   */
+  static float targetGivenSource(RuleWritable rule, AlignmentWritable e2f, LexprobTable table) {
     byte[] points = e2f.points;
     int[] source = rule.source;
     int[] target = rule.target;
@@ -102,7 +104,7 @@ public class TargetGivenSourceLexicalProbabilityFeature implements AnnotationFea
 
   public Set<Class<? extends ThraxJob>> getPrerequisites() {
     Set<Class<? extends ThraxJob>> pqs = new HashSet<Class<? extends ThraxJob>>();
-    pqs.add(TargetWordGivenSourceWordProbabilityJob.class);
+    pqs.add(WordLexprobJob.class);
     return pqs;
   }
 
@@ -6,7 +6,7 @@ import java.util.Set;
 
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Writable;
-import org.apache.hadoop.mapreduce.Reducer.Context;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 
 import edu.jhu.thrax.hadoop.datatypes.Annotation;
 import edu.jhu.thrax.hadoop.datatypes.RuleWritable;
@@ -53,7 +53,7 @@ public class UnalignedTargetCounterFeature implements AnnotationFeature {
   }
 
   @Override
-  public void init(Context context) throws IOException, InterruptedException {}
+  public void init(TaskInputOutputContext context) throws IOException, InterruptedException {}
 
   @Override
   public Set<Class<? extends ThraxJob>> getPrerequisites() {
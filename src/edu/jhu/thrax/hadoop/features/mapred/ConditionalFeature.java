@@ -0,0 +1,149 @@
+package edu.jhu.thrax.hadoop.features.mapred;
+
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Writable;
+
+import edu.jhu.thrax.hadoop.features.Feature;
+import edu.jhu.thrax.util.FormatUtils;
+import edu.jhu.thrax.util.Vocabulary;
+
+/**
+ * A feature computed from rule counts, declared over the fields of a rule. A declaration of the
+ * form
+ *
+ * <pre>
+ * p(X | Y)
+ * </pre>
+ *
+ * gives the relative frequency of the fields X among rules sharing the fields Y, as a negative
+ * logprob. A declaration of the form
+ *
+ * <pre>
+ * c(Y)
+ * </pre>
+ *
+ * gives the number of times the fields Y were seen. Fields are lhs, source (or f), target (or e)
+ * and monotone, separated by commas or spaces.
+ */
+public class ConditionalFeature implements Feature {
+
+  public enum Field {
+    LHS, SOURCE, TARGET, MONOTONE;
+
+    public int mask() {
+      return 1 << ordinal();
+    }
+
+    public static Field parse(String name) {
+      String n = name.toLowerCase();
+      if (n.equals("lhs")) return LHS;
+      if (n.equals("source") || n.equals("f")) return SOURCE;
+      if (n.equals("target") || n.equals("e")) return TARGET;
+      if (n.equals("monotone")) return MONOTONE;
+      throw new IllegalArgumentException("Unknown rule field: " + name);
+    }
+  }
+
+  public static final int ALL = (1 << Field.values().length) - 1;
+
+  private static final Pattern DECLARATION = Pattern
+      .compile("\\s*([pc])\\s*\\(([^|()]*?)(?:\\|([^|()]*))?\\)\\s*");
+
+  private final String name;
+  private final String label;
+  private final String declaration;
+
+  // The fields counted and the fields conditioned on, as field masks.
+  private final int joint;
+  private final int marginal;
+  private final boolean count;
+
+  public ConditionalFeature(String name, String label, String declaration) {
+    this.name = name;
+    this.label = label;
+    this.declaration = declaration;
+
+    Matcher m = DECLARATION.matcher(declaration);
+    if (!m.matches())
+      throw new IllegalArgumentException("Malformed feature declaration for " + name + ": "
+          + declaration);
+    count = m.group(1).equals("c");
+    if (count) {
+      if (m.group(3) != null)
+        throw new IllegalArgumentException("Count feature " + name + " cannot be conditional: "
+            + declaration);
+      marginal = fields(m.group(2));
+      joint = marginal;
+    } else {
+      if (m.group(3) == null)
+        throw new IllegalArgumentException("Probability feature " + name
+            + " needs a condition: " + declaration);
+      int x = fields(m.group(2));
+      marginal = fields(m.group(3));
+      if ((x & marginal) != 0)
+        throw new IllegalArgumentException("Feature " + name
+            + " conditions on a field it predicts: " + declaration);
+      joint = x | marginal;
+    }
+  }
+
+  private static int fields(String list) {
+    int mask = 0;
+    for (String f : FormatUtils.P_COMMA_OR_SPACE.split(list.trim())) {
+      if (f.isEmpty()) continue;
+      mask |= Field.parse(f).mask();
+    }
+    if (mask == 0) throw new IllegalArgumentException("Empty field list in feature declaration");
+    return mask;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getLabel() {
+    return label;
+  }
+
+  public String getDeclaration() {
+    return declaration;
+  }
+
+  /**
+   * The fields whose count is the numerator of this feature.
+   */
+  public int joint() {
+    return joint;
+  }
+
+  /**
+   * The fields whose count is the denominator of this feature.
+   */
+  public int marginal() {
+    return marginal;
+  }
+
+  public boolean isCount() {
+    return count;
+  }
+
+  public Writable score(int joint_count, int marginal_count) {
+    if (count) return new IntWritable(marginal_count);
+    return new FloatWritable((float) -Math.log(joint_count / (float) marginal_count));
+  }
+
+  private static final FloatWritable ZERO = new FloatWritable(0.0f);
+
+  public void unaryGlueRuleScore(int nt, Map<Integer, Writable> map) {
+    map.put(Vocabulary.id(label), ZERO);
+  }
+
+  public void binaryGlueRuleScore(int nt, Map<Integer, Writable> map) {
+    map.put(Vocabulary.id(label), ZERO);
+  }
+}
@@ -0,0 +1,59 @@
+package edu.jhu.thrax.hadoop.features.mapred;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+
+import edu.jhu.thrax.util.FormatUtils;
+
+public class ConditionalFeatureFactory {
+
+  public static final ConditionalFeature SOURCE_GIVEN_TARGET = new ConditionalFeature(
+      "f_given_e_phrase", "p(f|e)", "p(source | target, monotone)");
+  public static final ConditionalFeature TARGET_GIVEN_SOURCE = new ConditionalFeature(
+      "e_given_f_phrase", "p(e|f)", "p(target, monotone | source)");
+  public static final ConditionalFeature LHS_GIVEN_SOURCE = new ConditionalFeature("lhs_given_f",
+      "p(LHS|f)", "p(lhs | source)");
+  public static final ConditionalFeature LHS_GIVEN_TARGET = new ConditionalFeature("lhs_given_e",
+      "p(LHS|e)", "p(lhs | target)");
+  public static final ConditionalFeature SOURCE_GIVEN_LHS = new ConditionalFeature("f_given_lhs",
+      "p(f|LHS)", "p(source | lhs)");
+  public static final ConditionalFeature TARGET_GIVEN_LHS = new ConditionalFeature("e_given_lhs",
+      "p(e|LHS)", "p(target | lhs)");
+  public static final ConditionalFeature SOURCE_GIVEN_TARGET_AND_LHS = new ConditionalFeature(
+      "f_given_e_and_lhs", "p(f|e,LHS)", "p(source | lhs, target, monotone)");
+  public static final ConditionalFeature TARGET_GIVEN_SOURCE_AND_LHS = new ConditionalFeature(
+      "e_given_f_and_lhs", "p(e|f,LHS)", "p(target, monotone | lhs, source)");
+  public static final ConditionalFeature SOURCE_COUNT = new ConditionalFeature("f_count", "C(f)",
+      "c(source)");
+  public static final ConditionalFeature TARGET_COUNT = new ConditionalFeature("e_count", "C(e)",
+      "c(target, monotone)");
+
+  private static final ConditionalFeature[] BUILT_IN = {SOURCE_GIVEN_TARGET, TARGET_GIVEN_SOURCE,
+      LHS_GIVEN_SOURCE, LHS_GIVEN_TARGET, SOURCE_GIVEN_LHS, TARGET_GIVEN_LHS,
+      SOURCE_GIVEN_TARGET_AND_LHS, TARGET_GIVEN_SOURCE_AND_LHS, SOURCE_COUNT, TARGET_COUNT};
+
+  /**
+   * Looks up a feature by name. A declaration in the config, under thrax.feature.&lt;name&gt;,
+   * takes precedence over the built-in features; such a feature is labeled with its name.
+   */
+  public static ConditionalFeature get(String name, Configuration conf) {
+    String declaration = conf.get("thrax.feature." + name);
+    if (declaration != null) return new ConditionalFeature(name, name, declaration);
+    for (ConditionalFeature f : BUILT_IN)
+      if (name.equals(f.getName())) return f;
+    return null;
+  }
+
+  public static List<ConditionalFeature> getAll(String names, Configuration conf) {
+    String[] feature_names = FormatUtils.P_COMMA_OR_SPACE.split(names);
+    List<ConditionalFeature> features = new ArrayList<ConditionalFeature>();
+
+    for (String feature_name : feature_names) {
+      ConditionalFeature feature = get(feature_name, conf);
+      if (feature != null) features.add(feature);
+    }
+    return features;
+  }
+}
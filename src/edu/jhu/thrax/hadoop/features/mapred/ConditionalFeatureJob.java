@@ -0,0 +1,451 @@
+package edu.jhu.thrax.hadoop.features.mapred;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.reduce.IntSumReducer;
+
+import edu.jhu.thrax.hadoop.datatypes.Annotation;
+import edu.jhu.thrax.hadoop.datatypes.FeaturePair;
+import edu.jhu.thrax.hadoop.datatypes.RuleWritable;
+import edu.jhu.thrax.hadoop.features.mapred.ConditionalFeature.Field;
+import edu.jhu.thrax.hadoop.jobs.DefaultValues;
+import edu.jhu.thrax.hadoop.jobs.ExtractionJob;
+import edu.jhu.thrax.hadoop.jobs.ThraxJob;
+import edu.jhu.thrax.util.Vocabulary;
+
+/**
+ * Computes all conditional features in a single pass over the extracted rules.
+ *
+ * Each feature needs the counts of two sets of rule fields: the fields it conditions on and those
+ * together with the fields it predicts. Features whose field sets nest form a chain, ending in the
+ * full rule. The map output key for a rule and a chain is the chain's tag followed by the rule's
+ * fields, one block per set in the chain, and the marginal for a set is the prefix of the key up to
+ * the end of its block. Every field is encoded so that no value is a prefix of another, so plain
+ * byte order sorts each marginal directly before the rules and deeper marginals that share it, and
+ * grouping by the whole key keeps marginals and rules apart. The reducer then sees every count a
+ * feature needs before the rule it scores.
+ *
+ * Marginal counts are summed in the mapper before being emitted, so each rule is shuffled once per
+ * chain plus once per distinct marginal in the mapper's input.
+ *
+ * Each feature writes to its own subdirectory of the job's output, features/&lt;name&gt;.
+ */
+public class ConditionalFeatureJob implements ThraxJob {
+
+  public static final String NAME = "features";
+
+  private static final String FEATURES_KEY = "thrax.conditional-features";
+
+  private static LinkedHashSet<String> features = new LinkedHashSet<String>();
+
+  public static void addFeature(ConditionalFeature feature) {
+    features.add(feature.getName());
+  }
+
+  public static boolean hasFeatures() {
+    return !features.isEmpty();
+  }
+
+  public Set<Class<? extends ThraxJob>> getPrerequisites() {
+    Set<Class<? extends ThraxJob>> result = new HashSet<Class<? extends ThraxJob>>();
+    result.add(ExtractionJob.class);
+    return result;
+  }
+
+  public Job getJob(Configuration conf) throws IOException {
+    Job job = new Job(conf, NAME);
+    job.setJarByClass(ConditionalFeatureJob.class);
+    job.getConfiguration().setStrings(FEATURES_KEY, features.toArray(new String[features.size()]));
+
+    job.setMapperClass(Map.class);
+    job.setCombinerClass(IntSumReducer.class);
+    job.setPartitionerClass(Partition.class);
+    job.setReducerClass(Reduce.class);
+
+    job.setInputFormatClass(SequenceFileInputFormat.class);
+    job.setMapOutputKeyClass(BytesWritable.class);
+    job.setMapOutputValueClass(IntWritable.class);
+    job.setOutputKeyClass(RuleWritable.class);
+    job.setOutputValueClass(FeaturePair.class);
+    // All output goes through MultipleOutputs, so don't create empty default part files.
+    LazyOutputFormat.setOutputFormatClass(job, SequenceFileOutputFormat.class);
+
+    int num_reducers = conf.getInt("thrax.reducers", conf.getInt("mapreduce.job.reduces", DefaultValues.DEFAULT_NUM_REDUCERS));
+    job.setNumReduceTasks(num_reducers);
+
+    FileInputFormat.setInputPaths(job, new Path(conf.get("thrax.work-dir") + "rules"));
+    FileOutputFormat.setOutputPath(job, new Path(conf.get("thrax.work-dir") + NAME));
+    return job;
+  }
+
+  public String getName() {
+    return NAME;
+  }
+
+  public String getOutputSuffix() {
+    return NAME;
+  }
+
+  /**
+   * Where the output of the named feature lives, relative to the work directory.
+   */
+  public static String getOutputSuffix(String feature) {
+    return NAME + Path.SEPARATOR + feature;
+  }
+
+  /**
+   * Sorts the features into chains of nested field sets. A feature joins the first chain all of
+   * whose sets nest with the sets it needs; otherwise it starts a new chain. With
+   * thrax.fuse-features turned off, every feature gets a chain of its own, so no two features share
+   * a sort order.
+   */
+  static List<Chain> plan(Configuration conf) {
+    boolean fuse = conf.getBoolean("thrax.fuse-features", true);
+    List<Chain> chains = new ArrayList<Chain>();
+    for (String name : conf.getStrings(FEATURES_KEY, new String[0])) {
+      ConditionalFeature feature = ConditionalFeatureFactory.get(name, conf);
+      Chain chain = null;
+      for (Chain c : chains) {
+        if (fuse && c.accepts(feature)) {
+          chain = c;
+          break;
+        }
+      }
+      if (chain == null) {
+        chain = new Chain(chains.size());
+        chains.add(chain);
+      }
+      chain.add(feature);
+    }
+    for (Chain c : chains)
+      c.seal();
+    return chains;
+  }
+
+  static class Chain {
+    final int tag;
+    final List<ConditionalFeature> features = new ArrayList<ConditionalFeature>();
+    private final TreeSet<Integer> masks = new TreeSet<Integer>();
+
+    // The fields added by each block, and for each feature the blocks ending its counts.
+    Field[][] blocks;
+    int[] joint;
+    int[] marginal;
+
+    Chain(int t) {
+      tag = t;
+      masks.add(ConditionalFeature.ALL);
+    }
+
+    private static boolean nested(int a, int b) {
+      return (a & b) == a || (a & b) == b;
+    }
+
+    boolean accepts(ConditionalFeature feature) {
+      for (int mask : masks)
+        if (!nested(mask, feature.joint()) || !nested(mask, feature.marginal())) return false;
+      return true;
+    }
+
+    void add(ConditionalFeature feature) {
+      features.add(feature);
+      masks.add(feature.joint());
+      masks.add(feature.marginal());
+    }
+
+    void seal() {
+      Integer[] sets = masks.toArray(new Integer[masks.size()]);
+      Arrays.sort(sets, new Comparator<Integer>() {
+        public int compare(Integer a, Integer b) {
+          return Integer.bitCount(a) - Integer.bitCount(b);
+        }
+      });
+      blocks = new Field[sets.length][];
+      int previous = 0;
+      for (int b = 0; b < sets.length; ++b) {
+        List<Field> fields = new ArrayList<Field>();
+        for (Field f : Field.values())
+          if ((sets[b] & ~previous & f.mask()) != 0) fields.add(f);
+        blocks[b] = fields.toArray(new Field[fields.size()]);
+        previous = sets[b];
+      }
+      joint = new int[features.size()];
+      marginal = new int[features.size()];
+      for (int i = 0; i < features.size(); ++i) {
+        joint[i] = Arrays.asList(sets).indexOf(features.get(i).joint());
+        marginal[i] = Arrays.asList(sets).indexOf(features.get(i).marginal());
+      }
+    }
+
+    int depth() {
+      return blocks.length;
+    }
+
+    void writeBlock(RuleWritable r, int b, DataOutput out) throws IOException {
+      for (Field f : blocks[b]) {
+        switch (f) {
+          case LHS:
+            WritableUtils.writeVInt(out, r.lhs);
+            break;
+          case SOURCE:
+            writeArray(r.source, out);
+            break;
+          case TARGET:
+            writeArray(r.target, out);
+            break;
+          case MONOTONE:
+            out.writeByte(r.monotone ? 1 : 0);
+            break;
+        }
+      }
+    }
+
+    void readBlock(DataInput in, int b, RuleWritable r) throws IOException {
+      for (Field f : blocks[b]) {
+        switch (f) {
+          case LHS:
+            r.lhs = WritableUtils.readVInt(in);
+            break;
+          case SOURCE:
+            r.source = readArray(in);
+            break;
+          case TARGET:
+            r.target = readArray(in);
+            break;
+          case MONOTONE:
+            r.monotone = in.readByte() != 0;
+            break;
+        }
+      }
+    }
+
+    /**
+     * The length of the given block, encoded starting at the given offset.
+     */
+    int blockLength(byte[] bytes, int start, int b) {
+      int p = start;
+      for (Field f : blocks[b]) {
+        switch (f) {
+          case LHS:
+            p += WritableUtils.decodeVIntSize(bytes[p]);
+            break;
+          case SOURCE:
+          case TARGET:
+            int n = WritableUtils.decodeVIntSize(bytes[p]);
+            int length = readVInt(bytes, p);
+            p += n;
+            for (int i = 0; i < length; ++i)
+              p += WritableUtils.decodeVIntSize(bytes[p]);
+            break;
+          case MONOTONE:
+            ++p;
+            break;
+        }
+      }
+      return p - start;
+    }
+
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append("chain ").append(tag).append(" over");
+      for (Field[] block : blocks)
+        sb.append(" ").append(Arrays.toString(block));
+      sb.append(" for");
+      for (ConditionalFeature f : features)
+        sb.append(" ").append(f.getName()).append("=").append(f.getDeclaration());
+      return sb.toString();
+    }
+  }
+
+  private static void writeArray(int[] array, DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, array.length);
+    for (int x : array)
+      WritableUtils.writeVInt(out, x);
+  }
+
+  private static int[] readArray(DataInput in) throws IOException {
+    int[] array = new int[WritableUtils.readVInt(in)];
+    for (int i = 0; i < array.length; ++i)
+      array[i] = WritableUtils.readVInt(in);
+    return array;
+  }
+
+  private static int readVInt(byte[] bytes, int start) {
+    try {
+      return WritableComparator.readVInt(bytes, start);
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  private static class Map extends Mapper<RuleWritable, Annotation, BytesWritable, IntWritable> {
+
+    private Chain[] chains;
+    private int limit;
+
+    private final HashMap<BytesWritable, IntWritable> marginals =
+        new HashMap<BytesWritable, IntWritable>();
+    private final DataOutputBuffer buffer = new DataOutputBuffer();
+    private final BytesWritable key = new BytesWritable();
+    private final IntWritable count = new IntWritable();
+
+    protected void setup(Context context) throws IOException, InterruptedException {
+      Configuration conf = context.getConfiguration();
+      List<Chain> plan = plan(conf);
+      chains = plan.toArray(new Chain[plan.size()]);
+      limit = conf.getInt("thrax.marginal-cache-size", 100000);
+    }
+
+    protected void map(RuleWritable rule, Annotation value, Context context) throws IOException,
+        InterruptedException {
+      count.set(value.count());
+      for (Chain chain : chains) {
+        buffer.reset();
+        buffer.writeByte(chain.tag);
+        int last = chain.depth() - 1;
+        for (int b = 0; b < last; ++b) {
+          chain.writeBlock(rule, b, buffer);
+          key.set(buffer.getData(), 0, buffer.getLength());
+          IntWritable sum = marginals.get(key);
+          if (sum == null)
+            marginals.put(new BytesWritable(key.copyBytes()), new IntWritable(value.count()));
+          else
+            sum.set(sum.get() + value.count());
+        }
+        chain.writeBlock(rule, last, buffer);
+        key.set(buffer.getData(), 0, buffer.getLength());
+        context.write(key, count);
+      }
+      if (marginals.size() >= limit) flush(context);
+    }
+
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+      flush(context);
+    }
+
+    private void flush(Context context) throws IOException, InterruptedException {
+      for (java.util.Map.Entry<BytesWritable, IntWritable> e : marginals.entrySet())
+        context.write(e.getKey(), e.getValue());
+      marginals.clear();
+    }
+  }
+
+  private static class Reduce extends Reducer<BytesWritable, IntWritable, RuleWritable, FeaturePair> {
+
+    private Chain[] chains;
+    private int[][] labels;
+    private String[][] paths;
+    private int[][] counts;
+    private MultipleOutputs<RuleWritable, FeaturePair> outputs;
+
+    private final DataInputBuffer in = new DataInputBuffer();
+    private final RuleWritable rule = new RuleWritable();
+
+    protected void setup(Context context) throws IOException, InterruptedException {
+      Configuration conf = context.getConfiguration();
+      String vocabulary_path = conf.getRaw("thrax.work-dir") + "vocabulary/part-*";
+      Vocabulary.initialize(conf, vocabulary_path);
+
+      List<Chain> plan = plan(conf);
+      chains = plan.toArray(new Chain[plan.size()]);
+      labels = new int[chains.length][];
+      paths = new String[chains.length][];
+      counts = new int[chains.length][];
+      for (int c = 0; c < chains.length; ++c) {
+        labels[c] = new int[chains[c].features.size()];
+        paths[c] = new String[labels[c].length];
+        for (int i = 0; i < labels[c].length; ++i) {
+          ConditionalFeature feature = chains[c].features.get(i);
+          labels[c][i] = Vocabulary.id(feature.getLabel());
+          paths[c][i] = feature.getName() + Path.SEPARATOR + "part";
+        }
+        counts[c] = new int[chains[c].depth()];
+      }
+      outputs = new MultipleOutputs<RuleWritable, FeaturePair>(context);
+    }
+
+    protected void reduce(BytesWritable key, Iterable<IntWritable> values, Context context)
+        throws IOException, InterruptedException {
+      int sum = 0;
+      for (IntWritable x : values)
+        sum += x.get();
+
+      in.reset(key.getBytes(), key.getLength());
+      Chain chain = chains[in.readByte()];
+      int depth = 0;
+      while (in.getPosition() < key.getLength())
+        chain.readBlock(in, depth++, rule);
+      int[] count = counts[chain.tag];
+      count[depth - 1] = sum;
+      if (depth < chain.depth()) return;
+
+      for (int i = 0; i < labels[chain.tag].length; ++i) {
+        ConditionalFeature feature = chain.features.get(i);
+        outputs.write(rule, new FeaturePair(labels[chain.tag][i], feature.score(
+            count[chain.joint[i]], count[chain.marginal[i]])), paths[chain.tag][i]);
+      }
+    }
+
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+      outputs.close();
+    }
+  }
+
+  /**
+   * Partitions on the chain and the first block of fields, so that every count a rule's features
+   * need goes to the same reducer as the rule.
+   */
+  public static class Partition extends Partitioner<BytesWritable, IntWritable> implements
+      Configurable {
+
+    private Configuration conf;
+    private Chain[] chains;
+
+    public void setConf(Configuration c) {
+      conf = c;
+      List<Chain> plan = plan(conf);
+      chains = plan.toArray(new Chain[plan.size()]);
+    }
+
+    public Configuration getConf() {
+      return conf;
+    }
+
+    public int getPartition(BytesWritable key, IntWritable value, int numPartitions) {
+      byte[] bytes = key.getBytes();
+      int length = 1 + chains[bytes[0]].blockLength(bytes, 1, 0);
+      int hash = WritableComparator.hashBytes(bytes, length);
+      return (hash & Integer.MAX_VALUE) % numPartitions;
+    }
+  }
+}
@@ -6,13 +6,12 @@ import java.util.Set;
 import org.apache.hadoop.io.FloatWritable;
 
 import edu.jhu.thrax.hadoop.datatypes.FeatureMap;
-import edu.jhu.thrax.hadoop.features.mapred.LhsGivenSourcePhraseFeature;
-import edu.jhu.thrax.hadoop.features.mapred.LhsGivenTargetPhraseFeature;
+import edu.jhu.thrax.hadoop.features.mapred.ConditionalFeatureFactory;
 
 public class PivotedLhsGivenSourcePhraseFeature extends NonAggregatingPivotedFeature {
 
-  public static final String NAME = LhsGivenSourcePhraseFeature.NAME;
-  public static final String LABEL = LhsGivenSourcePhraseFeature.LABEL;
+  public static final String NAME = ConditionalFeatureFactory.LHS_GIVEN_SOURCE.getName();
+  public static final String LABEL = ConditionalFeatureFactory.LHS_GIVEN_SOURCE.getLabel();
 
   public String getName() {
     return NAME;
@@ -24,18 +23,19 @@ public class PivotedLhsGivenSourcePhraseFeature extends NonAggregatingPivotedFea
 
   public Set<String> getPrerequisites() {
     Set<String> prereqs = new HashSet<String>();
-    prereqs.add(LhsGivenTargetPhraseFeature.NAME);
+    prereqs.add(ConditionalFeatureFactory.LHS_GIVEN_TARGET.getName());
     return prereqs;
   }
 
   public FloatWritable pivot(FeatureMap src, FeatureMap tgt) {
-    return new FloatWritable(((FloatWritable) src.get(LhsGivenTargetPhraseFeature.LABEL)).get());
+    return new FloatWritable(((FloatWritable) src.get(ConditionalFeatureFactory.LHS_GIVEN_TARGET
+        .getLabel())).get());
   }
 
   @Override
   public Set<String> getLowerBoundLabels() {
     Set<String> lower_bound_labels = new HashSet<String>();
-    lower_bound_labels.add(LhsGivenTargetPhraseFeature.LABEL);
+    lower_bound_labels.add(ConditionalFeatureFactory.LHS_GIVEN_TARGET.getLabel());
     return lower_bound_labels;
   }
 
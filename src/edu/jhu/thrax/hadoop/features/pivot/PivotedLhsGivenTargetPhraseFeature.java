@@ -6,12 +6,12 @@ import java.util.Set;
 import org.apache.hadoop.io.FloatWritable;
 
 import edu.jhu.thrax.hadoop.datatypes.FeatureMap;
-import edu.jhu.thrax.hadoop.features.mapred.LhsGivenTargetPhraseFeature;
+import edu.jhu.thrax.hadoop.features.mapred.ConditionalFeatureFactory;
 
 public class PivotedLhsGivenTargetPhraseFeature extends NonAggregatingPivotedFeature {
 
-  public static final String NAME = LhsGivenTargetPhraseFeature.NAME;
-  public static final String LABEL = LhsGivenTargetPhraseFeature.LABEL;
+  public static final String NAME = ConditionalFeatureFactory.LHS_GIVEN_TARGET.getName();
+  public static final String LABEL = ConditionalFeatureFactory.LHS_GIVEN_TARGET.getLabel();
 
   public String getName() {
     return NAME;
@@ -23,18 +23,19 @@ public class PivotedLhsGivenTargetPhraseFeature extends NonAggregatingPivotedFea
 
   public Set<String> getPrerequisites() {
     Set<String> prereqs = new HashSet<String>();
-    prereqs.add(LhsGivenTargetPhraseFeature.NAME);
+    prereqs.add(ConditionalFeatureFactory.LHS_GIVEN_TARGET.getName());
     return prereqs;
   }
 
   public FloatWritable pivot(FeatureMap src, FeatureMap tgt) {
-    return new FloatWritable(((FloatWritable) tgt.get(LhsGivenTargetPhraseFeature.LABEL)).get());
+    return new FloatWritable(((FloatWritable) tgt.get(ConditionalFeatureFactory.LHS_GIVEN_TARGET
+        .getLabel())).get());
   }
 
   @Override
   public Set<String> getLowerBoundLabels() {
     Set<String> lower_bound_labels = new HashSet<String>();
-    lower_bound_labels.add(LhsGivenTargetPhraseFeature.LABEL);
+    lower_bound_labels.add(ConditionalFeatureFactory.LHS_GIVEN_TARGET.getLabel());
     return lower_bound_labels;
   }
 
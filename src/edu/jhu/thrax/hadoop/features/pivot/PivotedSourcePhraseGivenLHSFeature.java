@@ -6,13 +6,12 @@ import java.util.Set;
 import org.apache.hadoop.io.FloatWritable;
 
 import edu.jhu.thrax.hadoop.datatypes.FeatureMap;
-import edu.jhu.thrax.hadoop.features.mapred.SourcePhraseGivenLHSFeature;
-import edu.jhu.thrax.hadoop.features.mapred.TargetPhraseGivenLHSFeature;
+import edu.jhu.thrax.hadoop.features.mapred.ConditionalFeatureFactory;
 
 public class PivotedSourcePhraseGivenLHSFeature extends NonAggregatingPivotedFeature {
 
-  public static final String NAME = SourcePhraseGivenLHSFeature.NAME;
-  public static final String LABEL = SourcePhraseGivenLHSFeature.LABEL;
+  public static final String NAME = ConditionalFeatureFactory.SOURCE_GIVEN_LHS.getName();
+  public static final String LABEL = ConditionalFeatureFactory.SOURCE_GIVEN_LHS.getLabel();
 
   public String getName() {
     return NAME;
@@ -24,18 +23,19 @@ public class PivotedSourcePhraseGivenLHSFeature extends NonAggregatingPivotedFea
 
   public Set<String> getPrerequisites() {
     Set<String> prereqs = new HashSet<String>();
-    prereqs.add(TargetPhraseGivenLHSFeature.NAME);
+    prereqs.add(ConditionalFeatureFactory.TARGET_GIVEN_LHS.getName());
     return prereqs;
   }
 
   public FloatWritable pivot(FeatureMap src, FeatureMap tgt) {
-    return new FloatWritable(((FloatWritable) src.get(TargetPhraseGivenLHSFeature.LABEL)).get());
+    return new FloatWritable(((FloatWritable) src.get(ConditionalFeatureFactory.TARGET_GIVEN_LHS
+        .getLabel())).get());
   }
 
   @Override
   public Set<String> getLowerBoundLabels() {
     Set<String> lower_bound_labels = new HashSet<String>();
-    lower_bound_labels.add(TargetPhraseGivenLHSFeature.LABEL);
+    lower_bound_labels.add(ConditionalFeatureFactory.TARGET_GIVEN_LHS.getLabel());
     return lower_bound_labels;
   }
 
@@ -6,13 +6,14 @@ import java.util.Set;
 import org.apache.hadoop.io.FloatWritable;
 
 import edu.jhu.thrax.hadoop.datatypes.FeatureMap;
-import edu.jhu.thrax.hadoop.features.mapred.SourcePhraseGivenTargetandLHSFeature;
-import edu.jhu.thrax.hadoop.features.mapred.TargetPhraseGivenSourceandLHSFeature;
+import edu.jhu.thrax.hadoop.features.mapred.ConditionalFeatureFactory;
 
 public class PivotedSourcePhraseGivenTargetAndLHSFeature extends PivotedNegLogProbFeature {
 
-  public static final String NAME = SourcePhraseGivenTargetandLHSFeature.NAME; 
-  public static final String LABEL = SourcePhraseGivenTargetandLHSFeature.LABEL;
+  public static final String NAME =
+      ConditionalFeatureFactory.SOURCE_GIVEN_TARGET_AND_LHS.getName(); 
+  public static final String LABEL =
+      ConditionalFeatureFactory.SOURCE_GIVEN_TARGET_AND_LHS.getLabel();
   
   public String getName() {
     return NAME;
@@ -24,14 +25,18 @@ public class PivotedSourcePhraseGivenTargetAndLHSFeature extends PivotedNegLogPr
 
   public Set<String> getPrerequisites() {
     Set<String> prereqs = new HashSet<String>();
-    prereqs.add(SourcePhraseGivenTargetandLHSFeature.NAME);
-    prereqs.add(TargetPhraseGivenSourceandLHSFeature.NAME);
+    prereqs.add(ConditionalFeatureFactory.SOURCE_GIVEN_TARGET_AND_LHS.getName());
+    prereqs.add(ConditionalFeatureFactory.TARGET_GIVEN_SOURCE_AND_LHS.getName());
     return prereqs;
   }
 
   public FloatWritable pivot(FeatureMap src, FeatureMap tgt) {
-    float fge = ((FloatWritable) src.get(TargetPhraseGivenSourceandLHSFeature.LABEL)).get();
-    float egf = ((FloatWritable) tgt.get(SourcePhraseGivenTargetandLHSFeature.LABEL)).get();
+    float fge =
+        ((FloatWritable) src.get(ConditionalFeatureFactory.TARGET_GIVEN_SOURCE_AND_LHS
+            .getLabel())).get();
+    float egf =
+        ((FloatWritable) tgt.get(ConditionalFeatureFactory.SOURCE_GIVEN_TARGET_AND_LHS
+            .getLabel())).get();
 
     return new FloatWritable(egf + fge);
   }
@@ -39,8 +44,8 @@ public class PivotedSourcePhraseGivenTargetAndLHSFeature extends PivotedNegLogPr
   @Override
   public Set<String> getLowerBoundLabels() {
     Set<String> lower_bound_labels = new HashSet<String>();
-    lower_bound_labels.add(TargetPhraseGivenSourceandLHSFeature.LABEL);
-    lower_bound_labels.add(SourcePhraseGivenTargetandLHSFeature.LABEL);
+    lower_bound_labels.add(ConditionalFeatureFactory.TARGET_GIVEN_SOURCE_AND_LHS.getLabel());
+    lower_bound_labels.add(ConditionalFeatureFactory.SOURCE_GIVEN_TARGET_AND_LHS.getLabel());
     return lower_bound_labels;
   }
 
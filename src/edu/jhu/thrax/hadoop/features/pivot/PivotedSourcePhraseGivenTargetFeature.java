@@ -6,13 +6,12 @@ import java.util.Set;
 import org.apache.hadoop.io.FloatWritable;
 
 import edu.jhu.thrax.hadoop.datatypes.FeatureMap;
-import edu.jhu.thrax.hadoop.features.mapred.SourcePhraseGivenTargetFeature;
-import edu.jhu.thrax.hadoop.features.mapred.TargetPhraseGivenSourceFeature;
+import edu.jhu.thrax.hadoop.features.mapred.ConditionalFeatureFactory;
 
 public class PivotedSourcePhraseGivenTargetFeature extends PivotedNegLogProbFeature {
 
-  public static final String NAME = SourcePhraseGivenTargetFeature.NAME;
-  public static final String LABEL = SourcePhraseGivenTargetFeature.LABEL;
+  public static final String NAME = ConditionalFeatureFactory.SOURCE_GIVEN_TARGET.getName();
+  public static final String LABEL = ConditionalFeatureFactory.SOURCE_GIVEN_TARGET.getLabel();
 
   public String getName() {
     return NAME;
@@ -24,14 +23,16 @@ public class PivotedSourcePhraseGivenTargetFeature extends PivotedNegLogProbFeat
 
   public Set<String> getPrerequisites() {
     Set<String> prereqs = new HashSet<String>();
-    prereqs.add(TargetPhraseGivenSourceFeature.NAME);
-    prereqs.add(SourcePhraseGivenTargetFeature.NAME);
+    prereqs.add(ConditionalFeatureFactory.TARGET_GIVEN_SOURCE.getName());
+    prereqs.add(ConditionalFeatureFactory.SOURCE_GIVEN_TARGET.getName());
     return prereqs;
   }
 
   public FloatWritable pivot(FeatureMap src, FeatureMap tgt) {
-    float src_f = ((FloatWritable) src.get(TargetPhraseGivenSourceFeature.LABEL)).get();
-    float f_tgt = ((FloatWritable) tgt.get(SourcePhraseGivenTargetFeature.LABEL)).get();
+    float src_f =
+        ((FloatWritable) src.get(ConditionalFeatureFactory.TARGET_GIVEN_SOURCE.getLabel())).get();
+    float f_tgt =
+        ((FloatWritable) tgt.get(ConditionalFeatureFactory.SOURCE_GIVEN_TARGET.getLabel())).get();
 
     return new FloatWritable(src_f + f_tgt);
   }
@@ -39,8 +40,8 @@ public class PivotedSourcePhraseGivenTargetFeature extends PivotedNegLogProbFeat
   @Override
   public Set<String> getLowerBoundLabels() {
     Set<String> lower_bound_labels = new HashSet<String>();
-    lower_bound_labels.add(TargetPhraseGivenSourceFeature.LABEL);
-    lower_bound_labels.add(SourcePhraseGivenTargetFeature.LABEL);
+    lower_bound_labels.add(ConditionalFeatureFactory.TARGET_GIVEN_SOURCE.getLabel());
+    lower_bound_labels.add(ConditionalFeatureFactory.SOURCE_GIVEN_TARGET.getLabel());
     return lower_bound_labels;
   }
 
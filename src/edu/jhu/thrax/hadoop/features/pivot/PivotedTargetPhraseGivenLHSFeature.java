@@ -6,12 +6,12 @@ import java.util.Set;
 import org.apache.hadoop.io.FloatWritable;
 
 import edu.jhu.thrax.hadoop.datatypes.FeatureMap;
-import edu.jhu.thrax.hadoop.features.mapred.TargetPhraseGivenLHSFeature;
+import edu.jhu.thrax.hadoop.features.mapred.ConditionalFeatureFactory;
 
 public class PivotedTargetPhraseGivenLHSFeature extends NonAggregatingPivotedFeature {
 
-  public static final String NAME = TargetPhraseGivenLHSFeature.NAME;
-  public static final String LABEL = TargetPhraseGivenLHSFeature.LABEL;
+  public static final String NAME = ConditionalFeatureFactory.TARGET_GIVEN_LHS.getName();
+  public static final String LABEL = ConditionalFeatureFactory.TARGET_GIVEN_LHS.getLabel();
 
   public String getName() {
     return NAME;
@@ -23,18 +23,19 @@ public class PivotedTargetPhraseGivenLHSFeature extends NonAggregatingPivotedFea
 
   public Set<String> getPrerequisites() {
     Set<String> prereqs = new HashSet<String>();
-    prereqs.add(TargetPhraseGivenLHSFeature.NAME);
+    prereqs.add(ConditionalFeatureFactory.TARGET_GIVEN_LHS.getName());
     return prereqs;
   }
 
   public FloatWritable pivot(FeatureMap src, FeatureMap tgt) {
-    return new FloatWritable(((FloatWritable) tgt.get(TargetPhraseGivenLHSFeature.LABEL)).get());
+    return new FloatWritable(((FloatWritable) tgt.get(ConditionalFeatureFactory.TARGET_GIVEN_LHS
+        .getLabel())).get());
   }
 
   @Override
   public Set<String> getLowerBoundLabels() {
     Set<String> lower_bound_labels = new HashSet<String>();
-    lower_bound_labels.add(TargetPhraseGivenLHSFeature.LABEL);
+    lower_bound_labels.add(ConditionalFeatureFactory.TARGET_GIVEN_LHS.getLabel());
     return lower_bound_labels;
   }
 
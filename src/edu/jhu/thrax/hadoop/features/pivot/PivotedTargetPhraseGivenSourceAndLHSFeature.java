@@ -6,13 +6,13 @@ import java.util.Set;
 import org.apache.hadoop.io.FloatWritable;
 
 import edu.jhu.thrax.hadoop.datatypes.FeatureMap;
-import edu.jhu.thrax.hadoop.features.mapred.SourcePhraseGivenTargetandLHSFeature;
-import edu.jhu.thrax.hadoop.features.mapred.TargetPhraseGivenSourceandLHSFeature;
+import edu.jhu.thrax.hadoop.features.mapred.ConditionalFeatureFactory;
 
 public class PivotedTargetPhraseGivenSourceAndLHSFeature extends PivotedNegLogProbFeature {
 
-  public static final String NAME = TargetPhraseGivenSourceandLHSFeature.NAME;
-  public static final String LABEL = TargetPhraseGivenSourceandLHSFeature.LABEL;
+  public static final String NAME = ConditionalFeatureFactory.TARGET_GIVEN_SOURCE_AND_LHS.getName();
+  public static final String LABEL =
+      ConditionalFeatureFactory.TARGET_GIVEN_SOURCE_AND_LHS.getLabel();
 
   public String getName() {
     return NAME;
@@ -24,14 +24,18 @@ public class PivotedTargetPhraseGivenSourceAndLHSFeature extends PivotedNegLogPr
 
   public Set<String> getPrerequisites() {
     Set<String> prereqs = new HashSet<String>();
-    prereqs.add(TargetPhraseGivenSourceandLHSFeature.NAME);
-    prereqs.add(SourcePhraseGivenTargetandLHSFeature.NAME);
+    prereqs.add(ConditionalFeatureFactory.TARGET_GIVEN_SOURCE_AND_LHS.getName());
+    prereqs.add(ConditionalFeatureFactory.SOURCE_GIVEN_TARGET_AND_LHS.getName());
     return prereqs;
   }
 
   public FloatWritable pivot(FeatureMap src, FeatureMap tgt) {
-    float fge = ((FloatWritable) tgt.get(TargetPhraseGivenSourceandLHSFeature.LABEL)).get();
-    float egf = ((FloatWritable) src.get(SourcePhraseGivenTargetandLHSFeature.LABEL)).get();
+    float fge =
+        ((FloatWritable) tgt.get(ConditionalFeatureFactory.TARGET_GIVEN_SOURCE_AND_LHS
+            .getLabel())).get();
+    float egf =
+        ((FloatWritable) src.get(ConditionalFeatureFactory.SOURCE_GIVEN_TARGET_AND_LHS
+            .getLabel())).get();
 
     return new FloatWritable(egf + fge);
   }
@@ -39,8 +43,8 @@ public class PivotedTargetPhraseGivenSourceAndLHSFeature extends PivotedNegLogPr
   @Override
   public Set<String> getLowerBoundLabels() {
     Set<String> lower_bound_labels = new HashSet<String>();
-    lower_bound_labels.add(TargetPhraseGivenSourceandLHSFeature.LABEL);
-    lower_bound_labels.add(SourcePhraseGivenTargetandLHSFeature.LABEL);
+    lower_bound_labels.add(ConditionalFeatureFactory.TARGET_GIVEN_SOURCE_AND_LHS.getLabel());
+    lower_bound_labels.add(ConditionalFeatureFactory.SOURCE_GIVEN_TARGET_AND_LHS.getLabel());
     return lower_bound_labels;
   }
 
@@ -0,0 +1,270 @@
+package edu.jhu.thrax.hadoop.jobs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ * A directory shared between runs that holds the outputs of cacheable jobs. Each output is stored
+ * under a key computed from the job's class, the values of the configuration keys it reads, the
+ * contents of its inputs from outside the work directory and the keys of its prerequisites. A
+ * later run with the same key links the stored output into its work directory instead of running
+ * the job.
+ *
+ * Entries are evicted least recently used first once the cache grows beyond its size budget. On a
+ * local file system outputs are hard-linked rather than copied, so an entry shared by several
+ * work directories takes up its space only once.
+ */
+public class ArtifactCache {
+
+  private static final String DATA = "data";
+  private static final String ENTRY = "entry";
+  private static final String TEMPORARY = ".tmp";
+
+  private final Configuration conf;
+  private final Path root;
+  private final long budget;
+
+  // What happened to each cacheable job in this run: hit, miss or stored.
+  private final Map<String, String> report = new TreeMap<String, String>();
+
+  public ArtifactCache(Configuration conf) throws IOException {
+    this.conf = conf;
+    Path dir = new Path(conf.get("thrax.cache-dir"));
+    root = dir.getFileSystem(conf).makeQualified(dir);
+    budget = conf.getLong("thrax.cache-size", 0) * 1024 * 1024;
+  }
+
+  /**
+   * Restores a job's output, and those of its prerequisites, from the cache. Returns false and
+   * leaves the work directory untouched unless all of them are cached or already up to date.
+   */
+  public synchronized boolean restore(ThraxJob thrax_job) throws IOException {
+    String key = key(thrax_job);
+    if (key == null) return false;
+    if (!available(thrax_job)) {
+      report.put(thrax_job.getName(), "miss " + key);
+      return false;
+    }
+    restore(thrax_job, key);
+    return true;
+  }
+
+  private boolean available(ThraxJob thrax_job) throws IOException {
+    if (!fs().exists(new Path(entry(key(thrax_job)), ENTRY))) return false;
+    for (Class<? extends ThraxJob> p : thrax_job.getPrerequisites()) {
+      ThraxJob prerequisite = JobManifest.instance(p);
+      if (!JobManifest.isValid(prerequisite, conf) && !available(prerequisite)) return false;
+    }
+    return true;
+  }
+
+  private void restore(ThraxJob thrax_job, String key) throws IOException {
+    for (Class<? extends ThraxJob> p : thrax_job.getPrerequisites()) {
+      ThraxJob prerequisite = JobManifest.instance(p);
+      if (!JobManifest.isValid(prerequisite, conf)) restore(prerequisite, key(prerequisite));
+    }
+    Job job = thrax_job.getJob(conf);
+    Path output = FileOutputFormat.getOutputPath(job);
+    JobManifest.clear(thrax_job, job, conf);
+    Path entry = entry(key);
+    System.err.println("[CACHE] restoring " + thrax_job.getName() + " from " + entry);
+    transfer(new Path(entry, DATA), output);
+    fs().setTimes(new Path(entry, ENTRY), System.currentTimeMillis(), -1);
+    JobManifest.write(thrax_job, job, conf);
+    report.put(thrax_job.getName(), "hit " + key);
+  }
+
+  /**
+   * Stores the output of a job that just completed, then evicts old entries if the cache has
+   * grown beyond its budget.
+   */
+  public synchronized void store(ThraxJob thrax_job, Job job) throws IOException {
+    String key = key(thrax_job);
+    if (key == null) return;
+    Path entry = entry(key);
+    FileSystem fs = fs();
+    if (!fs.exists(new Path(entry, ENTRY))) {
+      // Fill a temporary directory first, so a half-written entry is never used.
+      Path temporary = new Path(root, key + "." + System.nanoTime() + TEMPORARY);
+      transfer(FileOutputFormat.getOutputPath(job), new Path(temporary, DATA));
+      PrintWriter out = new PrintWriter(fs.create(new Path(temporary, ENTRY)));
+      out.println(thrax_job.getName());
+      out.close();
+      fs.delete(entry, true);
+      if (!fs.rename(temporary, entry)) fs.delete(temporary, true);
+      System.err.println("[CACHE] stored " + thrax_job.getName() + " in " + entry);
+    }
+    report.put(thrax_job.getName(), "stored " + key);
+    evict();
+  }
+
+  private void evict() throws IOException {
+    if (budget <= 0) return;
+    FileSystem fs = fs();
+    List<FileStatus> entries = new ArrayList<FileStatus>();
+    long total = 0;
+    for (FileStatus dir : fs.listStatus(root)) {
+      Path marker = new Path(dir.getPath(), ENTRY);
+      if (!dir.isDirectory() || !fs.exists(marker)) continue;
+      entries.add(fs.getFileStatus(marker));
+      total += fs.getContentSummary(dir.getPath()).getLength();
+    }
+    FileStatus[] by_use = entries.toArray(new FileStatus[entries.size()]);
+    Arrays.sort(by_use, new Comparator<FileStatus>() {
+      public int compare(FileStatus a, FileStatus b) {
+        return Long.compare(a.getModificationTime(), b.getModificationTime());
+      }
+    });
+    for (int i = 0; i < by_use.length && total > budget; i++) {
+      Path dir = by_use[i].getPath().getParent();
+      long size = fs.getContentSummary(dir).getLength();
+      System.err.println("[CACHE] evicting " + dir + " (" + size + " bytes)");
+      fs.delete(dir, true);
+      total -= size;
+    }
+  }
+
+  /**
+   * The cache key of a job, or null if the job or one of its prerequisites is not cacheable.
+   */
+  private String key(ThraxJob thrax_job) throws IOException {
+    if (!(thrax_job instanceof CacheableJob)) return null;
+    StringBuilder sb = new StringBuilder();
+    sb.append(thrax_job.getClass().getName()).append('\n');
+    sb.append(JobManifest.FORMAT_VERSION).append('\n');
+
+    TreeMap<String, String> settings = new TreeMap<String, String>();
+    for (String k : ((CacheableJob) thrax_job).getConfigurationKeys())
+      settings.put(k, conf.get(k));
+    for (Map.Entry<String, String> e : settings.entrySet())
+      sb.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+
+    TreeMap<String, String> prerequisites = new TreeMap<String, String>();
+    for (Class<? extends ThraxJob> p : thrax_job.getPrerequisites()) {
+      String key = key(JobManifest.instance(p));
+      if (key == null) return null;
+      prerequisites.put(p.getName(), key);
+    }
+    for (Map.Entry<String, String> e : prerequisites.entrySet())
+      sb.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+
+    // Inputs from the work directory are outputs of prerequisites, covered by their keys.
+    String work_dir = JobManifest.qualify(new Path(conf.get("thrax.work-dir")), conf).toString();
+    for (Path input : FileInputFormat.getInputPaths(thrax_job.getJob(conf))) {
+      if (JobManifest.qualify(input, conf).toString().startsWith(work_dir)) continue;
+      sb.append(fingerprint(input));
+    }
+    return MD5Hash.digest(sb.toString()).toString();
+  }
+
+  /**
+   * A fingerprint of the files matching an input path. Checksums are used where the file system
+   * provides them, so a copy of the same corpus gets the same fingerprint; otherwise the files'
+   * names, sizes and modification times are used.
+   */
+  private String fingerprint(Path input) throws IOException {
+    FileSystem fs = input.getFileSystem(conf);
+    FileStatus[] matches = fs.globStatus(input);
+    if (matches == null) return input + "\n";
+    StringBuilder sb = new StringBuilder();
+    for (FileStatus match : matches) {
+      RemoteIterator<LocatedFileStatus> it = fs.listFiles(match.getPath(), true);
+      while (it.hasNext()) {
+        LocatedFileStatus file = it.next();
+        FileChecksum checksum = fs.getFileChecksum(file.getPath());
+        if (checksum != null)
+          sb.append(file.getLen()).append('\t').append(checksum);
+        else
+          sb.append(file.getPath()).append('\t').append(file.getLen()).append('\t')
+              .append(file.getModificationTime());
+        sb.append('\n');
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Makes the files under one path available under another: by hard links on the local file
+   * system, and by copying otherwise or if linking fails.
+   */
+  private void transfer(Path from, Path to) throws IOException {
+    FileSystem src = from.getFileSystem(conf);
+    FileSystem dst = to.getFileSystem(conf);
+    if (src instanceof LocalFileSystem && dst instanceof LocalFileSystem) {
+      try {
+        link(((LocalFileSystem) src).pathToFile(from), ((LocalFileSystem) dst).pathToFile(to));
+        return;
+      } catch (IOException e) {
+        dst.delete(to, true);
+      }
+    }
+    if (!FileUtil.copy(src, from, dst, to, false, conf))
+      throw new IOException("Cannot copy " + from + " to " + to);
+  }
+
+  private static void link(File from, File to) throws IOException {
+    if (from.isDirectory()) {
+      if (!to.mkdirs()) throw new IOException("Cannot create " + to);
+      for (File f : from.listFiles())
+        link(f, new File(to, f.getName()));
+    } else {
+      Files.createLink(to.toPath(), from.toPath());
+    }
+  }
+
+  /**
+   * Prints the hits, misses and stores of this run, and writes them to the work directory. A job
+   * whose output was stored is counted as stored rather than as a miss.
+   */
+  public synchronized void report() {
+    int hits = 0, stored = 0;
+    for (String outcome : report.values()) {
+      if (outcome.startsWith("hit"))
+        hits++;
+      else if (outcome.startsWith("stored")) stored++;
+    }
+    System.err.println(String.format("[CACHE] %d hits, %d misses, %d stored", hits,
+        report.size() - hits - stored, stored));
+    try {
+      Path path = new Path(conf.get("thrax.work-dir") + "cache-report");
+      PrintWriter out = new PrintWriter(path.getFileSystem(conf).create(path, true));
+      for (Map.Entry<String, String> e : report.entrySet()) {
+        System.err.println("[CACHE] " + e.getKey() + "\t" + e.getValue());
+        out.println(e.getKey() + "\t" + e.getValue());
+      }
+      out.close();
+    } catch (IOException e) {
+      System.err.println("[CACHE] cannot write report: " + e.getMessage());
+    }
+  }
+
+  private Path entry(String key) {
+    return new Path(root, key);
+  }
+
+  private FileSystem fs() throws IOException {
+    return root.getFileSystem(conf);
+  }
+}
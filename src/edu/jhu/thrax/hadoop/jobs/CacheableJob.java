@@ -0,0 +1,14 @@
+package edu.jhu.thrax.hadoop.jobs;
+
+/**
+ * A job whose output depends only on its inputs, its prerequisites and a known set of
+ * configuration keys. Such a job's output can be shared between runs through an ArtifactCache.
+ */
+public interface CacheableJob extends ThraxJob {
+
+  /**
+   * The configuration keys the job reads. Keys that affect the output only through a prerequisite
+   * need not be listed.
+   */
+  public String[] getConfigurationKeys();
+}
@@ -0,0 +1,157 @@
+package edu.jhu.thrax.hadoop.jobs;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+
+import edu.jhu.thrax.datatypes.AlignedSentencePair;
+import edu.jhu.thrax.datatypes.CsrAlignment;
+import edu.jhu.thrax.hadoop.datatypes.SentencePairWritable;
+import edu.jhu.thrax.syntax.ParseTree;
+import edu.jhu.thrax.util.Vocabulary;
+import edu.jhu.thrax.util.exceptions.MalformedInputException;
+import edu.jhu.thrax.util.io.SentencePairParser;
+
+/**
+ * Compiles the input corpus once into sentence pairs of symbol ids, so that the jobs that read the
+ * corpus after it neither tokenize, look up symbols nor parse trees again. Malformed lines are
+ * counted and dropped here.
+ */
+public class CorpusJob implements CacheableJob {
+
+  private static final String[] CONFIGURATION_KEYS = {"thrax.source-is-parsed",
+      "thrax.target-is-parsed", "thrax.grammar", "thrax.target-is-samt-syntax",
+      "thrax.default-nt", "thrax.full-sentence-nt", "thrax.hashed-vocabulary"};
+
+  private static HashSet<Class<? extends ThraxJob>> prereqs =
+      new HashSet<Class<? extends ThraxJob>>();
+
+  public static void addPrerequisite(Class<? extends ThraxJob> c) {
+    prereqs.add(c);
+  }
+
+  public Set<Class<? extends ThraxJob>> getPrerequisites() {
+    return prereqs;
+  }
+
+  public Job getJob(Configuration conf) throws IOException {
+    Job job = new Job(conf, "corpus");
+    job.setJarByClass(CorpusJob.class);
+
+    job.setMapperClass(CorpusJob.Map.class);
+    job.setNumReduceTasks(0);
+
+    job.setOutputKeyClass(LongWritable.class);
+    job.setOutputValueClass(SentencePairWritable.class);
+
+    job.setOutputFormatClass(SequenceFileOutputFormat.class);
+
+    FileInputFormat.setInputPaths(job, new Path(conf.get("thrax.input-file")));
+    int maxSplitSize = conf.getInt("thrax.max-split-size", 0);
+    if (maxSplitSize != 0) FileInputFormat.setMaxInputSplitSize(job, maxSplitSize);
+
+    FileOutputFormat.setOutputPath(job, new Path(conf.get("thrax.work-dir") + "corpus"));
+
+    return job;
+  }
+
+  /**
+   * Sets a job up to read the compiled corpus instead of the input file.
+   */
+  public static void setInput(Job job, Configuration conf) throws IOException {
+    job.setInputFormatClass(SequenceFileInputFormat.class);
+    FileInputFormat.setInputPaths(job, new Path(conf.get("thrax.work-dir") + "corpus"));
+    int maxSplitSize = conf.getInt("thrax.max-split-size", 0);
+    if (maxSplitSize != 0) FileInputFormat.setMaxInputSplitSize(job, maxSplitSize);
+  }
+
+  public String getName() {
+    return "corpus";
+  }
+
+  public String getOutputSuffix() {
+    return "corpus";
+  }
+
+  public String[] getConfigurationKeys() {
+    return CONFIGURATION_KEYS;
+  }
+
+  private static class Map extends Mapper<LongWritable, Text, LongWritable, SentencePairWritable> {
+
+    private boolean sourceParsed;
+    private boolean targetParsed;
+    private boolean sourceLabels;
+    private String grammar;
+
+    private final SentencePairParser parser = new SentencePairParser();
+    private final SentencePairWritable pair = new SentencePairWritable();
+    private final ParseTree parsed = new ParseTree();
+
+    protected void setup(Context context) throws IOException, InterruptedException {
+      Configuration conf = context.getConfiguration();
+      String vocabulary_path = conf.getRaw("thrax.work-dir") + "vocabulary/part-*";
+      Vocabulary.initialize(conf, vocabulary_path);
+
+      sourceParsed = conf.getBoolean("thrax.source-is-parsed", false);
+      targetParsed = conf.getBoolean("thrax.target-is-parsed", false);
+      sourceLabels = !conf.getBoolean("thrax.target-is-samt-syntax", true);
+      grammar = conf.get("thrax.grammar", "hiero");
+    }
+
+    protected void map(LongWritable key, Text value, Context context) throws IOException,
+        InterruptedException {
+      parser.set(value);
+      AlignedSentencePair sentencePair;
+      try {
+        sentencePair = parser.alignedSentencePair(sourceParsed, targetParsed, false);
+      } catch (MalformedInputException e) {
+        context.getCounter("input errors", e.getMessage()).increment(1);
+        return;
+      }
+      ParseTree tree = null;
+      int[] labels = null;
+      if (grammar.equalsIgnoreCase("samt")) {
+        String parse = parser.field(sourceLabels ? 0 : 1).trim();
+        if (parsed.parse(parse))
+          tree = parsed;
+        else
+          System.err.printf("WARNING: SAMT labeler: %s is not a parse tree\n", parse);
+      } else if (grammar.equalsIgnoreCase("manual")) {
+        if (parser.fields() >= 4) labels = Vocabulary.addAll(parser.field(3).trim());
+      }
+      if (isLocal(sentencePair.source) || isLocal(sentencePair.target)
+          || (tree != null && isLocal(tree)) || isLocal(labels)) {
+        pair.set(value.toString());
+      } else {
+        pair.set(sentencePair.source, sentencePair.target,
+            ((CsrAlignment) sentencePair.alignment).points(), tree, labels);
+      }
+      context.write(key, pair);
+    }
+
+    private static boolean isLocal(ParseTree tree) {
+      for (int k = 0; k < tree.numNodes(); k++)
+        if (Vocabulary.isLocal(tree.label(k))) return true;
+      return false;
+    }
+
+    private static boolean isLocal(int[] ids) {
+      if (ids == null) return false;
+      for (int id : ids)
+        if (Vocabulary.isLocal(id)) return true;
+      return false;
+    }
+  }
+}
@@ -7,7 +7,6 @@ import java.util.Set;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapreduce.Job;
-import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 
@@ -18,12 +17,29 @@ import edu.jhu.thrax.hadoop.extraction.ExtractionCombiner;
 import edu.jhu.thrax.hadoop.extraction.ExtractionMapper;
 import edu.jhu.thrax.hadoop.extraction.ExtractionReducer;
 
-public class ExtractionJob implements ThraxJob {
+public class ExtractionJob implements CacheableJob {
+
+  private static final String[] CONFIGURATION_KEYS = {"thrax.source-is-parsed",
+      "thrax.target-is-parsed", "thrax.reverse", "thrax.target-is-samt-syntax", "thrax.default-nt",
+      "thrax.full-sentence-nt", "thrax.initial-phrase-length", "thrax.allow-nonlexical-x",
+      "thrax.allow-default-nt", "thrax.arity", "thrax.initial-lexicality", "thrax.loose",
+      "thrax.nonlex-source-length", "thrax.nonlex-target-length", "thrax.lex-source-words",
+      "thrax.lex-target-words", "thrax.lexicality", "thrax.adjacent-nts",
+      "thrax.allow-abstract-rules", "thrax.allow-mixed-rules", "thrax.allow-full-sentence-rules",
+      "thrax.grammar", "thrax.allow-constituent-label", "thrax.allow-ccg-label",
+      "thrax.allow-concat-label", "thrax.allow-double-plus", "thrax.unary-category-handler",
+      "thrax.min-rule-count", "thrax.hashed-vocabulary"};
+
+  private static HashSet<Class<? extends ThraxJob>> prereqs =
+      new HashSet<Class<? extends ThraxJob>>();
+
+  public static void addPrerequisite(Class<? extends ThraxJob> c) {
+    prereqs.add(c);
+  }
 
   public Set<Class<? extends ThraxJob>> getPrerequisites() {
-    Set<Class<? extends ThraxJob>> result = new HashSet<Class<? extends ThraxJob>>();
-    result.add(VocabularyJob.class);
-    return result;
+    prereqs.add(CorpusJob.class);
+    return prereqs;
   }
 
   public Job getJob(Configuration conf) throws IOException {
@@ -47,9 +63,7 @@ public class ExtractionJob implements ThraxJob {
     int numReducers = conf.getInt("thrax.reducers", conf.getInt("mapreduce.job.reduces", DefaultValues.DEFAULT_NUM_REDUCERS));
     job.setNumReduceTasks(numReducers);
 
-    FileInputFormat.setInputPaths(job, new Path(conf.get("thrax.input-file")));
-    int maxSplitSize = conf.getInt("thrax.max-split-size", 0);
-    if (maxSplitSize != 0) FileInputFormat.setMaxInputSplitSize(job, maxSplitSize);
+    CorpusJob.setInput(job, conf);
 
     FileOutputFormat.setOutputPath(job, new Path(conf.get("thrax.work-dir") + "rules"));
 
@@ -65,4 +79,8 @@ public class ExtractionJob implements ThraxJob {
   public String getOutputSuffix() {
     return "rules";
   }
+
+  public String[] getConfigurationKeys() {
+    return CONFIGURATION_KEYS;
+  }
 }
@@ -68,6 +68,8 @@ public class FeatureCollectionJob implements ThraxJob {
 
     for (String prereq_name : prereq_names)
       FileInputFormat.addInputPath(job, new Path(workDir + prereq_name));
+    // Conditional features write one subdirectory per feature.
+    FileInputFormat.setInputDirRecursive(job, true);
 
     // TODO: double-check this.
     if (FileInputFormat.getInputPaths(job).length == 0)
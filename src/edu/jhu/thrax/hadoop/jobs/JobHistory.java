@@ -0,0 +1,220 @@
+package edu.jhu.thrax.hadoop.jobs;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Run times of jobs. For each job, the time it took per byte of its input and the size of its
+ * input relative to the input corpus are kept in a history file between runs. A job's run time is
+ * estimated from the size of its own input once that is known, and until then from the corpus
+ * size scaled by the job's input ratio. A job that has not been run before is assumed to take as
+ * long per byte as the average job, on input as large as the corpus. The history is kept in the
+ * cache directory if there is one, so that it is shared by all runs using that cache. The start
+ * and end of every job in this run are recorded, to draw a timeline of the run.
+ */
+public class JobHistory {
+
+  private static final int WIDTH = 60;
+
+  private final Configuration conf;
+  private final Path path;
+  private final long corpus_size;
+
+  // Milliseconds per byte of input, and bytes of input per byte of corpus, by job name.
+  private final Map<String, Double> rates = new TreeMap<String, Double>();
+  private final Map<String, Double> ratios = new TreeMap<String, Double>();
+
+  private final long origin = System.currentTimeMillis();
+  private final Map<String, Long> starts = new LinkedHashMap<String, Long>();
+  private final Map<String, Long> ends = new LinkedHashMap<String, Long>();
+  private final Map<String, Boolean> outcomes = new LinkedHashMap<String, Boolean>();
+  private final Map<String, Long> inputs = new LinkedHashMap<String, Long>();
+
+  public JobHistory(Configuration conf) throws IOException {
+    this.conf = conf;
+    path = new Path(conf.get("thrax.history", defaultPath(conf)));
+    String corpus = conf.get("thrax.input-file");
+    corpus_size = Math.max(1, corpus == null ? 0 : size(new Path[] { new Path(corpus) }, conf));
+    read();
+  }
+
+  private static String defaultPath(Configuration conf) {
+    String cache = conf.get("thrax.cache-dir");
+    if (cache != null) return cache + Path.SEPARATOR + "history";
+    return conf.get("thrax.work-dir") + "history";
+  }
+
+  /**
+   * The total size of the files matching the given paths, in bytes.
+   */
+  static long size(Path[] paths, Configuration conf) throws IOException {
+    long total = 0;
+    for (Path p : paths) {
+      FileSystem fs = p.getFileSystem(conf);
+      FileStatus[] matches = fs.globStatus(p);
+      if (matches == null) continue;
+      for (FileStatus match : matches)
+        total += fs.getContentSummary(match.getPath()).getLength();
+    }
+    return total;
+  }
+
+  private void read() throws IOException {
+    FileSystem fs = path.getFileSystem(conf);
+    if (!fs.exists(path)) return;
+    BufferedReader in = new BufferedReader(new InputStreamReader(fs.open(path), "UTF-8"));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        // Lines written before input ratios were kept give times per byte of corpus; skip them.
+        String[] fields = line.split("\t");
+        if (fields.length < 3) continue;
+        try {
+          double rate = Double.parseDouble(fields[1]);
+          double ratio = Double.parseDouble(fields[2]);
+          rates.put(fields[0], rate);
+          ratios.put(fields[0], ratio);
+        } catch (NumberFormatException e) {
+          // Skip malformed lines.
+        }
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Records the rates of the jobs that completed in this run, keeping those of all other jobs.
+   * The file is read again first, so that runs sharing it keep each other's rates.
+   */
+  public synchronized void write() throws IOException {
+    read();
+    for (String name : ends.keySet()) {
+      if (!outcomes.get(name)) continue;
+      Long input = inputs.get(name);
+      long bytes = (input == null || input == 0 ? corpus_size : input);
+      rates.put(name, (ends.get(name) - starts.get(name)) / (double) bytes);
+      ratios.put(name, bytes / (double) corpus_size);
+    }
+    PrintWriter out = new PrintWriter(path.getFileSystem(conf).create(path, true));
+    for (Map.Entry<String, Double> e : rates.entrySet())
+      out.println(e.getKey() + "\t" + e.getValue() + "\t" + ratios.get(e.getKey()));
+    out.close();
+  }
+
+  /**
+   * The estimated run time of a job, in milliseconds.
+   *
+   * @param input The size of the job's input in bytes, or 0 if it is not known yet.
+   */
+  public synchronized double estimate(String name, long input) {
+    if (input <= 0) {
+      Double ratio = ratios.get(name);
+      input = (long) (corpus_size * (ratio == null ? 1 : ratio));
+    }
+    Double rate = rates.get(name);
+    if (rate == null) {
+      if (rates.isEmpty()) return input;
+      double total = 0;
+      for (double r : rates.values())
+        total += r;
+      rate = total / rates.size();
+    }
+    return rate * input;
+  }
+
+  /**
+   * Records the size of the input a job of this run read, in bytes.
+   */
+  public synchronized void recordInput(String name, long input) {
+    inputs.put(name, input);
+  }
+
+  public synchronized void started(String name) {
+    starts.put(name, System.currentTimeMillis());
+  }
+
+  public synchronized void finished(String name, boolean success) {
+    if (!starts.containsKey(name)) return;
+    ends.put(name, System.currentTimeMillis());
+    outcomes.put(name, success);
+  }
+
+  /**
+   * A chart of when each job of this run ran, one line per job in the order they started.
+   */
+  public synchronized String timeline() {
+    long now = System.currentTimeMillis();
+    long span = Math.max(1, now - origin);
+    int name_width = 0;
+    for (String name : starts.keySet())
+      name_width = Math.max(name_width, name.length());
+
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("Timeline of run (%s):%n", seconds(span)));
+    for (Map.Entry<String, Long> e : starts.entrySet()) {
+      String name = e.getKey();
+      long start = e.getValue() - origin;
+      Long end_time = ends.get(name);
+      long end = (end_time == null ? now : end_time) - origin;
+      int from = (int) (start * WIDTH / span);
+      int to = Math.max(from + 1, (int) (end * WIDTH / span));
+      StringBuilder bar = new StringBuilder();
+      for (int i = 0; i < WIDTH; i++)
+        bar.append(i >= from && i < to ? '#' : ' ');
+      String outcome = end_time == null ? "running" : (outcomes.get(name) ? "" : "failed");
+      sb.append(String.format("%-" + name_width + "s |%s| %8s %8s %s%n", name, bar,
+          seconds(start), seconds(end - start), outcome));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * The names of the jobs started in this run, in the order they started.
+   */
+  synchronized List<String> started() {
+    return new ArrayList<String>(starts.keySet());
+  }
+
+  /**
+   * When a job started, in milliseconds since the start of the run.
+   */
+  synchronized long start(String name) {
+    return starts.get(name) - origin;
+  }
+
+  /**
+   * How long a job ran, in milliseconds; up to now if it is still running.
+   */
+  synchronized long duration(String name) {
+    Long end = ends.get(name);
+    return (end == null ? System.currentTimeMillis() : end) - starts.get(name);
+  }
+
+  /**
+   * Whether a job completed successfully, or null if it is still running.
+   */
+  synchronized Boolean succeeded(String name) {
+    return outcomes.get(name);
+  }
+
+  synchronized long elapsed() {
+    return System.currentTimeMillis() - origin;
+  }
+
+  static String seconds(long millis) {
+    return String.format("%.1fs", millis / 1000.0);
+  }
+}
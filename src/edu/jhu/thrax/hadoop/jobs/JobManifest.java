@@ -0,0 +1,256 @@
+package edu.jhu.thrax.hadoop.jobs;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ * A record of a successful job, kept in the manifests directory of the work directory. It holds a
+ * hash of the configuration, fingerprints of the job's inputs, digests of its prerequisites'
+ * manifests and a list of its output files.
+ *
+ * A job's outputs are still valid if the configuration hash matches, every input from outside the
+ * work directory has the same fingerprint, every prerequisite's manifest is unchanged, and every
+ * output file is still there as it was written. Inputs inside the work directory are the outputs
+ * of prerequisites, so they are covered by those prerequisites' manifests even once they have
+ * been deleted.
+ */
+public class JobManifest {
+
+  public static final String DIRECTORY = "manifests";
+
+  // Keys that change how a job is run, but not what it computes.
+  private static final String[] EXECUTION_KEYS = {"thrax.fake", "thrax.resume", "thrax.engine",
+      "thrax.local.", "thrax.reducers", "thrax.timeout", "thrax.max-split-size", "thrax.work-dir",
+      "thrax.outputPath", "thrax.legacy-extractor", "thrax.extraction-table-size",
+      "thrax.lexprob-table-size", "thrax.fuse-features"};
+
+  // Version of the formats jobs write their output in. Outputs written in another version are
+  // never reused.
+  static final int FORMAT_VERSION = 3;
+
+  private static final String NONE = "none";
+
+  private String config;
+  private final Map<String, String> prerequisites = new TreeMap<String, String>();
+  private final Map<String, String> inputs = new TreeMap<String, String>();
+  private final List<String> outputs = new ArrayList<String>();
+  private boolean success = false;
+
+  /**
+   * Writes the manifest of a job that just completed successfully.
+   */
+  public static void write(ThraxJob thrax_job, Job job, Configuration conf) throws IOException {
+    JobManifest manifest = new JobManifest();
+    manifest.config = configHash(conf);
+    for (Class<? extends ThraxJob> p : thrax_job.getPrerequisites()) {
+      String name = instance(p).getName();
+      manifest.prerequisites.put(name, digest(path(name, conf), conf));
+    }
+    for (Path input : FileInputFormat.getInputPaths(job))
+      manifest.inputs.put(input.toString(), fingerprint(input, conf));
+    Path output = FileOutputFormat.getOutputPath(job);
+    if (output != null) {
+      FileSystem fs = output.getFileSystem(conf);
+      for (FileStatus file : list(fs, output))
+        manifest.outputs.add(status(file));
+      Collections.sort(manifest.outputs);
+    }
+    manifest.success = true;
+
+    Path path = path(thrax_job.getName(), conf);
+    PrintWriter out = new PrintWriter(path.getFileSystem(conf).create(path, true));
+    out.println("config\t" + manifest.config);
+    for (Map.Entry<String, String> e : manifest.prerequisites.entrySet())
+      out.println("prerequisite\t" + e.getKey() + "\t" + e.getValue());
+    for (Map.Entry<String, String> e : manifest.inputs.entrySet())
+      out.println("input\t" + e.getKey() + "\t" + e.getValue());
+    for (String o : manifest.outputs)
+      out.println("output\t" + o);
+    out.println("success\t" + manifest.success);
+    out.close();
+  }
+
+  /**
+   * Checks whether the outputs recorded in a job's manifest can be used in place of running it.
+   */
+  public static boolean isValid(ThraxJob thrax_job, Configuration conf) throws IOException {
+    return isValid(thrax_job, conf, true);
+  }
+
+  /**
+   * Checks a job's manifest, and recursively those of its prerequisites. Only the job's own
+   * outputs need to be present; its prerequisites' outputs may since have been cleaned up.
+   */
+  private static boolean isValid(ThraxJob thrax_job, Configuration conf, boolean check_outputs)
+      throws IOException {
+    JobManifest manifest = read(path(thrax_job.getName(), conf), conf);
+    if (manifest == null || !manifest.success) return false;
+    if (!configHash(conf).equals(manifest.config)) return false;
+
+    for (Class<? extends ThraxJob> p : thrax_job.getPrerequisites()) {
+      ThraxJob prerequisite = instance(p);
+      String recorded = manifest.prerequisites.get(prerequisite.getName());
+      if (recorded == null
+          || !recorded.equals(digest(path(prerequisite.getName(), conf), conf))
+          || !isValid(prerequisite, conf, false)) return false;
+    }
+    String work_dir = qualify(new Path(conf.get("thrax.work-dir")), conf).toString();
+    for (Map.Entry<String, String> e : manifest.inputs.entrySet()) {
+      Path input = new Path(e.getKey());
+      if (qualify(input, conf).toString().startsWith(work_dir)) continue;
+      if (!e.getValue().equals(fingerprint(input, conf))) return false;
+    }
+    if (!check_outputs) return true;
+    for (String o : manifest.outputs) {
+      String[] fields = o.split("\t");
+      Path file = new Path(fields[0]);
+      FileSystem fs = file.getFileSystem(conf);
+      if (!fs.exists(file) || !o.equals(status(fs.getFileStatus(file)))) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Removes a job's manifest and any output left over from an earlier attempt, before it runs.
+   */
+  public static void clear(ThraxJob thrax_job, Job job, Configuration conf) throws IOException {
+    Path path = path(thrax_job.getName(), conf);
+    path.getFileSystem(conf).delete(path, false);
+    Path output = FileOutputFormat.getOutputPath(job);
+    if (output != null) {
+      FileSystem fs = output.getFileSystem(conf);
+      if (fs.exists(output)) {
+        System.err.println("[SCHED] removing old output " + output);
+        fs.delete(output, true);
+      }
+    }
+  }
+
+  private static JobManifest read(Path path, Configuration conf) throws IOException {
+    FileSystem fs = path.getFileSystem(conf);
+    if (!fs.exists(path)) return null;
+    JobManifest manifest = new JobManifest();
+    BufferedReader in = new BufferedReader(new InputStreamReader(fs.open(path), "UTF-8"));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] fields = line.split("\t", 2);
+        if (fields.length < 2) continue;
+        if (fields[0].equals("config")) {
+          manifest.config = fields[1];
+        } else if (fields[0].equals("prerequisite") || fields[0].equals("input")) {
+          String[] entry = fields[1].split("\t");
+          if (entry.length < 2) continue;
+          if (fields[0].equals("input"))
+            manifest.inputs.put(entry[0], entry[1]);
+          else
+            manifest.prerequisites.put(entry[0], entry[1]);
+        } else if (fields[0].equals("output")) {
+          manifest.outputs.add(fields[1]);
+        } else if (fields[0].equals("success")) {
+          manifest.success = Boolean.parseBoolean(fields[1]);
+        }
+      }
+    } finally {
+      in.close();
+    }
+    return manifest;
+  }
+
+  /**
+   * A hash of all Thrax settings, apart from those that only affect how jobs are run.
+   */
+  static String configHash(Configuration conf) {
+    TreeMap<String, String> settings = new TreeMap<String, String>();
+    for (Map.Entry<String, String> e : conf) {
+      String key = e.getKey();
+      if (!key.startsWith("thrax.") || isExecutionKey(key)) continue;
+      settings.put(key, e.getValue());
+    }
+    StringBuilder sb = new StringBuilder();
+    sb.append(FORMAT_VERSION).append('\n');
+    for (Map.Entry<String, String> e : settings.entrySet())
+      sb.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+    return MD5Hash.digest(sb.toString()).toString();
+  }
+
+  private static boolean isExecutionKey(String key) {
+    for (String k : EXECUTION_KEYS)
+      if (k.endsWith(".") ? key.startsWith(k) : key.equals(k)) return true;
+    return false;
+  }
+
+  /**
+   * A fingerprint of the files matching an input path: their names, sizes and modification times.
+   */
+  static String fingerprint(Path input, Configuration conf) throws IOException {
+    FileSystem fs = input.getFileSystem(conf);
+    FileStatus[] matches = fs.globStatus(input);
+    if (matches == null || matches.length == 0) return NONE;
+    StringBuilder sb = new StringBuilder();
+    for (FileStatus match : matches)
+      for (FileStatus file : list(fs, match.getPath()))
+        sb.append(status(file)).append('\n');
+    return MD5Hash.digest(sb.toString()).toString();
+  }
+
+  private static List<FileStatus> list(FileSystem fs, Path path) throws IOException {
+    List<FileStatus> files = new ArrayList<FileStatus>();
+    if (!fs.exists(path)) return files;
+    RemoteIterator<LocatedFileStatus> it = fs.listFiles(path, true);
+    while (it.hasNext())
+      files.add(it.next());
+    return files;
+  }
+
+  private static String status(FileStatus file) {
+    return file.getPath() + "\t" + file.getLen() + "\t" + file.getModificationTime();
+  }
+
+  private static String digest(Path path, Configuration conf) throws IOException {
+    FileSystem fs = path.getFileSystem(conf);
+    if (!fs.exists(path)) return NONE;
+    FSDataInputStream in = fs.open(path);
+    try {
+      return MD5Hash.digest(in).toString();
+    } finally {
+      IOUtils.closeStream(in);
+    }
+  }
+
+  private static Path path(String name, Configuration conf) {
+    return new Path(conf.get("thrax.work-dir") + DIRECTORY + Path.SEPARATOR + name);
+  }
+
+  static Path qualify(Path path, Configuration conf) throws IOException {
+    return path.getFileSystem(conf).makeQualified(path);
+  }
+
+  static ThraxJob instance(Class<? extends ThraxJob> c) throws IOException {
+    try {
+      return c.newInstance();
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+  }
+}
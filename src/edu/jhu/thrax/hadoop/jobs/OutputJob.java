@@ -18,9 +18,11 @@ import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 
 import edu.jhu.thrax.hadoop.datatypes.FeaturePair;
 import edu.jhu.thrax.hadoop.datatypes.RuleWritable;
+import edu.jhu.thrax.hadoop.features.annotation.AnnotationFeature;
 import edu.jhu.thrax.hadoop.features.annotation.AnnotationFeatureFactory;
-import edu.jhu.thrax.hadoop.features.mapred.MapReduceFeature;
-import edu.jhu.thrax.hadoop.features.mapred.MapReduceFeatureFactory;
+import edu.jhu.thrax.hadoop.features.annotation.LexicalWeightJob;
+import edu.jhu.thrax.hadoop.features.mapred.ConditionalFeatureFactory;
+import edu.jhu.thrax.hadoop.features.mapred.ConditionalFeatureJob;
 import edu.jhu.thrax.hadoop.output.OutputReducer;
 import edu.jhu.thrax.util.BackwardsCompatibility;
 import edu.jhu.thrax.util.FormatUtils;
@@ -59,14 +61,27 @@ public class OutputJob implements ThraxJob {
     int numReducers = conf.getInt("thrax.reducers", conf.getInt("mapreduce.job.reduces", DefaultValues.DEFAULT_NUM_REDUCERS));
     job.setNumReduceTasks(numReducers);
 
+    boolean conditional_features = false;
     boolean annotation_features = false;
+    boolean lexical_weights = false;
     String features = BackwardsCompatibility.equivalent(conf.get("thrax.features", ""));
     for (String feature : FormatUtils.P_SPACE.split(features)) {
-      if (MapReduceFeatureFactory.get(feature) instanceof MapReduceFeature)
-        FileInputFormat.addInputPath(job, new Path(workDir + feature));
-      if (AnnotationFeatureFactory.get(feature) != null) annotation_features = true;
+      if (ConditionalFeatureFactory.get(feature, conf) != null) conditional_features = true;
+      AnnotationFeature af = AnnotationFeatureFactory.get(feature);
+      if (af != null) {
+        if (LexicalWeightJob.scores(conf, af))
+          lexical_weights = true;
+        else
+          annotation_features = true;
+      }
     }
+    if (conditional_features)
+      FileInputFormat.addInputPath(job, new Path(workDir + ConditionalFeatureJob.NAME));
+    // Conditional features write one subdirectory per feature.
+    FileInputFormat.setInputDirRecursive(job, true);
     if (annotation_features) FileInputFormat.addInputPath(job, new Path(workDir + "annotation"));
+    if (lexical_weights)
+      FileInputFormat.addInputPath(job, new Path(workDir + LexicalWeightJob.NAME));
     
     int maxSplitSize = conf.getInt("thrax.max-split-size", 0);
     if (maxSplitSize != 0) FileInputFormat.setMaxInputSplitSize(job, maxSplitSize * 20);
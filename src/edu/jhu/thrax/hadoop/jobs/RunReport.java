@@ -0,0 +1,228 @@
+package edu.jhu.thrax.hadoop.jobs;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.CounterGroup;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobCounter;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import edu.jhu.thrax.hadoop.extraction.ExtractionMapper;
+
+/**
+ * Performance figures of every job run, written to the work directory at the end of the run: as
+ * report.json for tools, and as report.txt with a table of the main figures per job followed by
+ * each job's own counters, such as rules extracted, pivots pruned and malformed input lines.
+ */
+public class RunReport {
+
+  // Counter groups every job has; the counters of any other group are the job's own.
+  private static final String[] FRAMEWORK_GROUPS = {TaskCounter.class.getName(),
+      JobCounter.class.getName(), "org.apache.hadoop.mapreduce.FileSystemCounter",
+      "org.apache.hadoop.mapreduce.lib.input.FileInputFormatCounter",
+      "org.apache.hadoop.mapreduce.lib.output.FileOutputFormatCounter", "Shuffle Errors",
+      "local"};
+
+  private final Configuration conf;
+  private final JobHistory history;
+
+  private final Map<String, Counters> counters = new HashMap<String, Counters>();
+  private final Map<String, long[]> sizes = new HashMap<String, long[]>();
+
+  public RunReport(Configuration conf, JobHistory history) {
+    this.conf = conf;
+    this.history = history;
+  }
+
+  /**
+   * Records the counters and the input and output sizes of a job that just completed.
+   */
+  public synchronized void record(ThraxJob thrax_job, Job job, Counters job_counters) {
+    if (job_counters != null) counters.put(thrax_job.getName(), job_counters);
+    try {
+      long input = 0;
+      for (Path p : FileInputFormat.getInputPaths(job))
+        input += size(p);
+      Path output = FileOutputFormat.getOutputPath(job);
+      sizes.put(thrax_job.getName(), new long[] {input, output == null ? 0 : size(output)});
+    } catch (IOException e) {
+      System.err.println("[SCHED] cannot measure " + thrax_job.getName() + ": " + e.getMessage());
+    }
+  }
+
+  private long size(Path path) throws IOException {
+    FileSystem fs = path.getFileSystem(conf);
+    FileStatus[] matches = fs.globStatus(path);
+    if (matches == null) return 0;
+    long total = 0;
+    for (FileStatus match : matches)
+      total += fs.getContentSummary(match.getPath()).getLength();
+    return total;
+  }
+
+  public synchronized void write() throws IOException {
+    String work_dir = conf.get("thrax.work-dir");
+    Path json = new Path(work_dir + "report.json");
+    PrintWriter out = new PrintWriter(json.getFileSystem(conf).create(json, true));
+    writeJson(out);
+    out.close();
+
+    Path text = new Path(work_dir + "report.txt");
+    out = new PrintWriter(text.getFileSystem(conf).create(text, true));
+    writeText(out);
+    out.close();
+  }
+
+  private void writeJson(PrintWriter out) {
+    out.println("{");
+    out.println("  \"work_dir\": " + quote(conf.get("thrax.work-dir")) + ",");
+    out.println("  \"wall_ms\": " + history.elapsed() + ",");
+    out.println("  \"jobs\": [");
+    boolean first_job = true;
+    for (String name : history.started()) {
+      if (!first_job) out.println(",");
+      first_job = false;
+      out.println("    {");
+      out.println("      \"name\": " + quote(name) + ",");
+      out.println("      \"state\": " + quote(state(name)) + ",");
+      out.println("      \"start_ms\": " + history.start(name) + ",");
+      out.println("      \"wall_ms\": " + history.duration(name) + ",");
+      long[] size = sizes.get(name);
+      if (size != null) {
+        out.println("      \"input_bytes\": " + size[0] + ",");
+        out.println("      \"output_bytes\": " + size[1] + ",");
+      }
+      out.print("      \"counters\": {");
+      boolean first_group = true;
+      for (Map.Entry<String, Map<String, Long>> g : groups(name).entrySet()) {
+        out.println(first_group ? "" : ",");
+        first_group = false;
+        out.print("        " + quote(g.getKey()) + ": {");
+        boolean first_counter = true;
+        for (Map.Entry<String, Long> c : g.getValue().entrySet()) {
+          out.print((first_counter ? "" : ", ") + quote(c.getKey()) + ": " + c.getValue());
+          first_counter = false;
+        }
+        out.print("}");
+      }
+      out.println(first_group ? "}" : "\n      }");
+      out.print("    }");
+    }
+    out.println();
+    out.println("  ]");
+    out.println("}");
+  }
+
+  private void writeText(PrintWriter out) {
+    out.println("Thrax run in " + conf.get("thrax.work-dir") + ", "
+        + JobHistory.seconds(history.elapsed()));
+    out.println();
+    out.println(String.format("%-20s %8s %9s %9s %11s %11s %11s %11s %9s %8s", "job", "wall",
+        "map", "reduce", "map in", "map out", "reduce out", "spilled", "shuffle", "gc"));
+    String slowest = null;
+    for (String name : history.started()) {
+      Counters c = counters.get(name);
+      out.println(String.format("%-20s %8s %9s %9s %11d %11d %11d %11d %9s %8s", name,
+          JobHistory.seconds(history.duration(name)),
+          JobHistory.seconds(value(c, JobCounter.MILLIS_MAPS)),
+          JobHistory.seconds(value(c, JobCounter.MILLIS_REDUCES)),
+          value(c, TaskCounter.MAP_INPUT_RECORDS), value(c, TaskCounter.MAP_OUTPUT_RECORDS),
+          value(c, TaskCounter.REDUCE_OUTPUT_RECORDS), value(c, TaskCounter.SPILLED_RECORDS),
+          megabytes(value(c, TaskCounter.REDUCE_SHUFFLE_BYTES)),
+          JobHistory.seconds(value(c, TaskCounter.GC_TIME_MILLIS))));
+      if (slowest == null || history.duration(name) > history.duration(slowest)) slowest = name;
+    }
+    if (slowest != null) {
+      out.println();
+      out.println("Longest job: " + slowest + " (" + JobHistory.seconds(history.duration(slowest))
+          + ")");
+    }
+
+    for (String name : history.started()) {
+      out.println();
+      out.println(name + " (" + state(name) + ")");
+      long[] size = sizes.get(name);
+      if (size != null)
+        out.println(String.format("  input %s, output %s", megabytes(size[0]),
+            megabytes(size[1])));
+      Counters c = counters.get(name);
+      long sentences = value(c, ExtractionMapper.ExtractionCounters.SENTENCES);
+      if (sentences > 0)
+        out.println(String.format("  rules per sentence: %.1f",
+            value(c, ExtractionMapper.ExtractionCounters.RULES) / (double) sentences));
+      for (Map.Entry<String, Map<String, Long>> g : groups(name).entrySet()) {
+        if (isFramework(g.getKey())) continue;
+        String group = g.getKey().substring(Math.max(g.getKey().lastIndexOf('.'),
+            g.getKey().lastIndexOf('$')) + 1);
+        for (Map.Entry<String, Long> e : g.getValue().entrySet())
+          out.println("  " + group + ": " + e.getKey() + " = " + e.getValue());
+      }
+    }
+  }
+
+  private String state(String name) {
+    Boolean success = history.succeeded(name);
+    if (success == null) return "running";
+    return success ? "succeeded" : "failed";
+  }
+
+  /**
+   * A job's counters, by group and counter name.
+   */
+  private Map<String, Map<String, Long>> groups(String name) {
+    Map<String, Map<String, Long>> groups = new LinkedHashMap<String, Map<String, Long>>();
+    Counters c = counters.get(name);
+    if (c == null) return groups;
+    for (CounterGroup group : c) {
+      Map<String, Long> values = new LinkedHashMap<String, Long>();
+      for (Counter counter : group)
+        values.put(counter.getName(), counter.getValue());
+      if (!values.isEmpty()) groups.put(group.getName(), values);
+    }
+    return groups;
+  }
+
+  private static boolean isFramework(String group) {
+    for (String g : FRAMEWORK_GROUPS)
+      if (g.equals(group)) return true;
+    return false;
+  }
+
+  // Looks a counter up without adding it to the job's counters if it is not there.
+  private static long value(Counters c, Enum<?> key) {
+    if (c == null) return 0;
+    for (CounterGroup group : c) {
+      if (!group.getName().equals(key.getDeclaringClass().getName())) continue;
+      for (Counter counter : group)
+        if (counter.getName().equals(key.name())) return counter.getValue();
+    }
+    return 0;
+  }
+
+  private static String megabytes(long bytes) {
+    return String.format("%.1fMB", bytes / (1024.0 * 1024.0));
+  }
+
+  private static String quote(String s) {
+    if (s == null) return "null";
+    StringBuilder sb = new StringBuilder("\"");
+    for (char ch : s.toCharArray()) {
+      if (ch == '"' || ch == '\\') sb.append('\\').append(ch);
+      else if (ch < 0x20) sb.append(String.format("\\u%04x", (int) ch));
+      else sb.append(ch);
+    }
+    return sb.append('"').toString();
+  }
+}
@@ -1,20 +1,60 @@
 package edu.jhu.thrax.hadoop.jobs;
 
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 
 import edu.jhu.thrax.util.FormatUtils;
 
 public class Scheduler {
   private HashSet<String> faked;
   private HashMap<Class<? extends ThraxJob>, JobState> jobs;
+  private HashMap<Class<? extends ThraxJob>, ThraxJob> instances;
 
-  public Scheduler(Configuration config) {
+  private Configuration conf;
+  // Whether to reuse outputs of an earlier run in the same work directory.
+  private boolean resume;
+  // Outputs shared with other runs, if a cache directory is configured.
+  private ArtifactCache cache = null;
+
+  // Estimated run times, and the times jobs of this run actually took.
+  private JobHistory history;
+  private RunReport run_report;
+  // Input sizes of the jobs whose prerequisites are done, in bytes.
+  private HashMap<Class<? extends ThraxJob>, Long> input_sizes =
+      new HashMap<Class<? extends ThraxJob>, Long>();
+  // How many jobs may run at once, and how many reducers they may use between them; 0 for no limit.
+  private int max_jobs;
+  private int max_reducers;
+  private int reducers;
+  private boolean planned = false;
+
+  public Scheduler(Configuration config) throws IOException {
     jobs = new HashMap<Class<? extends ThraxJob>, JobState>();
+    instances = new HashMap<Class<? extends ThraxJob>, ThraxJob>();
     faked = new HashSet<String>();
+    conf = config;
+    resume = config.getBoolean("thrax.resume", true);
+    if (config.get("thrax.cache-dir") != null) cache = new ArtifactCache(config);
+    history = new JobHistory(config);
+    run_report = new RunReport(config, history);
+    max_jobs = config.getInt("thrax.max-concurrent-jobs", 0);
+    max_reducers = config.getInt("thrax.max-concurrent-reducers", 0);
+    reducers = config.getInt("thrax.reducers",
+        config.getInt("mapreduce.job.reduces", DefaultValues.DEFAULT_NUM_REDUCERS));
 
     String faked_line = config.get("thrax.fake");
     if (faked_line != null) {
@@ -26,13 +66,7 @@ public class Scheduler {
 
   public boolean schedule(Class<? extends ThraxJob> jobClass) throws SchedulerException {
     if (jobs.containsKey(jobClass)) return false;
-    ThraxJob job;
-    try {
-      job = jobClass.newInstance();
-    } catch (Exception e) {
-      e.printStackTrace();
-      throw new SchedulerException(e.getMessage());
-    }
+    ThraxJob job = instance(jobClass);
     for (Class<? extends ThraxJob> c : job.getPrerequisites()) {
       schedule(c);
     }
@@ -41,10 +75,31 @@ public class Scheduler {
     return true;
   }
 
+  private ThraxJob instance(Class<? extends ThraxJob> job_class) throws SchedulerException {
+    ThraxJob job = instances.get(job_class);
+    if (job == null) {
+      try {
+        job = job_class.newInstance();
+      } catch (Exception e) {
+        e.printStackTrace();
+        throw new SchedulerException(e.getMessage());
+      }
+      instances.put(job_class, job);
+    }
+    return job;
+  }
+
   public boolean setState(Class<? extends ThraxJob> job_class, JobState state)
       throws SchedulerException {
     if (jobs.containsKey(job_class)) {
+      JobState previous = jobs.get(job_class);
       jobs.put(job_class, state);
+      String name = instance(job_class).getName();
+      if (state == JobState.RUNNING) {
+        history.started(name);
+      } else if (previous == JobState.RUNNING) {
+        history.finished(name, state == JobState.SUCCESS);
+      }
       System.err.println(String.format("[SCHED] %s in state %s", job_class, state));
       updateAllStates();
       return true;
@@ -70,16 +125,17 @@ public class Scheduler {
   }
 
   public void percolate(Class<? extends ThraxJob> job_class) throws SchedulerException {
-    ThraxJob job;
-    try {
-      job = job_class.newInstance();
-    } catch (Exception e) {
-      throw new SchedulerException(e.getMessage());
-    }
+    ThraxJob job = instance(job_class);
     Set<Class<? extends ThraxJob>> prereqs = job.getPrerequisites();
 
     if (faked.contains(job.getName())) {
       setState(job_class, JobState.SUCCESS);
+    } else if (isComplete(job)) {
+      System.err.println("[SCHED] outputs of " + job_class + " are up to date");
+      setState(job_class, JobState.SUCCESS);
+    } else if (isCached(job)) {
+      System.err.println("[SCHED] outputs of " + job_class + " restored from cache");
+      setState(job_class, JobState.SUCCESS);
     } else {
       setState(job_class, JobState.WAITING);
       if (prereqs != null) for (Class<? extends ThraxJob> p : prereqs)
@@ -87,13 +143,196 @@ public class Scheduler {
     }
   }
 
-  public void checkReady(Class<? extends ThraxJob> c) throws SchedulerException {
-    ThraxJob job;
+  private boolean isComplete(ThraxJob job) {
+    if (!resume) return false;
     try {
-      job = c.newInstance();
-    } catch (Exception e) {
-      throw new SchedulerException(e.getMessage());
+      return JobManifest.isValid(job, conf);
+    } catch (IOException e) {
+      System.err.println("[SCHED] cannot check manifest of " + job.getName() + ": "
+          + e.getMessage());
+      return false;
+    }
+  }
+
+  private boolean isCached(ThraxJob job) {
+    if (cache == null) return false;
+    try {
+      return cache.restore(job);
+    } catch (IOException e) {
+      System.err.println("[SCHED] cannot restore " + job.getName() + " from cache: "
+          + e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Called before a job runs. Clears whatever an earlier run left behind for it.
+   */
+  public void starting(ThraxJob thrax_job, Job job) throws IOException {
+    if (resume) JobManifest.clear(thrax_job, job, conf);
+  }
+
+  /**
+   * Called after a job completed successfully. Records its manifest, so a later run in the same
+   * work directory can skip it, stores its output in the cache and records its counters for the
+   * run report.
+   */
+  public void completed(ThraxJob thrax_job, Job job, Counters counters) {
+    run_report.record(thrax_job, job, counters);
+    try {
+      history.recordInput(thrax_job.getName(), JobHistory.size(FileInputFormat.getInputPaths(job),
+          conf));
+    } catch (IOException e) {
+      System.err.println("[SCHED] cannot measure input of " + thrax_job.getName() + ": "
+          + e.getMessage());
+    }
+    try {
+      JobManifest.write(thrax_job, job, conf);
+    } catch (IOException e) {
+      System.err.println("[SCHED] cannot write manifest of " + thrax_job.getName() + ": "
+          + e.getMessage());
+    }
+    if (cache != null) {
+      try {
+        cache.store(thrax_job, job);
+      } catch (IOException e) {
+        System.err.println("[SCHED] cannot store " + thrax_job.getName() + " in cache: "
+            + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * The ready jobs that can be launched now, most urgent first. A job is more urgent the longer
+   * the estimated chain of work from its start to the end of the run; jobs off the critical path
+   * are held back while slots are short. At most max-concurrent-jobs run at once, using at most
+   * max-concurrent-reducers between them, but a job is always launched if none is running.
+   */
+  public List<Class<? extends ThraxJob>> launchable() throws SchedulerException {
+    final Map<Class<? extends ThraxJob>, Double> priorities = priorities();
+    if (!planned) {
+      System.err.println("[SCHED] critical path: " + criticalPath(priorities));
+      planned = true;
     }
+    List<Class<? extends ThraxJob>> ready =
+        new ArrayList<Class<? extends ThraxJob>>(getClassesByState(JobState.READY));
+    Collections.sort(ready, new Comparator<Class<? extends ThraxJob>>() {
+      public int compare(Class<? extends ThraxJob> a, Class<? extends ThraxJob> b) {
+        return Double.compare(priorities.get(b), priorities.get(a));
+      }
+    });
+    int running = getClassesByState(JobState.RUNNING).size();
+    int per_job = max_reducers > 0 ? Math.min(reducers, max_reducers) : reducers;
+    List<Class<? extends ThraxJob>> launch = new ArrayList<Class<? extends ThraxJob>>();
+    for (Class<? extends ThraxJob> c : ready) {
+      if (running > 0 && max_jobs > 0 && running >= max_jobs) break;
+      if (running > 0 && max_reducers > 0 && (running + 1) * per_job > max_reducers) break;
+      launch.add(c);
+      running++;
+    }
+    return launch;
+  }
+
+  /**
+   * For each job left to run, the estimated time from its start to the end of the run: its own
+   * estimated run time plus that of the longest chain of jobs depending on it.
+   */
+  private Map<Class<? extends ThraxJob>, Double> priorities() throws SchedulerException {
+    Map<Class<? extends ThraxJob>, Double> priorities =
+        new HashMap<Class<? extends ThraxJob>, Double>();
+    for (Class<? extends ThraxJob> c : jobs.keySet())
+      priority(c, priorities);
+    return priorities;
+  }
+
+  private double priority(Class<? extends ThraxJob> c,
+      Map<Class<? extends ThraxJob>, Double> priorities) throws SchedulerException {
+    Double known = priorities.get(c);
+    if (known != null) return known;
+    double longest = 0;
+    for (Class<? extends ThraxJob> d : dependents(c))
+      longest = Math.max(longest, priority(d, priorities));
+    double priority = longest + cost(c);
+    priorities.put(c, priority);
+    return priority;
+  }
+
+  private double cost(Class<? extends ThraxJob> c) throws SchedulerException {
+    JobState state = jobs.get(c);
+    if (state != JobState.WAITING && state != JobState.READY && state != JobState.RUNNING)
+      return 0;
+    return history.estimate(instance(c).getName(), inputSize(c));
+  }
+
+  /**
+   * The size of a job's input, or 0 while it is not known: a job's input is only there once its
+   * prerequisites are done.
+   */
+  private long inputSize(Class<? extends ThraxJob> c) throws SchedulerException {
+    JobState state = jobs.get(c);
+    if (state != JobState.READY && state != JobState.RUNNING) return 0;
+    Long known = input_sizes.get(c);
+    if (known == null) {
+      ThraxJob job = instance(c);
+      try {
+        known = JobHistory.size(FileInputFormat.getInputPaths(job.getJob(conf)), conf);
+      } catch (IOException e) {
+        System.err.println("[SCHED] cannot measure input of " + job.getName() + ": "
+            + e.getMessage());
+        known = 0L;
+      }
+      input_sizes.put(c, known);
+    }
+    return known;
+  }
+
+  private List<Class<? extends ThraxJob>> dependents(Class<? extends ThraxJob> c)
+      throws SchedulerException {
+    List<Class<? extends ThraxJob>> dependents = new ArrayList<Class<? extends ThraxJob>>();
+    for (Class<? extends ThraxJob> d : jobs.keySet())
+      if (instance(d).getPrerequisites().contains(c)) dependents.add(d);
+    return dependents;
+  }
+
+  private String criticalPath(Map<Class<? extends ThraxJob>, Double> priorities)
+      throws SchedulerException {
+    Class<? extends ThraxJob> next = null;
+    for (Class<? extends ThraxJob> c : jobs.keySet())
+      if (cost(c) > 0 && (next == null || priorities.get(c) > priorities.get(next))) next = c;
+    StringBuilder sb = new StringBuilder();
+    while (next != null) {
+      if (sb.length() > 0) sb.append(" -> ");
+      sb.append(instance(next).getName());
+      Class<? extends ThraxJob> after = null;
+      for (Class<? extends ThraxJob> d : dependents(next))
+        if (after == null || priorities.get(d) > priorities.get(after)) after = d;
+      next = after;
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Prints the cache hits and misses and the timeline of this run, writes the run report, and
+   * records how long its jobs took for the estimates of later runs.
+   */
+  public void report() {
+    if (cache != null) cache.report();
+    String timeline = history.timeline();
+    System.err.print(timeline);
+    try {
+      history.write();
+      run_report.write();
+      Path path = new Path(conf.get("thrax.work-dir") + "timeline");
+      PrintWriter out = new PrintWriter(path.getFileSystem(conf).create(path, true));
+      out.print(timeline);
+      out.close();
+    } catch (IOException e) {
+      System.err.println("[SCHED] cannot write run report: " + e.getMessage());
+    }
+  }
+
+  public void checkReady(Class<? extends ThraxJob> c) throws SchedulerException {
+    ThraxJob job = instance(c);
     // check all succeeded
     // if state changes, have to recall check all states
     for (Class<? extends ThraxJob> p : job.getPrerequisites()) {
@@ -104,12 +343,7 @@ public class Scheduler {
   }
 
   public void checkFailedPrereq(Class<? extends ThraxJob> c) throws SchedulerException {
-    ThraxJob job;
-    try {
-      job = c.newInstance();
-    } catch (Exception e) {
-      throw new SchedulerException(e.getMessage());
-    }
+    ThraxJob job = instance(c);
     // check all succeeded
     // if state changes, have to recall check all states
     for (Class<? extends ThraxJob> p : job.getPrerequisites()) {
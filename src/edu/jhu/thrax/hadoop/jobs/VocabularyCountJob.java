@@ -0,0 +1,270 @@
+package edu.jhu.thrax.hadoop.jobs;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+
+import edu.jhu.thrax.extraction.Labeling;
+import edu.jhu.thrax.util.FormatUtils;
+import edu.jhu.thrax.util.io.SentencePairParser;
+
+/**
+ * Counts how often each token, and each label the grammar may use, occurs in the corpus. The
+ * counts are summed by as many reducers as any other job, and the vocabulary job then ranks them.
+ */
+public class VocabularyCountJob implements CacheableJob {
+
+  private static final String[] CONFIGURATION_KEYS = {"thrax.source-is-parsed",
+      "thrax.target-is-parsed", "thrax.grammar", "thrax.allow-constituent-label",
+      "thrax.allow-ccg-label", "thrax.allow-concat-label", "thrax.allow-double-plus"};
+
+  public VocabularyCountJob() {}
+
+  public Job getJob(Configuration conf) throws IOException {
+    Job job = new Job(conf, "vocabulary-count");
+    job.setJarByClass(VocabularyCountJob.class);
+
+    job.setMapperClass(VocabularyCountJob.Map.class);
+    job.setCombinerClass(VocabularyCountJob.Combine.class);
+    job.setReducerClass(VocabularyCountJob.Reduce.class);
+
+    job.setMapOutputKeyClass(Text.class);
+    job.setMapOutputValueClass(IntWritable.class);
+
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(LongWritable.class);
+
+    job.setSortComparatorClass(Text.Comparator.class);
+
+    job.setOutputFormatClass(SequenceFileOutputFormat.class);
+
+    FileInputFormat.setInputPaths(job, new Path(conf.get("thrax.input-file")));
+    int maxSplitSize = conf.getInt("thrax.max-split-size", 0);
+    if (maxSplitSize != 0) FileInputFormat.setMaxInputSplitSize(job, maxSplitSize);
+
+    int numReducers = conf.getInt("thrax.reducers", conf.getInt("mapreduce.job.reduces", DefaultValues.DEFAULT_NUM_REDUCERS));
+    job.setNumReduceTasks(numReducers);
+
+    FileOutputFormat.setOutputPath(job, new Path(conf.get("thrax.work-dir") + "vocabulary-counts"));
+
+    return job;
+  }
+
+  public String getOutputSuffix() {
+    return "vocabulary-counts";
+  }
+
+  public String[] getConfigurationKeys() {
+    return CONFIGURATION_KEYS;
+  }
+
+  @Override
+  public String getName() {
+    return "vocabulary-count";
+  }
+
+  private static class Map extends Mapper<LongWritable, Text, Text, IntWritable> {
+
+    private static final IntWritable ONE = new IntWritable(1);
+
+    private boolean sourceParsed;
+    private boolean targetParsed;
+    private Labeling labeling;
+
+    private boolean allowConstituent = true;
+    private boolean allowCCG = true;
+    private boolean allowConcat = true;
+    private boolean allowDoubleConcat = true;
+
+    private final SentencePairParser parser = new SentencePairParser();
+    private final Text word = new Text();
+
+    protected void setup(Context context) {
+      Configuration conf = context.getConfiguration();
+      sourceParsed = conf.getBoolean("thrax.source-is-parsed", false);
+      targetParsed = conf.getBoolean("thrax.target-is-parsed", false);
+
+      allowConstituent = conf.getBoolean("thrax.allow-constituent-label", true);
+      allowCCG = conf.getBoolean("thrax.allow-ccg-label", true);
+      allowConcat = conf.getBoolean("thrax.allow-concat-label", true);
+      allowDoubleConcat = conf.getBoolean("thrax.allow-double-plus", true);
+
+      if (conf.get("thrax.grammar", "hiero").equalsIgnoreCase("samt")) {
+        labeling = Labeling.SYNTAX;
+      } else if (conf.get("thrax.grammar", "hiero").equalsIgnoreCase("manual")) {
+        labeling = Labeling.MANUAL;
+      } else {
+        labeling = Labeling.HIERO;
+      }
+    }
+
+    protected void map(LongWritable key, Text input, Context context) throws IOException,
+        InterruptedException {
+
+      parser.set(input);
+      if (parser.fields() < 3) return;
+
+      if (sourceParsed)
+        extractTokensFromParsed(parser.field(0), (labeling != Labeling.SYNTAX), context);
+      else
+        extractTokens(0, context);
+
+      if (targetParsed)
+        extractTokensFromParsed(parser.field(1), (labeling != Labeling.SYNTAX), context);
+      else
+        extractTokens(1, context);
+
+      if (labeling == Labeling.MANUAL && parser.fields() > 3) {
+        String[] labels = FormatUtils.P_SPACE.split(parser.field(3).trim());
+        for (String label : labels)
+          context.write(new Text("[" + label), ONE);
+      }
+    }
+
+    // Writes the tokens of a field straight from the bytes of the input line.
+    protected void extractTokens(int field, Context context) throws IOException,
+        InterruptedException {
+      int n = parser.tokenize(field);
+      for (int k = 0; k < n; k++) {
+        word.set(parser.bytes(), parser.tokenStart(k), parser.tokenEnd(k) - parser.tokenStart(k));
+        context.write(word, ONE);
+      }
+    }
+
+    protected void extractTokensFromParsed(String input, boolean terminals_only, Context context)
+        throws IOException, InterruptedException {
+      int from = 0, to = 0;
+      boolean seeking = true;
+      boolean nonterminal = false;
+      char current;
+
+      Set<String> nonterminals = new HashSet<String>();
+
+      if (input == null || input.isEmpty() || input.charAt(0) != '(') return;
+
+      // Run through entire (potentially parsed) sentence.
+      while (from < input.length() && to < input.length()) {
+        if (seeking) {
+          // Seeking mode: looking for the start of the next symbol.
+          current = input.charAt(from);
+          if (current == '(' || current == ')' || current == ' ') {
+            // We skip brackets and spaces.
+            ++from;
+          } else {
+            // Found a non spacing symbol, go into word filling mode.
+            to = from + 1;
+            seeking = false;
+            nonterminal = (input.charAt(from - 1) == '(');
+          }
+        } else {
+          // Word filling mode. Advance to until we hit the end or spacing.
+          current = input.charAt(to);
+          if (current == ' ' || current == ')' || current == '(') {
+            // Word ended.
+            if (terminals_only) {
+              if (!nonterminal)
+                context.write(new Text(input.substring(from, to)), ONE);
+            } else {
+              if (nonterminal) {
+                String nt = input.substring(from, to);
+                if (nt.equals(",")) nt = "COMMA";
+                nonterminals.add("[" + nt);
+              } else {
+                context.write(new Text(input.substring(from, to)), ONE);
+              }
+            }
+            from = to + 1;
+            seeking = true;
+          } else {
+            ++to;
+          }
+        }
+      }
+      if (!terminals_only) combineNonterminals(context, nonterminals);
+    }
+
+
+    private void combineNonterminals(Context context, Set<String> nonterminals) throws IOException,
+        InterruptedException {
+      if (allowConstituent) writeNonterminals(nonterminals, context);
+      if (allowConcat) {
+        Set<String> concatenated = joinNonterminals("+", nonterminals, nonterminals);
+        writeNonterminals(concatenated, context);
+      }
+      if (allowCCG) {
+        Set<String> forward = joinNonterminals("/", nonterminals, nonterminals);
+        writeNonterminals(forward, context);
+        Set<String> backward = joinNonterminals("\\", nonterminals, nonterminals);
+        writeNonterminals(backward, context);
+      }
+      if (allowDoubleConcat) {
+        Set<String> concat = joinNonterminals("+", nonterminals, nonterminals);
+        Set<String> double_concat = joinNonterminals("+", concat, nonterminals);
+        writeNonterminals(double_concat, context);
+      }
+    }
+
+    private Set<String> joinNonterminals(String glue, Set<String> prefixes, Set<String> nonterminals) {
+      Set<String> joined = new HashSet<String>();
+      for (String prefix : prefixes)
+        for (String nt : nonterminals)
+          joined.add(prefix + glue + nt.substring(1));
+      return joined;
+    }
+
+    private static void writeNonterminals(Set<String> nts, Context context) throws IOException,
+        InterruptedException {
+      for (String nt : nts)
+        context.write(new Text(nt + "]"), ONE);
+    }
+
+  }
+
+  public static class VocabularyPartitioner extends Partitioner<Text, Writable> {
+    public int getPartition(Text key, Writable value, int numPartitions) {
+      return (key.hashCode() & Integer.MAX_VALUE) % numPartitions;
+    }
+  }
+
+  private static class Combine extends Reducer<Text, IntWritable, Text, IntWritable> {
+
+    protected void reduce(Text key, Iterable<IntWritable> values, Context context)
+        throws IOException, InterruptedException {
+      int count = 0;
+      for (IntWritable v : values)
+        count += v.get();
+      context.write(key, new IntWritable(count));
+    }
+  }
+
+  private static class Reduce extends Reducer<Text, IntWritable, Text, LongWritable> {
+
+    protected void reduce(Text key, Iterable<IntWritable> values, Context context)
+        throws IOException, InterruptedException {
+      if (key.getLength() == 0) throw new RuntimeException("Unexpected empty token.");
+      long count = 0;
+      for (IntWritable v : values)
+        count += v.get();
+      context.write(key, new LongWritable(count));
+    }
+  }
+
+  @Override
+  public Set<Class<? extends ThraxJob>> getPrerequisites() {
+    return new HashSet<Class<? extends ThraxJob>>();
+  }
+}
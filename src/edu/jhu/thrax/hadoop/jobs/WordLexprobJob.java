@@ -10,30 +10,42 @@ import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.mapreduce.Job;
-import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.reduce.IntSumReducer;
 
 import edu.jhu.thrax.hadoop.features.WordLexicalProbabilityCalculator;
 
-public abstract class WordLexprobJob implements ThraxJob {
-  public static final String SOURCE_GIVEN_TARGET = "thrax.__wordlexprob_sgt";
-  private boolean isSourceGivenTarget;
+/**
+ * Computes the word lexical probabilities of both directions in one pass over the corpus. Each
+ * direction is written to its own directory under the job's output.
+ */
+public class WordLexprobJob implements CacheableJob {
+  public static final String SOURCE_GIVEN_TARGET = "lexprobs_sgt";
+  public static final String TARGET_GIVEN_SOURCE = "lexprobs_tgs";
 
-  public WordLexprobJob(boolean isSrcGivenTgt) {
-    isSourceGivenTarget = isSrcGivenTgt;
+  private static final String[] CONFIGURATION_KEYS = {"thrax.source-is-parsed",
+      "thrax.target-is-parsed", "thrax.reverse", "thrax.hashed-vocabulary"};
+
+  private static HashSet<Class<? extends ThraxJob>> prereqs =
+      new HashSet<Class<? extends ThraxJob>>();
+
+  public static void addPrerequisite(Class<? extends ThraxJob> c) {
+    prereqs.add(c);
   }
 
   public Set<Class<? extends ThraxJob>> getPrerequisites() {
-    Set<Class<? extends ThraxJob>> result = new HashSet<Class<? extends ThraxJob>>();
-    result.add(VocabularyJob.class);
-    return result;
+    prereqs.add(CorpusJob.class);
+    return prereqs;
+  }
+
+  public String[] getConfigurationKeys() {
+    return CONFIGURATION_KEYS;
   }
 
   public Job getJob(Configuration conf) throws IOException {
-    Configuration theConf = new Configuration(conf);
-    theConf.setBoolean(SOURCE_GIVEN_TARGET, isSourceGivenTarget);
-    Job job = new Job(theConf, getName());
+    Job job = new Job(conf, getName());
     job.setJarByClass(WordLexicalProbabilityCalculator.class);
     job.setMapperClass(WordLexicalProbabilityCalculator.Map.class);
     job.setCombinerClass(IntSumReducer.class);
@@ -45,18 +57,32 @@ public abstract class WordLexprobJob implements ThraxJob {
     job.setMapOutputValueClass(IntWritable.class);
     
     int numReducers = conf.getInt("thrax.reducers", conf.getInt("mapreduce.job.reduces", DefaultValues.DEFAULT_NUM_REDUCERS));
-    job.setNumReduceTasks(numReducers);
+    // As many reducers for each direction as a job of its own would get.
+    job.setNumReduceTasks(2 * numReducers);
 
     job.setOutputKeyClass(LongWritable.class);
     job.setOutputValueClass(FloatWritable.class);
 
-    job.setOutputFormatClass(SequenceFileOutputFormat.class);
+    // Reducers only write to the directories of their direction.
+    LazyOutputFormat.setOutputFormatClass(job, SequenceFileOutputFormat.class);
 
-    FileInputFormat.setInputPaths(job, new Path(conf.get("thrax.input-file")));
-    int maxSplitSize = conf.getInt("thrax.max-split-size", 0);
-    if (maxSplitSize != 0) {
-      FileInputFormat.setMaxInputSplitSize(job, maxSplitSize);
-    }
+    CorpusJob.setInput(job, conf);
+    FileOutputFormat.setOutputPath(job, new Path(conf.get("thrax.work-dir") + getOutputSuffix()));
     return job;
   }
+
+  /**
+   * The output directory of one direction, SOURCE_GIVEN_TARGET or TARGET_GIVEN_SOURCE.
+   */
+  public static String getOutputPath(Configuration conf, String direction) {
+    return conf.get("thrax.work-dir") + "lexprobs" + Path.SEPARATOR + direction;
+  }
+
+  public String getName() {
+    return "word-lexprob";
+  }
+
+  public String getOutputSuffix() {
+    return "lexprobs";
+  }
 }
@@ -0,0 +1,453 @@
+package edu.jhu.thrax.hadoop.local;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobCounter;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.JobStatus;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.mapreduce.TaskID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
+import org.apache.hadoop.mapreduce.lib.reduce.WrappedReducer;
+import org.apache.hadoop.mapreduce.task.JobContextImpl;
+import org.apache.hadoop.mapreduce.task.MapContextImpl;
+import org.apache.hadoop.mapreduce.task.ReduceContextImpl;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Runs the Hadoop jobs built by {@link edu.jhu.thrax.hadoop.jobs.ThraxJob}s inside the current
+ * JVM. Map and reduce tasks of all concurrently running jobs share one fork-join pool, map output
+ * is sorted in memory and only spilled to local disk when the sort buffers fill up, and reducers
+ * merge the sorted runs straight out of memory or the spill files. Since the same input format,
+ * mapper, combiner, partitioner, comparators, reducer and output format are used, the job output
+ * is the same as on a cluster with the same number of reducers.
+ *
+ * Relevant options: thrax.local.threads (defaults to the number of cores), thrax.local.sort-mb
+ * (per map task sort buffer), thrax.local.memory-mb (total sorted map output kept in memory
+ * rather than spilled), thrax.local.merge-factor (maximum number of runs merged at once) and
+ * thrax.local.spill-dir.
+ */
+public class LocalEngine {
+
+  private static final Logger logger = Logger.getLogger(LocalEngine.class.getName());
+
+  private final ForkJoinPool pool;
+  private final int sortBufferBytes;
+  private final long memoryBudget;
+  private final File spillDir;
+  private final int mergeFactor;
+
+  private final AtomicLong retained = new AtomicLong();
+  private final AtomicInteger jobCount = new AtomicInteger();
+  private final String identifier = "local" + System.currentTimeMillis();
+
+  public LocalEngine(Configuration conf) {
+    int threads = conf.getInt("thrax.local.threads", Runtime.getRuntime().availableProcessors());
+    pool = new ForkJoinPool(threads);
+    sortBufferBytes = conf.getInt("thrax.local.sort-mb", 128) << 20;
+    memoryBudget = ((long) conf.getInt("thrax.local.memory-mb", 1024)) << 20;
+    mergeFactor = Math.max(2, conf.getInt("thrax.local.merge-factor", 64));
+    spillDir = new File(conf.get("thrax.local.spill-dir", System.getProperty("java.io.tmpdir")));
+    logger.info("Local engine running on " + threads + " threads.");
+  }
+
+  /**
+   * Runs the job to completion and commits its output.
+   *
+   * @return The job's aggregated counters.
+   * @throws IOException if any task fails; the output of every task and of the job is aborted in
+   *         that case, as it is if the job is interrupted or a task throws anything else.
+   */
+  public Counters run(Job job) throws IOException, InterruptedException {
+    final Configuration conf = job.getConfiguration();
+    final JobID id = new JobID(identifier, jobCount.incrementAndGet());
+    final JobContext context = new JobContextImpl(conf, id);
+    final Counters counters = new Counters();
+    final long gc_start = gcTime();
+
+    final InputFormat<?, ?> input;
+    final OutputCommitter committer;
+    try {
+      input = ReflectionUtils.newInstance(context.getInputFormatClass(), conf);
+      OutputFormat<?, ?> output = outputFormat(context, conf);
+      output.checkOutputSpecs(context);
+      committer = output.getOutputCommitter(taskContext(conf, id, TaskType.JOB_SETUP, 0));
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e);
+    }
+    committer.setupJob(context);
+
+    final int num_reducers = context.getNumReduceTasks();
+    final List<Segment>[] segments = segmentLists(num_reducers);
+    final List<File> spills = new ArrayList<File>();
+    final List<TaskAttempt> attempts = new ArrayList<TaskAttempt>();
+    try {
+      List<InputSplit> splits = input.getSplits(context);
+      List<Callable<Void>> maps = new ArrayList<Callable<Void>>();
+      for (int i = 0; i < splits.size(); ++i) {
+        final int n = i;
+        final InputSplit split = splits.get(i);
+        maps.add(new Callable<Void>() {
+          public Void call() throws Exception {
+            List<Segment>[] produced =
+                runMap(context, n, split, input, counters, spills, attempts);
+            synchronized (segments) {
+              for (int p = 0; p < num_reducers; ++p)
+                segments[p].addAll(produced[p]);
+            }
+            return null;
+          }
+        });
+      }
+      invokeAll(maps);
+
+      List<Callable<Void>> reduces = new ArrayList<Callable<Void>>();
+      for (int p = 0; p < num_reducers; ++p) {
+        final int n = p;
+        // Restore map order so merging ties resolve the same way on every run.
+        Collections.sort(segments[p]);
+        reduces.add(new Callable<Void>() {
+          public Void call() throws Exception {
+            runReduce(context, n, segments[n], counters, spills, attempts);
+            return null;
+          }
+        });
+      }
+      invokeAll(reduces);
+      committer.commitJob(context);
+      // All tasks share this JVM, so this includes collections caused by jobs running alongside.
+      counters.findCounter(TaskCounter.GC_TIME_MILLIS).increment(gcTime() - gc_start);
+      return counters;
+    } catch (Throwable e) {
+      // Tasks that failed or were interrupted leave their attempt directories behind, and those
+      // that finished leave their committed output: all of it is removed.
+      for (TaskAttempt a : attempts) {
+        try {
+          a.committer.abortTask(a.context);
+        } catch (Throwable t) {
+          e.addSuppressed(t);
+        }
+      }
+      try {
+        committer.abortJob(context, JobStatus.State.FAILED);
+      } catch (Throwable t) {
+        e.addSuppressed(t);
+      }
+      throw e;
+    } finally {
+      for (List<Segment> list : segments)
+        for (Segment s : list)
+          retained.addAndGet(-s.memory());
+      for (File f : spills)
+        f.delete();
+    }
+  }
+
+  private static long gcTime() {
+    long total = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+      total += Math.max(0, gc.getCollectionTime());
+    return total;
+  }
+
+  private void invokeAll(List<Callable<Void>> tasks) throws IOException, InterruptedException {
+    for (Future<Void> f : pool.invokeAll(tasks)) {
+      try {
+        f.get();
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) throw (IOException) cause;
+        throw new IOException(cause);
+      }
+    }
+  }
+
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  private List<Segment>[] runMap(JobContext job, int n, InputSplit split, InputFormat input,
+      Counters counters, List<File> spills, List<TaskAttempt> attempts) throws Exception {
+    long start = System.currentTimeMillis();
+    Configuration conf = taskConf(job, TaskType.MAP, n);
+    TaskAttemptContext context = taskContext(conf, job.getJobID(), TaskType.MAP, n);
+    // Like on a cluster, every task gets its own output format and committer.
+    OutputFormat output = outputFormat(job, conf);
+    OutputCommitter committer = output.getOutputCommitter(context);
+    LocalReporter reporter = new LocalReporter();
+    int num_reducers = job.getNumReduceTasks();
+
+    RecordReader reader =
+        new CountingReader(input.createRecordReader(split, context),
+            reporter.getCounter(TaskCounter.MAP_INPUT_RECORDS));
+    reader.initialize(split, context);
+
+    RecordWriter writer;
+    SortBuffer buffer = null;
+    if (num_reducers == 0) {
+      setupTask(committer, context, attempts);
+      writer = output.getRecordWriter(context);
+    } else {
+      Partitioner partitioner = ReflectionUtils.newInstance(job.getPartitionerClass(), conf);
+      Class<? extends Reducer> combiner = job.getCombinerClass();
+      buffer =
+          new SortBuffer(conf, n, job.getMapOutputKeyClass(), job.getMapOutputValueClass(),
+              partitioner, job.getSortComparator(), num_reducers, sortBufferBytes, this, combiner,
+              reporter, spills);
+      writer = buffer;
+    }
+    Mapper mapper = ReflectionUtils.newInstance(job.getMapperClass(), conf);
+    MapContextImpl map_context =
+        new MapContextImpl(conf, context.getTaskAttemptID(), reader, writer, committer, reporter,
+            split);
+    mapper.run(new WrappedMapper().getMapContext(map_context));
+    reader.close();
+    writer.close(context);
+
+    List<Segment>[] produced;
+    if (buffer == null) {
+      if (committer.needsTaskCommit(context)) committer.commitTask(context);
+      produced = segmentLists(0);
+    } else {
+      produced = buffer.segments();
+    }
+    reporter.getCounter(JobCounter.TOTAL_LAUNCHED_MAPS).increment(1);
+    reporter.getCounter(JobCounter.MILLIS_MAPS).increment(System.currentTimeMillis() - start);
+    synchronized (counters) {
+      counters.incrAllCounters(reporter.getCounters());
+    }
+    return produced;
+  }
+
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  private void runReduce(JobContext job, int n, List<Segment> segments, Counters counters,
+      List<File> spills, List<TaskAttempt> attempts) throws Exception {
+    long start = System.currentTimeMillis();
+    Configuration conf = taskConf(job, TaskType.REDUCE, n);
+    TaskAttemptContext context = taskContext(conf, job.getJobID(), TaskType.REDUCE, n);
+    OutputFormat output = outputFormat(job, conf);
+    OutputCommitter committer = output.getOutputCommitter(context);
+    LocalReporter reporter = new LocalReporter();
+
+    setupTask(committer, context, attempts);
+    Counter shuffled = reporter.getCounter(TaskCounter.REDUCE_SHUFFLE_BYTES);
+    for (Segment s : segments)
+      shuffled.increment(s.length());
+    RawComparator comparator = job.getSortComparator();
+    List<Segment> runs = segments;
+    while (runs.size() > mergeFactor)
+      runs = mergePass(runs, comparator, spills, conf.get(MRJobConfig.TASK_ATTEMPT_ID));
+    RawKeyValueIterator merged = new SegmentMerger(runs, comparator);
+    RecordWriter writer =
+        new CountingWriter(output.getRecordWriter(context),
+            reporter.getCounter(TaskCounter.REDUCE_OUTPUT_RECORDS));
+    Reducer reducer = ReflectionUtils.newInstance(job.getReducerClass(), conf);
+    ReduceContextImpl reduce_context =
+        new ReduceContextImpl(conf, context.getTaskAttemptID(), merged,
+            reporter.getCounter(TaskCounter.REDUCE_INPUT_GROUPS),
+            reporter.getCounter(TaskCounter.REDUCE_INPUT_RECORDS), writer, committer, reporter,
+            job.getGroupingComparator(), job.getMapOutputKeyClass(), job.getMapOutputValueClass());
+    reducer.run(new WrappedReducer().getReducerContext(reduce_context));
+    merged.close();
+    writer.close(context);
+    if (committer.needsTaskCommit(context)) committer.commitTask(context);
+    reporter.getCounter(JobCounter.TOTAL_LAUNCHED_REDUCES).increment(1);
+    reporter.getCounter(JobCounter.MILLIS_REDUCES).increment(System.currentTimeMillis() - start);
+    synchronized (counters) {
+      counters.incrAllCounters(reporter.getCounters());
+    }
+  }
+
+  private static void setupTask(OutputCommitter committer, TaskAttemptContext context,
+      List<TaskAttempt> attempts) throws IOException {
+    synchronized (attempts) {
+      attempts.add(new TaskAttempt(committer, context));
+    }
+    committer.setupTask(context);
+  }
+
+  /**
+   * A task whose output committer was set up, to be aborted if the job fails.
+   */
+  private static class TaskAttempt {
+    final OutputCommitter committer;
+    final TaskAttemptContext context;
+
+    TaskAttempt(OutputCommitter committer, TaskAttemptContext context) {
+      this.committer = committer;
+      this.context = context;
+    }
+  }
+
+  /**
+   * Merges consecutive groups of segments into single spill files, to bound the number of files a
+   * reducer has open at once. Since groups are consecutive, the merged segments keep their order.
+   */
+  private List<Segment> mergePass(List<Segment> segments, RawComparator<?> comparator,
+      List<File> spills, String attempt) throws IOException {
+    List<Segment> merged = new ArrayList<Segment>();
+    for (int i = 0; i < segments.size(); i += mergeFactor) {
+      List<Segment> group = segments.subList(i, Math.min(i + mergeFactor, segments.size()));
+      if (group.size() == 1) {
+        merged.add(group.get(0));
+        continue;
+      }
+      File file = spillFile(attempt, merged.size());
+      synchronized (spills) {
+        spills.add(file);
+      }
+      DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+      SegmentMerger merger = new SegmentMerger(group, comparator);
+      while (merger.next()) {
+        DataInputBuffer key = merger.getKey();
+        DataInputBuffer value = merger.getValue();
+        WritableUtils.writeVInt(out, key.getLength());
+        WritableUtils.writeVInt(out, value.getLength());
+        out.write(key.getData(), 0, key.getLength());
+        out.write(value.getData(), 0, value.getLength());
+      }
+      merger.close();
+      out.close();
+      merged.add(group.get(0).mergedInto(file, file.length()));
+    }
+    return merged;
+  }
+
+  /**
+   * Reserves memory for a sorted run that is about to be kept in memory.
+   *
+   * @return false if the run should be spilled to disk instead.
+   */
+  boolean retain(long bytes) {
+    long current;
+    do {
+      current = retained.get();
+      if (current + bytes > memoryBudget) return false;
+    } while (!retained.compareAndSet(current, current + bytes));
+    return true;
+  }
+
+  File spillFile(String attempt, int spill) throws IOException {
+    return File.createTempFile(attempt + "_" + spill + "_", ".spill", spillDir);
+  }
+
+  private static OutputFormat<?, ?> outputFormat(JobContext job, Configuration conf)
+      throws ClassNotFoundException {
+    return ReflectionUtils.newInstance(job.getOutputFormatClass(), conf);
+  }
+
+  private static Configuration taskConf(JobContext job, TaskType type, int n) {
+    Configuration conf = new Configuration(job.getConfiguration());
+    TaskAttemptID attempt = new TaskAttemptID(new TaskID(job.getJobID(), type, n), 0);
+    conf.set(MRJobConfig.TASK_ATTEMPT_ID, attempt.toString());
+    conf.set(MRJobConfig.TASK_ID, attempt.getTaskID().toString());
+    conf.setInt(MRJobConfig.TASK_PARTITION, n);
+    conf.setBoolean(MRJobConfig.TASK_ISMAP, type == TaskType.MAP);
+    return conf;
+  }
+
+  private static TaskAttemptContext taskContext(Configuration conf, JobID job, TaskType type, int n) {
+    return new TaskAttemptContextImpl(conf, new TaskAttemptID(new TaskID(job, type, n), 0));
+  }
+
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  static List<Segment>[] segmentLists(int n) {
+    List<Segment>[] lists = new List[n];
+    for (int i = 0; i < n; ++i)
+      lists[i] = new ArrayList<Segment>();
+    return lists;
+  }
+
+  private static class CountingReader<K, V> extends RecordReader<K, V> {
+    private final RecordReader<K, V> reader;
+    private final Counter records;
+
+    CountingReader(RecordReader<K, V> r, Counter c) {
+      reader = r;
+      records = c;
+    }
+
+    public void initialize(InputSplit split, TaskAttemptContext context) throws IOException,
+        InterruptedException {
+      reader.initialize(split, context);
+    }
+
+    public boolean nextKeyValue() throws IOException, InterruptedException {
+      if (!reader.nextKeyValue()) return false;
+      records.increment(1);
+      return true;
+    }
+
+    public K getCurrentKey() throws IOException, InterruptedException {
+      return reader.getCurrentKey();
+    }
+
+    public V getCurrentValue() throws IOException, InterruptedException {
+      return reader.getCurrentValue();
+    }
+
+    public float getProgress() throws IOException, InterruptedException {
+      return reader.getProgress();
+    }
+
+    public void close() throws IOException {
+      reader.close();
+    }
+  }
+
+  private static class CountingWriter<K, V> extends RecordWriter<K, V> {
+    private final RecordWriter<K, V> writer;
+    private final Counter records;
+
+    CountingWriter(RecordWriter<K, V> w, Counter c) {
+      writer = w;
+      records = c;
+    }
+
+    public void write(K key, V value) throws IOException, InterruptedException {
+      writer.write(key, value);
+      records.increment(1);
+    }
+
+    public void close(TaskAttemptContext context) throws IOException, InterruptedException {
+      writer.close(context);
+    }
+  }
+}
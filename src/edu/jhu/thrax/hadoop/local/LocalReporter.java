@@ -0,0 +1,34 @@
+package edu.jhu.thrax.hadoop.local;
+
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.StatusReporter;
+
+/**
+ * Collects the counters of a single local task. Tasks are confined to one thread, so no locking is
+ * needed until the counters are folded into the job's totals.
+ */
+class LocalReporter extends StatusReporter {
+
+  private final Counters counters = new Counters();
+
+  public Counter getCounter(Enum<?> name) {
+    return counters.findCounter(name);
+  }
+
+  public Counter getCounter(String group, String name) {
+    return counters.findCounter(group, name);
+  }
+
+  public void progress() {}
+
+  public float getProgress() {
+    return 0;
+  }
+
+  public void setStatus(String status) {}
+
+  Counters getCounters() {
+    return counters;
+  }
+}
@@ -0,0 +1,131 @@
+package edu.jhu.thrax.hadoop.local;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * A sorted run of serialized map output records for one partition. Records are stored as a key
+ * length, a value length, and the raw key and value bytes. The run either lives in memory or in a
+ * region of a spill file on local disk.
+ */
+class Segment implements Comparable<Segment> {
+
+  private final int task;
+  private final int spill;
+
+  private final byte[] data;
+  private final File file;
+  private final long offset;
+  private final long length;
+
+  Segment(int task, int spill, byte[] data, int offset, int length) {
+    this.task = task;
+    this.spill = spill;
+    this.data = data;
+    this.file = null;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  Segment(int task, int spill, File file, long offset, long length) {
+    this.task = task;
+    this.spill = spill;
+    this.data = null;
+    this.file = file;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * A segment holding the merged contents of a group of segments starting with this one. It takes
+   * this segment's position in the merge order.
+   */
+  Segment mergedInto(File merged, long merged_length) {
+    return new Segment(task, spill, merged, 0, merged_length);
+  }
+
+  /**
+   * Size of this segment's serialized records, in bytes.
+   */
+  long length() {
+    return length;
+  }
+
+  /**
+   * Heap memory held by this segment.
+   */
+  long memory() {
+    return (data == null ? 0 : length);
+  }
+
+  Reader open() throws IOException {
+    InputStream stream;
+    if (data != null) {
+      stream = new ByteArrayInputStream(data, (int) offset, (int) length);
+    } else {
+      FileInputStream file_stream = new FileInputStream(file);
+      long skipped = 0;
+      while (skipped < offset)
+        skipped += file_stream.skip(offset - skipped);
+      stream = new BufferedInputStream(file_stream, 1 << 16);
+    }
+    return new Reader(new DataInputStream(stream), length, this);
+  }
+
+  public int compareTo(Segment that) {
+    if (task != that.task) return (task < that.task ? -1 : 1);
+    if (spill != that.spill) return (spill < that.spill ? -1 : 1);
+    return 0;
+  }
+
+  static class Reader {
+    private final DataInputStream stream;
+    private final Segment segment;
+    private long remaining;
+
+    byte[] key = new byte[64];
+    int keyLength;
+    byte[] value = new byte[64];
+    int valueLength;
+
+    private Reader(DataInputStream s, long length, Segment seg) {
+      stream = s;
+      remaining = length;
+      segment = seg;
+    }
+
+    /**
+     * Reads the next record into the key and value buffers.
+     *
+     * @return false at the end of the segment.
+     */
+    boolean next() throws IOException {
+      if (remaining <= 0) return false;
+      keyLength = WritableUtils.readVInt(stream);
+      valueLength = WritableUtils.readVInt(stream);
+      if (key.length < keyLength) key = new byte[Math.max(keyLength, 2 * key.length)];
+      if (value.length < valueLength) value = new byte[Math.max(valueLength, 2 * value.length)];
+      stream.readFully(key, 0, keyLength);
+      stream.readFully(value, 0, valueLength);
+      remaining -=
+          WritableUtils.getVIntSize(keyLength) + WritableUtils.getVIntSize(valueLength)
+              + keyLength + valueLength;
+      return true;
+    }
+
+    Segment segment() {
+      return segment;
+    }
+
+    void close() throws IOException {
+      stream.close();
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package edu.jhu.thrax.hadoop.local;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.util.Progress;
+
+/**
+ * Merges sorted segments into a single sorted stream for a reducer. Records with equal keys are
+ * returned in segment order.
+ */
+class SegmentMerger implements RawKeyValueIterator {
+
+  private final List<Segment> segments;
+  private final PriorityQueue<Segment.Reader> heap;
+  private final Progress progress = new Progress();
+
+  private final DataInputBuffer key = new DataInputBuffer();
+  private final DataInputBuffer value = new DataInputBuffer();
+
+  private Segment.Reader current = null;
+  private boolean opened = false;
+
+  SegmentMerger(List<Segment> segs, final RawComparator<?> comparator) {
+    segments = segs;
+    heap =
+        new PriorityQueue<Segment.Reader>(Math.max(1, segs.size()),
+            new Comparator<Segment.Reader>() {
+              public int compare(Segment.Reader a, Segment.Reader b) {
+                int cmp = comparator.compare(a.key, 0, a.keyLength, b.key, 0, b.keyLength);
+                if (cmp != 0) return cmp;
+                return a.segment().compareTo(b.segment());
+              }
+            });
+  }
+
+  public boolean next() throws IOException {
+    if (!opened) {
+      for (Segment s : segments) {
+        Segment.Reader reader = s.open();
+        if (reader.next())
+          heap.add(reader);
+        else
+          reader.close();
+      }
+      opened = true;
+    } else if (current != null) {
+      if (current.next())
+        heap.add(current);
+      else
+        current.close();
+    }
+    current = heap.poll();
+    if (current == null) return false;
+    key.reset(current.key, 0, current.keyLength);
+    value.reset(current.value, 0, current.valueLength);
+    return true;
+  }
+
+  public DataInputBuffer getKey() {
+    return key;
+  }
+
+  public DataInputBuffer getValue() {
+    return value;
+  }
+
+  public void close() throws IOException {
+    if (current != null) current.close();
+    for (Segment.Reader reader : heap)
+      reader.close();
+    heap.clear();
+  }
+
+  public Progress getProgress() {
+    return progress;
+  }
+}
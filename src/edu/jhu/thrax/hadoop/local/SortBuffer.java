@@ -0,0 +1,291 @@
+package edu.jhu.thrax.hadoop.local;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.io.serializer.SerializationFactory;
+import org.apache.hadoop.io.serializer.Serializer;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.mapreduce.lib.reduce.WrappedReducer;
+import org.apache.hadoop.mapreduce.task.ReduceContextImpl;
+import org.apache.hadoop.util.IndexedSortable;
+import org.apache.hadoop.util.Progress;
+import org.apache.hadoop.util.QuickSort;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Map output collector for the local engine. Records are serialized into a single buffer and
+ * sorted by partition and key once the buffer fills up. Each sorted buffer is combined (if the job
+ * has a combiner) and written out as one {@link Segment} per partition, either to a spill file or,
+ * for the final buffer of a task and within the engine's memory budget, kept in memory.
+ */
+class SortBuffer<K, V> extends RecordWriter<K, V> implements IndexedSortable {
+
+  // Per record: partition, key start, value start, record end.
+  private static final int STRIDE = 4;
+
+  private final Configuration conf;
+  private final int task;
+  private final Class<K> keyClass;
+  private final Class<V> valueClass;
+  private final Partitioner<K, V> partitioner;
+  private final RawComparator<K> comparator;
+  private final int numPartitions;
+  private final int capacity;
+  private final LocalEngine engine;
+  private final Class<? extends Reducer<K, V, K, V>> combiner;
+  private final LocalReporter reporter;
+  private final List<File> spillFiles;
+
+  private final DataOutputBuffer data = new DataOutputBuffer();
+  private final Serializer<K> keySerializer;
+  private final Serializer<V> valueSerializer;
+  private int[] meta = new int[STRIDE * 1024];
+  private int count = 0;
+  private int spills = 0;
+
+  private final List<Segment>[] segments;
+
+  private final Counter outputRecords;
+  private final Counter outputBytes;
+  private final Counter spilledRecords;
+
+  SortBuffer(Configuration conf, int task, Class<K> key_class, Class<V> value_class,
+      Partitioner<K, V> partitioner, RawComparator<K> comparator, int num_partitions,
+      int capacity, LocalEngine engine, Class<? extends Reducer<K, V, K, V>> combiner,
+      LocalReporter reporter, List<File> spill_files) throws IOException {
+    this.conf = conf;
+    this.task = task;
+    this.keyClass = key_class;
+    this.valueClass = value_class;
+    this.partitioner = partitioner;
+    this.comparator = comparator;
+    this.numPartitions = num_partitions;
+    this.capacity = capacity;
+    this.engine = engine;
+    this.combiner = combiner;
+    this.reporter = reporter;
+    this.spillFiles = spill_files;
+
+    SerializationFactory factory = new SerializationFactory(conf);
+    keySerializer = factory.getSerializer(key_class);
+    keySerializer.open(data);
+    valueSerializer = factory.getSerializer(value_class);
+    valueSerializer.open(data);
+
+    segments = LocalEngine.segmentLists(num_partitions);
+
+    outputRecords = reporter.getCounter(TaskCounter.MAP_OUTPUT_RECORDS);
+    outputBytes = reporter.getCounter(TaskCounter.MAP_OUTPUT_BYTES);
+    spilledRecords = reporter.getCounter(TaskCounter.SPILLED_RECORDS);
+  }
+
+  public void write(K key, V value) throws IOException, InterruptedException {
+    int partition = partitioner.getPartition(key, value, numPartitions);
+    if (partition < 0 || partition >= numPartitions)
+      throw new IOException("Illegal partition for " + key + ": " + partition);
+    int key_start = data.getLength();
+    keySerializer.serialize(key);
+    int value_start = data.getLength();
+    valueSerializer.serialize(value);
+    int end = data.getLength();
+
+    if (meta.length < STRIDE * (count + 1)) meta = Arrays.copyOf(meta, 2 * meta.length);
+    int m = STRIDE * count;
+    meta[m] = partition;
+    meta[m + 1] = key_start;
+    meta[m + 2] = value_start;
+    meta[m + 3] = end;
+    ++count;
+
+    outputRecords.increment(1);
+    outputBytes.increment(end - key_start);
+    if (end + 4L * STRIDE * count >= capacity) spill(false);
+  }
+
+  public void close(TaskAttemptContext context) throws IOException, InterruptedException {
+    spill(true);
+  }
+
+  List<Segment>[] segments() {
+    return segments;
+  }
+
+  public int compare(int i, int j) {
+    int mi = STRIDE * i, mj = STRIDE * j;
+    if (meta[mi] != meta[mj]) return (meta[mi] < meta[mj] ? -1 : 1);
+    byte[] bytes = data.getData();
+    return comparator.compare(bytes, meta[mi + 1], meta[mi + 2] - meta[mi + 1], bytes,
+        meta[mj + 1], meta[mj + 2] - meta[mj + 1]);
+  }
+
+  public void swap(int i, int j) {
+    int mi = STRIDE * i, mj = STRIDE * j;
+    for (int k = 0; k < STRIDE; ++k) {
+      int t = meta[mi + k];
+      meta[mi + k] = meta[mj + k];
+      meta[mj + k] = t;
+    }
+  }
+
+  private void spill(boolean last) throws IOException, InterruptedException {
+    if (count == 0) return;
+    new QuickSort().sort(this, 0, count);
+
+    DataOutputBuffer out = new DataOutputBuffer(data.getLength() + 16 * count);
+    int[] starts = new int[numPartitions + 1];
+    int record = 0;
+    for (int p = 0; p < numPartitions; ++p) {
+      starts[p] = out.getLength();
+      int from = record;
+      while (record < count && meta[STRIDE * record] == p)
+        ++record;
+      if (from == record) continue;
+      if (combiner != null)
+        combine(from, record, out);
+      else
+        copy(from, record, out);
+    }
+    starts[numPartitions] = out.getLength();
+
+    if (last && engine.retain(out.getLength())) {
+      byte[] bytes = Arrays.copyOf(out.getData(), out.getLength());
+      for (int p = 0; p < numPartitions; ++p)
+        if (starts[p + 1] > starts[p])
+          segments[p].add(new Segment(task, spills, bytes, starts[p], starts[p + 1] - starts[p]));
+    } else {
+      File file =
+          engine.spillFile(conf.get(MRJobConfig.TASK_ATTEMPT_ID, "attempt_local_" + task), spills);
+      synchronized (spillFiles) {
+        spillFiles.add(file);
+      }
+      DataOutputStream stream =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+      stream.write(out.getData(), 0, out.getLength());
+      stream.close();
+      for (int p = 0; p < numPartitions; ++p)
+        if (starts[p + 1] > starts[p])
+          segments[p].add(new Segment(task, spills, file, starts[p], starts[p + 1] - starts[p]));
+    }
+    spilledRecords.increment(count);
+    ++spills;
+    count = 0;
+    data.reset();
+  }
+
+  private void copy(int from, int to, DataOutputBuffer out) throws IOException {
+    byte[] bytes = data.getData();
+    for (int i = from; i < to; ++i) {
+      int m = STRIDE * i;
+      int key_length = meta[m + 2] - meta[m + 1];
+      int value_length = meta[m + 3] - meta[m + 2];
+      WritableUtils.writeVInt(out, key_length);
+      WritableUtils.writeVInt(out, value_length);
+      out.write(bytes, meta[m + 1], key_length + value_length);
+    }
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private void combine(int from, int to, DataOutputBuffer out) throws IOException,
+      InterruptedException {
+    TaskAttemptID attempt = TaskAttemptID.forName(conf.get(MRJobConfig.TASK_ATTEMPT_ID));
+    Reducer<K, V, K, V> reducer = ReflectionUtils.newInstance(combiner, conf);
+    ReduceContextImpl context =
+        new ReduceContextImpl(conf, attempt, new BufferIterator(from, to),
+            reporter.getCounter("local", "combine input groups"),
+            reporter.getCounter(TaskCounter.COMBINE_INPUT_RECORDS), new SegmentWriter(out), null,
+            reporter, comparator, keyClass, valueClass);
+    reducer.run(new WrappedReducer().getReducerContext(context));
+  }
+
+  /**
+   * Iterates over a sorted range of the buffer, as input to the combiner.
+   */
+  private class BufferIterator implements RawKeyValueIterator {
+    private final DataInputBuffer key = new DataInputBuffer();
+    private final DataInputBuffer value = new DataInputBuffer();
+    private final Progress progress = new Progress();
+    private int current;
+    private final int to;
+
+    BufferIterator(int from, int to) {
+      this.current = from - 1;
+      this.to = to;
+    }
+
+    public boolean next() {
+      if (++current >= to) return false;
+      int m = STRIDE * current;
+      key.reset(data.getData(), meta[m + 1], meta[m + 2] - meta[m + 1]);
+      value.reset(data.getData(), meta[m + 2], meta[m + 3] - meta[m + 2]);
+      return true;
+    }
+
+    public DataInputBuffer getKey() {
+      return key;
+    }
+
+    public DataInputBuffer getValue() {
+      return value;
+    }
+
+    public void close() {}
+
+    public Progress getProgress() {
+      return progress;
+    }
+  }
+
+  /**
+   * Serializes combiner output in segment format.
+   */
+  private class SegmentWriter extends RecordWriter<K, V> {
+    private final DataOutputBuffer out;
+    private final DataOutputBuffer key = new DataOutputBuffer();
+    private final DataOutputBuffer value = new DataOutputBuffer();
+    private final Serializer<K> keyOut;
+    private final Serializer<V> valueOut;
+    private final Counter records = reporter.getCounter(TaskCounter.COMBINE_OUTPUT_RECORDS);
+
+    SegmentWriter(DataOutputBuffer out) throws IOException {
+      this.out = out;
+      SerializationFactory factory = new SerializationFactory(conf);
+      keyOut = factory.getSerializer(keyClass);
+      keyOut.open(key);
+      valueOut = factory.getSerializer(valueClass);
+      valueOut.open(value);
+    }
+
+    public void write(K k, V v) throws IOException {
+      key.reset();
+      value.reset();
+      keyOut.serialize(k);
+      valueOut.serialize(v);
+      WritableUtils.writeVInt(out, key.getLength());
+      WritableUtils.writeVInt(out, value.getLength());
+      out.write(key.getData(), 0, key.getLength());
+      out.write(value.getData(), 0, value.getLength());
+      records.increment(1);
+    }
+
+    public void close(TaskAttemptContext context) {}
+  }
+}
@@ -13,7 +13,8 @@ public class PivotingMapper extends Mapper<RuleWritable, FeatureMap, RuleWritabl
 
   protected void setup(Context context) throws IOException, InterruptedException {
     Configuration conf = context.getConfiguration();
-    Vocabulary.initialize(conf);
+    String vocabulary_path = conf.getRaw("thrax.work-dir") + "vocabulary/part-*";
+    Vocabulary.initialize(conf, vocabulary_path);
   }
 
   protected void map(RuleWritable key, FeatureMap value, Context context) throws IOException,
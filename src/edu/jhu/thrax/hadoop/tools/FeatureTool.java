@@ -5,18 +5,13 @@ import java.util.Map;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.mapreduce.Job;
-import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
-import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
-import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
-import edu.jhu.thrax.hadoop.datatypes.RuleWritable;
-import edu.jhu.thrax.hadoop.features.mapred.MapReduceFeature;
-import edu.jhu.thrax.hadoop.features.mapred.MapReduceFeatureFactory;
+import edu.jhu.thrax.hadoop.features.mapred.ConditionalFeature;
+import edu.jhu.thrax.hadoop.features.mapred.ConditionalFeatureFactory;
+import edu.jhu.thrax.hadoop.features.mapred.ConditionalFeatureJob;
 import edu.jhu.thrax.util.ConfFileParser;
 
 public class FeatureTool extends Configured implements Tool
@@ -29,11 +24,6 @@ public class FeatureTool extends Configured implements Tool
         }
         String confFile = argv[0];
         String featureName = argv[1];
-        MapReduceFeature f = MapReduceFeatureFactory.get(featureName);
-        if (!(f instanceof MapReduceFeature)) {
-            System.err.println("Not a MapReduceFeature: " + featureName);
-            return 1;
-        }
         Configuration conf = getConf();
         Map<String,String> options = ConfFileParser.parse(confFile);
         for (String opt : options.keySet()) {
@@ -48,28 +38,13 @@ public class FeatureTool extends Configured implements Tool
             workDir += Path.SEPARATOR;
             conf.set("thrax.work-dir", workDir);
         }
-        Job job = new Job(conf, String.format("thrax-%s", featureName));
-
-        job.setJarByClass(f.getClass());
-        job.setMapperClass(f.mapperClass());
-        job.setCombinerClass(f.combinerClass());
-        job.setSortComparatorClass(f.sortComparatorClass());
-        job.setPartitionerClass(f.partitionerClass());
-        job.setReducerClass(f.reducerClass());
-
-        job.setInputFormatClass(SequenceFileInputFormat.class);
-
-        job.setMapOutputKeyClass(RuleWritable.class);
-        job.setMapOutputValueClass(IntWritable.class);
-
-        job.setOutputKeyClass(RuleWritable.class);
-        job.setOutputValueClass(IntWritable.class);
-
-        job.setOutputFormatClass(SequenceFileOutputFormat.class);
-
-        FileInputFormat.setInputPaths(job, new Path(workDir + "rules"));
-        FileOutputFormat.setOutputPath(job, new Path(workDir + featureName));
-
+        ConditionalFeature f = ConditionalFeatureFactory.get(featureName, conf);
+        if (f == null) {
+            System.err.println("Not a conditional feature: " + featureName);
+            return 1;
+        }
+        ConditionalFeatureJob.addFeature(f);
+        Job job = new ConditionalFeatureJob().getJob(conf);
         job.submit();
         return 0;
     }
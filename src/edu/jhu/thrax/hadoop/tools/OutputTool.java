@@ -15,12 +15,11 @@ import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
 import edu.jhu.thrax.hadoop.datatypes.RuleWritable;
-import edu.jhu.thrax.hadoop.features.mapred.MapReduceFeature;
-import edu.jhu.thrax.hadoop.features.mapred.MapReduceFeatureFactory;
+import edu.jhu.thrax.hadoop.features.mapred.ConditionalFeatureFactory;
+import edu.jhu.thrax.hadoop.features.mapred.ConditionalFeatureJob;
 import edu.jhu.thrax.hadoop.output.OutputReducer;
 import edu.jhu.thrax.util.BackwardsCompatibility;
 import edu.jhu.thrax.util.ConfFileParser;
-import edu.jhu.thrax.util.FormatUtils;
 
 public class OutputTool extends Configured implements Tool
 {
@@ -60,11 +59,9 @@ public class OutputTool extends Configured implements Tool
         job.setOutputValueClass(NullWritable.class);
 
         String features = BackwardsCompatibility.equivalent(conf.get("thrax.features", ""));
-        for (String feature : FormatUtils.P_SPACE.split(features)) {
-            if (MapReduceFeatureFactory.get(feature) instanceof MapReduceFeature) {
-                FileInputFormat.addInputPath(job, new Path(workDir + feature));
-            }
-        }
+        if (!ConditionalFeatureFactory.getAll(features, conf).isEmpty())
+            FileInputFormat.addInputPath(job, new Path(workDir + ConditionalFeatureJob.NAME));
+        FileInputFormat.setInputDirRecursive(job, true);
         if (FileInputFormat.getInputPaths(job).length == 0)
             FileInputFormat.addInputPath(job, new Path(workDir + "rules"));
         FileOutputFormat.setOutputPath(job, new Path(workDir + "final"));
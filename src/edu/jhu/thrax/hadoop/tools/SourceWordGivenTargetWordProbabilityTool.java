@@ -17,7 +17,6 @@ import org.apache.hadoop.util.ToolRunner;
 
 import edu.jhu.thrax.hadoop.datatypes.TextPair;
 import edu.jhu.thrax.hadoop.features.WordLexicalProbabilityCalculator;
-import edu.jhu.thrax.hadoop.jobs.WordLexprobJob;
 import edu.jhu.thrax.util.ConfFileParser;
 
 public class SourceWordGivenTargetWordProbabilityTool extends Configured implements Tool
@@ -48,7 +47,6 @@ public class SourceWordGivenTargetWordProbabilityTool extends Configured impleme
             workDir += Path.SEPARATOR;
             conf.set("thrax.work-dir", workDir);
         }
-		conf.setBoolean(WordLexprobJob.SOURCE_GIVEN_TARGET, true);
         Job job = new Job(conf, "thrax-sgt-word-lexprob");
 
         job.setJarByClass(WordLexicalProbabilityCalculator.class);
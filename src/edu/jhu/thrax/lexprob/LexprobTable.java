@@ -0,0 +1,15 @@
+package edu.jhu.thrax.lexprob;
+
+/**
+ * Word lexical probabilities as the lexical weighting features look them up: the probability of
+ * a word (cdr) given a conditioning word (car).
+ */
+public interface LexprobTable {
+
+  /**
+   * The probability of cdr given car, or 0 if the pair is not in the table.
+   */
+  public float get(int car, int cdr);
+
+  public boolean contains(int car, int cdr);
+}
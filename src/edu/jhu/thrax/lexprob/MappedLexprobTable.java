@@ -0,0 +1,353 @@
+package edu.jhu.thrax.lexprob;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+
+/**
+ * Word lexical probabilities in binary files that are memory-mapped rather than read, so that a
+ * task can look up a table of any size as soon as it starts, without holding it on the heap.
+ *
+ * Each lexprob reducer writes one shard, holding the probabilities of the range of conditioning
+ * words it was given. A shard is an open-addressed hash table keyed on the word pair: after a
+ * header, the keys of all slots, then their probabilities. A lookup finds the shard by its range
+ * and probes from the key's hash, which is usually a single read. Shards are only mapped once a
+ * word in their range is looked up, so a task that looks up a range of words maps just its shard.
+ */
+@SuppressWarnings("deprecation")
+public class MappedLexprobTable implements LexprobTable {
+
+  public static final String SUFFIX = ".lexprob";
+
+  private static final int MAGIC = 0x54584c50;
+  private static final int VERSION = 1;
+  private static final int HEADER = 24;
+
+  // No pair has a negative conditioning word, so no key is all ones.
+  private static final long EMPTY = -1L;
+
+  // Files are mapped in segments of a size that keys and probabilities never straddle.
+  private static final int SEGMENT_BITS = 30;
+  private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+  private final Shard[] shards;
+
+  private MappedLexprobTable(List<File> files) throws IOException {
+    List<Shard> list = new ArrayList<Shard>();
+    for (File file : files) {
+      Shard shard = new Shard(file);
+      if (shard.count > 0) list.add(shard);
+    }
+    shards = list.toArray(new Shard[list.size()]);
+    Arrays.sort(shards, new Comparator<Shard>() {
+      public int compare(Shard a, Shard b) {
+        return Integer.compare(a.minCar, b.minCar);
+      }
+    });
+    for (int i = 1; i < shards.length; i++)
+      if (shards[i].minCar <= shards[i - 1].maxCar)
+        throw new IOException("Lexprob shards overlap: " + shards[i - 1].file + ", "
+            + shards[i].file);
+  }
+
+  /**
+   * The table written by a lexprob job to an output directory. Shards are mapped in place on a
+   * local file system, or from the distributed cache. If the job wrote none, the table is built
+   * once from its SequenceFile output into a temporary file.
+   */
+  public static MappedLexprobTable open(Configuration conf, String dir) throws IOException {
+    Path path = new Path(dir);
+    List<File> files = shards(conf, path);
+    if (files.isEmpty()) {
+      File file = File.createTempFile("lexprob-" + path.getName(), SUFFIX);
+      file.deleteOnExit();
+      Writer writer = new Writer(file);
+      FileSystem fs = path.getFileSystem(conf);
+      FileStatus[] parts = fs.globStatus(new Path(path, "part-*"));
+      if (parts == null || parts.length == 0)
+        throw new IOException("no files found in lexprob glob:" + path + "/part-*");
+      Iterable<TableEntry> entries = SequenceFileLexprobTable.getSequenceFileIterator(fs, conf,
+          parts);
+      for (TableEntry te : entries)
+        writer.add(te.car, te.cdr, te.probability);
+      writer.close();
+      files.add(file);
+    }
+    return new MappedLexprobTable(files);
+  }
+
+  private static List<File> shards(Configuration conf, Path dir) throws IOException {
+    List<File> files = new ArrayList<File>();
+    FileSystem fs = dir.getFileSystem(conf);
+    if (fs instanceof LocalFileSystem) {
+      FileStatus[] found = fs.globStatus(new Path(dir, "*" + SUFFIX));
+      if (found != null)
+        for (FileStatus status : found)
+          files.add(((LocalFileSystem) fs).pathToFile(status.getPath()));
+      return files;
+    }
+    Path[] cached = DistributedCache.getLocalCacheFiles(conf);
+    if (cached != null) {
+      for (Path p : cached)
+        if (isShard(dir, p.getName())) files.add(new File(p.toUri().getPath()));
+    }
+    return files;
+  }
+
+  // Shards are named after their directory, so that those of both directions can share a cache.
+  private static boolean isShard(Path dir, String name) {
+    return name.startsWith(dir.getName() + "-") && name.endsWith(SUFFIX);
+  }
+
+  /**
+   * The file name of a reducer's shard in an output directory.
+   */
+  public static String shardName(Path dir, int partition) {
+    return String.format("%s-r-%05d%s", dir.getName(), partition, SUFFIX);
+  }
+
+  /**
+   * Ships the shards in an output directory to the tasks of a job through the distributed cache.
+   * Nothing needs shipping on a local file system, where tasks map the shards in place.
+   */
+  public static void addToCache(Job job, Configuration conf, String dir) throws IOException {
+    Path path = new Path(dir);
+    FileSystem fs = path.getFileSystem(conf);
+    if (fs instanceof LocalFileSystem || !fs.exists(path)) return;
+    FileStatus[] found = fs.globStatus(new Path(path, "*" + SUFFIX));
+    if (found == null) return;
+    for (FileStatus status : found)
+      job.addCacheFile(fs.makeQualified(status.getPath()).toUri());
+  }
+
+  /**
+   * The probability of cdr given car, or 0 if the pair is not in the table.
+   */
+  public float get(int car, int cdr) {
+    Shard shard = shard(car);
+    if (shard == null) return 0;
+    long slot = shard.find(key(car, cdr));
+    return (slot < 0 ? 0 : shard.value(slot));
+  }
+
+  public boolean contains(int car, int cdr) {
+    Shard shard = shard(car);
+    return (shard != null && shard.find(key(car, cdr)) >= 0);
+  }
+
+  private Shard shard(int car) {
+    int lo = 0, hi = shards.length - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (shards[mid].maxCar < car)
+        lo = mid + 1;
+      else if (shards[mid].minCar > car)
+        hi = mid - 1;
+      else
+        return shards[mid];
+    }
+    return null;
+  }
+
+  private static long key(int car, int cdr) {
+    return ((long) car << 32) | (cdr & 0xFFFFFFFFL);
+  }
+
+  // The finalizer of MurmurHash3, which spreads the bits of both words over the slot index.
+  private static long mix(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
+  private static MappedByteBuffer[] map(RandomAccessFile raf, FileChannel.MapMode mode)
+      throws IOException {
+    long length = raf.length();
+    int n = (int) ((length + SEGMENT_MASK) >>> SEGMENT_BITS);
+    MappedByteBuffer[] segments = new MappedByteBuffer[n];
+    FileChannel channel = raf.getChannel();
+    for (int i = 0; i < n; i++) {
+      long start = (long) i << SEGMENT_BITS;
+      segments[i] = channel.map(mode, start, Math.min(1L << SEGMENT_BITS, length - start));
+    }
+    return segments;
+  }
+
+  private static MappedByteBuffer segment(MappedByteBuffer[] segments, long pos) {
+    return segments[(int) (pos >>> SEGMENT_BITS)];
+  }
+
+  private static int offset(long pos) {
+    return (int) (pos & SEGMENT_MASK);
+  }
+
+  private static class Shard {
+    private final File file;
+    private final long mask;
+    private final long values;
+    private final int count;
+    private final int minCar;
+    private final int maxCar;
+
+    private volatile MappedByteBuffer[] segments;
+
+    Shard(File file) throws IOException {
+      this.file = file;
+      DataInputStream in = new DataInputStream(new FileInputStream(file));
+      try {
+        if (file.length() < HEADER || in.readInt() != MAGIC || in.readInt() != VERSION)
+          throw new IOException("Not a lexprob table of version " + VERSION + ": " + file);
+        long capacity = in.readInt() & 0xFFFFFFFFL;
+        mask = capacity - 1;
+        values = HEADER + 8 * capacity;
+        count = in.readInt();
+        minCar = in.readInt();
+        maxCar = in.readInt();
+      } finally {
+        in.close();
+      }
+    }
+
+    private MappedByteBuffer[] segments() {
+      MappedByteBuffer[] result = segments;
+      if (result != null) return result;
+      synchronized (this) {
+        if (segments == null) {
+          try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+              segments = map(raf, FileChannel.MapMode.READ_ONLY);
+            } finally {
+              raf.close();
+            }
+          } catch (IOException e) {
+            throw new RuntimeException("Cannot map lexprob table " + file, e);
+          }
+        }
+        return segments;
+      }
+    }
+
+    // The slot holding a key, or -1.
+    long find(long key) {
+      MappedByteBuffer[] segments = segments();
+      for (long slot = mix(key) & mask;; slot = (slot + 1) & mask) {
+        long pos = HEADER + 8 * slot;
+        long at = segment(segments, pos).getLong(offset(pos));
+        if (at == key) return slot;
+        if (at == EMPTY) return -1;
+      }
+    }
+
+    float value(long slot) {
+      long pos = values + 4 * slot;
+      return segment(segments(), pos).getFloat(offset(pos));
+    }
+  }
+
+  /**
+   * Writes a shard. Entries are spooled to a temporary file as they are added, and hashed into
+   * the shard, mapped, when it is closed and their number is known.
+   */
+  public static class Writer {
+    private final File file;
+    private final File spool;
+    private final DataOutputStream out;
+    private int count = 0;
+    private int minCar = Integer.MAX_VALUE;
+    private int maxCar = Integer.MIN_VALUE;
+
+    public Writer(File file) throws IOException {
+      this.file = file;
+      spool = File.createTempFile("lexprob-" + file.getName(), ".spool");
+      spool.deleteOnExit();
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spool)));
+    }
+
+    public void add(int car, int cdr, float probability) throws IOException {
+      if (car < 0) throw new IllegalArgumentException("negative conditioning word " + car);
+      out.writeLong(key(car, cdr));
+      out.writeFloat(probability);
+      count++;
+      minCar = Math.min(minCar, car);
+      maxCar = Math.max(maxCar, car);
+    }
+
+    public void close() throws IOException {
+      out.close();
+      // At most half full, so that a probe seldom goes past its first slot.
+      long capacity = Long.highestOneBit(Math.max(1, 2L * count - 1)) << 1;
+      if (capacity > (1L << 31)) throw new IOException("Too many lexprobs for one shard: " + count);
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        raf.setLength(0);
+        raf.setLength(HEADER + 12 * capacity);
+        MappedByteBuffer[] segments = map(raf, FileChannel.MapMode.READ_WRITE);
+        for (long slot = 0; slot < capacity; slot++) {
+          long pos = HEADER + 8 * slot;
+          segment(segments, pos).putLong(offset(pos), EMPTY);
+        }
+        long values = HEADER + 8 * capacity;
+        DataInputStream in =
+            new DataInputStream(new BufferedInputStream(new FileInputStream(spool)));
+        try {
+          for (int i = 0; i < count; i++) {
+            long key = in.readLong();
+            float probability = in.readFloat();
+            long slot = mix(key) & (capacity - 1);
+            while (true) {
+              long pos = HEADER + 8 * slot;
+              long at = segment(segments, pos).getLong(offset(pos));
+              if (at == EMPTY || at == key) {
+                segment(segments, pos).putLong(offset(pos), key);
+                break;
+              }
+              slot = (slot + 1) & (capacity - 1);
+            }
+            long pos = values + 4 * slot;
+            segment(segments, pos).putFloat(offset(pos), probability);
+          }
+        } catch (EOFException e) {
+          throw new IOException("Lexprob spool ended early: " + spool);
+        } finally {
+          in.close();
+        }
+        segments[0].putInt(0, MAGIC);
+        segments[0].putInt(4, VERSION);
+        segments[0].putInt(8, (int) capacity);
+        segments[0].putInt(12, count);
+        segments[0].putInt(16, count == 0 ? 0 : minCar);
+        segments[0].putInt(20, count == 0 ? -1 : maxCar);
+        for (MappedByteBuffer segment : segments)
+          segment.force();
+      } finally {
+        raf.close();
+        spool.delete();
+      }
+    }
+  }
+}
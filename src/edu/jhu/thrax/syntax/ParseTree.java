@@ -1,73 +1,128 @@
 package edu.jhu.thrax.syntax;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.EmptyStackException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Scanner;
-import java.util.Stack;
 
+import edu.jhu.thrax.hadoop.datatypes.PrimitiveUtils;
 import edu.jhu.thrax.util.Vocabulary;
 
+/**
+ * A parse tree stored as arrays over its nodes in preorder. Trees are indexed by span when they
+ * are built, so the internal nodes covering a span are found in constant time. A tree can be
+ * parsed into again, reusing its arrays.
+ */
 public class ParseTree {
-  private final int[] labels;
-  private final int[] numChildren;
-  private final int[] start;
-  private final int[] end;
+  private int size;
+  private int[] labels = new int[0];
+  private int[] numChildren = new int[0];
+  private int[] start = new int[0];
+  private int[] end = new int[0];
+
+  // For each span, in a triangular table, where its nodes start in spanNodes.
+  private int maxEnd;
+  private int[] spanOffsets = new int[0];
+  private int[] spanNodes = new int[0];
+
+  // The open nodes while parsing.
+  private int[] ancestors = new int[0];
+
+  public ParseTree() {}
 
   private ParseTree(int[] ls, int[] cs, int[] ss, int[] es) {
+    set(ls, cs, ss, es);
+  }
+
+  private void set(int[] ls, int[] cs, int[] ss, int[] es) {
+    size = ls.length;
     labels = ls;
     numChildren = cs;
     start = ss;
     end = es;
+    indexSpans();
   }
 
   public static ParseTree fromPennFormat(String s) {
-    List<Integer> ls = new ArrayList<Integer>();
-    List<Integer> cs = new ArrayList<Integer>();
-    List<Integer> ss = new ArrayList<Integer>();
-    List<Integer> es = new ArrayList<Integer>();
-    try {
-      buildLists(ls, cs, ss, es, s);
-    } catch (EmptyStackException e) {
-      return null;
+    ParseTree tree = new ParseTree();
+    return (tree.parse(s) ? tree : null);
+  }
+
+  /**
+   * Parses a tree in Penn format into this one, replacing it. Returns false, leaving this tree
+   * empty, if the brackets do not match.
+   */
+  public boolean parse(String s) {
+    size = 0;
+    if (!buildArrays(s)) {
+      size = 0;
+      indexSpans();
+      return false;
     }
-    int size = ls.size();
-    int[] labels = new int[size];
-    for (int i = 0; i < labels.length; ++i)
-     labels[i] = ls.get(i);
-    int[] numChildren = toIntArray(cs);
-    int[] start = toIntArray(ss);
-    int[] end = toIntArray(es);
-    return new ParseTree(labels, numChildren, start, end);
+    indexSpans();
+    return true;
   }
 
-  private static int[] toIntArray(List<Integer> list) {
-    int[] result = new int[list.size()];
-    for (int i = 0; i < result.length; i++)
-      result[i] = list.get(i);
-    return result;
+  public void write(DataOutput out) throws IOException {
+    PrimitiveUtils.writeVarIntArray(out, labels, size);
+    PrimitiveUtils.writeVarIntArray(out, numChildren, size);
+    PrimitiveUtils.writeVarIntArray(out, start, size);
+    PrimitiveUtils.writeVarIntArray(out, end, size);
   }
 
-  private static void addToken(List<Integer> ls, List<Integer> cs, List<Integer> ss,
-      List<Integer> es, int label, int start, int end) {
-    ls.add(label);
-    cs.add(0);
-    ss.add(start);
-    es.add(end);
+  public static ParseTree read(DataInput in) throws IOException {
+    ParseTree tree = new ParseTree();
+    tree.readFields(in);
+    return tree;
   }
-  
-  private static void increment(List<Integer> list, int index) {
-    list.set(index, list.get(index) + 1);
+
+  public void readFields(DataInput in) throws IOException {
+    int[] labels = PrimitiveUtils.readVarIntArray(in);
+    int[] numChildren = PrimitiveUtils.readVarIntArray(in);
+    int[] start = PrimitiveUtils.readVarIntArray(in);
+    int[] end = PrimitiveUtils.readVarIntArray(in);
+    set(labels, numChildren, start, end);
+  }
+
+  /**
+   * The labels of all nodes, in preorder.
+   */
+  public int[] labels() {
+    return Arrays.copyOf(labels, size);
+  }
+
+  /**
+   * The label of a node, by its position in preorder.
+   */
+  public int label(int node) {
+    return labels[node];
+  }
+
+  private void addToken(int label, int from, int to) {
+    if (size == labels.length) {
+      int capacity = Math.max(16, 2 * size);
+      labels = Arrays.copyOf(labels, capacity);
+      numChildren = Arrays.copyOf(numChildren, capacity);
+      start = Arrays.copyOf(start, capacity);
+      end = Arrays.copyOf(end, capacity);
+    }
+    labels[size] = label;
+    numChildren[size] = 0;
+    start[size] = from;
+    end[size] = to;
+    size++;
   }
 
-  private static void buildLists(List<Integer> ls, List<Integer> cs, List<Integer> ss,
-      List<Integer> es, String line) {
+  // A node's span ends where the leaves seen so far do when it is closed, or at the end of the
+  // input if it never is.
+  private boolean buildArrays(String line) {
     String input = line.trim();
-    Stack<Integer> ancestors = new Stack<Integer>();
+    int depth = 0;
 
     int count = 0;
     int from = 0, to = 0;
@@ -83,7 +138,8 @@ public class ParseTree {
           nonterminal = true;
         } else if (current == ')') {
           ++from;
-          ancestors.pop();
+          if (depth == 0) return false;
+          end[ancestors[--depth]] = count;
         } else if (current == ' ') {
           ++from;
         } else {
@@ -98,15 +154,15 @@ public class ParseTree {
             if (nt.equals(",")) nt = "COMMA";
             int token = Vocabulary.id("[" + nt + "]");
             nonterminal = false;
-            addToken(ls, cs, ss, es, token, count, count);
-            if (!ancestors.empty()) increment(cs, ancestors.peek());
-            ancestors.push(ls.size() - 1);
+            addToken(token, count, count);
+            if (depth > 0) numChildren[ancestors[depth - 1]]++;
+            if (depth == ancestors.length)
+              ancestors = Arrays.copyOf(ancestors, Math.max(16, 2 * depth));
+            ancestors[depth++] = size - 1;
           } else {
             int token = Vocabulary.id(input.substring(from, to));
-            addToken(ls, cs, ss, es, token, count, count + 1);
-            for (int i : ancestors)
-              increment(es, i);
-            if (!ancestors.empty()) increment(cs, ancestors.peek());
+            addToken(token, count, count + 1);
+            if (depth > 0) numChildren[ancestors[depth - 1]]++;
             count++;
           }
           from = to;
@@ -116,6 +172,48 @@ public class ParseTree {
         }
       }
     }
+    while (depth > 0)
+      end[ancestors[--depth]] = count;
+    return true;
+  }
+
+  // Nodes are found by span as a scan in preorder over the nodes starting at a point would find
+  // them, stopping at the first that ends before the span does: an internal node is listed under
+  // its span if no earlier node with the same start ends before it.
+  private void indexSpans() {
+    maxEnd = 0;
+    for (int k = 0; k < size; k++)
+      maxEnd = Math.max(maxEnd, end[k]);
+    int spans = (maxEnd + 1) * (maxEnd + 2) / 2;
+    if (spanOffsets.length < spans + 1) spanOffsets = new int[spans + 1];
+    Arrays.fill(spanOffsets, 0, spans + 1, 0);
+    int listed = 0;
+    int min_end = 0;
+    for (int k = 0; k < size; k++) {
+      if (k == 0 || start[k] != start[k - 1]) min_end = end[k];
+      min_end = Math.min(min_end, end[k]);
+      if (numChildren[k] > 0 && end[k] == min_end) {
+        spanOffsets[span(start[k], end[k]) + 1]++;
+        listed++;
+      }
+    }
+    for (int i = 0; i < spans; i++)
+      spanOffsets[i + 1] += spanOffsets[i];
+    if (spanNodes.length < listed) spanNodes = new int[listed];
+    int[] next = Arrays.copyOf(spanOffsets, spans);
+    for (int k = 0; k < size; k++) {
+      if (k == 0 || start[k] != start[k - 1]) min_end = end[k];
+      min_end = Math.min(min_end, end[k]);
+      if (numChildren[k] > 0 && end[k] == min_end) spanNodes[next[span(start[k], end[k])]++] = k;
+    }
+  }
+
+  private static int span(int from, int to) {
+    return to * (to + 1) / 2 + from;
+  }
+
+  private boolean indexed(int from, int to) {
+    return from >= 0 && from <= to && to <= maxEnd;
   }
 
   public Node root() {
@@ -123,30 +221,37 @@ public class ParseTree {
   }
 
   public int numLeaves() {
-    return end[0];
+    return (size == 0 ? 0 : end[0]);
   }
 
   public int numNodes() {
-    return labels.length;
+    return size;
   }
 
   public List<Node> internalNodesWithSpan(int from, int to) {
-    int index = firstIndexOf(start, from);
-    if (index < 0) return Collections.<Node>emptyList();
-    List<Node> result = new ArrayList<Node>();
-    while (index < start.length && start[index] == from && end[index] >= to) {
-      if (end[index] == to && numChildren[index] > 0) result.add(new Node(index));
-      index++;
-    }
+    int n = numInternalNodesWithSpan(from, to);
+    if (n == 0) return Collections.<Node>emptyList();
+    List<Node> result = new ArrayList<Node>(n);
+    int offset = spanOffsets[span(from, to)];
+    for (int k = 0; k < n; k++)
+      result.add(new Node(spanNodes[offset + k]));
     return result;
   }
 
-  private static int firstIndexOf(int[] array, int key) {
-    int result = Arrays.binarySearch(array, key);
-    if (result < 0) return result;
-    while (result >= 0 && array[result] == key)
-      result--;
-    return result + 1;
+  /**
+   * The number of nodes internalNodesWithSpan would return.
+   */
+  public int numInternalNodesWithSpan(int from, int to) {
+    if (!indexed(from, to)) return 0;
+    int i = span(from, to);
+    return spanOffsets[i + 1] - spanOffsets[i];
+  }
+
+  /**
+   * The label of the k-th node, from the top, of those internalNodesWithSpan would return.
+   */
+  public int internalNodeLabel(int from, int to, int k) {
+    return labels[spanNodes[spanOffsets[span(from, to)] + k]];
   }
 
   public String toString() {
@@ -157,16 +262,28 @@ public class ParseTree {
     if (o == this) return true;
     if (!(o instanceof ParseTree)) return false;
     ParseTree other = (ParseTree) o;
-    return Arrays.equals(labels, other.labels) && Arrays.equals(numChildren, other.numChildren)
-        && Arrays.equals(start, other.start) && Arrays.equals(end, other.end);
+    if (size != other.size) return false;
+    for (int k = 0; k < size; k++) {
+      if (labels[k] != other.labels[k] || numChildren[k] != other.numChildren[k]
+          || start[k] != other.start[k] || end[k] != other.end[k]) return false;
+    }
+    return true;
   }
 
   public int hashCode() {
     int result = 163;
-    result = result * 37 + Arrays.hashCode(labels);
-    result = result * 37 + Arrays.hashCode(numChildren);
-    result = result * 37 + Arrays.hashCode(start);
-    result = result * 37 + Arrays.hashCode(end);
+    result = result * 37 + hashCode(labels, size);
+    result = result * 37 + hashCode(numChildren, size);
+    result = result * 37 + hashCode(start, size);
+    result = result * 37 + hashCode(end, size);
+    return result;
+  }
+
+  // As Arrays.hashCode would hash the first n elements.
+  private static int hashCode(int[] array, int n) {
+    int result = 1;
+    for (int k = 0; k < n; k++)
+      result = 31 * result + array[k];
     return result;
   }
 
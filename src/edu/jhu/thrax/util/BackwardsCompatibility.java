@@ -4,14 +4,15 @@ import edu.jhu.thrax.hadoop.features.annotation.SourceGivenTargetLexicalProbabil
 import edu.jhu.thrax.hadoop.features.annotation.TargetGivenSourceLexicalProbabilityFeature;
 import edu.jhu.thrax.hadoop.features.annotation.UnalignedSourceCounterFeature;
 import edu.jhu.thrax.hadoop.features.annotation.UnalignedTargetCounterFeature;
-import edu.jhu.thrax.hadoop.features.mapred.SourcePhraseGivenTargetFeature;
-import edu.jhu.thrax.hadoop.features.mapred.TargetPhraseGivenSourceFeature;
+import edu.jhu.thrax.hadoop.features.mapred.ConditionalFeatureFactory;
 
 public class BackwardsCompatibility {
 
   public static String equivalent(String features) {
-    features = features.replace("e2fphrase", SourcePhraseGivenTargetFeature.NAME);
-    features = features.replace("f2ephrase", TargetPhraseGivenSourceFeature.NAME);
+    features =
+        features.replace("e2fphrase", ConditionalFeatureFactory.SOURCE_GIVEN_TARGET.getName());
+    features =
+        features.replace("f2ephrase", ConditionalFeatureFactory.TARGET_GIVEN_SOURCE.getName());
 
     features = features.replace("lexprob_tgs", TargetGivenSourceLexicalProbabilityFeature.NAME);
     features = features.replace("lexprob_sgt", SourceGivenTargetLexicalProbabilityFeature.NAME);
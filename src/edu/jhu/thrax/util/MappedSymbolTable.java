@@ -0,0 +1,310 @@
+package edu.jhu.thrax.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A vocabulary in a single binary file, memory-mapped rather than read, so that a task can use a
+ * vocabulary of any size as soon as it starts and tasks on the same machine share its pages. The
+ * file holds, after a header, the ids of the symbols in order of their absolute values, offsets of
+ * the symbols into a blob of their UTF-8 bytes, and an index of the symbols sorted by their string
+ * hash codes. Symbols are found by binary search on the index and compared to the blob in place.
+ */
+public final class MappedSymbolTable {
+
+  public static final String FILE = "vocabulary.bin";
+
+  private static final int MAGIC = 0x54585642;
+  private static final int VERSION = 1;
+  private static final int HEADER = 12;
+
+  private final ByteBuffer buffer;
+  private final int count;
+  private final int ids;
+  private final int offsets;
+  private final int index;
+  private final int blob;
+  private final int first;
+  private final int limit;
+
+  // Symbols decoded so far, by entry. Racing threads decode the same symbol, which is harmless.
+  private final String[] decoded;
+
+  private MappedSymbolTable(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+      throw new IOException("Not a binary vocabulary of version " + VERSION);
+    count = buffer.getInt(8);
+    ids = HEADER;
+    offsets = ids + 4 * count;
+    index = offsets + 4 * (count + 1);
+    blob = index + 8 * count;
+    first = (count == 0 ? 0 : Math.abs(id(0)));
+    limit = (count == 0 ? 0 : Math.abs(id(count - 1)) + 1);
+    decoded = new String[count];
+  }
+
+  /**
+   * Checks whether a file starts like a binary vocabulary.
+   */
+  public static boolean isBinary(File file) throws IOException {
+    if (file.length() < HEADER) return false;
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      return raf.readInt() == MAGIC;
+    } finally {
+      raf.close();
+    }
+  }
+
+  public static MappedSymbolTable map(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      if (raf.length() > Integer.MAX_VALUE)
+        throw new IOException("Binary vocabulary too large to map: " + file);
+      return new MappedSymbolTable(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+          raf.length()));
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Writes a binary vocabulary of symbols given by the absolute values of their ids. Nonterminals
+   * are stored with negative ids, as the vocabulary hands them out.
+   */
+  public static void write(OutputStream stream, Map<Integer, String> symbols) throws IOException {
+    Writer writer = new Writer(stream);
+    for (Map.Entry<Integer, String> e : new TreeMap<Integer, String>(symbols).entrySet())
+      writer.add(e.getKey(), e.getValue());
+    writer.close();
+  }
+
+  /**
+   * Writes a binary vocabulary from symbols added in increasing order of their ids. The symbols'
+   * bytes are spooled to a temporary file, so only their ids, offsets and hash codes are held in
+   * memory until the writer is closed.
+   */
+  public static class Writer {
+    private final OutputStream stream;
+    private final File spool;
+    private final OutputStream blob;
+    private int[] ids = new int[1 << 10];
+    private int[] offsets = new int[1 << 10];
+    private long[] index = new long[1 << 10];
+    private int count = 0;
+    private long offset = 0;
+
+    public Writer(OutputStream stream) throws IOException {
+      this.stream = stream;
+      spool = File.createTempFile("vocabulary", ".spool");
+      spool.deleteOnExit();
+      blob = new BufferedOutputStream(new FileOutputStream(spool));
+    }
+
+    /**
+     * Adds a symbol by the absolute value of its id, which must be larger than that of the symbol
+     * added before it.
+     */
+    public void add(int id, String token) throws IOException {
+      if (count > 0 && id <= Math.abs(ids[count - 1]))
+        throw new IllegalArgumentException("Id " + id + " added after " + Math.abs(ids[count - 1]));
+      if (count == ids.length) {
+        ids = Arrays.copyOf(ids, 2 * count);
+        offsets = Arrays.copyOf(offsets, 2 * count);
+        index = Arrays.copyOf(index, 2 * count);
+      }
+      byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+      if (offset + bytes.length > Integer.MAX_VALUE)
+        throw new IOException("Vocabulary too large: " + (offset + bytes.length));
+      ids[count] = (Vocabulary.nt(token) ? -id : id);
+      offsets[count] = (int) offset;
+      // Sorting hash and entry as one long sorts by signed hash, then entry.
+      index[count] = ((long) token.hashCode() << 32) | count;
+      blob.write(bytes);
+      offset += bytes.length;
+      count++;
+    }
+
+    public void close() throws IOException {
+      blob.close();
+      Arrays.sort(index, 0, count);
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(count);
+        for (int k = 0; k < count; k++)
+          out.writeInt(ids[k]);
+        for (int k = 0; k < count; k++)
+          out.writeInt(offsets[k]);
+        out.writeInt((int) offset);
+        for (int k = 0; k < count; k++) {
+          out.writeInt((int) (index[k] >> 32));
+          out.writeInt((int) index[k]);
+        }
+        InputStream in = new BufferedInputStream(new FileInputStream(spool));
+        try {
+          byte[] buffer = new byte[1 << 16];
+          for (int n; (n = in.read(buffer)) > 0;)
+            out.write(buffer, 0, n);
+        } finally {
+          in.close();
+        }
+      } finally {
+        out.close();
+        spool.delete();
+      }
+    }
+  }
+
+  private int id(int entry) {
+    return buffer.getInt(ids + 4 * entry);
+  }
+
+  /**
+   * The id of a symbol, or SymbolTable.ABSENT if it is not in the vocabulary.
+   */
+  int id(String token) {
+    int hash = token.hashCode();
+    for (int k = first(hash); k < count && buffer.getInt(index + 8 * k) == hash; k++) {
+      int entry = buffer.getInt(index + 8 * k + 4);
+      if (matches(token, entry)) return id(entry);
+    }
+    return SymbolTable.ABSENT;
+  }
+
+  /**
+   * The id of a symbol given as well-formed UTF-8 bytes with the hash code of its string, or
+   * SymbolTable.ABSENT. Well-formed UTF-8 is the only encoding of its string, so the bytes are
+   * compared to the blob as they are.
+   */
+  int id(byte[] bytes, int start, int end, int hash) {
+    int k = first(hash);
+    for (; k < count && buffer.getInt(index + 8 * k) == hash; k++) {
+      int entry = buffer.getInt(index + 8 * k + 4);
+      int from = blob + buffer.getInt(offsets + 4 * entry);
+      int to = blob + buffer.getInt(offsets + 4 * entry + 4);
+      if (to - from != end - start) continue;
+      int i = 0;
+      while (i < end - start && buffer.get(from + i) == bytes[start + i])
+        i++;
+      if (i == end - start) return id(entry);
+    }
+    return SymbolTable.ABSENT;
+  }
+
+  // The first position in the index with a hash code no less than the given one.
+  private int first(int hash) {
+    int lo = 0, hi = count;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (buffer.getInt(index + 8 * mid) < hash)
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+    return lo;
+  }
+
+  /**
+   * The symbol with an id of the given absolute value, or null if there is none.
+   */
+  String word(int id) {
+    int entry = entry(id);
+    if (entry < 0) return null;
+    String word = decoded[entry];
+    if (word == null) {
+      int start = buffer.getInt(offsets + 4 * entry);
+      int end = buffer.getInt(offsets + 4 * entry + 4);
+      byte[] bytes = new byte[end - start];
+      for (int i = 0; i < bytes.length; i++)
+        bytes[i] = buffer.get(blob + start + i);
+      word = new String(bytes, StandardCharsets.UTF_8);
+      decoded[entry] = word;
+    }
+    return word;
+  }
+
+  // The entry of an id's absolute value, found directly if the ids are dense.
+  private int entry(int id) {
+    if (id < first || id >= limit) return -1;
+    int guess = id - first;
+    if (guess < count && Math.abs(id(guess)) == id) return guess;
+    int lo = 0, hi = count - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int at = Math.abs(id(mid));
+      if (at < id)
+        lo = mid + 1;
+      else if (at > id)
+        hi = mid - 1;
+      else
+        return mid;
+    }
+    return -1;
+  }
+
+  // Compares a symbol to an entry's UTF-8 bytes without decoding them into a string.
+  private boolean matches(String token, int entry) {
+    int p = blob + buffer.getInt(offsets + 4 * entry);
+    int end = blob + buffer.getInt(offsets + 4 * entry + 4);
+    int i = 0, length = token.length();
+    while (p < end) {
+      int b = buffer.get(p) & 0xFF;
+      int c;
+      if (b < 0x80) {
+        c = b;
+        p += 1;
+      } else if (b < 0xE0) {
+        c = ((b & 0x1F) << 6) | (buffer.get(p + 1) & 0x3F);
+        p += 2;
+      } else if (b < 0xF0) {
+        c = ((b & 0x0F) << 12) | ((buffer.get(p + 1) & 0x3F) << 6) | (buffer.get(p + 2) & 0x3F);
+        p += 3;
+      } else {
+        int cp = ((b & 0x07) << 18) | ((buffer.get(p + 1) & 0x3F) << 12)
+            | ((buffer.get(p + 2) & 0x3F) << 6) | (buffer.get(p + 3) & 0x3F);
+        p += 4;
+        if (i + 1 >= length || token.charAt(i) != Character.highSurrogate(cp)
+            || token.charAt(i + 1) != Character.lowSurrogate(cp)) return false;
+        i += 2;
+        continue;
+      }
+      if (i >= length || token.charAt(i) != c) return false;
+      i++;
+    }
+    return (i == length);
+  }
+
+  void collect(Collection<String> into) {
+    for (int entry = 0; entry < count; entry++)
+      into.add(word(Math.abs(id(entry))));
+  }
+
+  int count() {
+    return count;
+  }
+
+  /**
+   * One more than the largest absolute id in the vocabulary.
+   */
+  int limit() {
+    return limit;
+  }
+}
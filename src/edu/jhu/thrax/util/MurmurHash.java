@@ -21,6 +21,9 @@ public final class MurmurHash {
 
   private final static String ENCODING = "UTF-16";
 
+  // Seed of the 64 bit hashes when none is given.
+  public final static int SEED_64 = 0xe17a1465;
+
   /**
    * Generates 32 bit hash from byte array of the given length and seed.
    * 
@@ -118,6 +121,19 @@ public final class MurmurHash {
    * @return 64 bit hash of the given array
    */
   public static long hash64(final byte[] data, int length, int seed) {
+    return hash64(data, 0, length, seed);
+  }
+
+  /**
+   * Generates 64 bit hash from part of a byte array with the given seed.
+   * 
+   * @param data byte array to hash
+   * @param offset position of the first byte to hash
+   * @param length number of bytes to hash
+   * @param seed initial seed value
+   * @return 64 bit hash of the given array
+   */
+  public static long hash64(final byte[] data, int offset, int length, int seed) {
     final long m = 0xc6a4a7935bd1e995L;
     final int r = 47;
 
@@ -126,7 +142,7 @@ public final class MurmurHash {
     int length8 = length / 8;
 
     for (int i = 0; i < length8; i++) {
-      final int i8 = i * 8;
+      final int i8 = offset + i * 8;
       long k =
           ((long) data[i8 + 0] & 0xff) + (((long) data[i8 + 1] & 0xff) << 8)
               + (((long) data[i8 + 2] & 0xff) << 16) + (((long) data[i8 + 3] & 0xff) << 24)
@@ -141,21 +157,22 @@ public final class MurmurHash {
       h *= m;
     }
 
+    final int tail = offset + (length & ~7);
     switch (length % 8) {
       case 7:
-        h ^= (long) (data[(length & ~7) + 6] & 0xff) << 48;
+        h ^= (long) (data[tail + 6] & 0xff) << 48;
       case 6:
-        h ^= (long) (data[(length & ~7) + 5] & 0xff) << 40;
+        h ^= (long) (data[tail + 5] & 0xff) << 40;
       case 5:
-        h ^= (long) (data[(length & ~7) + 4] & 0xff) << 32;
+        h ^= (long) (data[tail + 4] & 0xff) << 32;
       case 4:
-        h ^= (long) (data[(length & ~7) + 3] & 0xff) << 24;
+        h ^= (long) (data[tail + 3] & 0xff) << 24;
       case 3:
-        h ^= (long) (data[(length & ~7) + 2] & 0xff) << 16;
+        h ^= (long) (data[tail + 2] & 0xff) << 16;
       case 2:
-        h ^= (long) (data[(length & ~7) + 1] & 0xff) << 8;
+        h ^= (long) (data[tail + 1] & 0xff) << 8;
       case 1:
-        h ^= (long) (data[length & ~7] & 0xff);
+        h ^= (long) (data[tail] & 0xff);
         h *= m;
     };
 
@@ -175,7 +192,7 @@ public final class MurmurHash {
    * @return 64 bit hash of the given string
    */
   public static long hash64(final byte[] data, int length) {
-    return hash64(data, length, 0xe17a1465);
+    return hash64(data, length, SEED_64);
   }
 
 
@@ -0,0 +1,157 @@
+package edu.jhu.thrax.util;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * An immutable map between symbols and ids, for lookups that need no locking. Symbols are found by
+ * open addressing on their string hash codes. Words are found by id in an array indexed by id if
+ * the ids are dense, and by open addressing on the ids otherwise, as with hashed ids.
+ */
+final class SymbolTable {
+
+  static final int ABSENT = Integer.MIN_VALUE;
+
+  static final SymbolTable EMPTY = new SymbolTable(null, null);
+
+  private final String[] keys;
+  private final int[] ids;
+  private final int mask;
+
+  // Words indexed by the absolute value of their ids, if the ids are dense.
+  private final String[] words;
+  // Otherwise, words by the absolute value of their ids, in an open-addressed table.
+  private final int[] wordIds;
+  private final String[] wordValues;
+  private final int wordMask;
+
+  private final int count;
+
+  /**
+   * A table holding the symbols of another table as well as those added since. None of the added
+   * symbols may be in the other table.
+   */
+  SymbolTable(SymbolTable base, Map<String, Integer> added) {
+    int n = (base == null ? 0 : base.count) + (added == null ? 0 : added.size());
+    int capacity = capacity(n);
+    keys = new String[capacity];
+    ids = new int[capacity];
+    mask = capacity - 1;
+    count = n;
+
+    int max = -1;
+    if (base != null) {
+      for (int i = 0; i < base.keys.length; i++) {
+        if (base.keys[i] == null) continue;
+        put(base.keys[i], base.ids[i]);
+        max = Math.max(max, Math.abs(base.ids[i]));
+      }
+    }
+    if (added != null) {
+      for (Map.Entry<String, Integer> e : added.entrySet()) {
+        put(e.getKey(), e.getValue());
+        max = Math.max(max, Math.abs(e.getValue()));
+      }
+    }
+    int limit = max + 1;
+
+    if (limit <= 4 * n + 16) {
+      words = new String[limit];
+      wordIds = null;
+      wordValues = null;
+      wordMask = 0;
+      for (int i = 0; i < keys.length; i++)
+        if (keys[i] != null) words[Math.abs(ids[i])] = keys[i];
+    } else {
+      words = null;
+      wordIds = new int[capacity];
+      wordValues = new String[capacity];
+      wordMask = capacity - 1;
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i] == null) continue;
+        int id = Math.abs(ids[i]);
+        int slot = mix(id) & wordMask;
+        while (wordValues[slot] != null)
+          slot = (slot + 1) & wordMask;
+        wordIds[slot] = id;
+        wordValues[slot] = keys[i];
+      }
+    }
+  }
+
+  private static int capacity(int n) {
+    int capacity = 16;
+    while (capacity < 2 * n)
+      capacity <<= 1;
+    return capacity;
+  }
+
+  private static int mix(int h) {
+    h *= 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private void put(String token, int id) {
+    int slot = mix(token.hashCode()) & mask;
+    while (keys[slot] != null)
+      slot = (slot + 1) & mask;
+    keys[slot] = token;
+    ids[slot] = id;
+  }
+
+  /**
+   * The id of a symbol, or ABSENT if it is not in the table.
+   */
+  int id(String token) {
+    int slot = mix(token.hashCode()) & mask;
+    String key;
+    while ((key = keys[slot]) != null) {
+      if (key.equals(token)) return ids[slot];
+      slot = (slot + 1) & mask;
+    }
+    return ABSENT;
+  }
+
+  /**
+   * The id of a symbol given as well-formed UTF-8 bytes with the hash code of its string, or
+   * ABSENT if it is not in the table.
+   */
+  int id(byte[] bytes, int start, int end, int hash) {
+    int slot = mix(hash) & mask;
+    String key;
+    while ((key = keys[slot]) != null) {
+      if (key.hashCode() == hash && Utf8.equals(key, bytes, start, end)) return ids[slot];
+      slot = (slot + 1) & mask;
+    }
+    return ABSENT;
+  }
+
+  /**
+   * The symbol with an id of the given absolute value, or null if there is none.
+   */
+  String word(int id) {
+    if (words != null) return (id < words.length ? words[id] : null);
+    int slot = mix(id) & wordMask;
+    String value;
+    while ((value = wordValues[slot]) != null) {
+      if (wordIds[slot] == id) return value;
+      slot = (slot + 1) & wordMask;
+    }
+    return null;
+  }
+
+  /**
+   * Adds all symbols in the table to a collection, in no particular order.
+   */
+  void collect(Collection<String> into) {
+    for (String key : keys)
+      if (key != null) into.add(key);
+  }
+
+  /**
+   * The number of symbols in the table.
+   */
+  int count() {
+    return count;
+  }
+}
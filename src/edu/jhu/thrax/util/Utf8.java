@@ -0,0 +1,97 @@
+package edu.jhu.thrax.util;
+
+/**
+ * String hash codes and comparisons computed on UTF-8 bytes, so that a symbol can be looked up
+ * without first decoding it into a string. Ranges that are not well-formed UTF-8 are reported as
+ * such, and callers decode those as a string would.
+ */
+final class Utf8 {
+
+  static final long MALFORMED = -1L;
+
+  private Utf8() {}
+
+  /**
+   * The hash code of the string a range of bytes decodes to, as a non-negative long, or MALFORMED.
+   */
+  static long hashCode(byte[] bytes, int start, int end) {
+    int h = 0;
+    int p = start;
+    while (p < end) {
+      int b = bytes[p] & 0xFF;
+      if (b < 0x80) {
+        h = 31 * h + b;
+        p++;
+        continue;
+      }
+      int c = decode(bytes, p, end);
+      if (c < 0) return MALFORMED;
+      p += length(b);
+      if (c >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+        h = 31 * h + Character.highSurrogate(c);
+        h = 31 * h + Character.lowSurrogate(c);
+      } else {
+        h = 31 * h + c;
+      }
+    }
+    return h & 0xFFFFFFFFL;
+  }
+
+  /**
+   * Checks whether a range of well-formed UTF-8 bytes encodes the given string.
+   */
+  static boolean equals(String s, byte[] bytes, int start, int end) {
+    int i = 0, n = s.length();
+    int p = start;
+    while (p < end) {
+      int b = bytes[p] & 0xFF;
+      if (b < 0x80) {
+        if (i >= n || s.charAt(i) != b) return false;
+        i++;
+        p++;
+        continue;
+      }
+      int c = decode(bytes, p, end);
+      if (c < 0) return false;
+      p += length(b);
+      if (c >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+        if (i + 1 >= n || s.charAt(i) != Character.highSurrogate(c)
+            || s.charAt(i + 1) != Character.lowSurrogate(c)) return false;
+        i += 2;
+      } else {
+        if (i >= n || s.charAt(i) != c) return false;
+        i++;
+      }
+    }
+    return (i == n);
+  }
+
+  // The code point of the multi-byte sequence at p, or -1 if it is not well-formed: truncated,
+  // overlong, an encoded surrogate or beyond the last code point.
+  private static int decode(byte[] bytes, int p, int end) {
+    int b = bytes[p] & 0xFF;
+    int n = length(b);
+    if (n == 0 || p + n > end) return -1;
+    int c = b & (0xFF >> (n + 1));
+    for (int k = 1; k < n; k++) {
+      int next = bytes[p + k] & 0xFF;
+      if ((next & 0xC0) != 0x80) return -1;
+      c = (c << 6) | (next & 0x3F);
+    }
+    if (n == 3 && (c < 0x800 || (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)))
+      return -1;
+    if (n == 4 && (c < Character.MIN_SUPPLEMENTARY_CODE_POINT || c > Character.MAX_CODE_POINT))
+      return -1;
+    return c;
+  }
+
+  // The length of the sequence a lead byte starts, or 0 if it cannot start one.
+  private static int length(int b) {
+    if (b < 0x80) return 1;
+    if (b < 0xC2) return 0;
+    if (b < 0xE0) return 2;
+    if (b < 0xF0) return 3;
+    if (b < 0xF5) return 4;
+    return 0;
+  }
+}
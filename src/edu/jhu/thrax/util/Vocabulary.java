@@ -9,16 +9,20 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.SequenceFile;
@@ -28,8 +32,8 @@ import edu.jhu.thrax.hadoop.features.SimpleFeature;
 import edu.jhu.thrax.hadoop.features.SimpleFeatureFactory;
 import edu.jhu.thrax.hadoop.features.annotation.AnnotationFeature;
 import edu.jhu.thrax.hadoop.features.annotation.AnnotationFeatureFactory;
-import edu.jhu.thrax.hadoop.features.mapred.MapReduceFeature;
-import edu.jhu.thrax.hadoop.features.mapred.MapReduceFeatureFactory;
+import edu.jhu.thrax.hadoop.features.mapred.ConditionalFeature;
+import edu.jhu.thrax.hadoop.features.mapred.ConditionalFeatureFactory;
 import edu.jhu.thrax.hadoop.features.pivot.PivotedAnnotationFeature;
 import edu.jhu.thrax.hadoop.features.pivot.PivotedFeature;
 import edu.jhu.thrax.hadoop.features.pivot.PivotedFeatureFactory;
@@ -39,6 +43,25 @@ import edu.jhu.thrax.hadoop.features.pivot.PivotedFeatureFactory;
  * Static singular vocabulary class. Supports vocabulary freezing and (de-)serialization into a
  * vocabulary file.
  * 
+ * With thrax.hashed-vocabulary set, a symbol's id is derived from a hash of the symbol instead of
+ * being read from the vocabulary job's output, so the corpus can be compiled without waiting for
+ * that job. Ids map back to symbols for the symbols seen in this JVM; any other id is looked up in
+ * the vocabulary job's output, which is read the first time such an id is asked for. Two symbols
+ * hashing to the same id are reported with a HashCollisionException. Since tasks hash symbols
+ * without knowing the others, a collision cannot be resolved, only reported: the vocabulary job
+ * checks all the symbols of the corpus, and the jobs reading the compiled corpus wait for it. Ids
+ * have 31 bits, so the odds of a collision are even at about 55,000 distinct symbols: hashed ids
+ * are meant for small vocabularies only.
+ * 
+ * Symbols are looked up without locking. Once the vocabulary is read it is frozen into a
+ * SymbolTable that never changes; symbols added after that, such as the labels SAMT makes up
+ * while extracting, are kept in concurrent maps until the next freeze. Only adding a symbol takes
+ * the lock, so that ids are handed out one at a time.
+ * 
+ * Where the vocabulary job wrote a binary vocabulary alongside its output, it is memory-mapped as a
+ * MappedSymbolTable instead of being read, either in place on a local file system or from the
+ * distributed cache.
+ * 
  * @author Juri Ganitkevitch
  */
 
@@ -46,12 +69,30 @@ public class Vocabulary {
 
   private static final Logger logger;
 
-  private static TreeMap<String, Integer> stringToId;
-  private static ArrayList<String> idToString;
+  // Symbols as of the last freeze, and symbols added since, by symbol and by absolute id.
+  private static volatile SymbolTable frozen;
+  private static volatile ConcurrentHashMap<String, Integer> added;
+  private static volatile ConcurrentHashMap<Integer, String> addedWords;
+  // The binary vocabulary, if one was mapped.
+  private static volatile MappedSymbolTable mapped;
 
-  private static int head;
-  
-  private static final Integer lock = new Integer(0);
+  // One more than the largest absolute id handed out, and than the largest read from the
+  // vocabulary job's output.
+  private static volatile int limit;
+  private static volatile int shared;
+
+  private static volatile int head;
+
+  // The glob the vocabulary was last read from.
+  private static String loaded;
+
+  // Whether ids are hashes of the symbols.
+  private static volatile boolean hashed;
+  // With hashed ids: where to look up ids of symbols not seen yet.
+  private static volatile String pending;
+  private static Configuration pendingConf;
+
+  private static final Object lock = new Object();
 
   private static final int UNKNOWN_ID;
   private static final String UNKNOWN_WORD;
@@ -80,6 +121,11 @@ public class Vocabulary {
   public static boolean read(String file_name) throws IOException {
     synchronized (lock) {
       File vocab_file = new File(file_name);
+      if (MappedSymbolTable.isBinary(vocab_file)) {
+        clear();
+        map(vocab_file);
+        return true;
+      }
       DataInputStream vocab_stream =
           new DataInputStream(new BufferedInputStream(new FileInputStream(vocab_file)));
       int size = vocab_stream.readInt();
@@ -94,61 +140,69 @@ public class Vocabulary {
         }
       }
       vocab_stream.close();
-      return (size + 1 == idToString.size());
+      freeze();
+      return (size + 1 == size());
     }
   }
 
   /**
-   * Initializes the vocabulary with the symbols defined by the config: feature labels and default
-   * symbols. This deletes any additions to the vocabulary made prior to this call.
+   * Initializes the vocabulary with the default symbols defined by the config. This deletes any
+   * additions to the vocabulary made prior to this call.
    */
   public static boolean initialize(Configuration conf) {
     synchronized (lock) {
+      hashed = conf.getBoolean("thrax.hashed-vocabulary", false);
       clear();
       // Add default symbols.
       id(FormatUtils.markup(conf.get("thrax.default-nt", "X")));
       id(FormatUtils.markup(conf.get("thrax.full-sentence-nt", "_S")));
-      
-      // Add feature names.
-      String type = conf.get("thrax.type", "translation");
-      String features = BackwardsCompatibility.equivalent(conf.get("thrax.features", ""));
-      if ("translation".equals(type)) {
-        for (MapReduceFeature f : MapReduceFeatureFactory.getAll(features))
-          id(f.getLabel());
-      } else if ("paraphrasing".equals(type)) {
-        Set<String> prereq_features = new HashSet<String>();
-        for (PivotedFeature f : PivotedFeatureFactory.getAll(features)) {
-          prereq_features.addAll(f.getPrerequisites());
-          id(f.getLabel());
-        }
-        id((new PivotedAnnotationFeature()).getLabel());
-        for (String prereq : prereq_features) {
-          MapReduceFeature mf = MapReduceFeatureFactory.get(prereq);
-          if (mf != null) {
-            id(mf.getLabel());
+      head = size();
+      return true;
+    }
+  }
+
+  /**
+   * Adds the labels of the features named in the config. Labels are added after the words, so the
+   * ids the vocabulary job hands out do not depend on which features are computed.
+   */
+  private static void labels(Configuration conf) {
+    String type = conf.get("thrax.type", "translation");
+    String features = BackwardsCompatibility.equivalent(conf.get("thrax.features", ""));
+    if ("translation".equals(type)) {
+      for (ConditionalFeature f : ConditionalFeatureFactory.getAll(features, conf))
+        id(f.getLabel());
+    } else if ("paraphrasing".equals(type)) {
+      Set<String> prereq_features = new HashSet<String>();
+      for (PivotedFeature f : PivotedFeatureFactory.getAll(features)) {
+        prereq_features.addAll(f.getPrerequisites());
+        id(f.getLabel());
+      }
+      id((new PivotedAnnotationFeature()).getLabel());
+      for (String prereq : prereq_features) {
+        ConditionalFeature cf = ConditionalFeatureFactory.get(prereq, conf);
+        if (cf != null) {
+          id(cf.getLabel());
+        } else {
+          AnnotationFeature af = AnnotationFeatureFactory.get(prereq);
+          if (af != null) {
+            id(af.getLabel());
           } else {
-            AnnotationFeature af = AnnotationFeatureFactory.get(prereq);
-            if (af != null) {
-              id(af.getLabel());
-            } else {
-              SimpleFeature sf = SimpleFeatureFactory.get(prereq);
-              if (sf != null) id(sf.getLabel());
-            }
+            SimpleFeature sf = SimpleFeatureFactory.get(prereq);
+            if (sf != null) id(sf.getLabel());
           }
         }
       }
-      for (AnnotationFeature f : AnnotationFeatureFactory.getAll(features))
-        id(f.getLabel());
-      for (SimpleFeature f : SimpleFeatureFactory.getAll(features))
-        id(f.getLabel());
-      head = size();      
-      return true;
     }
+    for (AnnotationFeature f : AnnotationFeatureFactory.getAll(features))
+      id(f.getLabel());
+    for (SimpleFeature f : SimpleFeatureFactory.getAll(features))
+      id(f.getLabel());
   }
 
   /**
    * Initializes the vocabulary from a directory on HDFS. This deletes any additions to the
-   * vocabulary made prior to reading the file.
+   * vocabulary made prior to reading the file. Tasks sharing a JVM only read the vocabulary once:
+   * if it was already read from the same glob, this call does nothing.
    * 
    * @param conf
    * @param file
@@ -157,30 +211,121 @@ public class Vocabulary {
    */
   public static boolean initialize(Configuration conf, String file_glob) throws IOException {
     synchronized (lock) {
-      FileSystem file_system = FileSystem.get(URI.create(file_glob), conf);
-      FileStatus[] files = file_system.globStatus(new Path(file_glob));
-      if (files.length == 0)
-        throw new IOException("No files found in vocabulary glob: " + file_glob);
-
+      if (file_glob.equals(loaded)) return true;
+      if (conf.getBoolean("thrax.hashed-vocabulary", false)) {
+        initialize(conf);
+        File binary = binary(conf, file_glob);
+        if (binary != null) {
+          map(binary);
+        } else {
+          pending = file_glob;
+          pendingConf = conf;
+        }
+        labels(conf);
+        freeze();
+        loaded = file_glob;
+        return true;
+      }
       initialize(conf);
+      File binary = binary(conf, file_glob);
+      if (binary != null) {
+        map(binary);
+      } else {
+        FileSystem file_system = FileSystem.get(URI.create(file_glob), conf);
+        FileStatus[] files = file_system.globStatus(new Path(file_glob));
+        if (files.length == 0)
+          throw new IOException("No files found in vocabulary glob: " + file_glob);
+        readSymbols(file_system, files, conf);
+      }
+      shared = limit;
+      labels(conf);
+      freeze();
+      loaded = file_glob;
+      return true;
+    }
+  }
 
-      for (FileStatus file : files) {
-        SequenceFile.Reader reader = new SequenceFile.Reader(file_system, file.getPath(), conf);
-        Text h_token = new Text();
-        IntWritable h_id = new IntWritable();
-        while (reader.next(h_id, h_token)) {
-          int id = h_id.get();
-          String token = h_token.toString();
-          if (!insert(token, id)) {
-            reader.close();
-            throw new RuntimeException("Error inserting: " + token + " as " + id + ". Conflict: "
-                + id + " => " + Vocabulary.word(id) + " and " + token + " => "
-                + stringToId.get(token));
-          }
+  /**
+   * The binary vocabulary in the directory of a vocabulary glob: the file itself on a local file
+   * system, or its copy from the distributed cache otherwise. Null if there is none.
+   */
+  @SuppressWarnings("deprecation")
+  private static File binary(Configuration conf, String file_glob) throws IOException {
+    Path path = new Path(new Path(file_glob).getParent(), MappedSymbolTable.FILE);
+    FileSystem file_system = path.getFileSystem(conf);
+    if (file_system instanceof LocalFileSystem) {
+      File file = ((LocalFileSystem) file_system).pathToFile(path);
+      return (file.exists() ? file : null);
+    }
+    Path[] cached = DistributedCache.getLocalCacheFiles(conf);
+    if (cached != null) {
+      for (Path p : cached)
+        if (p.getName().equals(MappedSymbolTable.FILE)) return new File(p.toUri().getPath());
+    }
+    return null;
+  }
+
+  private static void map(File binary) throws IOException {
+    MappedSymbolTable table = MappedSymbolTable.map(binary);
+    mapped = table;
+    if (table.limit() > limit) limit = table.limit();
+  }
+
+  private static void readSymbols(FileSystem file_system, FileStatus[] files, Configuration conf)
+      throws IOException {
+    for (FileStatus file : files) {
+      SequenceFile.Reader reader = new SequenceFile.Reader(file_system, file.getPath(), conf);
+      Text h_token = new Text();
+      IntWritable h_id = new IntWritable();
+      while (reader.next(h_id, h_token)) {
+        int id = h_id.get();
+        String token = h_token.toString();
+        if (!insert(token, id)) {
+          reader.close();
+          throw new RuntimeException("Error inserting: " + token + " as " + id + ". Conflict: "
+              + id + " => " + Vocabulary.word(id) + " and " + token + " => " + lookup(token));
         }
-        reader.close();
       }
-      return true;
+      reader.close();
+    }
+  }
+
+  /**
+   * Reads the symbols written by the vocabulary job, with hashed ids.
+   */
+  private static void readPending() {
+    synchronized (lock) {
+      String file_glob = pending;
+      if (file_glob == null) return;
+      pending = null;
+      try {
+        File binary = binary(pendingConf, file_glob);
+        if (binary != null) {
+          map(binary);
+          return;
+        }
+        FileSystem file_system = FileSystem.get(URI.create(file_glob), pendingConf);
+        FileStatus[] files = file_system.globStatus(new Path(file_glob));
+        if (files == null || files.length == 0)
+          throw new IOException("No files found in vocabulary glob: " + file_glob);
+        readSymbols(file_system, files, pendingConf);
+      } catch (IOException e) {
+        throw new RuntimeException("Cannot read vocabulary " + file_glob, e);
+      }
+      freeze();
+    }
+  }
+
+  /**
+   * Merges the symbols added since the last freeze into a new symbol table. Lookups in the table
+   * are as fast as they can be; symbols added later are looked up in a concurrent map.
+   */
+  public static void freeze() {
+    synchronized (lock) {
+      if (added.isEmpty()) return;
+      frozen = new SymbolTable(frozen, added);
+      added = new ConcurrentHashMap<String, Integer>();
+      addedWords = new ConcurrentHashMap<Integer, String>();
     }
   }
 
@@ -189,72 +334,162 @@ public class Vocabulary {
       File vocab_file = new File(file_name);
       DataOutputStream vocab_stream =
           new DataOutputStream(new BufferedOutputStream(new FileOutputStream(vocab_file)));
-      vocab_stream.writeInt(idToString.size() - 1);
-      logger.info("Writing vocabulary: " + (idToString.size() - 1) + " tokens.");
-      for (int i = 1; i < idToString.size(); i++) {
+      vocab_stream.writeInt(limit - 1);
+      logger.info("Writing vocabulary: " + (limit - 1) + " tokens.");
+      for (int i = 1; i < limit; i++) {
         vocab_stream.writeInt(i);
-        vocab_stream.writeUTF(idToString.get(i));
+        vocab_stream.writeUTF(word(i));
       }
       vocab_stream.close();
     }
   }
 
   public static int id(String token) {
+    int id = lookup(token);
+    if (id != SymbolTable.ABSENT) return id;
     synchronized (lock) {
-      Integer id = stringToId.get(token);
-      if (id != null) {
+      id = lookup(token);
+      if (id != SymbolTable.ABSENT) {
         return id;
+      } else if (hashed) {
+        int new_id = hashId(token);
+        if (!insert(token, new_id))
+          throw new HashCollisionException(token, find(Math.abs(new_id)));
+        return new_id;
       } else {
-        int new_id = idToString.size() * (nt(token) ? -1 : 1);
-        idToString.add(token);
-        stringToId.put(token, new_id);
+        int new_id = limit * (nt(token) ? -1 : 1);
+        add(token, new_id);
         return new_id;
       }
     }
   }
 
-  private static boolean insert(String token, int set_id) {
-    synchronized (lock) {
-      Integer id = stringToId.get(token);
-      if (id != null) {
-        return (Math.abs(set_id) == Math.abs(id));
-      } else {
-        if (nt(token) && set_id > 0) set_id = -set_id;
-        idToString.ensureCapacity(Math.abs(set_id) + 1);
-        for (int i = idToString.size(); i <= Math.abs(set_id); ++i)
-          idToString.add(null);
-        idToString.set(Math.abs(set_id), token);
-        stringToId.put(token, set_id);
-        return true;
+  /**
+   * The id of a symbol given as a range of UTF-8 bytes. Symbols that already have ids are found
+   * without decoding them into a string.
+   */
+  public static int id(byte[] bytes, int start, int end) {
+    long hash = Utf8.hashCode(bytes, start, end);
+    if (hash != Utf8.MALFORMED) {
+      int id = frozen.id(bytes, start, end, (int) hash);
+      if (id != SymbolTable.ABSENT) return id;
+      MappedSymbolTable table = mapped;
+      if (table != null && (id = table.id(bytes, start, end, (int) hash)) != SymbolTable.ABSENT)
+        return id;
+      if (hashed) {
+        id = hashId(bytes, start, end);
+        String word = find(Math.abs(id));
+        if (word != null && Utf8.equals(word, bytes, start, end)) return id;
       }
     }
+    return id(new String(bytes, start, end - start, StandardCharsets.UTF_8));
   }
 
-  public static boolean hasId(int id) {
+  /**
+   * The id of a symbol, or SymbolTable.ABSENT if it has none yet.
+   */
+  private static int lookup(String token) {
+    // The map is read before the table: freeze() publishes the new table before the new map.
+    ConcurrentHashMap<String, Integer> since = added;
+    int id = frozen.id(token);
+    if (id != SymbolTable.ABSENT) return id;
+    MappedSymbolTable table = mapped;
+    if (table != null && (id = table.id(token)) != SymbolTable.ABSENT) return id;
+    Integer a = since.get(token);
+    return (a == null ? SymbolTable.ABSENT : a);
+  }
+
+  /**
+   * The symbol with an id of the given absolute value, or null if there is none yet.
+   */
+  private static String find(int id) {
+    ConcurrentHashMap<Integer, String> since = addedWords;
+    String word = frozen.word(id);
+    MappedSymbolTable table = mapped;
+    if (word == null && table != null) word = table.word(id);
+    return (word != null ? word : since.get(id));
+  }
+
+  // The word goes in first, so that a thread seeing the id can find the word.
+  private static void add(String token, int id) {
+    addedWords.put(Math.abs(id), token);
+    added.put(token, id);
+    if (Math.abs(id) >= limit) limit = Math.abs(id) + 1;
+  }
+
+  /**
+   * The hashed id of a symbol, from a 64-bit MurmurHash of its UTF-8 bytes: negative for
+   * nonterminals, and never the id of the unknown word.
+   */
+  public static int hashId(String token) {
+    byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+    return hashId(bytes, 0, bytes.length);
+  }
+
+  private static int hashId(byte[] bytes, int start, int end) {
+    long h = MurmurHash.hash64(bytes, start, end - start, MurmurHash.SEED_64);
+    int id = (int) (h ^ (h >>> 32)) & Integer.MAX_VALUE;
+    if (id == UNKNOWN_ID) id = 1;
+    boolean nt = (end - start > 0 && bytes[start] == '[' && bytes[end - 1] == ']');
+    return (nt ? -id : id);
+  }
+
+  /**
+   * Checks whether an id was handed out in this JVM only, rather than read from the vocabulary or
+   * hashed, so that other tasks may know the same symbol by another id.
+   */
+  public static boolean isLocal(int id) {
+    return (!hashed && Math.abs(id) >= shared);
+  }
+
+  public static boolean hashed() {
+    return hashed;
+  }
+
+  /**
+   * Checks whether the token has been assigned an id, without adding it.
+   */
+  public static boolean contains(String token) {
+    return (lookup(token) != SymbolTable.ABSENT);
+  }
+
+  private static boolean insert(String token, int set_id) {
     synchronized (lock) {
-      id = Math.abs(id);
-      return (id < idToString.size());
+      int id = lookup(token);
+      if (id != SymbolTable.ABSENT) return (Math.abs(set_id) == Math.abs(id));
+      if (hashed && find(Math.abs(set_id)) != null) return false;
+      if (nt(token) && set_id > 0) set_id = -set_id;
+      add(token, set_id);
+      return true;
     }
   }
 
+  public static boolean hasId(int id) {
+    id = Math.abs(id);
+    if (hashed) return (find(id) != null);
+    return (id < limit);
+  }
+
   public static int[] addAll(String sentence) {
-    synchronized (lock) {
-      String[] tokens = FormatUtils.P_SPACE.split(sentence);
-      int[] ids = new int[tokens.length];
-      for (int i = 0; i < tokens.length; i++)
-        ids[i] = id(tokens[i]);
-      return ids;
-    }
+    String[] tokens = FormatUtils.P_SPACE.split(sentence);
+    int[] ids = new int[tokens.length];
+    for (int i = 0; i < tokens.length; i++)
+      ids[i] = id(tokens[i]);
+    return ids;
   }
 
   public static String word(int id) {
-    synchronized (lock) {
-      id = Math.abs(id);
-      if (id >= idToString.size()) {
-        throw new UnknownSymbolException(id);
-      }
-      return idToString.get(id);
+    id = Math.abs(id);
+    String word = find(id);
+    if (word == null && hashed && pending != null) {
+      readPending();
+      word = find(id);
+    }
+    if (word == null) {
+      // Dense ids below the limit without a symbol are gaps in the vocabulary read.
+      if (hashed || id >= limit) throw new UnknownSymbolException(id);
     }
+    return word;
   }
 
   public static String getWords(int[] ids) {
@@ -293,15 +528,12 @@ public class Vocabulary {
   }
 
   public static int size() {
-    synchronized (lock) {
-      return idToString.size();
-    }
+    if (hashed) return frozen.count() + (mapped == null ? 0 : mapped.count()) + added.size();
+    return limit;
   }
   
   public static int head() {
-    synchronized (lock) {
-      return head;
-    }
+    return head;
   }
 
   public static int getTargetNonterminalIndex(int id) {
@@ -309,10 +541,17 @@ public class Vocabulary {
   }
 
   private static void clear() {
-    stringToId = new TreeMap<String, Integer>();
-    idToString = new ArrayList<String>();
-
-    idToString.add(UNKNOWN_ID, UNKNOWN_WORD);
+    loaded = null;
+    pending = null;
+    pendingConf = null;
+    frozen = SymbolTable.EMPTY;
+    mapped = null;
+    added = new ConcurrentHashMap<String, Integer>();
+    addedWords = new ConcurrentHashMap<Integer, String>();
+    limit = 0;
+    shared = 0;
+
+    add(UNKNOWN_WORD, UNKNOWN_ID);
   }
 
   /**
@@ -355,11 +594,21 @@ public class Vocabulary {
     private static final long serialVersionUID = 1L;
 
     public HashCollisionException(String first, String second) {
-      super("MurmurHash for the following symbols collides: '" + first + "', '" + second + "'");
+      super("Symbols '" + first + "' and '" + second + "' hash to the same id. Hashed ids only "
+          + "suit small vocabularies; run without thrax.hashed-vocabulary.");
     }
   }
 
   public static Iterator<String> wordIterator() {
-    return idToString.iterator();
+    List<String> words = new ArrayList<String>();
+    if (hashed) {
+      frozen.collect(words);
+      if (mapped != null) mapped.collect(words);
+      words.addAll(addedWords.values());
+    } else {
+      for (int i = 0; i < limit; i++)
+        words.add(find(i));
+    }
+    return words.iterator();
   }
 }
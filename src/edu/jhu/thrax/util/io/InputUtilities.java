@@ -4,7 +4,7 @@ import java.util.ArrayList;
 
 import edu.jhu.thrax.datatypes.AlignedSentencePair;
 import edu.jhu.thrax.datatypes.Alignment;
-import edu.jhu.thrax.datatypes.ArrayAlignment;
+import edu.jhu.thrax.datatypes.CsrAlignment;
 import edu.jhu.thrax.util.FormatUtils;
 import edu.jhu.thrax.util.Vocabulary;
 import edu.jhu.thrax.util.exceptions.MalformedInputException;
@@ -89,7 +89,16 @@ public class InputUtilities {
     int[] target_words = getWords(target, target_is_parsed);
     if (source_words.length == 0 || target_words.length == 0)
       throw new MalformedInputException("empty sentence");
-    Alignment alignment = ArrayAlignment.fromString(al.trim(), reverse);
+    Alignment alignment =
+        CsrAlignment.fromString(al.trim(), source_words.length, target_words.length, reverse);
+    return alignedSentencePair(source_words, target_words, alignment, reverse);
+  }
+
+  /**
+   * A sentence pair of the given words and alignment, if the alignment fits the words.
+   */
+  static AlignedSentencePair alignedSentencePair(int[] source_words, int[] target_words,
+      Alignment alignment, boolean reverse) throws MalformedInputException {
     if (reverse) {
       if (!alignment.consistentWith(target_words.length, source_words.length))
         throw new MalformedInputException("inconsistent alignment");
@@ -0,0 +1,228 @@
+package edu.jhu.thrax.util.io;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Text;
+
+import edu.jhu.thrax.datatypes.AlignedSentencePair;
+import edu.jhu.thrax.datatypes.Alignment;
+import edu.jhu.thrax.datatypes.CsrAlignment;
+import edu.jhu.thrax.util.FormatUtils;
+import edu.jhu.thrax.util.Vocabulary;
+import edu.jhu.thrax.util.exceptions.MalformedInputException;
+
+/**
+ * Parses lines of the unified input format on the UTF-8 bytes of a Text rather than on a decoded
+ * string. Fields are found by scanning for the delimiter, the tokens of unparsed sentences are
+ * looked up in the vocabulary by their bytes, and alignment points are read straight into an int
+ * array. Fields are split and trimmed as InputUtilities does it on strings.
+ *
+ * A parser keeps its buffers from line to line, so each mapper needs its own.
+ */
+public class SentencePairParser {
+
+  private static final byte[] DELIMITER = FormatUtils.DELIM.getBytes(StandardCharsets.UTF_8);
+
+  private byte[] bytes;
+
+  private int fields;
+  private int[] fieldStarts = new int[4];
+  private int[] fieldEnds = new int[4];
+
+  private int tokens;
+  private int[] tokenStarts = new int[64];
+  private int[] tokenEnds = new int[64];
+
+  private int[] points = new int[128];
+
+  public void set(Text line) {
+    set(line.getBytes(), line.getLength());
+  }
+
+  public void set(byte[] line, int length) {
+    bytes = line;
+    fields = 0;
+    int start = 0;
+    int p = 0;
+    while (p + DELIMITER.length <= length) {
+      if (delimiterAt(p)) {
+        addField(start, p);
+        p += DELIMITER.length;
+        start = p;
+      } else {
+        p++;
+      }
+    }
+    addField(start, length);
+    // As String.split does, drop trailing empty fields.
+    while (fields > 1 && fieldStarts[fields - 1] == fieldEnds[fields - 1])
+      fields--;
+  }
+
+  private boolean delimiterAt(int p) {
+    for (int k = 0; k < DELIMITER.length; k++)
+      if (bytes[p + k] != DELIMITER[k]) return false;
+    return true;
+  }
+
+  private void addField(int start, int end) {
+    if (fields == fieldStarts.length) {
+      fieldStarts = Arrays.copyOf(fieldStarts, 2 * fields);
+      fieldEnds = Arrays.copyOf(fieldEnds, 2 * fields);
+    }
+    fieldStarts[fields] = start;
+    fieldEnds[fields] = end;
+    fields++;
+  }
+
+  public int fields() {
+    return fields;
+  }
+
+  /**
+   * A field decoded into a string, untrimmed.
+   */
+  public String field(int i) {
+    return new String(bytes, fieldStarts[i], fieldEnds[i] - fieldStarts[i],
+        StandardCharsets.UTF_8);
+  }
+
+  /**
+   * The bytes of the line; token ranges index into them.
+   */
+  public byte[] bytes() {
+    return bytes;
+  }
+
+  /**
+   * Splits a field at whitespace and returns the number of tokens, whose ranges are then given by
+   * tokenStart and tokenEnd.
+   */
+  public int tokenize(int i) {
+    return tokenize(fieldStarts[i], fieldEnds[i]);
+  }
+
+  public int tokenStart(int k) {
+    return tokenStarts[k];
+  }
+
+  public int tokenEnd(int k) {
+    return tokenEnds[k];
+  }
+
+  private int tokenize(int start, int end) {
+    tokens = 0;
+    int p = start;
+    while (p < end) {
+      while (p < end && isSpace(bytes[p]))
+        p++;
+      if (p == end) break;
+      int token_start = p;
+      while (p < end && !isSpace(bytes[p]))
+        p++;
+      if (tokens == tokenStarts.length) {
+        tokenStarts = Arrays.copyOf(tokenStarts, 2 * tokens);
+        tokenEnds = Arrays.copyOf(tokenEnds, 2 * tokens);
+      }
+      tokenStarts[tokens] = token_start;
+      tokenEnds[tokens] = p;
+      tokens++;
+    }
+    return tokens;
+  }
+
+  // The characters \s matches.
+  private static boolean isSpace(byte b) {
+    return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+  }
+
+  private int trimmedStart(int i) {
+    int p = fieldStarts[i];
+    while (p < fieldEnds[i] && (bytes[p] & 0xFF) <= ' ')
+      p++;
+    return p;
+  }
+
+  private int trimmedEnd(int i) {
+    int p = fieldEnds[i];
+    while (p > fieldStarts[i] && (bytes[p - 1] & 0xFF) <= ' ')
+      p--;
+    return p;
+  }
+
+  /**
+   * The ids of the words of a field, which holds either a sentence or its parse tree.
+   */
+  public int[] words(int i, boolean parsed) throws MalformedInputException {
+    int start = trimmedStart(i);
+    int end = Math.max(start, trimmedEnd(i));
+    if (start == end) return new int[0];
+    if (parsed)
+      return InputUtilities.parseYield(new String(bytes, start, end - start,
+          StandardCharsets.UTF_8));
+    int n = tokenize(start, end);
+    int[] ids = new int[n];
+    for (int k = 0; k < n; k++)
+      ids[k] = Vocabulary.id(bytes, tokenStarts[k], tokenEnds[k]);
+    return ids;
+  }
+
+  /**
+   * The alignment in a field of "i-j" points between sentences of the given lengths. Tokens that
+   * are not a pair are ignored, as CsrAlignment.fromString does.
+   */
+  public CsrAlignment alignment(int i, int sourceLength, int targetLength, boolean reverse)
+      throws MalformedInputException {
+    int n = tokenize(trimmedStart(i), Math.max(trimmedStart(i), trimmedEnd(i)));
+    int count = 0;
+    for (int k = 0; k < n; k++) {
+      int start = tokenStarts[k];
+      int end = tokenEnds[k];
+      // Trailing dashes only make trailing empty parts, which splitting ignores.
+      while (end > start && bytes[end - 1] == '-')
+        end--;
+      int dash = -1;
+      boolean pair = true;
+      for (int p = start; p < end && pair; p++) {
+        if (bytes[p] != '-') continue;
+        if (dash >= 0) pair = false;
+        dash = p;
+      }
+      if (!pair || dash < 0) continue;
+      if (2 * count + 2 > points.length) points = Arrays.copyOf(points, 2 * points.length);
+      points[2 * count] = parseIndex(start, dash);
+      points[2 * count + 1] = parseIndex(dash + 1, end);
+      count++;
+    }
+    return CsrAlignment.fromPoints(points, count, sourceLength, targetLength, reverse);
+  }
+
+  private int parseIndex(int start, int end) throws MalformedInputException {
+    int p = start;
+    if (p < end && bytes[p] == '+') p++;
+    if (p == end) throw new MalformedInputException("malformed alignment");
+    long value = 0;
+    for (; p < end; p++) {
+      int digit = bytes[p] - '0';
+      if (digit < 0 || digit > 9) throw new MalformedInputException("malformed alignment");
+      value = 10 * value + digit;
+      if (value > Integer.MAX_VALUE) throw new MalformedInputException("malformed alignment");
+    }
+    return (int) value;
+  }
+
+  /**
+   * The aligned sentence pair of the line, as InputUtilities.alignedSentencePair reads it.
+   */
+  public AlignedSentencePair alignedSentencePair(boolean source_is_parsed,
+      boolean target_is_parsed, boolean reverse) throws MalformedInputException {
+    if (fields < 3) throw new MalformedInputException("not enough fields");
+    int[] source_words = words(0, source_is_parsed);
+    int[] target_words = words(1, target_is_parsed);
+    if (source_words.length == 0 || target_words.length == 0)
+      throw new MalformedInputException("empty sentence");
+    Alignment alignment = alignment(2, source_words.length, target_words.length, reverse);
+    return InputUtilities.alignedSentencePair(source_words, target_words, alignment, reverse);
+  }
+}
@@ -0,0 +1,56 @@
+package edu.jhu.thrax.datatypes;
+
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class CsrAlignmentTest
+{
+	@Test
+	public void sourceIndexIsAligned_IndexOutOfRange_returnsFalse()
+	{
+		CsrAlignment a = CsrAlignment.fromString("0-0 2-2", 3, 3, false);
+		Assert.assertFalse(a.sourceIndexIsAligned(-1));
+		Assert.assertFalse(a.sourceIndexIsAligned(3));
+		Assert.assertFalse(a.sourceIndexIsAligned(1));
+		Assert.assertTrue(a.sourceIndexIsAligned(2));
+	}
+
+	@Test
+	public void sourcePoints_SortedByTarget()
+	{
+		CsrAlignment a = CsrAlignment.fromString("1-3 1-1 0-2", 2, 4, false);
+		Assert.assertEquals(a.sourcePointsStart(1), 1);
+		Assert.assertEquals(a.sourcePointsEnd(1), 3);
+		Assert.assertEquals(a.targetIndexOfPoint(1), 1);
+		Assert.assertEquals(a.targetIndexOfPoint(2), 3);
+	}
+
+	@Test
+	public void targetPoints_SortedBySource()
+	{
+		CsrAlignment a = CsrAlignment.fromString("2-1 0-1 1-0", 3, 2, false);
+		Assert.assertEquals(a.targetPointsStart(1), 1);
+		Assert.assertEquals(a.targetPointsEnd(1), 3);
+		Assert.assertEquals(a.sourceIndexOfTargetPoint(1), 0);
+		Assert.assertEquals(a.sourceIndexOfTargetPoint(2), 2);
+	}
+
+	@Test
+	public void points_Reversed_SwapsSides()
+	{
+		CsrAlignment a = CsrAlignment.fromString("0-1 1-0", 2, 3, true);
+		Assert.assertTrue(Arrays.equals(a.points(), new int[] {0, 1, 1, 0}));
+		Assert.assertTrue(a.consistentWith(3, 2));
+		Assert.assertFalse(a.consistentWith(1, 2));
+	}
+
+	@Test
+	public void consistentWith_PointBeyondSentence_returnsFalse()
+	{
+		CsrAlignment a = CsrAlignment.fromString("0-0 5-1", 3, 3, false);
+		Assert.assertFalse(a.consistentWith(3, 3));
+		Assert.assertEquals(a.numPoints(), 1);
+	}
+}
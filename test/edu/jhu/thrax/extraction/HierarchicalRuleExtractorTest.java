@@ -0,0 +1,109 @@
+package edu.jhu.thrax.extraction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.jhu.thrax.datatypes.ArrayAlignment;
+import edu.jhu.thrax.datatypes.HierarchicalRule;
+import edu.jhu.thrax.datatypes.PackedRule;
+
+/**
+ * Checks that the visitor-based extractor finds the same rules, in the same order, as the legacy
+ * one, which thrax.legacy-extractor selects.
+ */
+public class HierarchicalRuleExtractorTest {
+
+  private static final int SENTENCES = 300;
+
+  @Test
+  public void extract_Minimal_matchesLegacy() {
+    compare(true, 1, false);
+  }
+
+  @Test
+  public void extract_Loose_matchesLegacy() {
+    compare(false, 1, false);
+  }
+
+  @Test
+  public void extract_MinimalAdjacent_matchesLegacy() {
+    compare(true, 1, true);
+  }
+
+  @Test
+  public void extract_LooseAdjacent_matchesLegacy() {
+    compare(false, 1, true);
+  }
+
+  @Test
+  public void extract_LooseWithoutAlignmentPoints_matchesLegacy() {
+    compare(false, 0, true);
+  }
+
+  private void compare(boolean minimal, int initial_alignment, boolean adjacent) {
+    Random random = new Random(minimal ? 17 : 23);
+    int rules = 0;
+    for (int n = 0; n < SENTENCES; n++) {
+      int source_length = 1 + random.nextInt(9);
+      int target_length = 1 + random.nextInt(9);
+      ArrayAlignment alignment = randomAlignment(random, source_length, target_length);
+      HierarchicalRuleExtractor extractor = new HierarchicalRuleExtractor(2, 6, 6,
+          initial_alignment, minimal, 5, 5, 1, adjacent, false, true, true, 6, 6);
+
+      List<String> legacy = new ArrayList<String>();
+      PackedRule packed = new PackedRule(0);
+      for (HierarchicalRule r : extractor.extract(source_length, target_length, alignment)) {
+        packed.set(r);
+        legacy.add(spans(packed));
+      }
+      final List<String> visited = new ArrayList<String>();
+      extractor.extract(source_length, target_length, alignment, new RuleVisitor() {
+        public void visit(PackedRule r) {
+          visited.add(spans(r));
+        }
+      });
+      Assert.assertEquals(visited, legacy, Arrays.toString(alignment.points()));
+      rules += legacy.size();
+    }
+    // Random alignments should give more than one rule per sentence pair.
+    Assert.assertTrue(rules > SENTENCES);
+  }
+
+  // Each word is aligned to up to two random words, or left unaligned a third of the time.
+  private static ArrayAlignment randomAlignment(Random random, int source_length,
+      int target_length) {
+    int[] points = new int[4 * source_length];
+    int n = 0;
+    for (int i = 0; i < source_length; i++) {
+      if (random.nextInt(3) == 0) continue;
+      int links = 1 + random.nextInt(2);
+      int first = random.nextInt(target_length);
+      points[2 * n] = i;
+      points[2 * n + 1] = first;
+      n++;
+      if (links > 1) {
+        int second = random.nextInt(target_length);
+        if (second == first) continue;
+        points[2 * n] = i;
+        points[2 * n + 1] = second;
+        n++;
+      }
+    }
+    return ArrayAlignment.fromPoints(points, n, false);
+  }
+
+  private static String spans(PackedRule r) {
+    StringBuilder sb = new StringBuilder();
+    for (int p = 0; p <= r.arity(); p++) {
+      if (p > 0) sb.append(' ');
+      sb.append(r.sourceStart(p)).append('-').append(r.sourceEnd(p)).append(':');
+      sb.append(r.targetStart(p)).append('-').append(r.targetEnd(p));
+    }
+    return sb.toString();
+  }
+}
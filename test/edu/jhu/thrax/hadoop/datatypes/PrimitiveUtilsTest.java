@@ -0,0 +1,180 @@
+package edu.jhu.thrax.hadoop.datatypes;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PrimitiveUtilsTest
+{
+	private static final int[] EDGES = { 0, 1, -1, 63, -64, 64, -65, 8191, -8192, 8192, -8193,
+			1 << 30, -(1 << 30), Integer.MAX_VALUE, Integer.MIN_VALUE };
+
+	@Test
+	public void readVarIntArray_EdgeValues_roundTrips() throws IOException
+	{
+		Assert.assertTrue(Arrays.equals(roundTrip(EDGES), EDGES));
+		Assert.assertEquals(roundTrip(new int[0]).length, 0);
+	}
+
+	@Test
+	public void readVarIntArray_RandomIds_roundTrips() throws IOException
+	{
+		Random random = new Random(0);
+		for (int n = 0; n < 1000; n++) {
+			int[] array = randomIds(random);
+			Assert.assertTrue(Arrays.equals(roundTrip(array), array), Arrays.toString(array));
+		}
+	}
+
+	@Test
+	public void writeVarIntArray_SmallIds_takeOneByte() throws IOException
+	{
+		byte[] bytes = write(new int[] { 0, 63, -64 });
+		Assert.assertEquals(bytes.length, 1 + 3);
+		Assert.assertEquals(WritableComparator.readVInt(bytes, 0), 3);
+	}
+
+	@Test
+	public void writeVarIntArray_Prefix_writesFirstElements() throws IOException
+	{
+		DataOutputBuffer out = new DataOutputBuffer();
+		PrimitiveUtils.writeVarIntArray(out, EDGES, 4);
+		DataInputBuffer in = new DataInputBuffer();
+		in.reset(out.getData(), out.getLength());
+		int[] read = PrimitiveUtils.readVarIntArray(in);
+		Assert.assertTrue(Arrays.equals(read, Arrays.copyOf(EDGES, 4)));
+	}
+
+	@Test
+	public void compareVarIntArrays_Serialized_matchesDeserialized() throws IOException
+	{
+		Random random = new Random(1);
+		for (int n = 0; n < 5000; n++) {
+			int[] a = randomIds(random);
+			int[] b = random.nextInt(4) == 0 ? a.clone() : randomIds(random);
+			if (b.length > 0 && random.nextBoolean()) b = Arrays.copyOf(b, b.length - 1);
+			byte[] x = write(a);
+			byte[] y = write(b);
+			int hx = WritableUtils.decodeVIntSize(x[0]);
+			int hy = WritableUtils.decodeVIntSize(y[0]);
+			int raw =
+					PrimitiveUtils.compareVarIntArrays(x, hx, x.length - hx, y, hy, y.length - hy);
+			Assert.assertEquals(Integer.signum(raw),
+					Integer.signum(PrimitiveUtils.compareVarIntArrays(a, b)),
+					Arrays.toString(a) + " " + Arrays.toString(b));
+		}
+	}
+
+	@Test
+	public void compareVarIntArrays_EmptyArray_sortsFirst()
+	{
+		Assert.assertTrue(PrimitiveUtils.compareVarIntArrays(new int[0], new int[] { 0 }) < 0);
+		Assert.assertTrue(PrimitiveUtils.compareVarIntArrays(new int[] { 0 }, new int[0]) > 0);
+	}
+
+	@Test
+	public void yieldComparator_SerializedRules_matchesCompareTo() throws IOException
+	{
+		Random random = new Random(2);
+		WritableComparator comparator = WritableComparator.get(RuleWritable.class);
+		RuleWritable[] rules = new RuleWritable[300];
+		byte[][] serialized = new byte[rules.length][];
+		for (int n = 0; n < rules.length; n++) {
+			if (n > 0 && random.nextInt(3) == 0) {
+				// Share a side with an earlier rule, so later fields get compared too.
+				RuleWritable earlier = rules[random.nextInt(n)];
+				rules[n] = new RuleWritable(earlier.lhs, earlier.source, randomSide(random),
+						random.nextBoolean());
+			} else {
+				rules[n] = new RuleWritable(-1 - random.nextInt(5), randomSide(random),
+						randomSide(random), random.nextBoolean());
+			}
+			serialized[n] = write(rules[n]);
+		}
+		for (int i = 0; i < rules.length; i++) {
+			for (int j = 0; j < rules.length; j++) {
+				byte[] x = serialized[i];
+				byte[] y = serialized[j];
+				int raw = comparator.compare(x, 0, x.length, y, 0, y.length);
+				Assert.assertEquals(Integer.signum(raw),
+						Integer.signum(rules[i].compareTo(rules[j])),
+						Arrays.toString(x) + " " + Arrays.toString(y));
+			}
+		}
+	}
+
+	@Test
+	public void readFields_SerializedRule_roundTrips() throws IOException
+	{
+		RuleWritable rule =
+				new RuleWritable(-3, EDGES, new int[] { -1, 5, Integer.MAX_VALUE }, false);
+		DataInputBuffer in = new DataInputBuffer();
+		byte[] bytes = write(rule);
+		in.reset(bytes, bytes.length);
+		RuleWritable read = new RuleWritable();
+		read.readFields(in);
+		Assert.assertEquals(read.lhs, rule.lhs);
+		Assert.assertTrue(Arrays.equals(read.source, rule.source));
+		Assert.assertTrue(Arrays.equals(read.target, rule.target));
+		Assert.assertEquals(read.monotone, rule.monotone);
+	}
+
+	// Mostly small terminal ids, with nonterminals, and now and then a large id of either sign.
+	private static int[] randomIds(Random random)
+	{
+		int[] array = new int[random.nextInt(6)];
+		for (int i = 0; i < array.length; i++) {
+			switch (random.nextInt(4)) {
+			case 0:
+				array[i] = -1 - random.nextInt(5);
+				break;
+			case 1:
+				array[i] = random.nextInt();
+				break;
+			default:
+				array[i] = random.nextInt(10000);
+			}
+		}
+		return array;
+	}
+
+	// Rule sides draw from few symbols, so that they often share prefixes.
+	private static int[] randomSide(Random random)
+	{
+		int[] side = new int[random.nextInt(4)];
+		for (int i = 0; i < side.length; i++) {
+			int k = random.nextInt(6);
+			side[i] = (k < 2) ? -1 - k : (k == 5 ? Integer.MAX_VALUE - k : k);
+		}
+		return side;
+	}
+
+	private static int[] roundTrip(int[] array) throws IOException
+	{
+		byte[] bytes = write(array);
+		DataInputBuffer in = new DataInputBuffer();
+		in.reset(bytes, bytes.length);
+		return PrimitiveUtils.readVarIntArray(in);
+	}
+
+	private static byte[] write(int[] array) throws IOException
+	{
+		DataOutputBuffer out = new DataOutputBuffer();
+		PrimitiveUtils.writeVarIntArray(out, array);
+		return Arrays.copyOf(out.getData(), out.getLength());
+	}
+
+	private static byte[] write(RuleWritable rule) throws IOException
+	{
+		DataOutputBuffer out = new DataOutputBuffer();
+		rule.write(out);
+		return Arrays.copyOf(out.getData(), out.getLength());
+	}
+}
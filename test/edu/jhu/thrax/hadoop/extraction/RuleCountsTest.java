@@ -0,0 +1,120 @@
+package edu.jhu.thrax.hadoop.extraction;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class RuleCountsTest
+{
+	private static final long LIMIT = 256 * 1024;
+
+	@Test
+	public void add_ManyKeys_matchesReferenceAndStaysWithinLimit()
+	{
+		ExtractionMapper.RuleCounts table = new ExtractionMapper.RuleCounts(LIMIT);
+		Random random = new Random(0);
+		byte[][] pool = new byte[20000][];
+		for (int i = 0; i < pool.length; i++) {
+			pool[i] = new byte[1 + random.nextInt(60)];
+			random.nextBytes(pool[i]);
+		}
+		Map<ByteBuffer, Integer> expected = new HashMap<ByteBuffer, Integer>();
+		Map<ByteBuffer, Integer> flushed = new HashMap<ByteBuffer, Integer>();
+		// Keys are added from the middle of a larger array, as from a rule buffer.
+		byte[] buffer = new byte[100];
+		int flushes = 0;
+		for (int n = 0; n < 200000; n++) {
+			byte[] key = pool[random.nextInt(pool.length)];
+			int start = random.nextInt(buffer.length - key.length);
+			System.arraycopy(key, 0, buffer, start, key.length);
+			int count = 1 + random.nextInt(3);
+			add(expected, ByteBuffer.wrap(key), count);
+			if (!table.add(buffer, start, key.length, count)) {
+				flushes++;
+				Map<ByteBuffer, Integer> before = contents(table);
+				Assert.assertFalse(table.add(buffer, start, key.length, count));
+				Assert.assertEquals(contents(table), before);
+				flush(table, flushed);
+				Assert.assertTrue(table.add(buffer, start, key.length, count));
+			}
+			Assert.assertTrue(table.bytes() <= LIMIT, table.bytes() + " bytes");
+		}
+		flush(table, flushed);
+		Assert.assertTrue(flushes > 1);
+		Assert.assertEquals(flushed, expected);
+	}
+
+	@Test
+	public void add_FullTable_returnsFalseLeavingTableUnchanged()
+	{
+		ExtractionMapper.RuleCounts table = new ExtractionMapper.RuleCounts(LIMIT);
+		int k = 0;
+		while (table.add(key(k), 0, 4, 1))
+			k++;
+		Map<ByteBuffer, Integer> before = contents(table);
+		int size = table.size();
+		long bytes = table.bytes();
+		Assert.assertFalse(table.add(key(k), 0, 4, 1));
+		Assert.assertEquals(table.size(), size);
+		Assert.assertEquals(table.bytes(), bytes);
+		Assert.assertEquals(contents(table), before);
+		// A key already in the table is still counted.
+		Assert.assertTrue(table.add(key(0), 0, 4, 5));
+		Assert.assertEquals(table.count(0), 6);
+	}
+
+	@Test
+	public void add_OversizedKey_takesEmptyTableOnly()
+	{
+		ExtractionMapper.RuleCounts table = new ExtractionMapper.RuleCounts(LIMIT);
+		byte[] large = new byte[(int) LIMIT + 1000];
+		new Random(1).nextBytes(large);
+		Assert.assertTrue(table.add(key(0), 0, 4, 1));
+		Assert.assertFalse(table.add(large, 0, large.length, 1));
+		table.clear();
+		Assert.assertTrue(table.add(large, 0, large.length, 1));
+		Assert.assertTrue(table.bytes() > LIMIT);
+		Assert.assertFalse(table.add(key(0), 0, 4, 1));
+		Assert.assertTrue(table.add(large, 0, large.length, 2));
+		Assert.assertEquals(table.size(), 1);
+		Assert.assertEquals(table.count(0), 3);
+		Assert.assertTrue(Arrays.equals(
+				Arrays.copyOfRange(table.keys(), table.start(0), table.start(0) + table.length(0)),
+				large));
+	}
+
+	private static byte[] key(int k)
+	{
+		return ByteBuffer.allocate(4).putInt(k).array();
+	}
+
+	private static Map<ByteBuffer, Integer> contents(ExtractionMapper.RuleCounts table)
+	{
+		Map<ByteBuffer, Integer> contents = new HashMap<ByteBuffer, Integer>();
+		for (int e = 0; e < table.size(); e++) {
+			byte[] key = Arrays.copyOfRange(table.keys(), table.start(e),
+					table.start(e) + table.length(e));
+			Assert.assertNull(contents.put(ByteBuffer.wrap(key), table.count(e)));
+		}
+		return contents;
+	}
+
+	private static void flush(ExtractionMapper.RuleCounts table, Map<ByteBuffer, Integer> into)
+	{
+		for (Map.Entry<ByteBuffer, Integer> e : contents(table).entrySet())
+			add(into, e.getKey(), e.getValue());
+		table.clear();
+		Assert.assertEquals(table.size(), 0);
+	}
+
+	private static void add(Map<ByteBuffer, Integer> map, ByteBuffer key, int count)
+	{
+		Integer old = map.get(key);
+		map.put(key, (old == null ? 0 : old) + count);
+	}
+}
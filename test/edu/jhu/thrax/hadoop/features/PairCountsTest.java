@@ -0,0 +1,78 @@
+package edu.jhu.thrax.hadoop.features;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PairCountsTest
+{
+	@Test
+	public void count_ManyPairs_matchesReferenceAndStaysWithinLimit()
+	{
+		long limit = 100 * 1024;
+		WordLexicalProbabilityCalculator.PairCounts table =
+				new WordLexicalProbabilityCalculator.PairCounts(limit);
+		Map<Long, Integer> expected = new HashMap<Long, Integer>();
+		Map<Long, Integer> flushed = new HashMap<Long, Integer>();
+		Random random = new Random(0);
+		int flushes = 0;
+		for (int n = 0; n < 200000; n++) {
+			// Word ids start at 1: the marginal of a word is counted under word 0.
+			int given = random.nextInt(300);
+			int word = 1 + random.nextInt(300);
+			add(expected, ((long) given << 32) + word, 1);
+			add(expected, (long) given << 32, 1);
+			if (!table.count(given, word)) {
+				flushes++;
+				flush(table, flushed);
+				Assert.assertTrue(table.count(given, word));
+			}
+			Assert.assertTrue(table.bytes() <= limit, table.bytes() + " bytes");
+		}
+		flush(table, flushed);
+		Assert.assertTrue(flushes > 0);
+		Assert.assertEquals(flushed, expected);
+	}
+
+	@Test
+	public void count_FullTable_returnsFalseLeavingTableUnchanged()
+	{
+		WordLexicalProbabilityCalculator.PairCounts table =
+				new WordLexicalProbabilityCalculator.PairCounts(0);
+		long bytes = table.bytes();
+		Map<Long, Integer> expected = new HashMap<Long, Integer>();
+		int word = 1;
+		while (table.count(7, word)) {
+			add(expected, (7L << 32) + word, 1);
+			add(expected, 7L << 32, 1);
+			word++;
+		}
+		int size = table.size();
+		Assert.assertFalse(table.count(7, word));
+		Assert.assertEquals(table.size(), size);
+		// A table with no room keeps its initial arrays.
+		Assert.assertEquals(table.bytes(), bytes);
+		Map<Long, Integer> flushed = new HashMap<Long, Integer>();
+		flush(table, flushed);
+		Assert.assertEquals(flushed, expected);
+		Assert.assertTrue(table.count(7, word));
+	}
+
+	private static void flush(WordLexicalProbabilityCalculator.PairCounts table,
+			Map<Long, Integer> into)
+	{
+		for (int slot = 0; slot < table.capacity(); slot++)
+			if (table.count(slot) != 0) add(into, table.pair(slot), table.count(slot));
+		table.clear();
+		Assert.assertEquals(table.size(), 0);
+	}
+
+	private static void add(Map<Long, Integer> map, long key, int count)
+	{
+		Integer old = map.get(key);
+		map.put(key, (old == null ? 0 : old) + count);
+	}
+}
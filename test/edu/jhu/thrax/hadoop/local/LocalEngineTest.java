@@ -0,0 +1,186 @@
+package edu.jhu.thrax.hadoop.local;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.map.TokenCounterMapper;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.mapreduce.lib.reduce.IntSumReducer;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class LocalEngineTest
+{
+	private static final int NUM_REDUCERS = 3;
+
+	private File dir;
+
+	@BeforeClass
+	public void writeInput() throws IOException
+	{
+		dir = Files.createTempDirectory("local-engine-test").toFile();
+		File input = new File(dir, "input");
+		input.mkdir();
+		Random random = new Random(0);
+		// Enough map output per split to overflow a 1 MB sort buffer.
+		for (int i = 0; i < 3; i++) {
+			PrintWriter out = new PrintWriter(new FileWriter(new File(input, "part-" + i)));
+			for (int line = 0; line < 8000; line++) {
+				for (int w = 0; w < 10; w++)
+					out.print("w" + random.nextInt(5000) + " ");
+				out.println();
+			}
+			out.close();
+		}
+	}
+
+	@AfterClass
+	public void deleteOutput()
+	{
+		FileUtil.fullyDelete(dir);
+	}
+
+	@Test
+	public void run_SpillsAndMerges_matchesLocalJobRunner() throws Exception
+	{
+		Configuration conf = new Configuration();
+		conf.set("fs.defaultFS", "file:///");
+		conf.set("mapreduce.framework.name", "local");
+		conf.setInt("thrax.local.threads", 2);
+		conf.setInt("thrax.local.sort-mb", 1);
+		conf.setInt("thrax.local.memory-mb", 0);
+		conf.setInt("thrax.local.merge-factor", 2);
+		conf.set("thrax.local.spill-dir", dir.getPath());
+
+		Assert.assertTrue(wordCount(conf, "hadoop").waitForCompletion(false));
+		new LocalEngine(conf).run(wordCount(conf, "local"));
+
+		for (int p = 0; p < NUM_REDUCERS; p++) {
+			String part = String.format("part-r-%05d", p);
+			byte[] expected = Files.readAllBytes(new File(dir, "hadoop/" + part).toPath());
+			byte[] actual = Files.readAllBytes(new File(dir, "local/" + part).toPath());
+			Assert.assertTrue(expected.length > 0);
+			Assert.assertEquals(actual, expected, part);
+		}
+		Assert.assertTrue(new File(dir, "local/_SUCCESS").exists());
+	}
+
+	@Test
+	public void run_FailingMapTask_abortsEveryTask() throws Exception
+	{
+		Job job = wordCount(localConf(), "failed-map");
+		job.setMapperClass(FailingMapper.class);
+		job.setNumReduceTasks(0);
+		assertAborted(job, "failed-map");
+	}
+
+	@Test
+	public void run_FailingReduceTask_abortsEveryTask() throws Exception
+	{
+		Job job = wordCount(localConf(), "failed-reduce");
+		job.setReducerClass(FailingReducer.class);
+		assertAborted(job, "failed-reduce");
+	}
+
+	@Test
+	public void run_FailingJobCommit_abortsEveryTask() throws Exception
+	{
+		Job job = wordCount(localConf(), "failed-commit");
+		job.setOutputFormatClass(FailingCommitOutputFormat.class);
+		assertAborted(job, "failed-commit");
+	}
+
+	private void assertAborted(Job job, String output) throws Exception
+	{
+		try {
+			new LocalEngine(job.getConfiguration()).run(job);
+			Assert.fail("The job did not fail");
+		} catch (Exception e) {
+			Throwable cause = (e instanceof IOException ? e.getCause() : e);
+			Assert.assertTrue(cause instanceof IllegalStateException, e.toString());
+		}
+		// Tasks that finished before the failure are aborted too, so nothing is left.
+		String[] left = new File(dir, output).list();
+		Assert.assertTrue(left == null || left.length == 0, Arrays.toString(left));
+	}
+
+	private Configuration localConf()
+	{
+		Configuration conf = new Configuration();
+		conf.set("fs.defaultFS", "file:///");
+		conf.setInt("thrax.local.threads", 1);
+		conf.set("thrax.local.spill-dir", dir.getPath());
+		return conf;
+	}
+
+	// Fails on the last input file, after the others were mapped.
+	public static class FailingMapper extends TokenCounterMapper
+	{
+		protected void setup(Context context)
+		{
+			if (((FileSplit) context.getInputSplit()).getPath().getName().equals("part-2"))
+				throw new IllegalStateException("map task failed");
+		}
+	}
+
+	// Fails in the second of the three reducers.
+	public static class FailingReducer
+			extends Reducer<Text, IntWritable, Text, IntWritable>
+	{
+		protected void setup(Context context)
+		{
+			if (context.getTaskAttemptID().getTaskID().getId() == 1)
+				throw new IllegalStateException("reduce task failed");
+		}
+	}
+
+	// Fails to commit the job, after every task committed its output.
+	public static class FailingCommitOutputFormat extends TextOutputFormat<Text, IntWritable>
+	{
+		public synchronized OutputCommitter getOutputCommitter(TaskAttemptContext context)
+				throws IOException
+		{
+			return new FileOutputCommitter(getOutputPath(context), context) {
+				public void commitJob(JobContext job)
+				{
+					throw new IllegalStateException("job commit failed");
+				}
+			};
+		}
+	}
+
+	private Job wordCount(Configuration conf, String output) throws IOException
+	{
+		Job job = Job.getInstance(conf, output);
+		job.setMapperClass(TokenCounterMapper.class);
+		job.setCombinerClass(IntSumReducer.class);
+		job.setReducerClass(IntSumReducer.class);
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(IntWritable.class);
+		job.setNumReduceTasks(NUM_REDUCERS);
+		FileInputFormat.setInputPaths(job, new Path(dir.getPath(), "input"));
+		FileOutputFormat.setOutputPath(job, new Path(dir.getPath(), output));
+		return job;
+	}
+}
@@ -0,0 +1,176 @@
+package edu.jhu.thrax.lexprob;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class MappedLexprobTableTest
+{
+	// The conditioning words of each shard, with a gap between the first two.
+	private static final int[][] RANGES = { { 0, 99 }, { 150, 199 }, { 200, 299 } };
+
+	private Map<Long, Float> pairs;
+	private MappedLexprobTable table;
+
+	@BeforeClass
+	public void writeTable() throws IOException
+	{
+		pairs = new HashMap<Long, Float>();
+		Random random = new Random(0);
+		File dir = directory();
+		for (int s = 0; s < RANGES.length; s++) {
+			MappedLexprobTable.Writer writer = writer(dir, s);
+			for (int car = RANGES[s][0]; car <= RANGES[s][1]; car++) {
+				// Every shard holds its first and last words; others only some of the time.
+				if (car != RANGES[s][0] && car != RANGES[s][1] && random.nextInt(3) == 0)
+					continue;
+				for (int n = 0; n < 20; n++) {
+					// Target words include nonterminals, which have negative ids.
+					int cdr = random.nextInt(1000) - 100;
+					if (pairs.containsKey(key(car, cdr))) continue;
+					float probability = random.nextFloat();
+					pairs.put(key(car, cdr), probability);
+					writer.add(car, cdr, probability);
+				}
+			}
+			writer.close();
+		}
+		// A reducer given no words writes an empty shard.
+		writer(dir, RANGES.length).close();
+		table = open(dir);
+	}
+
+	@Test
+	public void get_EveryPair_findsItsProbability()
+	{
+		for (Map.Entry<Long, Float> e : pairs.entrySet()) {
+			int car = (int) (e.getKey() >> 32);
+			int cdr = (int) (long) e.getKey();
+			Assert.assertEquals(table.get(car, cdr), (float) e.getValue(), car + " " + cdr);
+			Assert.assertTrue(table.contains(car, cdr), car + " " + cdr);
+		}
+	}
+
+	@Test
+	public void get_ShardBoundaries_findsPairs()
+	{
+		for (int[] range : RANGES) {
+			Assert.assertTrue(hasPairs(range[0]), "" + range[0]);
+			Assert.assertTrue(hasPairs(range[1]), "" + range[1]);
+		}
+		// Just outside a shard, where no shard holds the word.
+		Assert.assertFalse(hasPairs(-1));
+		Assert.assertFalse(hasPairs(100));
+		Assert.assertFalse(hasPairs(149));
+		Assert.assertFalse(hasPairs(300));
+	}
+
+	@Test
+	public void get_MissingPair_isZero()
+	{
+		for (int car = -5; car < 310; car++) {
+			for (int cdr = -200; cdr < 1000; cdr += 7) {
+				if (pairs.containsKey(key(car, cdr))) continue;
+				Assert.assertEquals(table.get(car, cdr), 0f, car + " " + cdr);
+				Assert.assertFalse(table.contains(car, cdr), car + " " + cdr);
+			}
+		}
+		Assert.assertFalse(table.contains(Integer.MAX_VALUE, 1));
+		Assert.assertFalse(table.contains(Integer.MIN_VALUE, 1));
+	}
+
+	@Test
+	public void open_EmptyTable_findsNothing() throws IOException
+	{
+		File dir = directory();
+		writer(dir, 0).close();
+		MappedLexprobTable empty = open(dir);
+		Assert.assertFalse(empty.contains(0, 0));
+		Assert.assertEquals(empty.get(1, 2), 0f);
+	}
+
+	@Test
+	public void open_OtherVersion_throwsException() throws IOException
+	{
+		File dir = directory();
+		MappedLexprobTable.Writer writer = writer(dir, 0);
+		writer.add(1, 2, 0.5f);
+		writer.close();
+		RandomAccessFile raf = new RandomAccessFile(new File(dir,
+				MappedLexprobTable.shardName(new Path(dir.getPath()), 0)), "rw");
+		try {
+			raf.seek(4);
+			raf.writeInt(2);
+		} finally {
+			raf.close();
+		}
+		try {
+			open(dir);
+			Assert.fail("No exception for a table of version 2");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage().contains("version"), e.getMessage());
+		}
+	}
+
+	@Test(expectedExceptions = { IOException.class })
+	public void open_OverlappingShards_throwsException() throws IOException
+	{
+		File dir = directory();
+		MappedLexprobTable.Writer writer = writer(dir, 0);
+		writer.add(1, 2, 0.5f);
+		writer.add(10, 2, 0.5f);
+		writer.close();
+		writer = writer(dir, 1);
+		writer.add(10, 3, 0.5f);
+		writer.close();
+		open(dir);
+	}
+
+	@Test(expectedExceptions = { IllegalArgumentException.class })
+	public void writerAdd_NegativeCar_throwsException() throws IOException
+	{
+		writer(directory(), 0).add(-1, 2, 0.5f);
+	}
+
+	private boolean hasPairs(int car)
+	{
+		boolean found = false;
+		for (int cdr = -100; cdr < 900; cdr++)
+			if (table.contains(car, cdr)) found = true;
+		return found;
+	}
+
+	private static long key(int car, int cdr)
+	{
+		return ((long) car << 32) | (cdr & 0xFFFFFFFFL);
+	}
+
+	private static File directory() throws IOException
+	{
+		File dir = File.createTempFile("lexprob", "");
+		Assert.assertTrue(dir.delete() && dir.mkdir());
+		dir.deleteOnExit();
+		return dir;
+	}
+
+	private static MappedLexprobTable.Writer writer(File dir, int partition) throws IOException
+	{
+		File file = new File(dir, MappedLexprobTable.shardName(new Path(dir.getPath()), partition));
+		file.deleteOnExit();
+		return new MappedLexprobTable.Writer(file);
+	}
+
+	private static MappedLexprobTable open(File dir) throws IOException
+	{
+		return MappedLexprobTable.open(new Configuration(), dir.getPath());
+	}
+}
@@ -0,0 +1,144 @@
+package edu.jhu.thrax.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class MappedSymbolTableTest
+{
+	// Two characters with the hash code of the surrogate pair for U+1F600, neither a surrogate.
+	private static final String EMOJI = "\uD83D\uDE00";
+	private static final String EMOJI_COLLISION = "\uD7FF\uE582";
+
+	private Map<Integer, String> symbols;
+	private MappedSymbolTable table;
+
+	@BeforeClass
+	public void writeTable() throws IOException
+	{
+		symbols = new TreeMap<Integer, String>();
+		symbols.put(1, "the");
+		symbols.put(2, "[X]");
+		symbols.put(3, "Aa");
+		symbols.put(4, "BB");
+		symbols.put(5, "AaAa");
+		symbols.put(6, "BBBB");
+		symbols.put(7, "AaBB");
+		symbols.put(8, "caf\u00E9");
+		symbols.put(9, "\u4E2D\u6587");
+		// Ids need not be dense.
+		symbols.put(12, EMOJI);
+		symbols.put(40, EMOJI_COLLISION);
+		symbols.put(41, "a\uD840\uDC00b");
+		symbols.put(100, "[X,1]");
+		table = map(symbols);
+	}
+
+	@Test
+	public void collisions_AreCollisions()
+	{
+		Assert.assertEquals("Aa".hashCode(), "BB".hashCode());
+		Assert.assertEquals("AaAa".hashCode(), "BBAa".hashCode());
+		Assert.assertEquals(EMOJI.hashCode(), EMOJI_COLLISION.hashCode());
+		Assert.assertEquals(EMOJI.getBytes(StandardCharsets.UTF_8).length, 4);
+	}
+
+	@Test
+	public void id_EverySymbol_findsItsId()
+	{
+		for (Map.Entry<Integer, String> e : symbols.entrySet()) {
+			int id = Vocabulary.nt(e.getValue()) ? -e.getKey() : e.getKey();
+			Assert.assertEquals(table.id(e.getValue()), id, e.getValue());
+		}
+	}
+
+	@Test
+	public void id_EverySymbolAsBytes_findsItsId()
+	{
+		for (Map.Entry<Integer, String> e : symbols.entrySet()) {
+			String token = e.getValue();
+			int id = Vocabulary.nt(token) ? -e.getKey() : e.getKey();
+			// Surrounded by other bytes, as in a line of input.
+			byte[] bytes = ("x " + token + " y").getBytes(StandardCharsets.UTF_8);
+			int length = token.getBytes(StandardCharsets.UTF_8).length;
+			Assert.assertEquals(table.id(bytes, 2, 2 + length, token.hashCode()), id, token);
+		}
+	}
+
+	@Test
+	public void word_EveryId_findsItsSymbol()
+	{
+		for (Map.Entry<Integer, String> e : symbols.entrySet())
+			Assert.assertEquals(table.word(e.getKey()), e.getValue());
+		// Decoded symbols are kept, and come back the same.
+		Assert.assertEquals(table.word(12), EMOJI);
+	}
+
+	@Test
+	public void word_MissingId_isNull()
+	{
+		Assert.assertNull(table.word(0));
+		Assert.assertNull(table.word(10));
+		Assert.assertNull(table.word(99));
+		Assert.assertNull(table.word(101));
+	}
+
+	@Test
+	public void id_MissingSymbolWithSharedHash_isAbsent()
+	{
+		String[] missing = { "BBAa", "\uD7FE\uE5A1", "ca", "\uD83D\uDE01", "a\uD840\uDC00" };
+		Assert.assertEquals("\uD7FE\uE5A1".hashCode(), EMOJI.hashCode());
+		for (String token : missing) {
+			Assert.assertEquals(table.id(token), SymbolTable.ABSENT, token);
+			byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+			Assert.assertEquals(table.id(bytes, 0, bytes.length, token.hashCode()),
+					SymbolTable.ABSENT, token);
+		}
+	}
+
+	@Test
+	public void collect_Table_givesEverySymbol()
+	{
+		Set<String> collected = new HashSet<String>();
+		table.collect(collected);
+		Assert.assertEquals(collected, new HashSet<String>(symbols.values()));
+		Assert.assertEquals(table.count(), symbols.size());
+		Assert.assertEquals(table.limit(), 101);
+	}
+
+	@Test
+	public void map_EmptyTable_findsNothing() throws IOException
+	{
+		MappedSymbolTable empty = map(new TreeMap<Integer, String>());
+		Assert.assertEquals(empty.count(), 0);
+		Assert.assertEquals(empty.id("the"), SymbolTable.ABSENT);
+		Assert.assertNull(empty.word(1));
+	}
+
+	@Test(expectedExceptions = { IllegalArgumentException.class })
+	public void writerAdd_IdOutOfOrder_throwsException() throws IOException
+	{
+		MappedSymbolTable.Writer writer = new MappedSymbolTable.Writer(new ByteArrayOutputStream());
+		writer.add(5, "the");
+		writer.add(5, "[X]");
+	}
+
+	private static MappedSymbolTable map(Map<Integer, String> symbols) throws IOException
+	{
+		File file = File.createTempFile("vocabulary", ".bin");
+		file.deleteOnExit();
+		MappedSymbolTable.write(new FileOutputStream(file), symbols);
+		Assert.assertTrue(MappedSymbolTable.isBinary(file));
+		return MappedSymbolTable.map(file);
+	}
+}
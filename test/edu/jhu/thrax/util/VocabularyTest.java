@@ -0,0 +1,72 @@
+package edu.jhu.thrax.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class VocabularyTest
+{
+	@AfterMethod
+	public void reset()
+	{
+		Vocabulary.initialize(new Configuration(false));
+	}
+
+	@Test
+	public void id_Hashed_isHashId()
+	{
+		Vocabulary.initialize(hashed());
+		Assert.assertTrue(Vocabulary.hashed());
+		Assert.assertEquals(Vocabulary.id("the"), Vocabulary.hashId("the"));
+		Assert.assertTrue(Vocabulary.id("[NP]") < 0);
+		Assert.assertEquals(Vocabulary.word(Vocabulary.id("the")), "the");
+	}
+
+	@Test
+	public void id_HashedCollision_throwsException()
+	{
+		String[] pair = collision();
+		Vocabulary.initialize(hashed());
+		Vocabulary.id(pair[0]);
+		try {
+			Vocabulary.id(pair[1]);
+			Assert.fail("No exception for " + pair[0] + " and " + pair[1]);
+		} catch (Vocabulary.HashCollisionException e) {
+			Assert.assertTrue(e.getMessage().contains("thrax.hashed-vocabulary"), e.getMessage());
+		}
+		// The first symbol keeps its id.
+		Assert.assertEquals(Vocabulary.word(Vocabulary.hashId(pair[0])), pair[0]);
+	}
+
+	@Test
+	public void id_Dense_countsUp()
+	{
+		Vocabulary.initialize(new Configuration(false));
+		int head = Vocabulary.head();
+		Assert.assertEquals(Vocabulary.id("the"), head);
+		Assert.assertEquals(Vocabulary.id("[NP]"), -(head + 1));
+		Assert.assertEquals(Vocabulary.id("the"), head);
+	}
+
+	private static Configuration hashed()
+	{
+		Configuration conf = new Configuration(false);
+		conf.setBoolean("thrax.hashed-vocabulary", true);
+		return conf;
+	}
+
+	// Two words with the same hashed id; by the birthday bound, some tens of thousands suffice.
+	private static String[] collision()
+	{
+		Map<Integer, String> seen = new HashMap<Integer, String>();
+		for (int i = 0;; i++) {
+			String word = "w" + i;
+			String other = seen.put(Vocabulary.hashId(word), word);
+			if (other != null) return new String[] { other, word };
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package edu.jhu.thrax.util.io;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import edu.jhu.thrax.datatypes.AlignedSentencePair;
+import edu.jhu.thrax.util.Vocabulary;
+import edu.jhu.thrax.util.exceptions.MalformedInputException;
+
+public class SentencePairParserTest
+{
+    @BeforeClass
+    public void initialize()
+    {
+        Vocabulary.initialize(new Configuration(false));
+    }
+
+    @Test
+    public void alignedSentencePair_WellFormedLines_MatchesInputUtilities()
+    {
+        String[] lines = {
+            "the dog ||| le chien ||| 0-0 1-1",
+            "the dog ||| le chien ||| 0-0 1-1 ||| more ||| fields",
+            "   the dog\t ||| \tle chien   ||| \t0-0 1-1  ",
+            "the   big\tdog ||| le  grand chien ||| 0-0 1-1 2-2 1-2",
+            // Fields after the alignment may be empty, and are dropped if trailing.
+            "the dog ||| le chien ||| 0-0 ||| ",
+            "the dog ||| le chien ||| 0-0 |||  ||| ",
+            // An empty alignment, and tokens of it that are not a pair.
+            "the dog ||| le chien |||  ||| labels",
+            "the dog ||| le chien ||| \t ||| labels",
+            "the dog ||| le chien ||| 0 0-1-1 1- 1--0 -1-0 x +1-+0",
+            // Delimiters need a space on either side.
+            "a|||b c ||| d ||| 0-0 1-0",
+            "a ||| b |||c ||| 0-0 0-1",
+            // Multi-byte UTF-8, including a character outside the Basic Multilingual Plane and a
+            // no-break space, which is not whitespace.
+            "caf\u00E9 \u4E2D\u6587 ||| \uD83D\uDE00 a\u00A0b ||| 0-0 1-1",
+            "\u00E9\u00E9\u00E9 ||| \u0416 ||| 0-0",
+        };
+        for (String line : lines) {
+            for (boolean reverse : new boolean[] { false, true })
+                Assert.assertEquals(parse(line, false, false, reverse),
+                        expected(line, false, false, reverse), line);
+        }
+    }
+
+    @Test
+    public void alignedSentencePair_ParsedLines_MatchesInputUtilities()
+    {
+        String[] lines = {
+            "(S (NP (DT the) (NN dog)) (VP barks)) ||| le chien aboie ||| 0-0 1-1 2-2",
+            "  (S (NP caf\u00E9) (VP \u4E2D\u6587))  ||| a b ||| 1-1",
+        };
+        for (String line : lines)
+            Assert.assertEquals(parse(line, true, false, false),
+                    expected(line, true, false, false), line);
+        String line = "le chien ||| (S (NP (DT the) (NN dog))) ||| 0-0 1-1";
+        Assert.assertEquals(parse(line, false, true, true), expected(line, false, true, true));
+    }
+
+    @Test
+    public void alignedSentencePair_MalformedLines_RaiseSameErrors()
+    {
+        String[] lines = {
+            "",
+            "the dog",
+            "the dog ||| le chien",
+            "the dog ||| le chien ||| ",
+            "the dog ||| le chien |||",
+            "the dog |||  ||| 0-0",
+            " ||| le chien ||| 0-0",
+            "\t ||| \t ||| 0-0",
+            "the dog|||le chien|||0-0",
+            // Points out of range of the sentences.
+            "the dog ||| le chien ||| 2-0",
+            "the dog ||| le chien ||| 0-2",
+            "the dog ||| le ||| 1-0 0-1",
+            // Malformed parses.
+            "the dog) ||| le chien ||| 0-0",
+        };
+        for (String line : lines) {
+            boolean parsed = line.contains("(") || line.contains(")");
+            String expected = expected(line, parsed, false, false);
+            Assert.assertTrue(expected.startsWith("MalformedInputException"),
+                    line + ": " + expected);
+            Assert.assertEquals(parse(line, parsed, false, false), expected, line);
+        }
+        // Points index the sentences as written, whichever way the pair is returned.
+        String line = "the dog ||| le ||| 0-1";
+        Assert.assertEquals(parse(line, false, false, true), expected(line, false, false, true));
+        Assert.assertEquals(parse(line, false, false, true),
+                "MalformedInputException: inconsistent alignment");
+    }
+
+    @Test
+    public void alignedSentencePair_MalformedPoints_RaiseMalformedInput()
+    {
+        // InputUtilities lets Integer.parseInt throw on these; the byte parser reports them as
+        // malformed input, which the mappers count and skip.
+        String[] lines = {
+            "the dog ||| le chien ||| a-0",
+            "the dog ||| le chien ||| 0-b",
+            "the dog ||| le chien ||| -1",
+            "the dog ||| le chien ||| -0-",
+            "the dog ||| le chien ||| 0-99999999999",
+            "the dog ||| le chien ||| 0-+",
+        };
+        for (String line : lines) {
+            Assert.assertEquals(expected(line, false, false, false),
+                    "NumberFormatException", line);
+            Assert.assertEquals(parse(line, false, false, false),
+                    "MalformedInputException: malformed alignment", line);
+        }
+        // Integer.parseInt reads digits of any script; the byte parser reads only ASCII digits.
+        String line = "the dog ||| le chien ||| 0-0 1-\u0661";
+        Assert.assertEquals(expected(line, false, false, false),
+                expected("the dog ||| le chien ||| 0-0 1-1", false, false, false));
+        Assert.assertEquals(parse(line, false, false, false),
+                "MalformedInputException: malformed alignment");
+    }
+
+    // The outcome of reading a line with InputUtilities.
+    private static String expected(String line, boolean sourceParsed, boolean targetParsed,
+            boolean reverse)
+    {
+        try {
+            return describe(InputUtilities.alignedSentencePair(line, sourceParsed, targetParsed,
+                    reverse));
+        } catch (MalformedInputException e) {
+            return "MalformedInputException: " + e.getMessage();
+        } catch (NumberFormatException e) {
+            return "NumberFormatException";
+        }
+    }
+
+    // The outcome of reading a line with a SentencePairParser, from within a larger buffer as
+    // Text holds it.
+    private static String parse(String line, boolean sourceParsed, boolean targetParsed,
+            boolean reverse)
+    {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        byte[] buffer = Arrays.copyOf(bytes, bytes.length + 16);
+        Arrays.fill(buffer, bytes.length, buffer.length, (byte) '9');
+        SentencePairParser parser = new SentencePairParser();
+        parser.set(buffer, bytes.length);
+        try {
+            return describe(parser.alignedSentencePair(sourceParsed, targetParsed, reverse));
+        } catch (MalformedInputException e) {
+            return "MalformedInputException: " + e.getMessage();
+        }
+    }
+
+    private static String describe(AlignedSentencePair pair)
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(Arrays.toString(pair.source)).append(" ").append(Arrays.toString(pair.target));
+        for (int k = 0; k < pair.alignment.numPoints(); k++)
+            sb.append(" ").append(pair.alignment.sourceIndexOfPoint(k)).append("-")
+                    .append(pair.alignment.targetIndexOfPoint(k));
+        return sb.toString();
+    }
+}